@@ -11,6 +11,7 @@ if ($Ga2Host -eq "IP_A" -or [string]::IsNullOrWhiteSpace($Ga2Host)) {
 
 $env:GA_BIND_HOST="0.0.0.0"; $env:GA_PORT="6057"
 $env:GA2_HOST=$Ga2Host;      $env:GA2_ROUTER_PORT="6070"; $env:GA2_REP_PORT="6080"
+$env:GA2_REPL_PORT="6090";   $env:GA2_REPL_ACK_PORT="6091"
 $env:R_BOOK_DB="data/replica/books.csv"
 $env:R_LOANS_PATH="data/replica/loans.csv"
 $env:R_PENDING_LOG="data/replica/pending.log"
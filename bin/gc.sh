@@ -3,7 +3,10 @@ set -euo pipefail
 source "$(dirname "$0")/env.sh"
 
 ACTOR_HOST="${1:-127.0.0.1}" # IP del front (C) donde corren actores
+GA_HOST="${2:-127.0.0.1}" # IP de la réplica (B), atiende las consultas de solo lectura
 
 GC_BIND_HOST=0.0.0.0 GC_PS_PORT=6055 GC_PUB_PORT=6060 \
 ACTOR_HOST="$ACTOR_HOST" ACTOR_PORT=6056 \
+GA_HOST="$GA_HOST" GA_PORT=6057 \
+SHARDS="${SHARDS:-}" \
 java -cp "$CP" org.example.front.LoadBalancer
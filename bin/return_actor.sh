@@ -9,4 +9,5 @@ GC_HOST="${3:-127.0.0.1}" # IP del front (C)
 GA_HOST="$GA_HOST" GA_PORT=6057 \
 GA2_HOST="$GA2_HOST" GA2_PORT=6080 \
 GC_HOST="$GC_HOST" GC_PUB_PORT=6060 \
+SHARDS="${SHARDS:-}" \
 java -cp "$CP" org.example.actor.ReturnRenewalActor
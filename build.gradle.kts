@@ -20,3 +20,26 @@ dependencies {
 tasks.test {
     useJUnitPlatform()
 }
+
+// Benchmarks JMH en src/jmh/java: ./gradlew jmh [-PjmhArgs="CommandRouter -f 1"]
+sourceSets {
+    create("jmh") {
+        compileClasspath += sourceSets.main.get().output
+        runtimeClasspath += sourceSets.main.get().output
+    }
+}
+
+configurations["jmhImplementation"].extendsFrom(configurations.implementation.get())
+
+dependencies {
+    "jmhImplementation"("org.openjdk.jmh:jmh-core:1.37")
+    "jmhAnnotationProcessor"("org.openjdk.jmh:jmh-generator-annprocess:1.37")
+}
+
+tasks.register<JavaExec>("jmh") {
+    group = "benchmark"
+    description = "Ejecuta los benchmarks JMH"
+    classpath = sourceSets["jmh"].runtimeClasspath
+    mainClass.set("org.openjdk.jmh.Main")
+    args((findProperty("jmhArgs") as String? ?: "").split(" ").filter { it.isNotBlank() })
+}
@@ -0,0 +1,193 @@
+package org.example.storage;
+
+import org.example.util.Envelope;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.Comparator;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+/**
+ * Línea base del almacenamiento: {@code handleAvailability}, {@code handleReturn},
+ * {@code handleRenewal} (vía {@link StorageReplica#mutar}) y {@link StorageReplica#aplicarCambioDesdeLog}
+ * sobre catálogos de 1k, 100k y 1M libros, con el backend CSV (en memoria) y el mmap.
+ *
+ * Los IDs pares están prestados (un préstamo por libro) y los impares disponibles. Cada invocación
+ * es un ciclo que deja el libro como estaba (préstamo + devolución, ...), así el estado no deriva
+ * entre iteraciones; {@link OperationsPerInvocation} reparte el tiempo por operación. Los hilos usan
+ * porciones disjuntas del catálogo: las variantes concurrentes miden la contención en el WAL y en las
+ * tablas (como las particiones de GA2), no carreras sobre el mismo libro.
+ *
+ * El WAL usa durabilidad SO (sin fsync) para medir el camino de CPU; cada iteración termina con un
+ * checkpoint que descarta el WAL acumulado. Tasa de asignación: {@code -prof gc}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+public class StorageBenchmark {
+
+    private static final int MAX_HILOS = 16;
+    // Solicitudes precalculadas por hilo (potencia de dos)
+    private static final int POR_HILO = 1024;
+
+    @Param({"1000", "100000", "1000000"})
+    public int libros;
+
+    @Param({"csv", "mmap"})
+    public String backend;
+
+    private Path directorio;
+    private LibraryStore store;
+    private StorageReplica replica;
+    private final AtomicInteger hilos = new AtomicInteger();
+
+    @Setup(Level.Trial)
+    public void preparar() throws IOException {
+        directorio = Files.createTempDirectory("storage-bench");
+        Path librosCsv = directorio.resolve("books.csv");
+        Path prestamosCsv = directorio.resolve("loans.csv");
+        LocalDate hoy = LocalDate.now();
+        try (BufferedWriter libro = Files.newBufferedWriter(librosCsv, StandardCharsets.UTF_8);
+             BufferedWriter prestamo = Files.newBufferedWriter(prestamosCsv, StandardCharsets.UTF_8)) {
+            for (long id = 1; id <= libros; id++) {
+                boolean prestado = id % 2 == 0;
+                libro.write(id + ", Titulo " + id + ", Autor " + (id % 997) + ", " + (prestado ? "PRESTADO" : "DISPONIBLE"));
+                libro.newLine();
+                if (prestado) {
+                    prestamo.write(id + ", " + hoy + ", " + hoy.plusDays(14) + ", 1");
+                    prestamo.newLine();
+                }
+            }
+        }
+        BookCatalog catalogo = BookCatalog.abrir(backend, librosCsv.toString(), directorio.resolve("books.bin").toString());
+        store = LibraryStore.abrir(catalogo, prestamosCsv.toString(), directorio.resolve("wal.log").toString(),
+            WriteAheadLog.Durabilidad.SO, 0);
+        replica = new StorageReplica(store);
+    }
+
+    @TearDown(Level.Iteration)
+    public void checkpoint() throws IOException {
+        store.checkpoint();
+    }
+
+    @TearDown(Level.Trial)
+    public void cerrar() throws IOException {
+        store.cerrar();
+        try (Stream<Path> archivos = Files.walk(directorio)) {
+            for (Path archivo : (Iterable<Path>) archivos.sorted(Comparator.reverseOrder())::iterator) {
+                Files.deleteIfExists(archivo);
+            }
+        }
+    }
+
+    /**
+     * Solicitudes de un hilo sobre su porción del catálogo: libros disponibles (impares) para los
+     * ciclos y prestados (pares) para los rechazos.
+     */
+    @State(Scope.Thread)
+    public static class Hilo {
+        final Envelope[] prestamos = new Envelope[POR_HILO];
+        final Envelope[] devoluciones = new Envelope[POR_HILO];
+        final Envelope[] renovaciones = new Envelope[POR_HILO];
+        final Envelope[] rechazados = new Envelope[POR_HILO];
+        final String[] cambiosPrestamo = new String[POR_HILO];
+        final String[] cambiosDevolucion = new String[POR_HILO];
+        private int indice;
+
+        @Setup(Level.Trial)
+        public void preparar(StorageBenchmark benchmark) {
+            int hilo = benchmark.hilos.getAndIncrement() % MAX_HILOS;
+            int porcion = Math.max(1, benchmark.libros / 2 / MAX_HILOS);
+            SplittableRandom azar = new SplittableRandom(hilo);
+            for (int i = 0; i < POR_HILO; i++) {
+                long k = hilo + (long) MAX_HILOS * azar.nextInt(porcion);
+                long disponible = 2 * k + 1;
+                long prestado = 2 * k + 2;
+                prestamos[i] = Envelope.solicitud(Envelope.PRESTAMO, disponible, i);
+                devoluciones[i] = Envelope.solicitud(Envelope.DEVOLVER, disponible, i);
+                renovaciones[i] = Envelope.solicitud(Envelope.RENOVAR, disponible, i);
+                rechazados[i] = Envelope.solicitud(Envelope.PRESTAMO, prestado, i);
+                cambiosPrestamo[i] = (i + 1) + ", 2025-11-19 10:30:00, PRESTAMO, ID=" + disponible;
+                cambiosDevolucion[i] = (i + 1) + ", 2025-11-19 10:30:00, DEVOLUCION, ID=" + disponible;
+            }
+        }
+
+        int siguiente() {
+            indice = (indice + 1) & (POR_HILO - 1);
+            return indice;
+        }
+    }
+
+    // handleAvailability (DISPONIBLE -> PRESTADO + préstamo) y handleReturn
+    @Benchmark
+    @OperationsPerInvocation(2)
+    public Envelope prestamoDevolucion(Hilo hilo) {
+        int i = hilo.siguiente();
+        replica.mutar(hilo.prestamos[i]);
+        return replica.mutar(hilo.devoluciones[i]);
+    }
+
+    // handleAvailability, primera renovación (handleRenewal actualiza el préstamo) y handleReturn
+    @Benchmark
+    @OperationsPerInvocation(3)
+    public Envelope prestamoRenovacionDevolucion(Hilo hilo) {
+        int i = hilo.siguiente();
+        replica.mutar(hilo.prestamos[i]);
+        replica.mutar(hilo.renovaciones[i]);
+        return replica.mutar(hilo.devoluciones[i]);
+    }
+
+    // handleAvailability sobre un libro prestado: solo lectura (RECHAZADO)
+    @Benchmark
+    public Envelope prestamoRechazado(Hilo hilo) {
+        return replica.mutar(hilo.rechazados[hilo.siguiente()]);
+    }
+
+    // aplicarCambioDesdeLog: parseo de la línea del log de replicación + mutación
+    @Benchmark
+    @OperationsPerInvocation(2)
+    public boolean cambiosDesdeLog(Hilo hilo) {
+        int i = hilo.siguiente();
+        replica.aplicarCambioDesdeLog(hilo.cambiosPrestamo[i]);
+        return replica.aplicarCambioDesdeLog(hilo.cambiosDevolucion[i]);
+    }
+
+    @Benchmark
+    @Threads(4)
+    @OperationsPerInvocation(2)
+    public Envelope prestamoDevolucionConcurrente(Hilo hilo) {
+        return prestamoDevolucion(hilo);
+    }
+
+    @Benchmark
+    @Threads(4)
+    @OperationsPerInvocation(2)
+    public boolean cambiosDesdeLogConcurrente(Hilo hilo) {
+        return cambiosDesdeLog(hilo);
+    }
+}
@@ -0,0 +1,96 @@
+package org.example.util;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+/**
+ * Costo de {@link CommandRouter#dispatch} según la cantidad de handlers registrados, con la
+ * solicitud que coincide con el último (como {@code CAMBIOS_SINCRONIZADOS:} en GA2). {@code lineal}
+ * es el recorrido de predicados anterior, como referencia: crece con los handlers y el compilado no.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CommandRouterBenchmark {
+
+    private static final String SOLICITUD = "CAMBIOS_SINCRONIZADOS:123456";
+
+    @Param({"4", "16", "64", "256"})
+    public int handlers;
+
+    private CommandRouter compilado;
+    private RouterLineal lineal;
+
+    @Setup
+    public void preparar() {
+        compilado = new CommandRouter("?");
+        lineal = new RouterLineal("?");
+        for (int i = 0; i < handlers - 2; i++) {
+            String clave = "COMANDO_" + i + ":";
+            compilado.onPrefix(clave, (request, id) -> "A");
+            lineal.onPrefix(clave, request -> "A");
+        }
+        compilado.onExact("PING", request -> "PONG");
+        lineal.onExact("PING", request -> "PONG");
+        compilado.onPrefix("CAMBIOS_SINCRONIZADOS:", (request, lsn) -> lsn > 0 ? "OK" : "ERROR");
+        lineal.onPrefix("CAMBIOS_SINCRONIZADOS:", request -> {
+            long lsn = Long.parseLong(request.substring("CAMBIOS_SINCRONIZADOS:".length()));
+            return lsn > 0 ? "OK" : "ERROR";
+        });
+    }
+
+    @Benchmark
+    public String compilado() {
+        return compilado.dispatch(SOLICITUD);
+    }
+
+    @Benchmark
+    public String lineal() {
+        return lineal.dispatch(SOLICITUD);
+    }
+
+    // Implementación anterior de CommandRouter: predicados evaluados en orden de registro
+    private static final class RouterLineal {
+        private final Map<Predicate<String>, Function<String, String>> handlers = new LinkedHashMap<>();
+        private final String defaultResponse;
+
+        RouterLineal(String defaultResponse) {
+            this.defaultResponse = defaultResponse;
+        }
+
+        void onPrefix(String prefix, Function<String, String> handler) {
+            handlers.put(req -> req != null && req.startsWith(prefix), handler);
+        }
+
+        void onExact(String exact, Function<String, String> handler) {
+            handlers.put(req -> req != null && req.equalsIgnoreCase(exact), handler);
+        }
+
+        String dispatch(String request) {
+            for (var entry : handlers.entrySet()) {
+                if (entry.getKey().test(request)) {
+                    return entry.getValue().apply(request);
+                }
+            }
+            return defaultResponse;
+        }
+    }
+}
@@ -0,0 +1,242 @@
+package org.example.util;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.zeromq.ZFrame;
+import org.zeromq.ZMQ;
+import org.zeromq.ZMsg;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Costo del transporte jeromq con los patrones de los componentes, sobre {@code inproc://} y
+ * {@code tcp://} local, para comparar con el costo de nuestro código (StorageBenchmark,
+ * CommandRouterBenchmark):
+ *
+ * - {@code reqRep}: GC -> LoanActor. Solicitud de texto + frame de traza, respuesta de texto.
+ * - {@code dealerRouter}: GA -> GA2. El ROUTER recibe [identidad][solicitud][traza] y responde
+ *   [identidad][respuesta], como el broker de GA2. {@code dealerRouterConPausa} agrega el
+ *   {@code Thread.sleep(50)} de {@code StorageReplica.enviarAGa2} en texto.
+ * - {@code pubSub}: GC -> ReturnRenewalActor. Sobre con el tópico [versión][opcode] + frame de traza.
+ *
+ * Los de ida y vuelta miden la latencia por mensaje (avgt) y el máximo sin pipelining (thrpt);
+ * las variantes {@code Rafaga} envían {@link #RAFAGA} mensajes antes de leer las respuestas, que es
+ * el máximo por socket. El tamaño es el del cuerpo del mensaje.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MessagingBenchmark {
+
+    static final int RAFAGA = 64;
+    private static final int FRAME_TRAZA = 26;
+
+    @Param({"inproc", "tcp"})
+    public String transporte;
+
+    @Param({"32", "512", "8192"})
+    public int bytes;
+
+    private ZMQ.Context context;
+    private ZMQ.Socket req;
+    private ZMQ.Socket dealer;
+    private ZMQ.Socket pub;
+    private ZMQ.Socket sub;
+    private Thread eco;
+    private volatile boolean detener;
+
+    private String texto;
+    private byte[] sobre;
+    private final byte[] traza = new byte[FRAME_TRAZA];
+
+    @Setup(Level.Trial)
+    public void preparar() {
+        char[] caracteres = new char[bytes];
+        Arrays.fill(caracteres, 'x');
+        texto = "PRESTAMO " + new String(caracteres, 0, Math.max(0, bytes - 9));
+        sobre = new byte[bytes];
+        sobre[0] = Envelope.VERSION;
+        sobre[1] = Envelope.DEVOLVER;
+        traza[0] = 0x1E;
+
+        context = ZMQ.context(1);
+        ZMQ.Socket rep = servidor(ZMQ.REP, "rep");
+        ZMQ.Socket router = servidor(ZMQ.ROUTER, "router");
+        req = cliente(ZMQ.REQ, rep);
+        dealer = cliente(ZMQ.DEALER, router);
+        dealer.setIdentity("GA-DEALER".getBytes(ZMQ.CHARSET));
+
+        pub = servidor(ZMQ.PUB, "pub");
+        sub = cliente(ZMQ.SUB, pub);
+        sub.subscribe(Envelope.topico(Envelope.DEVOLVER));
+        esperarSuscripcion();
+
+        eco = new Thread(() -> atender(rep, router), "eco");
+        eco.start();
+    }
+
+    @TearDown(Level.Trial)
+    public void cerrar() throws InterruptedException {
+        detener = true;
+        eco.join();
+        req.close();
+        dealer.close();
+        pub.close();
+        sub.close();
+        context.term();
+    }
+
+    // LoadBalancer.handleBatch / LoanActor: send(texto, SNDMORE) + traza, recvStr()
+    @Benchmark
+    public String reqRep() {
+        req.send(texto, ZMQ.SNDMORE);
+        req.send(traza, 0);
+        return req.recvStr();
+    }
+
+    // StorageReplica.enviarAGa2: DEALER -> ROUTER con identidad, respuesta de texto
+    @Benchmark
+    public String dealerRouter() {
+        dealer.send(texto, ZMQ.SNDMORE);
+        dealer.send(traza, 0);
+        return dealer.recvStr();
+    }
+
+    // Lo mismo con la pausa de 50 ms entre el envío y la recepción del camino de texto
+    @Benchmark
+    public String dealerRouterConPausa() throws InterruptedException {
+        dealer.send(texto, ZMQ.SNDMORE);
+        dealer.send(traza, 0);
+        Thread.sleep(50);
+        return dealer.recvStr();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(RAFAGA)
+    public String dealerRouterRafaga() {
+        for (int i = 0; i < RAFAGA; i++) {
+            dealer.send(texto, ZMQ.SNDMORE);
+            dealer.send(traza, 0);
+        }
+        String respuesta = null;
+        for (int i = 0; i < RAFAGA; i++) {
+            respuesta = dealer.recvStr();
+        }
+        return respuesta;
+    }
+
+    // LoadBalancer.publish -> ReturnRenewalActor: sobre + traza, el SUB lee ambos frames
+    @Benchmark
+    public byte[] pubSub() {
+        pub.send(sobre, ZMQ.SNDMORE);
+        pub.send(traza, 0);
+        return recibirPublicado();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(RAFAGA)
+    public byte[] pubSubRafaga() {
+        for (int i = 0; i < RAFAGA; i++) {
+            pub.send(sobre, ZMQ.SNDMORE);
+            pub.send(traza, 0);
+        }
+        byte[] datos = null;
+        for (int i = 0; i < RAFAGA; i++) {
+            datos = recibirPublicado();
+        }
+        return datos;
+    }
+
+    private byte[] recibirPublicado() {
+        byte[] datos = sub.recv();
+        while (sub.hasReceiveMore()) {
+            sub.recv();
+        }
+        return datos;
+    }
+
+    // Hilo servidor: REP (como LoanActor) y ROUTER (como el broker de GA2) responden cada solicitud
+    private void atender(ZMQ.Socket rep, ZMQ.Socket router) {
+        ZMQ.Poller poller = context.poller(2);
+        poller.register(rep, ZMQ.Poller.POLLIN);
+        poller.register(router, ZMQ.Poller.POLLIN);
+        try {
+            while (!detener) {
+                if (poller.poll(100) <= 0) {
+                    continue;
+                }
+                if (poller.pollin(0)) {
+                    String solicitud = rep.recvStr();
+                    while (rep.hasReceiveMore()) {
+                        rep.recv();
+                    }
+                    rep.send(solicitud.length() > 0 ? "Préstamo confirmado" : "Error", 0);
+                }
+                if (poller.pollin(1)) {
+                    ZMsg mensaje = ZMsg.recvMsg(router);
+                    ZFrame identidad = mensaje.pop();
+                    mensaje.removeLast();
+                    String solicitud = mensaje.popString();
+                    ZMsg respuesta = new ZMsg();
+                    respuesta.add(identidad);
+                    respuesta.add(solicitud.length() > 0 ? "SI" : "NO");
+                    respuesta.send(router);
+                    mensaje.destroy();
+                }
+            }
+        } finally {
+            poller.close();
+            rep.close();
+            router.close();
+        }
+    }
+
+    private ZMQ.Socket servidor(int tipo, String nombre) {
+        ZMQ.Socket socket = context.socket(tipo);
+        socket.setLinger(0);
+        if ("inproc".equals(transporte)) {
+            socket.bind("inproc://bench-" + nombre);
+        } else {
+            socket.bind("tcp://127.0.0.1:*");
+        }
+        return socket;
+    }
+
+    private ZMQ.Socket cliente(int tipo, ZMQ.Socket servidor) {
+        ZMQ.Socket socket = context.socket(tipo);
+        socket.setLinger(0);
+        socket.connect(servidor.getLastEndpoint());
+        return socket;
+    }
+
+    // PUB/SUB: los mensajes publicados antes de que llegue la suscripción se pierden
+    private void esperarSuscripcion() {
+        sub.setReceiveTimeOut(100);
+        byte[] recibido = null;
+        while (recibido == null) {
+            pub.send(sobre, ZMQ.SNDMORE);
+            pub.send(traza, 0);
+            recibido = sub.recv();
+        }
+        while (sub.recv(ZMQ.DONTWAIT) != null) {
+            // Descartar las sondas restantes
+        }
+        sub.setReceiveTimeOut(-1);
+    }
+}
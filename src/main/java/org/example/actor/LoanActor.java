@@ -1,28 +1,39 @@
 package org.example.actor;
 
 import org.example.config.Config;
+import org.example.config.PrimaryEndpoint;
+import org.example.config.ShardMap;
+import org.example.util.BatchRequest;
 import org.example.util.Console;
-import org.example.util.RequestParser;
+import org.example.util.Envelope;
+import org.example.util.Metrics;
+import org.example.util.ShardSockets;
+import org.example.util.Trace;
 import org.zeromq.ZMQ;
-import java.util.Objects;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 
 public class LoanActor {
 
     private static final String ACTOR_BIND_HOST = Config.env("ACTOR_BIND_HOST", "*");
     private static final String ACTOR_PORT = Config.actorPort();
-    private static final String GA_HOST = Config.gaHost();
-    private static final String GA_PORT = Config.gaPort();
-    private static final String GA2_HOST = Config.ga2Host();
-    private static final String GA2_PORT = Config.ga2RepPort();
+    private static final int GA_TIMEOUT_MS = 3000;
+    private static final int GA2_TIMEOUT_MS = 10000;
+    // Un lote de hasta BatchRequest.MAX_IDS IDs tarda más que una operación individual
+    private static final int LOTE_TIMEOUT_MS = 30000;
+    // Saltos de las métricas y trazas: la solicitud completa y las llamadas a GA y al fallback GA2
+    private static final String HOP = "ACTOR-LOAN";
+    private static final String HOP_GA = "ACTOR-LOAN->GA";
+    private static final String HOP_GA2 = "ACTOR-LOAN->GA2";
 
     private static final String ADDRESS_BIND = "tcp://" + ACTOR_BIND_HOST + ":" + ACTOR_PORT;
-    private static final String ADDRESS_GA = "tcp://" + GA_HOST + ":" + GA_PORT;
-    private static final String ADDRESS_GA2 = "tcp://" + GA2_HOST + ":" + GA2_PORT;
 
     private ZMQ.Context context;
     private ZMQ.Socket responder;
-    private ZMQ.Socket socketGA;
-    private ZMQ.Socket socketGA2;
+    // GA/GA2 de cada shard; cada libro se atiende en el shard dueño de su ID
+    private ShardSockets shards;
 
     public static void main(String[] args) {
         new LoanActor().start();
@@ -31,8 +42,10 @@ public class LoanActor {
     public void start() {
         context = ZMQ.context(1);
         initSockets();
+        Metrics.iniciar(HOP, Config.metricsPort(Integer.parseInt(ACTOR_PORT) + 3000));
+        Trace.iniciar(HOP);
 
-        Console.info("ACTOR-LOAN", "Activo en " + ADDRESS_BIND + ", GA=" + ADDRESS_GA + ", GA2=" + ADDRESS_GA2);
+        Console.info("ACTOR-LOAN", "Activo en " + ADDRESS_BIND + ", shards=" + shards.mapa().shards());
 
         while (!Thread.currentThread().isInterrupted()) {
             processRequests();
@@ -45,65 +58,254 @@ public class LoanActor {
         responder = context.socket(ZMQ.REP);
         responder.bind(ADDRESS_BIND);
 
-        socketGA = context.socket(ZMQ.REQ);
-        socketGA.connect(ADDRESS_GA);
-        socketGA.setReceiveTimeOut(3000);
-
-        socketGA2 = context.socket(ZMQ.REQ);
-        socketGA2.connect(ADDRESS_GA2);
-        System.out.println(" Conectado a GA2 (fallback) en " + ADDRESS_GA2);
+        shards = new ShardSockets(context, ShardMap.desdeConfig(), GA_TIMEOUT_MS, GA2_TIMEOUT_MS);
     }
 
     private void processRequests() {
-        String solicitud = responder.recvStr();
-        Console.info("ACTOR-LOAN", "Solicitud: " + solicitud);
+        byte[] datos = responder.recv();
+        long inicio = System.nanoTime();
+        boolean esSobre = Envelope.esSobre(datos);
+        String solicitud = esSobre ? null : new String(datos, ZMQ.CHARSET);
+        // El frame de traza del GC va después de la solicitud
+        Trace.Span span = Trace.recibir(responder, HOP,
+            esSobre ? Envelope.operacion(datos[1]) : Metrics.operacion(solicitud));
+        atender(datos, solicitud, inicio);
+        span.terminar();
+    }
 
-        String bookId = RequestParser.extractBookId(solicitud);
-        if (bookId == null || bookId.isEmpty()) {
-            responder.send("Error: No se pudo extraer el ID del libro");
+    private void atender(byte[] datos, String solicitud, long inicio) {
+        if (solicitud == null) {
+            Envelope respuesta;
+            try {
+                respuesta = procesarSobre(Envelope.leer(datos));
+            } catch (IllegalArgumentException e) {
+                respuesta = Envelope.solicitud(Envelope.PRESTAMO, -1, 0).error("Error: " + e.getMessage());
+            }
+            respuesta.enviar(responder);
+            Metrics.registrar(HOP, "PRESTAMO", inicio);
             return;
         }
 
-        String mensajeDisponibilidad = "Disponibilidad?" + bookId;
-        String respuestaGA;
+        // Por solicitud: en DEBUG para no saturar el escritor de logs con carga alta
+        if (Console.habilitado(Console.Nivel.DEBUG, "ACTOR-LOAN")) {
+            Console.debug("ACTOR-LOAN", "Solicitud: " + solicitud);
+        }
+        if (Metrics.STATS.equalsIgnoreCase(solicitud)) {
+            responder.send(Metrics.stats());
+            return;
+        }
+        if (BatchRequest.esLote(solicitud)) {
+            responder.send(procesarLote(solicitud));
+            Metrics.registrar(HOP, BatchRequest.tipo(solicitud), inicio);
+            return;
+        }
+        // Préstamo en texto (clientes sin sobres): se responde con el texto de siempre
+        Envelope sobre = Envelope.desdeTexto(solicitud, 0);
+        if (sobre == null || sobre.idLibro() < 0) {
+            responder.send("Error: No se pudo extraer el ID del libro");
+            return;
+        }
+        responder.send(handleGAResponse(procesarSobre(sobre)));
+        Metrics.registrar(HOP, "PRESTAMO", inicio);
+    }
 
+    // Préstamo de un libro: al GA de su shard, con fallback a GA2
+    private Envelope procesarSobre(Envelope solicitud) {
+        if (Console.habilitado(Console.Nivel.DEBUG, "ACTOR-LOAN")) {
+            Console.debug("ACTOR-LOAN", "Solicitud: " + solicitud);
+        }
+        if (solicitud.idLibro() < 0) {
+            return solicitud.error("Error: No se pudo extraer el ID del libro");
+        }
+        ShardMap.Shard shard = shards.shardDe(solicitud.idLibro());
+        Envelope respuestaGA;
         try {
-            socketGA.send(mensajeDisponibilidad);
-            respuestaGA = socketGA.recvStr();
+            ZMQ.Socket socketGA = shards.ga(shard);
+            Trace.Span span = Trace.cliente(HOP_GA, solicitud.operacion());
+            long inicio = System.nanoTime();
+            solicitud.enviar(socketGA, ZMQ.SNDMORE);
+            span.propagar(socketGA);
+            respuestaGA = solicitud.recibirRespuesta(socketGA);
+            Metrics.registrar(HOP_GA, solicitud.operacion(), inicio);
+            if (respuestaGA == null) {
+                span.error("timeout");
+            }
+            span.terminar();
             if (respuestaGA == null) {
-                Console.warn("ACTOR-LOAN", "GA sin respuesta, fallback GA2");
-                respuestaGA = consultarConGA2(mensajeDisponibilidad);
-            } else {
-                Console.info("ACTOR-LOAN", "Respuesta GA: " + respuestaGA);
+                Metrics.contar(HOP_GA, "timeout");
+                Console.warn("ACTOR-LOAN", "GA de " + shard.nombre() + " sin respuesta, fallback GA2");
+                respuestaGA = consultarConGA2(shard, solicitud);
+            } else if (Console.habilitado(Console.Nivel.DEBUG, "ACTOR-LOAN")) {
+                Console.debug("ACTOR-LOAN", "Respuesta GA: " + respuestaGA);
             }
         } catch (Exception e) {
             Console.warn("ACTOR-LOAN", "Error GA: " + e.getMessage() + " -> fallback GA2");
-            respuestaGA = consultarConGA2(mensajeDisponibilidad);
+            respuestaGA = consultarConGA2(shard, solicitud);
+        }
+        return respuestaGA;
+    }
+
+    /**
+     * Lote (PRESTAMO_LOTE/DEVOLVER_LOTE/RENOVAR_LOTE): los IDs se agrupan por shard y cada grupo
+     * viaja como un solo lote al GA del shard (GA2 como fallback). La respuesta une los resultados
+     * en el orden original de los IDs.
+     */
+    private String procesarLote(String solicitud) {
+        String tipo = BatchRequest.tipo(solicitud);
+        List<String> ids = BatchRequest.ids(solicitud);
+        if (ids.isEmpty()) {
+            return "Error: Lote sin IDs";
+        }
+        if (ids.size() > BatchRequest.MAX_IDS) {
+            return "Error: El lote supera " + BatchRequest.MAX_IDS + " IDs";
+        }
+        Map<ShardMap.Shard, List<String>> idsPorShard = new LinkedHashMap<>();
+        for (String id : ids) {
+            idsPorShard.computeIfAbsent(shards.shardDe(id), shard -> new ArrayList<>()).add(id);
+        }
+        // Resultados por ID; un ID repetido consume sus resultados en orden
+        Map<String, List<String>> porId = new LinkedHashMap<>();
+        for (Map.Entry<ShardMap.Shard, List<String>> entry : idsPorShard.entrySet()) {
+            String respuesta = enviarLote(entry.getKey(), BatchRequest.comando(tipo, entry.getValue()));
+            List<String[]> resultados = BatchRequest.resultados(respuesta);
+            for (int i = 0; i < entry.getValue().size(); i++) {
+                String resultado = resultados != null && i < resultados.size() ? resultados.get(i)[1]
+                    : (respuesta == null ? "Error: Sin respuesta" : respuesta);
+                porId.computeIfAbsent(entry.getValue().get(i), id -> new ArrayList<>()).add(resultado);
+            }
+        }
+        List<String> resultados = new ArrayList<>(ids.size());
+        for (String id : ids) {
+            resultados.add(porId.get(id).remove(0));
         }
+        String respuesta = BatchRequest.respuesta(tipo, ids, resultados);
+        Console.debug("ACTOR-LOAN", tipo + " de " + ids.size() + " IDs en " + idsPorShard.size() + " shard(s)");
+        return respuesta;
+    }
 
-        String respuestaFinal = handleGAResponse(respuestaGA);
-        responder.send(respuestaFinal);
+    // Envía el lote de un shard al GA (timeout de lote) y si no responde a GA2
+    private String enviarLote(ShardMap.Shard shard, String lote) {
+        ZMQ.Socket socketGA = shards.ga(shard);
+        socketGA.setReceiveTimeOut(LOTE_TIMEOUT_MS);
+        try {
+            Trace.Span span = Trace.cliente(HOP_GA, BatchRequest.tipo(lote));
+            long inicio = System.nanoTime();
+            socketGA.send(lote, ZMQ.SNDMORE);
+            span.propagar(socketGA);
+            String respuesta = socketGA.recvStr();
+            Metrics.registrar(HOP_GA, BatchRequest.tipo(lote), inicio);
+            if (respuesta == null) {
+                span.error("timeout");
+            }
+            span.terminar();
+            if (respuesta != null) {
+                return respuesta;
+            }
+            Metrics.contar(HOP_GA, "timeout");
+            Console.warn("ACTOR-LOAN", "GA de " + shard.nombre() + " sin respuesta al lote, fallback GA2");
+        } catch (Exception e) {
+            Console.warn("ACTOR-LOAN", "Error GA: " + e.getMessage() + " -> fallback GA2");
+        } finally {
+            socketGA.setReceiveTimeOut(GA_TIMEOUT_MS);
+        }
+        ZMQ.Socket socketGA2 = shards.ga2(shard);
+        socketGA2.setReceiveTimeOut(LOTE_TIMEOUT_MS);
+        try {
+            return consultarConGA2(shard, lote);
+        } finally {
+            socketGA2.setReceiveTimeOut(GA2_TIMEOUT_MS);
+        }
     }
 
-    private String handleGAResponse(String respuestaGA) {
-        if (Objects.equals(respuestaGA, "SI")) {
-            Console.info("ACTOR-LOAN", "Préstamo confirmado");
+    // Texto para clientes de texto (el GC arma el mismo texto a partir del sobre)
+    private String handleGAResponse(Envelope respuestaGA) {
+        if (respuestaGA.exitosa()) {
             return "Préstamo confirmado";
-        } else if (respuestaGA != null && respuestaGA.startsWith("NO")) {
-            Console.info("ACTOR-LOAN", "Préstamo rechazado: " + respuestaGA);
-            return "Préstamo rechazado: " + respuestaGA;
+        } else if (respuestaGA.estado() == Envelope.RECHAZADO || respuestaGA.estado() == Envelope.NO_EXISTE) {
+            return "Préstamo rechazado: " + respuestaGA.texto();
         } else {
-            Console.warn("ACTOR-LOAN", "Respuesta desconocida GA: " + respuestaGA);
+            Console.warn("ACTOR-LOAN", "Respuesta desconocida GA: " + respuestaGA.texto());
             return "Error: respuesta desconocida del GA";
         }
     }
 
-    private String consultarConGA2(String mensaje) {
+    private Envelope consultarConGA2(ShardMap.Shard shard, Envelope solicitud) {
         try {
-            Console.info("ACTOR-LOAN", "GA2 fallback -> " + mensaje);
-            socketGA2.send(mensaje);
+            if (Console.habilitado(Console.Nivel.DEBUG, "ACTOR-LOAN")) {
+                Console.debug("ACTOR-LOAN", "GA2 fallback (" + shard.nombre() + ") -> " + solicitud);
+            }
+            Metrics.contar(HOP, "fallback_ga2");
+            Trace.evento("fallback_ga2");
+            ZMQ.Socket socketGA2 = shards.ga2(shard);
+            Trace.Span span = Trace.cliente(HOP_GA2, solicitud.operacion());
+            long inicio = System.nanoTime();
+            solicitud.enviar(socketGA2, ZMQ.SNDMORE);
+            span.propagar(socketGA2);
+            Envelope respuesta = solicitud.recibirRespuesta(socketGA2);
+            PrimaryEndpoint destino = respuesta != null && respuesta.estado() == Envelope.MOVIDO
+                ? PrimaryEndpoint.parsear(respuesta.payload()) : null;
+            if (destino != null) {
+                // Primario migrado: reconectar al nuevo y reintentar una vez
+                Console.info("ACTOR-LOAN", "GA2 de " + shard.nombre() + " movido a " + destino.endpointActores());
+                Metrics.contar(HOP_GA2, "movido");
+                span.evento("movido");
+                shards.moverGa2(shard, destino.endpointActores());
+                solicitud.enviar(socketGA2, ZMQ.SNDMORE);
+                span.propagar(socketGA2);
+                respuesta = solicitud.recibirRespuesta(socketGA2);
+            }
+            Metrics.registrar(HOP_GA2, solicitud.operacion(), inicio);
+            if (respuesta == null) {
+                span.error("timeout");
+            }
+            span.terminar();
+            if (respuesta == null) {
+                Metrics.contar(HOP_GA2, "timeout");
+                return solicitud.error("Error: No se pudo comunicar ni con GA ni con GA2");
+            }
+            if (Console.habilitado(Console.Nivel.DEBUG, "ACTOR-LOAN")) {
+                Console.debug("ACTOR-LOAN", "Respuesta GA2: " + respuesta);
+            }
+            return respuesta;
+        } catch (Exception e) {
+            Console.error("ACTOR-LOAN", "GA2 error: " + e.getMessage());
+            return solicitud.error("Error: No se pudo comunicar ni con GA ni con GA2");
+        }
+    }
+
+    private String consultarConGA2(ShardMap.Shard shard, String mensaje) {
+        try {
+            if (Console.habilitado(Console.Nivel.DEBUG, "ACTOR-LOAN")) {
+                Console.debug("ACTOR-LOAN", "GA2 fallback (" + shard.nombre() + ") -> " + mensaje);
+            }
+            Metrics.contar(HOP, "fallback_ga2");
+            Trace.evento("fallback_ga2");
+            ZMQ.Socket socketGA2 = shards.ga2(shard);
+            Trace.Span span = Trace.cliente(HOP_GA2, Metrics.operacion(mensaje));
+            long inicio = System.nanoTime();
+            socketGA2.send(mensaje, ZMQ.SNDMORE);
+            span.propagar(socketGA2);
             String respuesta = socketGA2.recvStr();
-            Console.info("ACTOR-LOAN", "Respuesta GA2: " + respuesta);
+            PrimaryEndpoint destino = PrimaryEndpoint.esMovido(respuesta) ? PrimaryEndpoint.parsear(respuesta) : null;
+            if (destino != null) {
+                // Primario migrado: reconectar al nuevo y reintentar una vez
+                Console.info("ACTOR-LOAN", "GA2 de " + shard.nombre() + " movido a " + destino.endpointActores());
+                Metrics.contar(HOP_GA2, "movido");
+                span.evento("movido");
+                shards.moverGa2(shard, destino.endpointActores());
+                socketGA2.send(mensaje, ZMQ.SNDMORE);
+                span.propagar(socketGA2);
+                respuesta = socketGA2.recvStr();
+            }
+            Metrics.registrar(HOP_GA2, Metrics.operacion(mensaje), inicio);
+            if (respuesta == null) {
+                Metrics.contar(HOP_GA2, "timeout");
+                span.error("timeout");
+            }
+            span.terminar();
+            if (Console.habilitado(Console.Nivel.DEBUG, "ACTOR-LOAN")) {
+                Console.debug("ACTOR-LOAN", "Respuesta GA2: " + respuesta);
+            }
             return respuesta;
         } catch (Exception e) {
             Console.error("ACTOR-LOAN", "GA2 error: " + e.getMessage());
@@ -113,8 +315,7 @@ public class LoanActor {
 
     private void closeSockets() {
         responder.close();
-        socketGA.close();
-        socketGA2.close();
+        shards.cerrar();
         context.term();
         Console.info("ACTOR-LOAN", "Finalizado.");
     }
@@ -1,27 +1,32 @@
 package org.example.actor;
 
 import org.example.config.Config;
+import org.example.config.PrimaryEndpoint;
+import org.example.config.ShardMap;
 import org.example.util.Console;
-import org.example.util.RequestParser;
+import org.example.util.Envelope;
+import org.example.util.Metrics;
+import org.example.util.ShardSockets;
+import org.example.util.Trace;
 import org.zeromq.ZMQ;
 
 public class ReturnRenewalActor {
 
     private static final String GC_HOST = Config.env("GC_HOST", "localhost");
     private static final String GC_PUB_PORT = Config.gcPubPort();
-    private static final String GA_HOST = Config.gaHost();
-    private static final String GA_PORT = Config.gaPort();
-    private static final String GA2_HOST = Config.ga2Host();
-    private static final String GA2_PORT = Config.ga2RepPort();
+    private static final int GA_TIMEOUT_MS = 3000;
+    private static final int GA2_TIMEOUT_MS = 10000;
+    // Saltos de las métricas y trazas; sin socket de solicitudes, STATS no aplica: solo HTTP /metrics
+    private static final String HOP = "ACTOR-RR";
+    private static final String HOP_GA = "ACTOR-RR->GA";
+    private static final String HOP_GA2 = "ACTOR-RR->GA2";
 
     private static final String SUB_ADDRESS = "tcp://" + GC_HOST + ":" + GC_PUB_PORT;
-    private static final String GA_ADDRESS = "tcp://" + GA_HOST + ":" + GA_PORT;
-    private static final String GA2_ADDRESS = "tcp://" + GA2_HOST + ":" + GA2_PORT;
 
     private ZMQ.Context context;
     private ZMQ.Socket subscriber;
-    private ZMQ.Socket socketGA;
-    private ZMQ.Socket socketGA2;
+    // GA/GA2 de cada shard; cada libro se atiende en el shard dueño de su ID
+    private ShardSockets shards;
 
     public static void main(String[] args) {
         new ReturnRenewalActor().start();
@@ -30,8 +35,10 @@ public class ReturnRenewalActor {
     public void start() {
         context = ZMQ.context(1);
         initSockets();
+        Metrics.iniciar(HOP, Config.metricsPort(Integer.parseInt(GC_PUB_PORT) + 3000));
+        Trace.iniciar(HOP);
 
-        Console.info("ACTOR-RR", "Sub a " + SUB_ADDRESS + ", GA=" + GA_ADDRESS + ", GA2=" + GA2_ADDRESS);
+        Console.info("ACTOR-RR", "Sub a " + SUB_ADDRESS + ", shards=" + shards.mapa().shards());
 
         try { Thread.sleep(1000); } catch (InterruptedException ignored) {}
 
@@ -45,92 +52,118 @@ public class ReturnRenewalActor {
     private void initSockets() {
         subscriber = context.socket(ZMQ.SUB);
         subscriber.connect(SUB_ADDRESS);
-        subscriber.subscribe("DEVOLUCION".getBytes());
-        subscriber.subscribe("RENOVACION".getBytes());
+        // El GC publica sobres binarios: el tópico es el prefijo [versión][opcode]
+        subscriber.subscribe(Envelope.topico(Envelope.DEVOLVER));
+        subscriber.subscribe(Envelope.topico(Envelope.RENOVAR));
 
-        socketGA = context.socket(ZMQ.REQ);
-        socketGA.connect(GA_ADDRESS);
-        socketGA.setReceiveTimeOut(3000);
-
-        socketGA2 = context.socket(ZMQ.REQ);
-        socketGA2.connect(GA2_ADDRESS);
-        System.out.println(" Conectado a GA2 (fallback) en " + GA2_ADDRESS);
+        shards = new ShardSockets(context, ShardMap.desdeConfig(), GA_TIMEOUT_MS, GA2_TIMEOUT_MS);
     }
 
     private void processMessages() {
-        String mensajeCompleto = subscriber.recvStr();
-        Console.info("ACTOR-RR", "Evento GC: " + mensajeCompleto);
-
-        String[] partes = mensajeCompleto.split(" ", 2);
-        String topico = partes[0];
-        String contenido = partes.length > 1 ? partes[1] : "";
-
-        if (topico.equals("DEVOLUCION")) {
-            handleReturn(contenido);
-        } else if (topico.equals("RENOVACION")) {
-            handleRenewal(contenido);
-        } else {
-            Console.warn("ACTOR-RR", "Tópico desconocido: " + topico);
-        }
-    }
-
-    private void handleReturn(String contenido) {
-        Console.info("ACTOR-RR", "DEVOLVER -> " + contenido);
-        String bookId = RequestParser.extractBookId(contenido);
-        if (bookId == null) {
-            Console.warn("ACTOR-RR", "ID no reconocido en devolución: " + contenido);
+        byte[] datos = subscriber.recv();
+        long inicio = System.nanoTime();
+        // El frame de traza va después del sobre (el tópico sigue siendo [versión][opcode])
+        Trace.Span span = Trace.consumir(subscriber, HOP, Envelope.esSobre(datos) ? Envelope.operacion(datos[1]) : "OTRO");
+        Envelope evento;
+        try {
+            evento = Envelope.leer(datos);
+        } catch (IllegalArgumentException e) {
+            Console.warn("ACTOR-RR", "Evento no reconocido: " + e.getMessage());
+            span.terminar();
             return;
         }
-        String mensaje = "DEVOLVER " + bookId;
-        String respGA = sendToGaWithFallback(mensaje);
-        System.out.println(" Respuesta recibida: " + respGA);
-    }
+        // Por evento: en DEBUG para no saturar el escritor de logs con carga alta
+        if (Console.habilitado(Console.Nivel.DEBUG, "ACTOR-RR")) {
+            Console.debug("ACTOR-RR", "Evento GC: " + evento);
+        }
 
-    private void handleRenewal(String contenido) {
-        Console.info("ACTOR-RR", "RENOVAR -> " + contenido);
-        String bookId = RequestParser.extractBookId(contenido);
-        if (bookId == null) {
-            Console.warn("ACTOR-RR", "ID no reconocido en renovación: " + contenido);
-            return;
+        if (evento.opcode() == Envelope.DEVOLVER || evento.opcode() == Envelope.RENOVAR) {
+            Envelope respGA = sendToGaWithFallback(shards.shardDe(evento.idLibro()), evento);
+            if (Console.habilitado(Console.Nivel.DEBUG, "ACTOR-RR")) {
+                Console.debug("ACTOR-RR", "Respuesta recibida: " + respGA.texto());
+            }
+            Metrics.registrar(HOP, evento.operacion(), inicio);
+        } else {
+            Console.warn("ACTOR-RR", "Tópico desconocido: " + evento.opcode());
         }
-        String mensaje = "RENOVAR " + bookId;
-        String respGA = sendToGaWithFallback(mensaje);
-        System.out.println(" Respuesta recibida: " + respGA);
+        span.terminar();
     }
 
-    private String sendToGaWithFallback(String mensaje) {
+    private Envelope sendToGaWithFallback(ShardMap.Shard shard, Envelope mensaje) {
         try {
-            socketGA.send(mensaje);
-            String respuesta = socketGA.recvStr();
+            ZMQ.Socket socketGA = shards.ga(shard);
+            Trace.Span span = Trace.cliente(HOP_GA, mensaje.operacion());
+            long inicio = System.nanoTime();
+            mensaje.enviar(socketGA, ZMQ.SNDMORE);
+            span.propagar(socketGA);
+            Envelope respuesta = mensaje.recibirRespuesta(socketGA);
+            Metrics.registrar(HOP_GA, mensaje.operacion(), inicio);
+            if (respuesta == null) {
+                span.error("timeout");
+            }
+            span.terminar();
             if (respuesta == null) {
-                Console.warn("ACTOR-RR", "GA sin respuesta, fallback GA2");
-                return sendToGa2(mensaje);
+                Metrics.contar(HOP_GA, "timeout");
+                Console.warn("ACTOR-RR", "GA de " + shard.nombre() + " sin respuesta, fallback GA2");
+                return sendToGa2(shard, mensaje);
+            }
+            if (Console.habilitado(Console.Nivel.DEBUG, "ACTOR-RR")) {
+                Console.debug("ACTOR-RR", "Respuesta GA: " + respuesta);
             }
-            Console.info("ACTOR-RR", "Respuesta GA: " + respuesta);
             return respuesta;
         } catch (Exception e) {
             Console.warn("ACTOR-RR", "Error GA: " + e.getMessage() + " -> fallback GA2");
-            return sendToGa2(mensaje);
+            return sendToGa2(shard, mensaje);
         }
     }
 
-    private String sendToGa2(String mensaje) {
+    private Envelope sendToGa2(ShardMap.Shard shard, Envelope mensaje) {
         try {
-            Console.info("ACTOR-RR", "GA2 fallback -> " + mensaje);
-            socketGA2.send(mensaje);
-            String respuesta = socketGA2.recvStr();
-            Console.info("ACTOR-RR", "Respuesta GA2: " + respuesta);
+            if (Console.habilitado(Console.Nivel.DEBUG, "ACTOR-RR")) {
+                Console.debug("ACTOR-RR", "GA2 fallback (" + shard.nombre() + ") -> " + mensaje);
+            }
+            Metrics.contar(HOP, "fallback_ga2");
+            Trace.evento("fallback_ga2");
+            ZMQ.Socket socketGA2 = shards.ga2(shard);
+            Trace.Span span = Trace.cliente(HOP_GA2, mensaje.operacion());
+            long inicio = System.nanoTime();
+            mensaje.enviar(socketGA2, ZMQ.SNDMORE);
+            span.propagar(socketGA2);
+            Envelope respuesta = mensaje.recibirRespuesta(socketGA2);
+            PrimaryEndpoint destino = respuesta != null && respuesta.estado() == Envelope.MOVIDO
+                ? PrimaryEndpoint.parsear(respuesta.payload()) : null;
+            if (destino != null) {
+                // Primario migrado: reconectar al nuevo y reintentar una vez
+                Console.info("ACTOR-RR", "GA2 de " + shard.nombre() + " movido a " + destino.endpointActores());
+                Metrics.contar(HOP_GA2, "movido");
+                span.evento("movido");
+                shards.moverGa2(shard, destino.endpointActores());
+                mensaje.enviar(socketGA2, ZMQ.SNDMORE);
+                span.propagar(socketGA2);
+                respuesta = mensaje.recibirRespuesta(socketGA2);
+            }
+            Metrics.registrar(HOP_GA2, mensaje.operacion(), inicio);
+            if (respuesta == null) {
+                span.error("timeout");
+            }
+            span.terminar();
+            if (respuesta == null) {
+                Metrics.contar(HOP_GA2, "timeout");
+                return mensaje.error("Error: No se pudo comunicar ni con GA ni con GA2");
+            }
+            if (Console.habilitado(Console.Nivel.DEBUG, "ACTOR-RR")) {
+                Console.debug("ACTOR-RR", "Respuesta GA2: " + respuesta);
+            }
             return respuesta;
         } catch (Exception e) {
             Console.error("ACTOR-RR", "GA2 error: " + e.getMessage());
-            return "Error: No se pudo comunicar ni con GA ni con GA2";
+            return mensaje.error("Error: No se pudo comunicar ni con GA ni con GA2");
         }
     }
 
     private void closeSockets() {
         subscriber.close();
-        socketGA.close();
-        socketGA2.close();
+        shards.cerrar();
         context.term();
         Console.info("ACTOR-RR", "Finalizado.");
     }
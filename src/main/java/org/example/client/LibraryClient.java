@@ -0,0 +1,319 @@
+package org.example.client;
+
+import org.zeromq.ZFrame;
+import org.zeromq.ZMQ;
+import org.zeromq.ZMsg;
+
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Cliente asíncrono del Gestor de Carga: una conexión DEALER con muchas solicitudes en vuelo.
+ * Cada solicitud viaja como [id][""][texto] y el GC devuelve el mismo sobre con la respuesta, así
+ * que las respuestas se asocian por id aunque lleguen en cualquier orden.
+ *
+ * Los métodos son seguros entre hilos y no bloquean: encolan la solicitud y devuelven un
+ * {@link CompletableFuture}. Un único hilo de E/S es dueño del socket (los sockets de ZeroMQ no son
+ * seguros entre hilos), envía lo encolado, completa los futuros y vence los timeouts con
+ * {@link TimeoutException}. Las etapas dependientes no Async corren en ese hilo: no deben bloquear.
+ *
+ * <pre>
+ * try (LibraryClient cliente = new LibraryClient("tcp://localhost:6055")) {
+ *     cliente.loan(5).thenAccept(r -> System.out.println(r));
+ * }
+ * </pre>
+ */
+public final class LibraryClient implements AutoCloseable {
+
+    public static final Duration TIMEOUT_POR_DEFECTO = Duration.ofSeconds(5);
+
+    private static final AtomicInteger INSTANCIAS = new AtomicInteger();
+    private static final byte[] VACIO = new byte[0];
+    private static final long ESPERA_MAXIMA_MS = 100;
+
+    private final String direccion;
+    private final Duration timeoutPorDefecto;
+    private final ZMQ.Context context;
+    private final ZMQ.Socket dealer;
+    // Despierta al hilo de E/S cuando hay solicitudes nuevas; el envío se serializa con synchronized
+    private final ZMQ.Socket timbre;
+    private final ZMQ.Socket timbreRecepcion;
+    private final Thread hilo;
+
+    private final Queue<Solicitud> cola = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean dormido = new AtomicBoolean();
+    private final AtomicLong ids = new AtomicLong();
+    private final AtomicInteger enVuelo = new AtomicInteger();
+    private volatile boolean cerrado;
+    private volatile boolean cerradoEnHilo;
+    private boolean timbreCerrado; // protegido por timbre
+
+    // Solo los usa el hilo de E/S
+    private final Map<Long, Solicitud> pendientes = new HashMap<>();
+    private final PriorityQueue<Solicitud> vencimientos =
+        new PriorityQueue<>((a, b) -> Long.compare(a.venceNs, b.venceNs));
+
+    public LibraryClient(String direccion) {
+        this(direccion, TIMEOUT_POR_DEFECTO);
+    }
+
+    public LibraryClient(String direccion, Duration timeoutPorDefecto) {
+        this.direccion = direccion;
+        this.timeoutPorDefecto = timeoutPorDefecto;
+        this.context = ZMQ.context(1);
+
+        dealer = context.socket(ZMQ.DEALER);
+        dealer.setLinger(0);
+        dealer.setSndHWM(0);
+        dealer.setRcvHWM(0);
+        dealer.connect(direccion);
+
+        String inproc = "inproc://library-client-" + INSTANCIAS.incrementAndGet();
+        timbreRecepcion = context.socket(ZMQ.PAIR);
+        timbreRecepcion.bind(inproc);
+        timbre = context.socket(ZMQ.PAIR);
+        timbre.connect(inproc);
+
+        hilo = new Thread(this::bucle, "library-client-io");
+        hilo.setDaemon(true);
+        hilo.start();
+    }
+
+    public CompletableFuture<Result> loan(long idLibro) {
+        return loan(idLibro, timeoutPorDefecto);
+    }
+
+    public CompletableFuture<Result> loan(long idLibro, Duration timeout) {
+        return enviar("PRESTAMO", idLibro, "PRESTAMO:" + idLibro, timeout);
+    }
+
+    public CompletableFuture<Result> returnBook(long idLibro) {
+        return returnBook(idLibro, timeoutPorDefecto);
+    }
+
+    public CompletableFuture<Result> returnBook(long idLibro, Duration timeout) {
+        return enviar("DEVOLVER", idLibro, "DEVOLVER:" + idLibro, timeout);
+    }
+
+    public CompletableFuture<Result> renew(long idLibro) {
+        return renew(idLibro, timeoutPorDefecto);
+    }
+
+    public CompletableFuture<Result> renew(long idLibro, Duration timeout) {
+        return enviar("RENOVAR", idLibro, "RENOVAR:" + idLibro, timeout);
+    }
+
+    // Cualquier comando del GC tal cual ("ESTADO?5", "MULTIGET:1,2,3", "PRESTAMO_LOTE:1,2", "STATS"...)
+    public CompletableFuture<Result> send(String comando, Duration timeout) {
+        int corte = comando.indexOf(':');
+        return enviar(corte > 0 ? comando.substring(0, corte) : comando, -1, comando, timeout);
+    }
+
+    // Solicitudes enviadas o encoladas que todavía no tienen respuesta ni vencieron
+    public int inFlight() {
+        return enVuelo.get();
+    }
+
+    public String address() {
+        return direccion;
+    }
+
+    // Desde una etapa dependiente (hilo de E/S) solo se marca el cierre: el join se bloquearía a sí
+    // mismo, así que bucle() libera los sockets y el contexto al salir
+    @Override
+    public void close() {
+        synchronized (this) {
+            if (cerrado) {
+                return;
+            }
+            cerradoEnHilo = Thread.currentThread() == hilo;
+            cerrado = true;
+        }
+        if (cerradoEnHilo) {
+            return;
+        }
+        tocarTimbre();
+        try {
+            hilo.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        cerrarTimbre();
+        context.term();
+    }
+
+    private CompletableFuture<Result> enviar(String operacion, long idLibro, String comando, Duration timeout) {
+        Solicitud solicitud = new Solicitud(ids.incrementAndGet(), operacion, idLibro, comando,
+            System.nanoTime() + timeout.toNanos());
+        if (cerrado) {
+            solicitud.futuro.completeExceptionally(new IllegalStateException("Cliente cerrado"));
+            return solicitud.futuro;
+        }
+        enVuelo.incrementAndGet();
+        cola.add(solicitud);
+        if (cerrado && cola.remove(solicitud)) {
+            // Se cerró mientras se encolaba: el hilo de E/S ya no la va a ver
+            terminar(solicitud, null, new IllegalStateException("Cliente cerrado"));
+        } else if (dormido.compareAndSet(true, false)) {
+            tocarTimbre();
+        }
+        return solicitud.futuro;
+    }
+
+    private void tocarTimbre() {
+        synchronized (timbre) {
+            if (hilo.isAlive() && !timbreCerrado) {
+                timbre.send(VACIO, ZMQ.DONTWAIT);
+            }
+        }
+    }
+
+    private void cerrarTimbre() {
+        synchronized (timbre) {
+            timbreCerrado = true;
+            timbre.close();
+        }
+    }
+
+    private void bucle() {
+        ZMQ.Poller poller = context.poller(2);
+        poller.register(dealer, ZMQ.Poller.POLLIN);
+        poller.register(timbreRecepcion, ZMQ.Poller.POLLIN);
+        try {
+            while (!cerrado) {
+                enviarEncoladas();
+                vencer(System.nanoTime());
+
+                // Se marca dormido antes de revisar la cola: un productor que encola después lo ve y toca el timbre
+                dormido.set(true);
+                if (!cola.isEmpty()) {
+                    dormido.set(false);
+                    continue;
+                }
+                poller.poll(esperaMs());
+                dormido.set(false);
+
+                while (timbreRecepcion.recv(ZMQ.DONTWAIT) != null) {
+                    // Solo despierta el ciclo
+                }
+                ZMsg respuesta;
+                while ((respuesta = ZMsg.recvMsg(dealer, ZMQ.DONTWAIT)) != null) {
+                    recibir(respuesta);
+                }
+            }
+        } finally {
+            IllegalStateException cierre = new IllegalStateException("Cliente cerrado");
+            for (Solicitud solicitud : pendientes.values()) {
+                terminar(solicitud, null, cierre);
+            }
+            pendientes.clear();
+            Solicitud solicitud;
+            while ((solicitud = cola.poll()) != null) {
+                terminar(solicitud, null, cierre);
+            }
+            poller.close();
+            dealer.close();
+            timbreRecepcion.close();
+            if (cerradoEnHilo) {
+                // Nadie espera el join: el timbre y el contexto se liberan aquí
+                cerrarTimbre();
+                context.term();
+            }
+        }
+    }
+
+    private void enviarEncoladas() {
+        Solicitud solicitud;
+        while ((solicitud = cola.poll()) != null) {
+            if (solicitud.futuro.isDone()) {
+                // Cancelada por quien la pidió antes de salir
+                enVuelo.decrementAndGet();
+                continue;
+            }
+            boolean enviado = dealer.send(ByteBuffer.allocate(Long.BYTES).putLong(solicitud.id).array(),
+                ZMQ.SNDMORE | ZMQ.DONTWAIT);
+            if (!enviado) {
+                terminar(solicitud, null, new IllegalStateException("No se pudo enviar a " + direccion));
+                continue;
+            }
+            dealer.send(VACIO, ZMQ.SNDMORE);
+            dealer.send(solicitud.comando, 0);
+            pendientes.put(solicitud.id, solicitud);
+            vencimientos.add(solicitud);
+        }
+    }
+
+    private void recibir(ZMsg mensaje) {
+        try {
+            ZFrame id = mensaje.pop();
+            mensaje.pop(); // delimitador vacío del sobre
+            ZFrame cuerpo = mensaje.pop();
+            String texto = cuerpo != null ? cuerpo.getString(ZMQ.CHARSET) : null;
+            Solicitud solicitud = id != null && id.size() == Long.BYTES
+                ? pendientes.remove(ByteBuffer.wrap(id.getData()).getLong()) : null;
+            if (solicitud != null) {
+                // Ya no está en pendientes: vencer() la descarta del heap al llegar a su turno
+                terminar(solicitud, new Result(solicitud.operacion, solicitud.idLibro, texto), null);
+            }
+            // Sin solicitud: respuesta tardía de una que ya venció
+        } finally {
+            mensaje.destroy();
+        }
+    }
+
+    private void vencer(long ahora) {
+        Solicitud solicitud;
+        while ((solicitud = vencimientos.peek()) != null && solicitud.venceNs <= ahora) {
+            vencimientos.poll();
+            if (pendientes.remove(solicitud.id) != null) {
+                terminar(solicitud, null, new TimeoutException(solicitud.comando + " sin respuesta de " + direccion));
+            }
+        }
+    }
+
+    private long esperaMs() {
+        Solicitud proxima = vencimientos.peek();
+        if (proxima == null) {
+            return ESPERA_MAXIMA_MS;
+        }
+        long restante = proxima.venceNs - System.nanoTime();
+        return Math.max(0, Math.min(ESPERA_MAXIMA_MS, TimeUnit.NANOSECONDS.toMillis(restante) + 1));
+    }
+
+    private void terminar(Solicitud solicitud, Result resultado, Throwable error) {
+        enVuelo.decrementAndGet();
+        if (error != null) {
+            solicitud.futuro.completeExceptionally(error);
+        } else {
+            solicitud.futuro.complete(resultado);
+        }
+    }
+
+    private static final class Solicitud {
+        final long id;
+        final String operacion;
+        final long idLibro;
+        final String comando;
+        final long venceNs;
+        final CompletableFuture<Result> futuro = new CompletableFuture<>();
+
+        Solicitud(long id, String operacion, long idLibro, String comando, long venceNs) {
+            this.id = id;
+            this.operacion = operacion;
+            this.idLibro = idLibro;
+            this.comando = comando;
+            this.venceNs = venceNs;
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package org.example.client;
+
+/**
+ * Respuesta del GC a una solicitud de {@link LibraryClient}: operación, libro, resultado
+ * clasificado y el texto tal como lo devolvió el GC.
+ */
+public final class Result {
+
+    public enum Status {
+        // Préstamo confirmado, devolución o renovación aceptada
+        OK,
+        // El sistema respondió pero no aplicó la operación (p. ej. libro ya prestado)
+        REJECTED,
+        // Solicitud inválida o falla en la cadena GC -> actor -> GA/GA2
+        ERROR
+    }
+
+    private final String operation;
+    private final long bookId;
+    private final Status status;
+    private final String message;
+
+    Result(String operation, long bookId, String message) {
+        this.operation = operation;
+        this.bookId = bookId;
+        this.status = classify(message);
+        this.message = message;
+    }
+
+    // Clasifica un texto de respuesta del GC ("Préstamo confirmado", "Préstamo rechazado: ...", "Error: ...")
+    public static Status classify(String respuesta) {
+        if (respuesta == null || respuesta.startsWith("Error") || respuesta.startsWith("Solicitud")) {
+            return Status.ERROR;
+        }
+        return respuesta.contains("rechazad") ? Status.REJECTED : Status.OK;
+    }
+
+    public String operation() {
+        return operation;
+    }
+
+    // -1 si la solicitud no era sobre un libro (consultas, STATS)
+    public long bookId() {
+        return bookId;
+    }
+
+    public Status status() {
+        return status;
+    }
+
+    public boolean isOk() {
+        return status == Status.OK;
+    }
+
+    public String message() {
+        return message;
+    }
+
+    @Override
+    public String toString() {
+        return operation + (bookId >= 0 ? " " + bookId : "") + " -> " + status + ": " + message;
+    }
+}
@@ -16,22 +16,114 @@ public final class Config {
     public static String gcPubPort() { return env("GC_PUB_PORT", "6060"); }
     public static String actorHost() { return env("ACTOR_HOST", "localhost"); }
     public static String actorPort() { return env("ACTOR_PORT", "6056"); }
+    // Actores de préstamo a los que el GC reparte (round-robin del DEALER): "host:puerto,host:puerto"
+    public static String loanActors() { return env("LOAN_ACTORS", actorHost() + ":" + actorPort()); }
     public static String gaHost() { return env("GA_HOST", "localhost"); }
     public static String gaPort() { return env("GA_PORT", "6057"); }
     public static String ga2Host() { return env("GA2_HOST", "localhost"); }
     public static String ga2RouterPort() { return env("GA2_ROUTER_PORT", "6070"); }
     public static String ga2RepPort() { return env("GA2_REP_PORT", "6080"); }
+    public static String ga2ReplPort() { return env("GA2_REPL_PORT", "6090"); }
+    public static String ga2ReplAckPort() { return env("GA2_REPL_ACK_PORT", "6091"); }
+
+    // Sharding: "nombre=gaHost:gaPort/ga2Host:ga2Port,..." (vacío = un solo shard con GA_* / GA2_*)
+    public static String shards() { return env("SHARDS", ""); }
+    public static int shardVirtualNodes() { return Integer.parseInt(env("SHARD_VNODES", "128")); }
 
     // Paths (relative by default)
     public static String replicaBookDbPath() { return toAbs(env("R_BOOK_DB", "data/replica/books.csv")); }
     public static String replicaLoansPath() { return toAbs(env("R_LOANS_PATH", "data/replica/loans.csv")); }
     public static String replicaPendingLogPath() { return toAbs(env("R_PENDING_LOG", "data/replica/pending.log")); }
+    public static String replicaWalPath() { return toAbs(env("R_WAL_PATH", "data/replica/wal.log")); }
+    public static String replicaBookBinPath() { return toAbs(env("R_BOOK_BIN", "data/replica/books.bin")); }
+    public static String replicaCursorPath() { return toAbs(env("R_REPL_CURSOR", "data/replica/replication.cursor")); }
 
     public static String primaryBookDbPath() { return toAbs(env("P_BOOK_DB", "data/primary/books.csv")); }
     public static String primaryLoansPath() { return toAbs(env("P_LOANS_PATH", "data/primary/loans.csv")); }
     public static String primaryPendingLogPath() { return toAbs(env("P_PENDING_LOG", "data/primary/pending.log")); }
+    public static String primaryWalPath() { return toAbs(env("P_WAL_PATH", "data/primary/wal.log")); }
+    public static String primaryBookBinPath() { return toAbs(env("P_BOOK_BIN", "data/primary/books.bin")); }
+
+    // Backend del catálogo: csv (en memoria, persistido en books.csv) o mmap (books.bin mapeado en memoria)
+    public static String bookBackend() { return env("BOOK_BACKEND", "csv"); }
+
+    // WAL: FSYNC (fsync por operación), GRUPO (group commit) o SO (buffer del sistema operativo)
+    public static String walDurability() { return env("WAL_DURABILITY", "GRUPO"); }
+    public static long walGroupWindowMs() { return Long.parseLong(env("WAL_GROUP_WINDOW_MS", "0")); }
+    public static long checkpointIntervalMs() { return Long.parseLong(env("CHECKPOINT_INTERVAL_MS", "60000")); }
+    public static long checkpointWalBytes() { return Long.parseLong(env("CHECKPOINT_WAL_BYTES", "67108864")); }
+
+    // GA2: cantidad de particiones (un hilo escritor por partición de libros)
+    public static int ga2Partitions() {
+        return Integer.parseInt(env("GA2_PARTITIONS", Integer.toString(Runtime.getRuntime().availableProcessors())));
+    }
+
+    // GA2: hilos worker del broker (ROUTER 6070/6080 -> inproc)
+    public static int ga2Workers() {
+        return Integer.parseInt(env("GA2_WORKERS", Integer.toString(Runtime.getRuntime().availableProcessors())));
+    }
+
+    // Sincronización incremental: máximo de cambios por página de OBTENER_CAMBIOS
+    public static int syncPageSize() { return Integer.parseInt(env("SYNC_PAGE_SIZE", "512")); }
+    // Retraso (en LSNs) a partir del cual la réplica pide un snapshot en lugar de reproducir el log
+    public static long syncSnapshotLag() { return Long.parseLong(env("SYNC_SNAPSHOT_LAG", "100000")); }
+
+    // Migración en vivo de GA2: primario de origen (host:puertoRouter), host con el que el nuevo
+    // primario se anuncia a actores y réplica, y ancho de banda máximo de la copia
+    public static String migrateFrom() { return env("MIGRAR_DESDE", ""); }
+    public static String ga2PublicHost() { return env("GA2_PUBLIC_HOST", "localhost"); }
+    public static long migrationBytesPerSec() { return Long.parseLong(env("MIGRATION_BYTES_PER_SEC", "4194304")); }
+    // Origen de una migración: segundos sin pedidos del primario nuevo tras los que libera la retención del log
+    public static long migrationTimeoutSec() { return Long.parseLong(env("MIGRATION_TIMEOUT_S", "60")); }
 
     public static String requestsFilePath() { return toAbs(env("REQUESTS_FILE", "data/requests/requests.txt")); }
+    // Líneas consecutivas del mismo tipo que el cliente agrupa en un lote al leer el archivo (1 = sin lotes)
+    public static int requestBatchSize() { return Integer.parseInt(env("REQUEST_BATCH_SIZE", "1")); }
+
+    // Generador de carga del cliente: tasa objetivo en solicitudes/s (lazo abierto; 0 = lazo cerrado con
+    // LOAD_CONCURRENCY solicitudes en vuelo), llegadas (constante | poisson), duración, mezcla de
+    // operaciones, distribución de IDs (uniforme:1-1000 | zipf:1.1:1-1000), timeout y serie CSV por segundo
+    public static double loadRate() { return Double.parseDouble(env("LOAD_RATE", "100")); }
+    public static int loadConcurrency() { return Integer.parseInt(env("LOAD_CONCURRENCY", "8")); }
+    public static String loadArrivals() { return env("LOAD_ARRIVALS", "constante"); }
+    public static long loadDurationSec() { return Long.parseLong(env("LOAD_DURATION_S", "30")); }
+    public static String loadMix() { return env("LOAD_MIX", "PRESTAMO=50,DEVOLVER=30,RENOVAR=20"); }
+    public static String loadIds() { return env("LOAD_IDS", "uniforme:1-1000"); }
+    public static long loadTimeoutMs() { return Long.parseLong(env("LOAD_TIMEOUT_MS", "5000")); }
+    public static String loadCsvPath() { return toAbs(env("LOAD_CSV", "data/load/carga.csv")); }
+
+    // Logging (Console): nivel global y por componente (LOG_LEVEL_GA2, LOG_LEVEL_GA2_WORKER...; un
+    // componente "A-B" sin nivel propio usa el de "A"), mensajes por segundo por componente antes de
+    // muestrear (0 = sin límite), 1 de cada LOG_SAMPLE pasa por encima del límite, y tamaño del buffer
+    public static String logLevel(String componente) {
+        String clave = componente.toUpperCase().replace('-', '_');
+        while (true) {
+            String nivel = System.getenv("LOG_LEVEL_" + clave);
+            if (nivel != null && !nivel.isEmpty()) {
+                return nivel;
+            }
+            int corte = clave.lastIndexOf('_');
+            if (corte < 0) {
+                return env("LOG_LEVEL", "INFO");
+            }
+            clave = clave.substring(0, corte);
+        }
+    }
+    public static int logRatePerSec() { return Integer.parseInt(env("LOG_RATE", "1000")); }
+    public static int logSample() { return Integer.parseInt(env("LOG_SAMPLE", "100")); }
+    public static int logBufferSize() { return Integer.parseInt(env("LOG_BUFFER", "8192")); }
+
+    // Métricas: puerto HTTP de /metrics (Prometheus) del proceso; 0 = sin HTTP (STATS sigue disponible).
+    // El default de cada componente es su puerto principal + 3000
+    public static int metricsPort(int defecto) { return Integer.parseInt(env("METRICS_PORT", Integer.toString(defecto))); }
+
+    // Trazas: fracción de solicitudes muestreadas en la raíz (0..1), duración a partir de la cual un
+    // span se escribe aunque no esté muestreado (0 = nunca) y archivo de spans Zipkin del proceso
+    public static double traceSample() { return Double.parseDouble(env("TRACE_SAMPLE", "0.01")); }
+    public static long traceSlowMs() { return Long.parseLong(env("TRACE_SLOW_MS", "1000")); }
+    public static String traceFile(String servicio) {
+        return toAbs(env("TRACE_FILE", "data/traces/" + servicio.toLowerCase() + ".json"));
+    }
 
     private static String toAbs(String path) {
         return Paths.get(path).toAbsolutePath().toString();
@@ -0,0 +1,73 @@
+package org.example.config;
+
+/**
+ * Puertos con los que se llega a un primario (GA2): ROUTER de actores, ROUTER de GA y
+ * PUB/PULL de replicación. Tras una migración en vivo el primario anterior responde
+ * "MOVIDO:host:actores:ga:repl:ack" y actores y réplica se reconectan al nuevo sin reiniciar.
+ */
+public final class PrimaryEndpoint {
+
+    public static final String MOVIDO = "MOVIDO:";
+
+    private final String host;
+    private final String puertoActores;
+    private final String puertoGa;
+    private final String puertoRepl;
+    private final String puertoAck;
+
+    public PrimaryEndpoint(String host, String puertoActores, String puertoGa, String puertoRepl, String puertoAck) {
+        this.host = host;
+        this.puertoActores = puertoActores;
+        this.puertoGa = puertoGa;
+        this.puertoRepl = puertoRepl;
+        this.puertoAck = puertoAck;
+    }
+
+    // Puertos de este proceso según la configuración, anunciado con GA2_PUBLIC_HOST
+    public static PrimaryEndpoint local() {
+        return new PrimaryEndpoint(Config.ga2PublicHost(), Config.ga2RepPort(), Config.ga2RouterPort(),
+            Config.ga2ReplPort(), Config.ga2ReplAckPort());
+    }
+
+    // Primario configurado en GA2_HOST con los puertos por defecto
+    public static PrimaryEndpoint desdeConfig() {
+        return new PrimaryEndpoint(Config.ga2Host(), Config.ga2RepPort(), Config.ga2RouterPort(),
+            Config.ga2ReplPort(), Config.ga2ReplAckPort());
+    }
+
+    // "host:actores:ga:repl:ack", con o sin el prefijo MOVIDO:; null si no tiene ese formato
+    public static PrimaryEndpoint parsear(String texto) {
+        if (texto == null) {
+            return null;
+        }
+        String valor = texto.startsWith(MOVIDO) ? texto.substring(MOVIDO.length()) : texto;
+        String[] partes = valor.trim().split(":");
+        if (partes.length != 5) {
+            return null;
+        }
+        for (String parte : partes) {
+            if (parte.isBlank()) {
+                return null;
+            }
+        }
+        return new PrimaryEndpoint(partes[0], partes[1], partes[2], partes[3], partes[4]);
+    }
+
+    public static boolean esMovido(String respuesta) {
+        return respuesta != null && respuesta.startsWith(MOVIDO);
+    }
+
+    public String endpointActores() { return "tcp://" + host + ":" + puertoActores; }
+    public String endpointGa() { return "tcp://" + host + ":" + puertoGa; }
+    public String endpointRepl() { return "tcp://" + host + ":" + puertoRepl; }
+    public String endpointAck() { return "tcp://" + host + ":" + puertoAck; }
+
+    public String respuestaMovido() {
+        return MOVIDO + this;
+    }
+
+    @Override
+    public String toString() {
+        return host + ":" + puertoActores + ":" + puertoGa + ":" + puertoRepl + ":" + puertoAck;
+    }
+}
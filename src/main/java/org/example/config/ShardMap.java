@@ -0,0 +1,171 @@
+package org.example.config;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Mapa de shards del catálogo: cada shard es un par réplica (GA) / primario (GA2) y es dueño
+ * de los libros cuyo ID cae en su tramo de un anillo de hashing consistente con nodos virtuales.
+ * Agregar un shard solo mueve ~1/N de los libros.
+ *
+ * Se carga de la variable SHARDS: "nombre=gaHost:gaPort/ga2Host:ga2Port,..."
+ * (por ejemplo "a=10.0.0.1:6057/10.0.0.2:6080,b=10.0.0.3:6057/10.0.0.4:6080").
+ * Sin SHARDS hay un único shard con GA_HOST/GA_PORT y GA2_HOST/GA2_REP_PORT.
+ */
+public final class ShardMap {
+
+    public static final class Shard {
+        private final String nombre;
+        private final String gaEndpoint;
+        private final String ga2Endpoint;
+
+        Shard(String nombre, String gaEndpoint, String ga2Endpoint) {
+            this.nombre = nombre;
+            this.gaEndpoint = gaEndpoint;
+            this.ga2Endpoint = ga2Endpoint;
+        }
+
+        public String nombre() { return nombre; }
+        public String gaEndpoint() { return gaEndpoint; }
+        public String ga2Endpoint() { return ga2Endpoint; }
+
+        @Override
+        public String toString() {
+            return nombre + "(GA=" + gaEndpoint + ", GA2=" + ga2Endpoint + ")";
+        }
+    }
+
+    private final List<Shard> shards;
+    private final TreeMap<Long, Shard> anillo = new TreeMap<>();
+
+    private ShardMap(List<Shard> shards, int nodosVirtuales) {
+        this.shards = Collections.unmodifiableList(shards);
+        for (Shard shard : shards) {
+            for (int i = 0; i < nodosVirtuales; i++) {
+                anillo.put(hash(shard.nombre + "#" + i), shard);
+            }
+        }
+    }
+
+    public static ShardMap desdeConfig() {
+        String spec = Config.shards();
+        if (spec.isEmpty()) {
+            Shard unico = new Shard("principal", "tcp://" + Config.gaHost() + ":" + Config.gaPort(),
+                "tcp://" + Config.ga2Host() + ":" + Config.ga2RepPort());
+            return new ShardMap(List.of(unico), 1);
+        }
+        return parsear(spec, Config.shardVirtualNodes());
+    }
+
+    public static ShardMap parsear(String spec, int nodosVirtuales) {
+        List<Shard> shards = new ArrayList<>();
+        Map<String, Shard> porNombre = new HashMap<>();
+        for (String entrada : spec.split(",")) {
+            if (entrada.isBlank()) {
+                continue;
+            }
+            String[] nombreYDestinos = entrada.trim().split("=", 2);
+            String[] destinos = nombreYDestinos.length == 2 ? nombreYDestinos[1].split("/", 2) : new String[0];
+            if (destinos.length != 2 || nombreYDestinos[0].isBlank()) {
+                throw new IllegalArgumentException("Shard mal formado (nombre=gaHost:gaPort/ga2Host:ga2Port): " + entrada);
+            }
+            Shard shard = new Shard(nombreYDestinos[0].trim(), "tcp://" + destinos[0].trim(), "tcp://" + destinos[1].trim());
+            if (porNombre.put(shard.nombre, shard) != null) {
+                throw new IllegalArgumentException("Shard duplicado: " + shard.nombre);
+            }
+            shards.add(shard);
+        }
+        if (shards.isEmpty()) {
+            throw new IllegalArgumentException("SHARDS no define ningún shard");
+        }
+        return new ShardMap(shards, Math.max(1, nodosVirtuales));
+    }
+
+    // Shard dueño del libro: primer nodo virtual en el anillo a partir del hash del ID
+    public Shard shardDe(long idLibro) {
+        Map.Entry<Long, Shard> entrada = anillo.ceilingEntry(mezclar(idLibro));
+        return (entrada != null ? entrada : anillo.firstEntry()).getValue();
+    }
+
+    // ID en texto (como llega en las solicitudes); si no cabe en un long se usa el hash del texto
+    public Shard shardDe(String idLibro) {
+        String id = idLibro.trim();
+        if (id.length() <= 18 && id.matches("\\d+")) {
+            return shardDe(Long.parseLong(id));
+        }
+        Map.Entry<Long, Shard> entrada = anillo.ceilingEntry(hash(id));
+        return (entrada != null ? entrada : anillo.firstEntry()).getValue();
+    }
+
+    public List<Shard> shards() {
+        return shards;
+    }
+
+    // FNV-1a de 64 bits seguido de la mezcla final, para posiciones de nodos virtuales
+    private static long hash(String texto) {
+        long h = 0xcbf29ce484222325L;
+        for (byte b : texto.getBytes(StandardCharsets.UTF_8)) {
+            h ^= b;
+            h *= 0x100000001b3L;
+        }
+        return mezclar(h);
+    }
+
+    private static long mezclar(long x) {
+        x = (x ^ (x >>> 30)) * 0xbf58476d1ce4e5b9L;
+        x = (x ^ (x >>> 27)) * 0x94d049bb133111ebL;
+        return x ^ (x >>> 31);
+    }
+
+    /**
+     * Uso: ShardMap dividir books.csv dirSalida
+     * Escribe books.&lt;shard&gt;.csv con los libros de cada shard según SHARDS (para cargar cada par GA/GA2).
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length != 2 || !args[0].equals("dividir")) {
+            System.out.println("Uso: ShardMap dividir <books.csv> <dirSalida>");
+            return;
+        }
+        ShardMap mapa = desdeConfig();
+        Path salida = Paths.get(args[1]);
+        Files.createDirectories(salida);
+        Map<String, BufferedWriter> escritores = new HashMap<>();
+        Map<String, Integer> cantidades = new HashMap<>();
+        try (BufferedReader reader = Files.newBufferedReader(Paths.get(args[0]), StandardCharsets.UTF_8)) {
+            for (Shard shard : mapa.shards()) {
+                escritores.put(shard.nombre, Files.newBufferedWriter(salida.resolve("books." + shard.nombre + ".csv"),
+                    StandardCharsets.UTF_8));
+                cantidades.put(shard.nombre, 0);
+            }
+            String linea;
+            while ((linea = reader.readLine()) != null) {
+                String id = linea.split(",", 2)[0].trim();
+                if (linea.isBlank() || !id.matches("\\d+")) {
+                    continue;
+                }
+                Shard shard = mapa.shardDe(id);
+                escritores.get(shard.nombre).write(linea);
+                escritores.get(shard.nombre).newLine();
+                cantidades.merge(shard.nombre, 1, Integer::sum);
+            }
+        } finally {
+            for (BufferedWriter escritor : escritores.values()) {
+                escritor.close();
+            }
+        }
+        for (Shard shard : mapa.shards()) {
+            System.out.println(shard + ": " + cantidades.get(shard.nombre) + " libros");
+        }
+    }
+}
@@ -1,64 +1,207 @@
 package org.example.front;
 
 import org.example.config.Config;
+import org.example.config.ShardMap;
+import org.example.util.BatchRequest;
 import org.example.util.CommandRouter;
 import org.example.util.Console;
+import org.example.util.Envelope;
+import org.example.util.Metrics;
+import org.example.util.Trace;
+import org.zeromq.ZFrame;
 import org.zeromq.ZMQ;
+import org.zeromq.ZMsg;
 
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * Gestor de Carga: un solo hilo con un {@link ZMQ.Poller} sobre el ROUTER de los clientes y los
+ * DEALER hacia los actores de préstamo y las réplicas (GA) de cada shard. Ninguna solicitud bloquea
+ * el ciclo: los préstamos, lotes y consultas salen al backend con un id de correlación
+ * ([id][""][cuerpo][traza]) y la respuesta al cliente se envía cuando llega la del backend (o al
+ * vencer su timeout). Devoluciones y renovaciones se publican y se responden en el momento.
+ *
+ * Los clientes pueden ser REQ (una solicitud a la vez) o DEALER con muchas en vuelo; el sobre del
+ * cliente (identidad y frames hasta el delimitador vacío) se devuelve tal cual con la respuesta.
+ */
 public class LoadBalancer {
 
     private static final String UNKNOWN_RESPONSE = "Solicitud no reconocida";
     private static final String GC_BIND_HOST = Config.gcBindHost();
     private static final String PS_PORT = Config.gcPsPort();
     private static final String PUB_PORT = Config.gcPubPort();
-    private static final String ACTOR_HOST = Config.actorHost();
-    private static final String ACTOR_PORT = Config.actorPort();
+    private static final int QUERY_TIMEOUT_MS = 3000;
+    // El actor espera al GA y luego a GA2 (lotes: hasta 30 s en cada uno)
+    private static final int ACTOR_TIMEOUT_MS = 60000;
+    private static final long ESPERA_MAXIMA_MS = 100;
+    private static final byte[] VACIO = new byte[0];
+    // Saltos de las métricas y trazas: la solicitud completa en el GC y sus llamadas al actor y a la
+    // réplica; la publicación al actor de devoluciones/renovaciones solo como span
+    private static final String HOP = "GC";
+    private static final String HOP_ACTOR = "GC->ACTOR";
+    private static final String HOP_GA = "GC->GA";
+    private static final String HOP_PUB = "GC->ACTOR-RR";
 
     private static final String ADDRESS_PS = "tcp://" + GC_BIND_HOST + ":" + PS_PORT;
     private static final String ADDRESS_PUB = "tcp://" + GC_BIND_HOST + ":" + PUB_PORT;
-    private static final String ADDRESS_ACTOR = "tcp://" + ACTOR_HOST + ":" + ACTOR_PORT;
 
     private ZMQ.Context context;
-    private ZMQ.Socket socketPS;
+    private ZMQ.Socket frontend;
     private ZMQ.Socket publisher;
-    private ZMQ.Socket loanActor;
+    private ZMQ.Socket loanActors;
+    // DEALER a la réplica (GA) de cada shard para las consultas de solo lectura
+    private ShardMap shards;
+    private final Map<String, ZMQ.Socket> replicas = new LinkedHashMap<>();
+    private ZMQ.Poller poller;
+    // idSolicitud de los sobres que salen del GC
+    private long secuencia;
+    private long correlacion;
+
+    // Solicitud del cliente que se está despachando; los handlers que llaman a un backend la usan
+    private Pendiente actual;
+    // Llamadas a backends en curso por correlación, y por vencimiento (se descartan al responderse)
+    private final Map<Long, Llamada> llamadas = new HashMap<>();
+    private final PriorityQueue<Llamada> vencimientos =
+        new PriorityQueue<>((a, b) -> Long.compare(a.venceNs, b.venceNs));
+
+    // Las consultas de solo lectura van a la réplica (GA); deben registrarse antes de "PRESTAMO".
+    // Los lotes van al actor de préstamos para devolver un resultado por ID, así que también se
+    // registran antes de "DEVOLVER"/"RENOVAR" (que se publican sin respuesta). Un handler que
+    // devuelve null deja la respuesta pendiente de los backends
     private final CommandRouter router = new CommandRouter(UNKNOWN_RESPONSE)
+        .onPrefix("ESTADO", this::handleQuery)
+        .onPrefix("PRESTAMO?", this::handleQuery)
+        .onPrefix("MULTIGET", this::handleMultiGet)
+        .onPrefix("LISTAR_DISPONIBLES", this::handleQueryAllShards)
+        .onPrefix("VENCIDOS", this::handleQueryAllShards)
+        .onPrefix(BatchRequest.PRESTAMO, this::handleBatch)
+        .onPrefix(BatchRequest.DEVOLVER, this::handleBatch)
+        .onPrefix(BatchRequest.RENOVAR, this::handleBatch)
         .onPrefix("DEVOLVER", this::handleReturn)
         .onPrefix("RENOVAR", this::handleRenewal)
         .onPrefix("PRESTAMO", this::handleLoan)
-        .onExact("PING", req -> "PONG");
+        .onExact("PING", req -> "PONG")
+        .onExact(Metrics.STATS, req -> Metrics.stats());
 
-    public static void main(String[] args) throws InterruptedException {
+    public static void main(String[] args) {
         new LoadBalancer().start();
     }
 
-    public void start() throws InterruptedException {
+    public void start() {
         context = ZMQ.context(1);
         initSockets();
-        Console.info("GC", "Listening " + ADDRESS_PS + " (REQ) / " + ADDRESS_PUB + " (PUB)");
+        Metrics.iniciar(HOP, Config.metricsPort(Integer.parseInt(PS_PORT) + 3000));
+        Trace.iniciar(HOP);
+        Console.info("GC", "Listening " + ADDRESS_PS + " (ROUTER) / " + ADDRESS_PUB + " (PUB), actores "
+            + Config.loanActors() + ", shards=" + shards.shards());
 
+        List<ZMQ.Socket> backends = new ArrayList<>();
+        backends.add(loanActors);
+        backends.addAll(replicas.values());
         while (!Thread.currentThread().isInterrupted()) {
-            String request = socketPS.recvStr();
-            Console.info("GC", "Solicitud: " + request);
-
-            String response = handleRequest(request);
-            socketPS.send(response, 0);
-
-            Thread.sleep(100);
+            if (poller.poll(esperaMs()) < 0) {
+                break;
+            }
+            ZMsg mensaje;
+            while ((mensaje = ZMsg.recvMsg(frontend, ZMQ.DONTWAIT)) != null) {
+                recibirCliente(mensaje);
+            }
+            for (ZMQ.Socket backend : backends) {
+                while ((mensaje = ZMsg.recvMsg(backend, ZMQ.DONTWAIT)) != null) {
+                    recibirBackend(mensaje);
+                }
+            }
+            vencer(System.nanoTime());
         }
 
         closeSockets();
     }
 
     private void initSockets() {
-        socketPS = context.socket(ZMQ.REP);
-        socketPS.bind(ADDRESS_PS);
+        frontend = context.socket(ZMQ.ROUTER);
+        frontend.bind(ADDRESS_PS);
 
         publisher = context.socket(ZMQ.PUB);
         publisher.bind(ADDRESS_PUB);
 
-        loanActor = context.socket(ZMQ.REQ);
-        loanActor.connect(ADDRESS_ACTOR);
+        // El DEALER reparte round-robin entre los actores conectados
+        loanActors = dealer();
+        for (String actor : Config.loanActors().split(",")) {
+            if (!actor.isBlank()) {
+                loanActors.connect("tcp://" + actor.trim());
+            }
+        }
+
+        shards = ShardMap.desdeConfig();
+        for (ShardMap.Shard shard : shards.shards()) {
+            ZMQ.Socket replica = dealer();
+            replica.connect(shard.gaEndpoint());
+            replicas.put(shard.nombre(), replica);
+        }
+
+        poller = context.poller(2 + replicas.size());
+        poller.register(frontend, ZMQ.Poller.POLLIN);
+        poller.register(loanActors, ZMQ.Poller.POLLIN);
+        replicas.values().forEach(replica -> poller.register(replica, ZMQ.Poller.POLLIN));
+    }
+
+    private ZMQ.Socket dealer() {
+        ZMQ.Socket socket = context.socket(ZMQ.DEALER);
+        socket.setLinger(0);
+        return socket;
+    }
+
+    // [identidad][...][""][solicitud][traza]: el sobre hasta el delimitador vuelve con la respuesta
+    private void recibirCliente(ZMsg mensaje) {
+        ZMsg ruta = new ZMsg();
+        boolean delimitado = false;
+        while (!mensaje.isEmpty() && !delimitado) {
+            ZFrame frame = mensaje.pop();
+            ruta.add(frame);
+            delimitado = frame.size() == 0;
+        }
+        if (!delimitado) {
+            Console.warn("GC", "Mensaje sin delimitador descartado (" + ruta.size() + " frames)");
+            ruta.destroy();
+            mensaje.destroy();
+            return;
+        }
+        ZFrame cuerpo = mensaje.pop();
+        String request = cuerpo == null ? null : cuerpo.getString(ZMQ.CHARSET);
+        String operacion = Metrics.operacion(request);
+        // La traza de la solicitud empieza aquí (o sigue la del cliente si envió el frame)
+        ZFrame traza = mensaje.peekLast();
+        Trace.Span span = Trace.recibir(traza == null ? null : traza.getData(), HOP, operacion);
+        mensaje.destroy();
+        // Por solicitud: en DEBUG para no saturar el escritor de logs con carga alta
+        if (Console.habilitado(Console.Nivel.DEBUG, "GC")) {
+            Console.debug("GC", "Solicitud: " + request + " (traza " + span.traceId() + ")");
+        }
+
+        actual = new Pendiente(ruta, span, operacion);
+        try {
+            String response = handleRequest(request);
+            if (response != null) {
+                responder(actual, response);
+            }
+        } finally {
+            actual = null;
+        }
+    }
+
+    private void responder(Pendiente pendiente, String response) {
+        pendiente.ruta.add(response);
+        pendiente.ruta.send(frontend);
+        Metrics.registrar(HOP, pendiente.operacion, pendiente.inicio);
+        pendiente.span.terminar();
     }
 
     private String handleRequest(String request) {
@@ -73,25 +216,213 @@ public class LoadBalancer {
         return response;
     }
 
+    // Devoluciones y renovaciones se publican como sobre; el prefijo [versión][opcode] es el tópico
     private String handleReturn(String request) {
-        Console.info("GC", "DEVOLVER -> publish");
-        publisher.send("DEVOLUCION " + request);
+        Console.debug("GC", "DEVOLVER -> publish");
+        publish(request);
         return "Devolución aceptada, gracias.";
     }
 
     private String handleRenewal(String request) {
         String newDate = getRenewalDate();
-        Console.info("GC", "RENOVAR -> publish, nueva fecha " + newDate);
-        publisher.send("RENOVACION " + request);
+        Console.debug("GC", "RENOVAR -> publish, nueva fecha " + newDate);
+        publish(request);
         return "Renovación aceptada, nueva fecha: " + newDate;
     }
 
+    private void publish(String request) {
+        Envelope envelope = Envelope.desdeTexto(request, ++secuencia);
+        if (envelope == null || envelope.idLibro() < 0) {
+            Console.warn("GC", "ID no reconocido, no se publica: " + request);
+            return;
+        }
+        Trace.Span span = Trace.publicar(HOP_PUB, envelope.operacion());
+        envelope.enviar(publisher, ZMQ.SNDMORE);
+        span.propagar(publisher);
+        span.terminar();
+    }
+
+    // El texto del cliente se convierte a sobre aquí, una sola vez; la respuesta vuelve a texto
     private String handleLoan(String request) {
-        Console.info("GC", "PRESTAMO -> actor");
-        loanActor.send(request, 0);
-        String loanResponse = loanActor.recvStr();
-        Console.info("GC", "Respuesta actor: " + loanResponse);
-        return loanResponse;
+        Envelope envelope = Envelope.desdeTexto(request, ++secuencia);
+        if (envelope == null || envelope.idLibro() < 0) {
+            return "Error: No se pudo extraer el ID del libro";
+        }
+        Console.debug("GC", "PRESTAMO -> actor " + envelope);
+        return esperar(1, partes -> partes[0], pendiente -> llamar(loanActors, HOP_ACTOR, envelope.operacion(),
+            ACTOR_TIMEOUT_MS, "Error: El actor de préstamos no respondió", pendiente, 0,
+            socket -> envelope.enviar(socket, ZMQ.SNDMORE),
+            datos -> loanText(envelope.leerRespuesta(datos))));
+    }
+
+    private String loanText(Envelope response) {
+        if (response.exitosa()) {
+            return "Préstamo confirmado";
+        } else if (response.estado() == Envelope.RECHAZADO || response.estado() == Envelope.NO_EXISTE) {
+            return "Préstamo rechazado: " + response.texto();
+        }
+        Console.warn("GC", "Respuesta desconocida del actor: " + response.texto());
+        return "Error: respuesta desconocida del GA";
+    }
+
+    private String handleBatch(String request) {
+        String tipo = BatchRequest.tipo(request);
+        Console.debug("GC", tipo + " -> actor");
+        return esperar(1, partes -> partes[0], pendiente -> llamar(loanActors, HOP_ACTOR, tipo, ACTOR_TIMEOUT_MS,
+            "Error: El actor de préstamos no respondió", pendiente, 0, texto(request), LoadBalancer::aTexto));
+    }
+
+    // Consulta de un libro: a la réplica del shard dueño del ID
+    private String handleQuery(String request, long bookId) {
+        if (bookId < 0) {
+            return "Error: ID de libro no válido";
+        }
+        ShardMap.Shard shard = shards.shardDe(bookId);
+        return esperar(1, partes -> partes[0], pendiente -> queryShard(pendiente, 0, shard, request));
+    }
+
+    // MULTIGET: agrupa los IDs por shard y une las respuestas
+    private String handleMultiGet(String request) {
+        if (shards.shards().size() == 1) {
+            ShardMap.Shard shard = shards.shards().get(0);
+            return esperar(1, partes -> partes[0], pendiente -> queryShard(pendiente, 0, shard, request));
+        }
+        int start = request.indexOf(':');
+        Map<ShardMap.Shard, StringBuilder> idsByShard = new LinkedHashMap<>();
+        for (String id : request.substring(start + 1).split("[,; ]+")) {
+            if (!id.isBlank()) {
+                StringBuilder ids = idsByShard.computeIfAbsent(shards.shardDe(id), shard -> new StringBuilder());
+                ids.append(ids.length() == 0 ? "" : ",").append(id.trim());
+            }
+        }
+        if (idsByShard.isEmpty()) {
+            return "Error: Sin IDs válidos";
+        }
+        List<Map.Entry<ShardMap.Shard, StringBuilder>> grupos = new ArrayList<>(idsByShard.entrySet());
+        return esperar(grupos.size(), partes -> String.join(" | ", partes), pendiente -> {
+            for (int i = 0; i < grupos.size(); i++) {
+                queryShard(pendiente, i, grupos.get(i).getKey(), "MULTIGET:" + grupos.get(i).getValue());
+            }
+        });
+    }
+
+    // LISTAR_DISPONIBLES / VENCIDOS: a todas las réplicas
+    private String handleQueryAllShards(String request) {
+        List<ShardMap.Shard> todos = shards.shards();
+        return esperar(todos.size(), partes -> String.join(" | ", partes), pendiente -> {
+            for (int i = 0; i < todos.size(); i++) {
+                queryShard(pendiente, i, todos.get(i), request);
+            }
+        });
+    }
+
+    private void queryShard(Pendiente pendiente, int parte, ShardMap.Shard shard, String request) {
+        Console.debug("GC", "Consulta -> réplica " + shard.nombre());
+        llamar(replicas.get(shard.nombre()), HOP_GA, Metrics.operacion(request), QUERY_TIMEOUT_MS,
+            "Error: La réplica no respondió", pendiente, parte, texto(request), LoadBalancer::aTexto);
+    }
+
+    /**
+     * Deja la solicitud en curso esperando {@code partes} respuestas de backends, que {@code enviar}
+     * dispara con {@link #llamar}; {@code combinar} arma el texto para el cliente. Devuelve null
+     * (respuesta pendiente) salvo que todas las partes ya se hayan resuelto al enviar.
+     */
+    private String esperar(int partes, Function<String[], String> combinar, Consumer<Pendiente> enviar) {
+        Pendiente pendiente = actual;
+        pendiente.esperar(partes, combinar);
+        enviar.accept(pendiente);
+        pendiente.enviado = true;
+        if (pendiente.faltan == 0) {
+            responder(pendiente, pendiente.combinar.apply(pendiente.partes));
+        }
+        return null;
+    }
+
+    // Envía [correlación][""][cuerpo][traza] al backend y registra la llamada hasta su respuesta o timeout
+    private void llamar(ZMQ.Socket backend, String hop, String operacion, int timeoutMs, String textoTimeout,
+                        Pendiente pendiente, int parte, Consumer<ZMQ.Socket> cuerpo, Function<byte[], String> respuesta) {
+        Trace.Span span = Trace.cliente(hop, operacion);
+        long id = ++correlacion;
+        if (!backend.send(ByteBuffer.allocate(Long.BYTES).putLong(id).array(), ZMQ.SNDMORE | ZMQ.DONTWAIT)) {
+            // Sin backend conectado o cola llena: se responde en el momento en lugar de bloquear el ciclo
+            Metrics.contar(hop, "saturado");
+            span.error("saturado");
+            span.terminar();
+            completar(pendiente, parte, textoTimeout);
+            return;
+        }
+        backend.send(VACIO, ZMQ.SNDMORE);
+        cuerpo.accept(backend);
+        span.propagar(backend);
+        Llamada llamada = new Llamada(id, pendiente, parte, hop, operacion, span, respuesta, textoTimeout,
+            System.nanoTime() + timeoutMs * 1_000_000L);
+        llamadas.put(id, llamada);
+        vencimientos.add(llamada);
+    }
+
+    // [correlación][""][respuesta] de un actor o una réplica
+    private void recibirBackend(ZMsg mensaje) {
+        try {
+            ZFrame clave = mensaje.pop();
+            mensaje.pop();
+            ZFrame cuerpo = mensaje.pop();
+            Llamada llamada = clave != null && clave.size() == Long.BYTES
+                ? llamadas.remove(ByteBuffer.wrap(clave.getData()).getLong()) : null;
+            if (llamada == null) {
+                // Llegó después del timeout: el cliente ya recibió el error
+                Metrics.contar(HOP, "respuesta_tardia");
+                return;
+            }
+            Metrics.registrar(llamada.hop, llamada.operacion, llamada.inicio);
+            llamada.span.terminar();
+            String texto = llamada.respuesta.apply(cuerpo == null ? VACIO : cuerpo.getData());
+            if (Console.habilitado(Console.Nivel.DEBUG, "GC")) {
+                Console.debug("GC", "Respuesta " + llamada.hop + ": " + texto);
+            }
+            completar(llamada.pendiente, llamada.parte, texto);
+        } finally {
+            mensaje.destroy();
+        }
+    }
+
+    private void vencer(long ahora) {
+        Llamada llamada;
+        while ((llamada = vencimientos.peek()) != null && llamada.venceNs <= ahora) {
+            vencimientos.poll();
+            if (llamadas.remove(llamada.id) == null) {
+                continue;
+            }
+            Metrics.registrar(llamada.hop, llamada.operacion, llamada.inicio);
+            Metrics.contar(llamada.hop, "timeout");
+            llamada.span.error("timeout");
+            llamada.span.terminar();
+            Console.warn("GC", llamada.hop + " sin respuesta para " + llamada.operacion);
+            completar(llamada.pendiente, llamada.parte, llamada.textoTimeout);
+        }
+    }
+
+    private void completar(Pendiente pendiente, int parte, String texto) {
+        pendiente.partes[parte] = texto;
+        if (--pendiente.faltan == 0 && pendiente.enviado) {
+            responder(pendiente, pendiente.combinar.apply(pendiente.partes));
+        }
+    }
+
+    private long esperaMs() {
+        Llamada proxima = vencimientos.peek();
+        if (proxima == null) {
+            return ESPERA_MAXIMA_MS;
+        }
+        long restante = (proxima.venceNs - System.nanoTime()) / 1_000_000L;
+        return Math.max(0, Math.min(ESPERA_MAXIMA_MS, restante + 1));
+    }
+
+    private static Consumer<ZMQ.Socket> texto(String request) {
+        return socket -> socket.send(request, ZMQ.SNDMORE);
+    }
+
+    private static String aTexto(byte[] datos) {
+        return new String(datos, ZMQ.CHARSET);
     }
 
     private String getRenewalDate() {
@@ -100,10 +431,63 @@ public class LoadBalancer {
     }
 
     private void closeSockets() {
-        socketPS.close();
+        poller.close();
+        frontend.close();
         publisher.close();
-        loanActor.close();
+        loanActors.close();
+        replicas.values().forEach(ZMQ.Socket::close);
         context.term();
         Console.info("GC", "Sockets cerrados.");
     }
+
+    // Solicitud de un cliente a la espera de una o más respuestas de backends
+    private static final class Pendiente {
+        final ZMsg ruta;
+        final Trace.Span span;
+        final String operacion;
+        final long inicio = System.nanoTime();
+        String[] partes;
+        int faltan;
+        boolean enviado;
+        Function<String[], String> combinar;
+
+        Pendiente(ZMsg ruta, Trace.Span span, String operacion) {
+            this.ruta = ruta;
+            this.span = span;
+            this.operacion = operacion;
+        }
+
+        void esperar(int cantidad, Function<String[], String> combinar) {
+            this.partes = new String[cantidad];
+            this.faltan = cantidad;
+            this.combinar = combinar;
+        }
+    }
+
+    // Una llamada a un backend: parte de una solicitud pendiente
+    private static final class Llamada {
+        final long id;
+        final Pendiente pendiente;
+        final int parte;
+        final String hop;
+        final String operacion;
+        final Trace.Span span;
+        final Function<byte[], String> respuesta;
+        final String textoTimeout;
+        final long inicio = System.nanoTime();
+        final long venceNs;
+
+        Llamada(long id, Pendiente pendiente, int parte, String hop, String operacion, Trace.Span span,
+                Function<byte[], String> respuesta, String textoTimeout, long venceNs) {
+            this.id = id;
+            this.pendiente = pendiente;
+            this.parte = parte;
+            this.hop = hop;
+            this.operacion = operacion;
+            this.span = span;
+            this.respuesta = respuesta;
+            this.textoTimeout = textoTimeout;
+            this.venceNs = venceNs;
+        }
+    }
 }
@@ -0,0 +1,363 @@
+package org.example.front;
+
+import org.example.client.Result;
+import org.example.config.Config;
+import org.example.util.Console;
+import org.example.util.LatencyHistogram;
+import org.zeromq.ZFrame;
+import org.zeromq.ZMQ;
+import org.zeromq.ZMsg;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Generador de carga del cliente (RequestProducer opción 3 o argumento "carga"). Envía PRESTAMO,
+ * DEVOLVER y RENOVAR al GC por un DEALER, sin esperar cada respuesta: cada solicitud viaja como
+ * [correlación][""][texto] y el GC devuelve el sobre [correlación][""] con la respuesta.
+ *
+ * En lazo abierto (LOAD_RATE > 0) las solicitudes salen según un calendario fijo y la latencia se
+ * mide desde el instante previsto, no desde el envío real: si el generador o el GC se atrasan, la
+ * espera entra en los percentiles (sin omisión coordinada). En lazo cerrado (LOAD_RATE = 0) hay
+ * LOAD_CONCURRENCY solicitudes en vuelo y la latencia se mide desde el envío.
+ *
+ * Al terminar imprime por operación throughput, rechazos, errores, timeouts y percentiles, y deja
+ * en LOAD_CSV una fila por segundo y operación.
+ */
+public final class LoadGenerator {
+
+    private static final String[] OPERACIONES = {"PRESTAMO", "DEVOLVER", "RENOVAR"};
+    private static final long INTERVALO_NS = TimeUnit.SECONDS.toNanos(1);
+    private static final String CSV_CABECERA =
+        "segundo,operacion,enviadas,respuestas,ok,rechazadas,errores,timeouts,p50_ms,p99_ms,max_ms";
+
+    private final ZMQ.Context context;
+    private final String direccion;
+    private final double tasa;
+    private final int concurrencia;
+    private final boolean poisson;
+    private final long duracionNs;
+    private final long timeoutNs;
+    private final double[] mezcla;
+    private final Ids ids;
+    private final Path csv;
+    private final SplittableRandom azar = new SplittableRandom();
+
+    private final Resultado[] resultados = new Resultado[OPERACIONES.length];
+    // Solicitudes en vuelo por correlación, en orden de envío (el primero es el próximo en expirar)
+    private final LinkedHashMap<Long, Pendiente> pendientes = new LinkedHashMap<>();
+    private long correlacion;
+    private long tardias;
+
+    public LoadGenerator(ZMQ.Context context, String direccion) {
+        this.context = context;
+        this.direccion = direccion;
+        this.tasa = Config.loadRate();
+        this.concurrencia = Math.max(1, Config.loadConcurrency());
+        this.poisson = "poisson".equalsIgnoreCase(Config.loadArrivals());
+        this.duracionNs = TimeUnit.SECONDS.toNanos(Config.loadDurationSec());
+        this.timeoutNs = TimeUnit.MILLISECONDS.toNanos(Config.loadTimeoutMs());
+        this.mezcla = mezcla(Config.loadMix());
+        this.ids = Ids.desde(Config.loadIds());
+        this.csv = Paths.get(Config.loadCsvPath());
+        for (int i = 0; i < resultados.length; i++) {
+            resultados[i] = new Resultado(OPERACIONES[i]);
+        }
+    }
+
+    public void ejecutar() {
+        Console.info("CARGA", (tasa > 0 ? "Lazo abierto a " + tasa + " sol/s (" + (poisson ? "poisson" : "constante") + ")"
+            : "Lazo cerrado con " + concurrencia + " en vuelo") + " durante " + TimeUnit.NANOSECONDS.toSeconds(duracionNs)
+            + " s contra " + direccion + ", mezcla " + Config.loadMix() + ", IDs " + Config.loadIds());
+
+        ZMQ.Socket dealer = context.socket(ZMQ.DEALER);
+        dealer.setLinger(0);
+        dealer.setSndHWM(0);
+        dealer.setRcvHWM(0);
+        dealer.connect(direccion);
+        ZMQ.Poller poller = context.poller(1);
+        poller.register(dealer, ZMQ.Poller.POLLIN);
+
+        try {
+            Files.createDirectories(csv.toAbsolutePath().getParent());
+            try (BufferedWriter serie = Files.newBufferedWriter(csv, StandardCharsets.UTF_8)) {
+                serie.write(CSV_CABECERA);
+                serie.newLine();
+                generar(dealer, poller, serie);
+            }
+            Console.info("CARGA", "Serie por segundo en " + csv);
+        } catch (IOException e) {
+            Console.error("CARGA", "No se pudo escribir " + csv + ": " + e.getMessage());
+        } finally {
+            poller.close();
+            dealer.close();
+        }
+        System.out.println(resumen());
+    }
+
+    private void generar(ZMQ.Socket dealer, ZMQ.Poller poller, BufferedWriter serie) throws IOException {
+        long inicio = System.nanoTime();
+        long fin = inicio + duracionNs;
+        long proximo = inicio;
+        long corte = inicio + INTERVALO_NS;
+        int segundo = 1;
+
+        while (true) {
+            long ahora = System.nanoTime();
+            if (ahora < fin) {
+                if (tasa > 0) {
+                    // Se envía todo lo que ya venció en el calendario, aunque el ciclo se haya atrasado
+                    while (proximo <= ahora && proximo < fin) {
+                        enviar(dealer, proximo);
+                        proximo += siguienteLlegada();
+                    }
+                } else {
+                    while (pendientes.size() < concurrencia) {
+                        enviar(dealer, System.nanoTime());
+                    }
+                }
+            } else if (pendientes.isEmpty()) {
+                break;
+            }
+            expirar(ahora);
+            if (ahora >= corte) {
+                escribirIntervalo(serie, segundo++);
+                corte += INTERVALO_NS;
+            }
+
+            long despertar = tasa > 0 && ahora < fin ? Math.min(proximo, corte) : corte;
+            poller.poll(Math.max(0, TimeUnit.NANOSECONDS.toMillis(despertar - ahora)));
+            ZMsg respuesta;
+            while ((respuesta = ZMsg.recvMsg(dealer, ZMQ.DONTWAIT)) != null) {
+                recibir(respuesta);
+            }
+        }
+        escribirIntervalo(serie, segundo);
+    }
+
+    private void enviar(ZMQ.Socket dealer, long previstoNs) {
+        int operacion = operacion();
+        long id = ids.siguiente(azar);
+        long clave = ++correlacion;
+        dealer.send(ByteBuffer.allocate(Long.BYTES).putLong(clave).array(), ZMQ.SNDMORE);
+        dealer.send(new byte[0], ZMQ.SNDMORE);
+        dealer.send(OPERACIONES[operacion] + ":" + id, 0);
+        pendientes.put(clave, new Pendiente(operacion, previstoNs));
+        resultados[operacion].enviadas++;
+        resultados[operacion].intervalo.enviadas++;
+    }
+
+    private void recibir(ZMsg mensaje) {
+        try {
+            ZFrame clave = mensaje.pop();
+            mensaje.pop(); // delimitador vacío del sobre
+            ZFrame cuerpo = mensaje.pop();
+            String texto = cuerpo != null ? cuerpo.getString(ZMQ.CHARSET) : null;
+            Pendiente pendiente = clave != null && clave.size() == Long.BYTES
+                ? pendientes.remove(ByteBuffer.wrap(clave.getData()).getLong()) : null;
+            if (pendiente == null) {
+                // Respuesta de una solicitud que ya se contó como timeout
+                tardias++;
+                return;
+            }
+            resultados[pendiente.operacion].registrar(texto, System.nanoTime() - pendiente.previstoNs);
+        } finally {
+            mensaje.destroy();
+        }
+    }
+
+    private void expirar(long ahora) {
+        Iterator<Pendiente> it = pendientes.values().iterator();
+        while (it.hasNext()) {
+            Pendiente pendiente = it.next();
+            if (ahora - pendiente.previstoNs < timeoutNs) {
+                break;
+            }
+            it.remove();
+            resultados[pendiente.operacion].timeouts++;
+            resultados[pendiente.operacion].intervalo.timeouts++;
+        }
+    }
+
+    private void escribirIntervalo(BufferedWriter serie, int segundo) throws IOException {
+        for (Resultado resultado : resultados) {
+            Contadores c = resultado.intervalo;
+            serie.write(String.format(Locale.ROOT, "%d,%s,%d,%d,%d,%d,%d,%d,%.3f,%.3f,%.3f", segundo, resultado.operacion,
+                c.enviadas, c.latencias.cantidad(), c.ok, c.rechazadas, c.errores, c.timeouts,
+                ms(c.latencias.percentil(0.50)), ms(c.latencias.percentil(0.99)), ms(c.latencias.maximoNanos())));
+            serie.newLine();
+            resultado.intervalo = new Contadores();
+        }
+        serie.flush();
+    }
+
+    private String resumen() {
+        double segundos = duracionNs / 1e9;
+        StringBuilder sb = new StringBuilder("\nResumen de carga (latencia en ms desde el envío ")
+            .append(tasa > 0 ? "previsto" : "real").append(")\n");
+        sb.append(String.format(Locale.ROOT, "%-9s %9s %9s %9s %8s %8s %9s %9s %9s %9s %9s %9s%n",
+            "operacion", "enviadas", "ok", "rechazo", "errores", "timeouts", "resp/s", "p50", "p90", "p99", "p99.9", "max"));
+        for (Resultado r : resultados) {
+            LatencyHistogram h = r.latencias;
+            sb.append(String.format(Locale.ROOT, "%-9s %9d %9d %9d %8d %8d %9.1f %9.3f %9.3f %9.3f %9.3f %9.3f%n",
+                r.operacion, r.enviadas, r.ok, r.rechazadas, r.errores, r.timeouts, h.cantidad() / segundos,
+                ms(h.percentil(0.50)), ms(h.percentil(0.90)), ms(h.percentil(0.99)), ms(h.percentil(0.999)),
+                ms(h.maximoNanos())));
+        }
+        sb.append("Respuestas tardías (después del timeout): ").append(tardias);
+        return sb.toString();
+    }
+
+    private long siguienteLlegada() {
+        double media = 1e9 / tasa;
+        return Math.max(1, (long) (poisson ? -Math.log(1 - azar.nextDouble()) * media : media));
+    }
+
+    private int operacion() {
+        double u = azar.nextDouble();
+        for (int i = 0; i < mezcla.length - 1; i++) {
+            if (u < mezcla[i]) {
+                return i;
+            }
+        }
+        return mezcla.length - 1;
+    }
+
+    // "PRESTAMO=50,DEVOLVER=30,RENOVAR=20" -> probabilidades acumuladas en el orden de OPERACIONES
+    private static double[] mezcla(String texto) {
+        double[] pesos = new double[OPERACIONES.length];
+        for (String parte : texto.split(",")) {
+            String[] kv = parte.trim().split("=");
+            int i = Arrays.asList(OPERACIONES).indexOf(kv[0].trim().toUpperCase());
+            if (kv.length != 2 || i < 0) {
+                throw new IllegalArgumentException("LOAD_MIX inválido: " + texto);
+            }
+            pesos[i] = Double.parseDouble(kv[1].trim());
+        }
+        double total = Arrays.stream(pesos).sum();
+        if (total <= 0) {
+            throw new IllegalArgumentException("LOAD_MIX sin operaciones: " + texto);
+        }
+        double acumulado = 0;
+        for (int i = 0; i < pesos.length; i++) {
+            acumulado += pesos[i] / total;
+            pesos[i] = acumulado;
+        }
+        return pesos;
+    }
+
+    private static double ms(long nanos) {
+        return nanos / 1e6;
+    }
+
+    private static final class Pendiente {
+        final int operacion;
+        final long previstoNs;
+
+        Pendiente(int operacion, long previstoNs) {
+            this.operacion = operacion;
+            this.previstoNs = previstoNs;
+        }
+    }
+
+    private static class Contadores {
+        final LatencyHistogram latencias = new LatencyHistogram();
+        long enviadas;
+        long ok;
+        long rechazadas;
+        long errores;
+        long timeouts;
+    }
+
+    // Acumulado de una operación más los contadores del segundo en curso
+    private static final class Resultado extends Contadores {
+        final String operacion;
+        Contadores intervalo = new Contadores();
+
+        Resultado(String operacion) {
+            this.operacion = operacion;
+        }
+
+        void registrar(String respuesta, long nanos) {
+            latencias.registrar(nanos);
+            intervalo.latencias.registrar(nanos);
+            switch (Result.classify(respuesta)) {
+                case ERROR:
+                    errores++;
+                    intervalo.errores++;
+                    break;
+                case REJECTED:
+                    rechazadas++;
+                    intervalo.rechazadas++;
+                    break;
+                default:
+                    ok++;
+                    intervalo.ok++;
+            }
+        }
+    }
+
+    /**
+     * IDs de libro: "uniforme:1-1000" o "zipf:1.1:1-1000" (el primer ID del rango es el más pedido).
+     */
+    static final class Ids {
+        private final long desde;
+        private final long hasta;
+        // Distribución acumulada de Zipf por rango; null = uniforme
+        private final double[] acumulada;
+
+        private Ids(long desde, long hasta, double[] acumulada) {
+            this.desde = desde;
+            this.hasta = hasta;
+            this.acumulada = acumulada;
+        }
+
+        static Ids desde(String texto) {
+            String[] partes = texto.trim().split(":");
+            String[] rango = partes[partes.length - 1].split("-");
+            long desde = Long.parseLong(rango[0].trim());
+            long hasta = Long.parseLong(rango[1].trim());
+            if (hasta < desde) {
+                throw new IllegalArgumentException("LOAD_IDS con rango vacío: " + texto);
+            }
+            switch (partes[0].trim().toLowerCase()) {
+                case "uniforme":
+                    return new Ids(desde, hasta, null);
+                case "zipf":
+                    double s = Double.parseDouble(partes[1].trim());
+                    int n = Math.toIntExact(hasta - desde + 1);
+                    double[] acumulada = new double[n];
+                    double suma = 0;
+                    for (int k = 0; k < n; k++) {
+                        suma += 1 / Math.pow(k + 1, s);
+                        acumulada[k] = suma;
+                    }
+                    for (int k = 0; k < n; k++) {
+                        acumulada[k] /= suma;
+                    }
+                    return new Ids(desde, hasta, acumulada);
+                default:
+                    throw new IllegalArgumentException("LOAD_IDS inválido: " + texto);
+            }
+        }
+
+        long siguiente(SplittableRandom azar) {
+            if (acumulada == null) {
+                return azar.nextLong(desde, hasta + 1);
+            }
+            int k = Arrays.binarySearch(acumulada, azar.nextDouble());
+            return desde + Math.min(k < 0 ? -k - 1 : k, acumulada.length - 1);
+        }
+    }
+}
@@ -1,11 +1,16 @@
 package org.example.front;
 
 import org.example.config.Config;
+import org.example.util.BatchRequest;
 import org.example.util.Console;
+import org.example.util.Metrics;
 import org.zeromq.ZMQ;
 import java.io.BufferedReader;
 import java.io.FileReader;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Scanner;
 
 public class RequestProducer {
@@ -14,30 +19,45 @@ public class RequestProducer {
     private static final String GC_PORT = Config.gcPsPort();
     private static final String GC_ADDRESS = "tcp://" + GC_HOST + ":" + GC_PORT;
     private static final String REQUESTS_FILE = Config.requestsFilePath();
+    private static final int BATCH_SIZE = Config.requestBatchSize();
+    // Latencia de extremo a extremo vista por el cliente (HTTP /metrics solo con METRICS_PORT)
+    private static final String HOP = "CLIENTE";
 
     private ZMQ.Context context;
     private ZMQ.Socket socketGC;
     private Scanner scanner;
 
     public static void main(String[] args) {
-        new RequestProducer().start();
+        // "carga" arranca el generador de carga sin pasar por el menú (scripts y benchmarks)
+        new RequestProducer().start(args.length > 0 ? args[0] : null);
     }
 
     public void start() {
+        start(null);
+    }
+
+    public void start(String modo) {
         initConnection();
+        Metrics.iniciar(HOP, Config.metricsPort(0));
         scanner = new Scanner(System.in);
 
         Console.info("CLIENTE", "Conectado a " + GC_ADDRESS);
-        System.out.println("1) Leer solicitudes desde archivo (" + REQUESTS_FILE + ")");
-        System.out.println("2) Ingresar solicitudes manualmente");
-        System.out.print("Seleccione una opción (1 o 2): ");
-        String opcion = scanner.nextLine();
+        String opcion = modo;
+        if (opcion == null) {
+            System.out.println("1) Leer solicitudes desde archivo (" + REQUESTS_FILE + ")");
+            System.out.println("2) Ingresar solicitudes manualmente");
+            System.out.println("3) Generar carga (LOAD_RATE, LOAD_DURATION_S, LOAD_MIX, LOAD_IDS...)");
+            System.out.print("Seleccione una opción (1, 2 o 3): ");
+            opcion = scanner.nextLine();
+        }
 
         try {
             if (opcion.equals("1")) {
                 readFromFile();
             } else if (opcion.equals("2")) {
                 manualInput();
+            } else if (opcion.equals("3") || opcion.equalsIgnoreCase("carga")) {
+                new LoadGenerator(context, GC_ADDRESS).ejecutar();
             } else {
                 Console.warn("CLIENTE", "Opción no válida. Fin.");
             }
@@ -57,11 +77,29 @@ public class RequestProducer {
         try (BufferedReader br = new BufferedReader(new FileReader(REQUESTS_FILE))) {
             Console.info("CLIENTE", "Leyendo solicitudes desde " + REQUESTS_FILE);
 
+            // Con REQUEST_BATCH_SIZE > 1, las líneas consecutivas de PRESTAMO/DEVOLVER/RENOVAR
+            // se envían como un lote (un solo viaje y un solo append al WAL por lote)
+            String tipoLote = null;
+            List<String> idsLote = new ArrayList<>();
             String linea;
             while ((linea = br.readLine()) != null) {
+                String tipo = BATCH_SIZE > 1 ? tipoLoteDeLinea(linea) : null;
+                if (tipoLote != null && (!tipoLote.equals(tipo) || idsLote.size() >= BATCH_SIZE)) {
+                    sendRequest(BatchRequest.comando(tipoLote, idsLote));
+                    idsLote.clear();
+                    Thread.sleep(500); // pausa entre solicitudes
+                }
+                tipoLote = tipo;
+                if (tipo != null) {
+                    idsLote.add(linea.trim().split("[ ,:]+")[1]);
+                    continue;
+                }
                 processLine(linea);
                 Thread.sleep(500); // pausa entre solicitudes
             }
+            if (tipoLote != null) {
+                sendRequest(BatchRequest.comando(tipoLote, idsLote));
+            }
 
             Console.info("CLIENTE", "Lectura desde archivo finalizada.");
 
@@ -72,9 +110,26 @@ public class RequestProducer {
         }
     }
 
+    // Tipo de lote de una línea "PRESTAMO 5" / "DEVOLVER 5" / "RENOVAR 5"; null si no se agrupa
+    private static String tipoLoteDeLinea(String linea) {
+        String[] partes = linea.trim().split("[ ,:]+");
+        if (partes.length != 2) {
+            return null;
+        }
+        switch (partes[0].toUpperCase()) {
+            case "PRESTAMO": return BatchRequest.PRESTAMO;
+            case "DEVOLVER": return BatchRequest.DEVOLVER;
+            case "RENOVAR": return BatchRequest.RENOVAR;
+            default: return null;
+        }
+    }
+
     private void manualInput() {
         System.out.println("\nIngrese solicitudes (formato: <TIPO> <ID>)");
         System.out.println("Ejemplo: PRESTAMO 1");
+        System.out.println("Consultas: ESTADO 1 | PRESTAMO? 1 | MULTIGET 1,2,3 | LISTAR_DISPONIBLES [max] | VENCIDOS [yyyy-MM-dd]");
+        System.out.println("Lotes: PRESTAMO_LOTE 1,2,3 | DEVOLVER_LOTE 1,2,3 | RENOVAR_LOTE 1,2,3");
+        System.out.println("Métricas del GC: STATS");
         System.out.println("Escriba 'SALIR' para terminar.\n");
 
         while (true) {
@@ -92,23 +147,38 @@ public class RequestProducer {
         if (linea.isEmpty()) return;
 
         String[] partes = linea.split("[ ,:]+"); // acepta espacio, coma o dos puntos
+        String comando = partes[0].toUpperCase();
+        if (comando.equals(Metrics.STATS)) {
+            sendRequest(Metrics.STATS);
+            return;
+        }
+        if (comando.equals("LISTAR_DISPONIBLES") || comando.equals("VENCIDOS") || comando.equals("MULTIGET")
+            || BatchRequest.esLote(comando)) {
+            // Consultas con argumento opcional y lotes con varios IDs
+            String argumentos = String.join(",", Arrays.copyOfRange(partes, 1, partes.length));
+            sendRequest(argumentos.isEmpty() ? comando : comando + ":" + argumentos);
+            return;
+        }
         if (partes.length < 2) {
             Console.warn("CLIENTE", "Formato inválido: " + linea);
             return;
         }
 
-        String tipo = partes[0].toUpperCase();
+        String tipo = comando;
         String isbn = partes[1];
-        String mensaje = tipo + ":" + isbn;
+        // Consultas tipo "ESTADO? 5" o "PRESTAMO? 5" se envían como "ESTADO?5"
+        String mensaje = tipo.endsWith("?") ? tipo + isbn : tipo + ":" + isbn;
 
         sendRequest(mensaje);
     }
 
     private void sendRequest(String mensaje) {
         Console.info("CLIENTE", "Enviando -> " + mensaje);
+        long inicio = System.nanoTime();
         socketGC.send(mensaje, 0);
 
         String respuesta = socketGC.recvStr();
+        Metrics.registrar(HOP, Metrics.operacion(mensaje), inicio);
         Console.info("CLIENTE", "Respuesta GC: " + respuesta);
     }
 
@@ -116,6 +186,8 @@ public class RequestProducer {
         socketGC.close();
         context.term();
         if (scanner != null) scanner.close();
+        Console.info("CLIENTE", Metrics.stats());
+        Metrics.detener();
         Console.info("CLIENTE", "Finalizado.");
     }
 }
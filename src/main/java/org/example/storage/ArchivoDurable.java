@@ -0,0 +1,74 @@
+package org.example.storage;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Reemplazo durable de archivos del checkpoint: temporal escrito por un FileChannel y forzado a disco,
+ * move atómico y fsync del directorio. Sin el fsync del temporal un corte de luz puede dejar el rename
+ * apuntando a un archivo vacío; sin el del directorio, el rename mismo puede perderse después de que
+ * el WAL ya borró los segmentos que cubría.
+ */
+final class ArchivoDurable {
+
+    @FunctionalInterface
+    interface Contenido {
+        void escribir(BufferedWriter writer) throws IOException;
+    }
+
+    // Contenido binario; el stream no debe cerrarse (cerraría el canal antes del force)
+    @FunctionalInterface
+    interface ContenidoBinario {
+        void escribir(OutputStream out) throws IOException;
+    }
+
+    private ArchivoDurable() {
+    }
+
+    static void reemplazar(Path destino, Contenido contenido) throws IOException {
+        reemplazarBinario(destino, out -> {
+            // No se cierra el writer: cerraría el canal antes del force
+            BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+            contenido.escribir(writer);
+            writer.flush();
+        });
+    }
+
+    static void reemplazarBinario(Path destino, ContenidoBinario contenido) throws IOException {
+        Path temporal = destino.resolveSibling(destino.getFileName() + ".tmp");
+        try (FileChannel canal = FileChannel.open(temporal, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            OutputStream out = new BufferedOutputStream(Channels.newOutputStream(canal), 1 << 16);
+            contenido.escribir(out);
+            out.flush();
+            canal.force(true);
+        }
+        Files.move(temporal, destino, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        sincronizarDirectorio(destino.toAbsolutePath().getParent());
+    }
+
+    // fsync de la entrada de directorio (renames, archivos creados o borrados)
+    static void sincronizarDirectorio(Path directorio) throws IOException {
+        if (directorio == null) {
+            return;
+        }
+        try (FileChannel canal = FileChannel.open(directorio, StandardOpenOption.READ)) {
+            canal.force(true);
+        } catch (IOException e) {
+            // Algunas plataformas (Windows) no permiten abrir ni sincronizar un directorio
+            if (Files.isDirectory(directorio) && !System.getProperty("os.name", "").startsWith("Windows")) {
+                throw e;
+            }
+        }
+    }
+}
@@ -0,0 +1,107 @@
+package org.example.storage;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/**
+ * Catálogo de libros indexado por ID: cada libro ocupa un slot y su estado es un byte.
+ * Implementaciones: {@link CsvBookCatalog} (en memoria, persistido en CSV) y
+ * {@link MappedBookStore} (registros de ancho fijo en un archivo mapeado en memoria).
+ */
+public interface BookCatalog {
+
+    byte DESCONOCIDO = -1;
+    byte DISPONIBLE = 0;
+    byte PRESTADO = 1;
+
+    // Retorna el slot del libro o -1 si no existe
+    int buscar(long id);
+
+    byte estado(int slot);
+
+    void cambiarEstado(int slot, byte estado);
+
+    long id(int slot);
+
+    String titulo(int slot);
+
+    String autor(int slot);
+
+    int tamano();
+
+    // Persiste el catálogo en su formato propio (lo usa el checkpoint)
+    void guardar() throws IOException;
+
+    /**
+     * Abre el catálogo con el backend configurado: "csv" (por defecto) o "mmap".
+     * Con "mmap", si el archivo binario no existe se importa desde el CSV.
+     */
+    static BookCatalog abrir(String backend, String csvPath, String binPath) throws IOException {
+        if ("mmap".equalsIgnoreCase(backend)) {
+            Path bin = Paths.get(binPath);
+            if (!Files.exists(bin)) {
+                MappedBookStore.importarCsv(csvPath, binPath);
+            }
+            return MappedBookStore.abrir(binPath);
+        }
+        if (!Files.exists(Paths.get(csvPath))) {
+            throw new IOException("Archivo de libros no encontrado: " + csvPath);
+        }
+        return CsvBookCatalog.cargarCsv(csvPath);
+    }
+
+    // Exporta el catálogo completo en formato CSV (temporal con fsync + move atómico + fsync del directorio)
+    default void guardarCsv(String path) throws IOException {
+        ArchivoDurable.reemplazar(Paths.get(path), writer -> {
+            for (int slot = 0; slot < tamano(); slot++) {
+                writer.write(lineaCsv(slot));
+                writer.newLine();
+            }
+        });
+    }
+
+    default String lineaCsv(int slot) {
+        return id(slot) + ", " + titulo(slot) + ", " + autor(slot) + ", " + nombreEstado(estado(slot));
+    }
+
+    static byte parsearEstado(String estado) {
+        String valor = estado == null ? "" : estado.trim();
+        if (valor.equals("DISPONIBLE")) {
+            return DISPONIBLE;
+        } else if (valor.equals("PRESTADO")) {
+            return PRESTADO;
+        }
+        return DESCONOCIDO;
+    }
+
+    static String nombreEstado(byte estado) {
+        if (estado == DISPONIBLE) {
+            return "DISPONIBLE";
+        } else if (estado == PRESTADO) {
+            return "PRESTADO";
+        }
+        return "DESCONOCIDO";
+    }
+
+    // Parsea un ID numérico; retorna -1 si no es válido
+    static long parsearId(String texto) {
+        if (texto == null) {
+            return -1;
+        }
+        String valor = texto.trim();
+        if (valor.isEmpty() || valor.length() > 18) {
+            return -1;
+        }
+        long id = 0;
+        for (int i = 0; i < valor.length(); i++) {
+            char c = valor.charAt(i);
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+            id = id * 10 + (c - '0');
+        }
+        return id;
+    }
+}
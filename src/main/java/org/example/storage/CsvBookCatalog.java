@@ -0,0 +1,184 @@
+package org.example.storage;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+
+/**
+ * Catálogo de libros en memoria indexado por ID.
+ * El CSV ("ID, NOMBRE, AUTOR, ESTADO") solo se usa como formato de persistencia:
+ * se carga una vez al arrancar y las búsquedas/cambios de estado son O(1).
+ */
+public final class CsvBookCatalog implements BookCatalog {
+
+    private static final int SIN_SLOT = -1;
+
+    private String path;
+
+    // Registros en arreglos paralelos, un slot por libro
+    private long[] ids;
+    private String[] titulos;
+    private String[] autores;
+    private byte[] estados;
+    private int tamano;
+
+    // Tabla hash de direccionamiento abierto: id -> slot + 1 (0 = vacío)
+    private long[] claves;
+    private int[] valores;
+    private int mascara;
+
+    public CsvBookCatalog(int capacidadInicial) {
+        int capacidad = Math.max(16, capacidadInicial);
+        ids = new long[capacidad];
+        titulos = new String[capacidad];
+        autores = new String[capacidad];
+        estados = new byte[capacidad];
+        redimensionarIndice(tablaPara(capacidad));
+    }
+
+    // Carga el catálogo desde el CSV; líneas vacías o mal formadas se ignoran
+    public static CsvBookCatalog cargarCsv(String path) throws IOException {
+        Path archivo = Paths.get(path);
+        CsvBookCatalog catalogo = new CsvBookCatalog(1024);
+        catalogo.path = path;
+        try (BufferedReader reader = Files.newBufferedReader(archivo, StandardCharsets.UTF_8)) {
+            String linea;
+            while ((linea = reader.readLine()) != null) {
+                catalogo.agregarLinea(linea);
+            }
+        }
+        return catalogo;
+    }
+
+    private void agregarLinea(String linea) {
+        if (linea == null || linea.isBlank()) {
+            return;
+        }
+        String[] partes = linea.split(",", 4);
+        if (partes.length != 4) {
+            return;
+        }
+        long id = BookCatalog.parsearId(partes[0]);
+        if (id < 0) {
+            return;
+        }
+        agregar(id, partes[1].trim(), partes[2].trim(), BookCatalog.parsearEstado(partes[3]));
+    }
+
+    // Inserta o reemplaza un libro y retorna su slot
+    public int agregar(long id, String titulo, String autor, byte estado) {
+        int existente = buscar(id);
+        if (existente != SIN_SLOT) {
+            titulos[existente] = titulo;
+            autores[existente] = autor;
+            estados[existente] = estado;
+            return existente;
+        }
+        if (tamano == ids.length) {
+            crecer();
+        }
+        int slot = tamano++;
+        ids[slot] = id;
+        titulos[slot] = titulo;
+        autores[slot] = autor;
+        estados[slot] = estado;
+        if (tamano * 2 > claves.length) {
+            redimensionarIndice(claves.length * 2);
+        } else {
+            indexar(id, slot);
+        }
+        return slot;
+    }
+
+    @Override
+    public int buscar(long id) {
+        int i = hash(id) & mascara;
+        while (true) {
+            int valor = valores[i];
+            if (valor == 0) {
+                return SIN_SLOT;
+            }
+            if (claves[i] == id) {
+                return valor - 1;
+            }
+            i = (i + 1) & mascara;
+        }
+    }
+
+    @Override
+    public byte estado(int slot) {
+        return estados[slot];
+    }
+
+    @Override
+    public void cambiarEstado(int slot, byte estado) {
+        estados[slot] = estado;
+    }
+
+    @Override
+    public long id(int slot) {
+        return ids[slot];
+    }
+
+    @Override
+    public String titulo(int slot) {
+        return titulos[slot];
+    }
+
+    @Override
+    public String autor(int slot) {
+        return autores[slot];
+    }
+
+    @Override
+    public int tamano() {
+        return tamano;
+    }
+
+    // Persistir = reescribir el CSV de origen desde memoria
+    @Override
+    public void guardar() throws IOException {
+        if (path != null) {
+            guardarCsv(path);
+        }
+    }
+
+    private void crecer() {
+        int capacidad = ids.length * 2;
+        ids = Arrays.copyOf(ids, capacidad);
+        titulos = Arrays.copyOf(titulos, capacidad);
+        autores = Arrays.copyOf(autores, capacidad);
+        estados = Arrays.copyOf(estados, capacidad);
+    }
+
+    private void redimensionarIndice(int capacidadTabla) {
+        claves = new long[capacidadTabla];
+        valores = new int[capacidadTabla];
+        mascara = capacidadTabla - 1;
+        for (int slot = 0; slot < tamano; slot++) {
+            indexar(ids[slot], slot);
+        }
+    }
+
+    private void indexar(long id, int slot) {
+        int i = hash(id) & mascara;
+        while (valores[i] != 0) {
+            i = (i + 1) & mascara;
+        }
+        claves[i] = id;
+        valores[i] = slot + 1;
+    }
+
+    private static int tablaPara(int elementos) {
+        return Integer.highestOneBit(Math.max(8, elementos) * 2 - 1) << 1;
+    }
+
+    private static int hash(long id) {
+        long h = id * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+}
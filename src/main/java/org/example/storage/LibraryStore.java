@@ -0,0 +1,329 @@
+package org.example.storage;
+
+import org.example.util.Console;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Estado de almacenamiento de un nodo (catálogo + préstamos) respaldado por un WAL.
+ * Cada mutación se registra primero en el WAL (un append) y luego se aplica en memoria;
+ * los CSV quedan como formato de persistencia y no se reescriben por operación.
+ * Un checkpoint periódico persiste el catálogo (CSV o mmap) y los préstamos, y descarta
+ * los segmentos del WAL que ya cubren.
+ */
+public final class LibraryStore {
+
+    // Tipos de registro del WAL
+    private static final byte REG_ESTADO = 1;
+    private static final byte REG_PRESTAMO_ALTA = 2;
+    private static final byte REG_PRESTAMO_BAJA = 3;
+    private static final byte REG_PRESTAMO_ACTUALIZA = 4;
+
+    private final String loansPath;
+    private final BookCatalog catalogo;
+    private final LoanTable prestamos;
+    private WriteAheadLog wal;
+
+    // Las mutaciones (append + aplicar) toman el lock de lectura; la rotación del checkpoint el de escritura
+    private final ReentrantReadWriteLock mutaciones = new ReentrantReadWriteLock();
+    private volatile Runnable alCheckpoint = () -> { };
+    private Thread hiloCheckpoint;
+
+    // Último ticket del WAL generado por cada hilo (para esperar su durabilidad al responder)
+    private final ThreadLocal<long[]> ultimoTicket = ThreadLocal.withInitial(() -> new long[1]);
+    // Registros de un lote en curso en este hilo (null fuera de un lote)
+    private final ThreadLocal<List<byte[]>> lote = new ThreadLocal<>();
+
+    private LibraryStore(String loansPath, BookCatalog catalogo, LoanTable prestamos) {
+        this.loansPath = loansPath;
+        this.catalogo = catalogo;
+        this.prestamos = prestamos;
+    }
+
+    /**
+     * Carga el catálogo y los préstamos y reproduce el WAL encima para recuperar las mutaciones posteriores.
+     */
+    public static LibraryStore abrir(BookCatalog catalogo, String loansPath, String walPath,
+                                     WriteAheadLog.Durabilidad durabilidad, long ventanaGrupoMs) throws IOException {
+        LoanTable prestamos = LoanTable.cargarCsv(loansPath);
+        LibraryStore store = new LibraryStore(loansPath, catalogo, prestamos);
+        Path wal = Paths.get(walPath);
+        store.wal = WriteAheadLog.abrir(wal, durabilidad, ventanaGrupoMs, store::aplicarRegistro);
+        Console.info("STORE", "Abierto: " + catalogo.tamano() + " libros, " + prestamos.tamano()
+            + " préstamos, WAL " + wal + " (" + durabilidad + ")");
+        return store;
+    }
+
+    public BookCatalog catalogo() {
+        return catalogo;
+    }
+
+    public LoanTable prestamos() {
+        return prestamos;
+    }
+
+    public void cambiarEstado(int slot, byte estado) throws IOException {
+        long id = catalogo.id(slot);
+        ByteBuffer registro = ByteBuffer.allocate(10);
+        registro.put(REG_ESTADO).putLong(id).put(estado);
+        mutaciones.readLock().lock();
+        try {
+            registrar(registro.array());
+            catalogo.cambiarEstado(slot, estado);
+        } finally {
+            mutaciones.readLock().unlock();
+        }
+    }
+
+    public void registrarPrestamo(long idLibro, LocalDate fechaPrestamo, LocalDate fechaDevolucion, int veces) throws IOException {
+        ByteBuffer registro = ByteBuffer.allocate(18);
+        registro.put(REG_PRESTAMO_ALTA).putLong(idLibro)
+            .putInt((int) fechaPrestamo.toEpochDay())
+            .putInt((int) fechaDevolucion.toEpochDay())
+            .put((byte) veces);
+        mutaciones.readLock().lock();
+        try {
+            registrar(registro.array());
+            prestamos.registrar(idLibro, fechaPrestamo, fechaDevolucion, veces);
+        } finally {
+            mutaciones.readLock().unlock();
+        }
+    }
+
+    public boolean eliminarPrestamo(long idLibro) throws IOException {
+        if (prestamos.buscar(idLibro) == null) {
+            return false;
+        }
+        ByteBuffer registro = ByteBuffer.allocate(9);
+        registro.put(REG_PRESTAMO_BAJA).putLong(idLibro);
+        mutaciones.readLock().lock();
+        try {
+            registrar(registro.array());
+            return prestamos.eliminar(idLibro);
+        } finally {
+            mutaciones.readLock().unlock();
+        }
+    }
+
+    public boolean actualizarPrestamo(long idLibro, LocalDate fechaDevolucion, int veces) throws IOException {
+        if (prestamos.buscar(idLibro) == null) {
+            return false;
+        }
+        ByteBuffer registro = ByteBuffer.allocate(14);
+        registro.put(REG_PRESTAMO_ACTUALIZA).putLong(idLibro)
+            .putInt((int) fechaDevolucion.toEpochDay())
+            .put((byte) veces);
+        mutaciones.readLock().lock();
+        try {
+            registrar(registro.array());
+            return prestamos.actualizar(idLibro, fechaDevolucion, veces);
+        } finally {
+            mutaciones.readLock().unlock();
+        }
+    }
+
+    private void registrar(byte[] registro) throws IOException {
+        List<byte[]> enCurso = lote.get();
+        if (enCurso != null) {
+            enCurso.add(registro);
+            return;
+        }
+        ultimoTicket.get()[0] = wal.append(registro);
+    }
+
+    /**
+     * Desde aquí y hasta {@link #terminarLote()}, las mutaciones de este hilo acumulan sus registros
+     * y se escriben en el WAL con un solo append (una escritura y, según la durabilidad, un fsync).
+     * El lote retiene el lock de lectura de principio a fin: un checkpoint no puede rotar en medio
+     * y persistir (en el snapshot o en el mapeo) estados aplicados en memoria cuyo registro todavía
+     * no está en el WAL. Siempre llamar a terminarLote() en un finally.
+     */
+    public void iniciarLote() {
+        mutaciones.readLock().lock();
+        lote.set(new ArrayList<>());
+    }
+
+    public void terminarLote() throws IOException {
+        List<byte[]> registros = lote.get();
+        if (registros == null) {
+            return;
+        }
+        lote.remove();
+        try {
+            if (!registros.isEmpty()) {
+                ultimoTicket.get()[0] = wal.appendAll(registros);
+            }
+        } finally {
+            mutaciones.readLock().unlock();
+        }
+    }
+
+    /**
+     * Bloquea hasta que las mutaciones de este hilo sean durables (según la durabilidad del WAL).
+     */
+    public void esperarDurabilidad() throws IOException {
+        esperarDurabilidad(tomarTicket());
+    }
+
+    /**
+     * Retorna y limpia el último ticket del WAL de este hilo (0 si no hubo mutaciones),
+     * para que otro hilo espere su durabilidad con {@link #esperarDurabilidad(long)}.
+     */
+    public long tomarTicket() {
+        long[] ticket = ultimoTicket.get();
+        long valor = ticket[0];
+        ticket[0] = 0;
+        return valor;
+    }
+
+    public void esperarDurabilidad(long ticket) throws IOException {
+        if (ticket > 0) {
+            wal.esperar(ticket);
+        }
+    }
+
+    /**
+     * Reemplaza el estado con un snapshot de GA2 (sin pasar por el WAL) y hace un checkpoint,
+     * que lo persiste y descarta los segmentos anteriores. Los libros que no existen en el
+     * catálogo local se ignoran; retorna cuántos fueron.
+     */
+    public int instalarSnapshot(StoreSnapshot.Contenido contenido) throws IOException {
+        int ignorados = 0;
+        mutaciones.writeLock().lock();
+        try {
+            long[] ids = contenido.ids();
+            byte[] estados = contenido.estados();
+            for (int i = 0; i < ids.length; i++) {
+                int slot = catalogo.buscar(ids[i]);
+                if (slot < 0) {
+                    ignorados++;
+                } else if (catalogo.estado(slot) != estados[i]) {
+                    catalogo.cambiarEstado(slot, estados[i]);
+                }
+            }
+            prestamos.vaciar();
+            for (LoanTable.Prestamo prestamo : contenido.prestamos()) {
+                prestamos.registrar(prestamo.idLibro(), prestamo.fechaPrestamo(), prestamo.fechaDevolucion(), prestamo.veces());
+            }
+        } finally {
+            mutaciones.writeLock().unlock();
+        }
+        checkpoint();
+        return ignorados;
+    }
+
+    // Persiste el estado completo: catálogo en su formato (CSV o mmap) y préstamos en CSV
+    public void guardar() throws IOException {
+        catalogo.guardar();
+        prestamos.guardarCsv(loansPath);
+    }
+
+    /**
+     * Checkpoint: rota el WAL, persiste un snapshot y descarta los segmentos anteriores.
+     * Los registros del WAL son absolutos (fijan un valor), así que el snapshot puede tomarse
+     * sin detener las mutaciones: reproducir el segmento nuevo encima siempre converge.
+     */
+    public synchronized void checkpoint() throws IOException {
+        long segmentoNuevo;
+        mutaciones.writeLock().lock();
+        try {
+            // Con el lock de escritura no hay mutaciones ni lotes a medias: todo lo aplicado en memoria
+            // tiene su registro en el WAL, y la rotación lo forzó a disco
+            segmentoNuevo = wal.rotar();
+            if (catalogo instanceof MappedBookStore) {
+                // Ya se puede escribir en el mapeo
+                ((MappedBookStore) catalogo).volcarPendientes();
+            }
+        } finally {
+            mutaciones.writeLock().unlock();
+        }
+        guardar();
+        wal.descartarAnteriores(segmentoNuevo);
+        alCheckpoint.run();
+    }
+
+    // Acción extra a ejecutar tras cada checkpoint (p. ej. compactar pending.log)
+    public void alCheckpoint(Runnable accion) {
+        this.alCheckpoint = accion;
+    }
+
+    /**
+     * Inicia el hilo de checkpoints: cada {@code intervaloMs} si hubo escrituras,
+     * o antes si el segmento activo supera {@code maxBytesSegmento}.
+     */
+    public void iniciarCheckpoints(long intervaloMs, long maxBytesSegmento) {
+        hiloCheckpoint = new Thread(() -> {
+            long ultimo = System.currentTimeMillis();
+            while (!Thread.currentThread().isInterrupted()) {
+                try {
+                    Thread.sleep(Math.min(1000, intervaloMs));
+                    long bytes = wal.tamanoSegmento();
+                    long transcurrido = System.currentTimeMillis() - ultimo;
+                    if ((bytes > 0 && transcurrido >= intervaloMs) || bytes >= maxBytesSegmento) {
+                        checkpoint();
+                        ultimo = System.currentTimeMillis();
+                        Console.info("STORE", "Checkpoint completado (" + bytes + " bytes de WAL compactados)");
+                    } else if (transcurrido >= intervaloMs) {
+                        // Sin escrituras nuevas: solo compactar los logs auxiliares
+                        alCheckpoint.run();
+                        ultimo = System.currentTimeMillis();
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } catch (IOException e) {
+                    Console.error("STORE", "Error en checkpoint: " + e.getMessage());
+                }
+            }
+        }, "checkpoint");
+        hiloCheckpoint.setDaemon(true);
+        hiloCheckpoint.start();
+    }
+
+    public void cerrar() throws IOException {
+        if (hiloCheckpoint != null) {
+            hiloCheckpoint.interrupt();
+        }
+        wal.close();
+        if (catalogo instanceof MappedBookStore) {
+            ((MappedBookStore) catalogo).cerrar();
+        }
+    }
+
+    private void aplicarRegistro(ByteBuffer registro) {
+        byte tipo = registro.get();
+        long id = registro.getLong();
+        switch (tipo) {
+            case REG_ESTADO: {
+                byte estado = registro.get();
+                int slot = catalogo.buscar(id);
+                if (slot >= 0) {
+                    catalogo.cambiarEstado(slot, estado);
+                }
+                break;
+            }
+            case REG_PRESTAMO_ALTA: {
+                LocalDate prestamo = LocalDate.ofEpochDay(registro.getInt());
+                LocalDate devolucion = LocalDate.ofEpochDay(registro.getInt());
+                prestamos.registrar(id, prestamo, devolucion, registro.get());
+                break;
+            }
+            case REG_PRESTAMO_BAJA:
+                prestamos.eliminar(id);
+                break;
+            case REG_PRESTAMO_ACTUALIZA: {
+                LocalDate devolucion = LocalDate.ofEpochDay(registro.getInt());
+                prestamos.actualizar(id, devolucion, registro.get());
+                break;
+            }
+            default:
+                Console.warn("STORE", "Tipo de registro WAL desconocido: " + tipo);
+        }
+    }
+}
@@ -0,0 +1,308 @@
+package org.example.storage;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.TreeSet;
+
+/**
+ * Préstamos activos en memoria indexados por ID de libro.
+ * loans.csv ("ID, fechaPrestamo, fechaDevolucion, vecesPrestadas") solo se usa como persistencia.
+ * Los registros viven en arreglos primitivos (fechas como días epoch) con un índice hash
+ * {@code id → slot} y un índice secundario ordenado por fecha de devolución, de modo que
+ * búsqueda/alta/baja/renovación son O(1) y "préstamos que vencen antes de X" es una consulta de rango.
+ */
+public final class LoanTable {
+
+    public static final class Prestamo {
+        private final long idLibro;
+        private final LocalDate fechaPrestamo;
+        private final LocalDate fechaDevolucion;
+        private final int veces;
+
+        Prestamo(long idLibro, LocalDate fechaPrestamo, LocalDate fechaDevolucion, int veces) {
+            this.idLibro = idLibro;
+            this.fechaPrestamo = fechaPrestamo;
+            this.fechaDevolucion = fechaDevolucion;
+            this.veces = veces;
+        }
+
+        public long idLibro() { return idLibro; }
+        public LocalDate fechaPrestamo() { return fechaPrestamo; }
+        public LocalDate fechaDevolucion() { return fechaDevolucion; }
+        public int veces() { return veces; }
+
+        public String lineaCsv() {
+            return idLibro + ", " + fechaPrestamo + ", " + fechaDevolucion + ", " + veces;
+        }
+    }
+
+    private static final int SIN_SLOT = -1;
+
+    // Registros en arreglos paralelos, compactos (una baja mueve el último slot al hueco)
+    private long[] ids;
+    private int[] diasPrestamo;
+    private int[] diasDevolucion;
+    private byte[] veces;
+    private int tamano;
+
+    // Tabla hash de direccionamiento abierto: id -> slot + 1 (0 = vacío)
+    private long[] claves;
+    private int[] valores;
+    private int mascara;
+
+    // Índice por fecha de devolución: clave compuesta (díaDevolución << 32) | slot
+    private final TreeSet<Long> porVencimiento = new TreeSet<>();
+
+    public LoanTable() {
+        ids = new long[64];
+        diasPrestamo = new int[64];
+        diasDevolucion = new int[64];
+        veces = new byte[64];
+        redimensionarIndice(128);
+    }
+
+    // Carga loans.csv; si no existe retorna una tabla vacía
+    public static LoanTable cargarCsv(String path) throws IOException {
+        LoanTable tabla = new LoanTable();
+        Path archivo = Paths.get(path);
+        if (!Files.exists(archivo)) {
+            return tabla;
+        }
+        try (BufferedReader reader = Files.newBufferedReader(archivo, StandardCharsets.UTF_8)) {
+            String linea;
+            while ((linea = reader.readLine()) != null) {
+                tabla.agregarLinea(linea);
+            }
+        }
+        return tabla;
+    }
+
+    private void agregarLinea(String linea) {
+        if (linea == null || linea.isBlank()) {
+            return;
+        }
+        String[] partes = linea.split(",");
+        if (partes.length < 4) {
+            return;
+        }
+        long id = BookCatalog.parsearId(partes[0]);
+        if (id < 0 || slotDe(id) != SIN_SLOT) {
+            return; // Se conserva el primer registro por libro
+        }
+        try {
+            int prestamo = (int) LocalDate.parse(partes[1].trim()).toEpochDay();
+            int devolucion = (int) LocalDate.parse(partes[2].trim()).toEpochDay();
+            int vecesPrestado = Integer.parseInt(partes[3].trim());
+            insertar(id, prestamo, devolucion, vecesPrestado);
+        } catch (RuntimeException e) {
+            // Línea mal formada: se ignora
+        }
+    }
+
+    public synchronized Prestamo buscar(long idLibro) {
+        int slot = slotDe(idLibro);
+        return slot == SIN_SLOT ? null : prestamo(slot);
+    }
+
+    public synchronized void registrar(long idLibro, LocalDate fechaPrestamo, LocalDate fechaDevolucion, int veces) {
+        int prestamo = (int) fechaPrestamo.toEpochDay();
+        int devolucion = (int) fechaDevolucion.toEpochDay();
+        int slot = slotDe(idLibro);
+        if (slot == SIN_SLOT) {
+            insertar(idLibro, prestamo, devolucion, veces);
+            return;
+        }
+        diasPrestamo[slot] = prestamo;
+        cambiarVencimiento(slot, devolucion);
+        this.veces[slot] = (byte) veces;
+    }
+
+    public synchronized boolean eliminar(long idLibro) {
+        int slot = slotDe(idLibro);
+        if (slot == SIN_SLOT) {
+            return false;
+        }
+        porVencimiento.remove(claveVencimiento(diasDevolucion[slot], slot));
+        desindexar(idLibro);
+        int ultimo = --tamano;
+        if (slot != ultimo) {
+            // Mover el último registro al hueco para mantener los arreglos compactos
+            porVencimiento.remove(claveVencimiento(diasDevolucion[ultimo], ultimo));
+            ids[slot] = ids[ultimo];
+            diasPrestamo[slot] = diasPrestamo[ultimo];
+            diasDevolucion[slot] = diasDevolucion[ultimo];
+            veces[slot] = veces[ultimo];
+            valores[posicion(ids[slot])] = slot + 1;
+            porVencimiento.add(claveVencimiento(diasDevolucion[slot], slot));
+        }
+        return true;
+    }
+
+    public synchronized boolean actualizar(long idLibro, LocalDate fechaDevolucion, int veces) {
+        int slot = slotDe(idLibro);
+        if (slot == SIN_SLOT) {
+            return false;
+        }
+        cambiarVencimiento(slot, (int) fechaDevolucion.toEpochDay());
+        this.veces[slot] = (byte) veces;
+        return true;
+    }
+
+    /**
+     * Préstamos cuya fecha de devolución es anterior a {@code fecha}, ordenados por vencimiento.
+     */
+    public synchronized List<Prestamo> vencenAntesDe(LocalDate fecha) {
+        long limite = claveVencimiento((int) fecha.toEpochDay(), 0);
+        List<Prestamo> resultado = new ArrayList<>();
+        for (long clave : porVencimiento.headSet(limite, false)) {
+            resultado.add(prestamo((int) clave));
+        }
+        return resultado;
+    }
+
+    public synchronized int tamano() {
+        return tamano;
+    }
+
+    // Copia de todos los préstamos activos
+    public synchronized List<Prestamo> todos() {
+        List<Prestamo> copia = new ArrayList<>(tamano);
+        for (int slot = 0; slot < tamano; slot++) {
+            copia.add(prestamo(slot));
+        }
+        return copia;
+    }
+
+    // Elimina todos los préstamos (antes de instalar un snapshot)
+    public synchronized void vaciar() {
+        tamano = 0;
+        porVencimiento.clear();
+        redimensionarIndice(claves.length);
+    }
+
+    // Escribe todos los préstamos en formato CSV (temporal con fsync + move atómico + fsync del directorio)
+    public void guardarCsv(String path) throws IOException {
+        List<Prestamo> copia = todos();
+        ArchivoDurable.reemplazar(Paths.get(path), writer -> {
+            for (Prestamo prestamo : copia) {
+                writer.write(prestamo.lineaCsv());
+                writer.newLine();
+            }
+        });
+    }
+
+    private Prestamo prestamo(int slot) {
+        return new Prestamo(ids[slot], LocalDate.ofEpochDay(diasPrestamo[slot]),
+            LocalDate.ofEpochDay(diasDevolucion[slot]), veces[slot]);
+    }
+
+    private void insertar(long id, int prestamo, int devolucion, int vecesPrestado) {
+        if (tamano == ids.length) {
+            crecer();
+        }
+        int slot = tamano++;
+        ids[slot] = id;
+        diasPrestamo[slot] = prestamo;
+        diasDevolucion[slot] = devolucion;
+        veces[slot] = (byte) vecesPrestado;
+        porVencimiento.add(claveVencimiento(devolucion, slot));
+        if (tamano * 2 > claves.length) {
+            redimensionarIndice(claves.length * 2);
+        } else {
+            indexar(id, slot);
+        }
+    }
+
+    private void cambiarVencimiento(int slot, int devolucion) {
+        if (diasDevolucion[slot] != devolucion) {
+            porVencimiento.remove(claveVencimiento(diasDevolucion[slot], slot));
+            diasDevolucion[slot] = devolucion;
+            porVencimiento.add(claveVencimiento(devolucion, slot));
+        }
+    }
+
+    private static long claveVencimiento(int dia, int slot) {
+        return ((long) dia << 32) | (slot & 0xFFFFFFFFL);
+    }
+
+    private int slotDe(long id) {
+        int i = posicion(id);
+        return i < 0 ? SIN_SLOT : valores[i] - 1;
+    }
+
+    // Posición del id en la tabla hash, o -1 si no está
+    private int posicion(long id) {
+        int i = hash(id) & mascara;
+        while (valores[i] != 0) {
+            if (claves[i] == id) {
+                return i;
+            }
+            i = (i + 1) & mascara;
+        }
+        return -1;
+    }
+
+    // Borrado con desplazamiento hacia atrás: no deja marcas de borrado en la tabla
+    private void desindexar(long id) {
+        int hueco = posicion(id);
+        if (hueco < 0) {
+            return;
+        }
+        valores[hueco] = 0;
+        int i = hueco;
+        while (true) {
+            i = (i + 1) & mascara;
+            if (valores[i] == 0) {
+                return;
+            }
+            int ideal = hash(claves[i]) & mascara;
+            // La entrada puede ocupar el hueco si su posición ideal no está en (hueco, i]
+            boolean enRango = hueco <= i ? (hueco < ideal && ideal <= i) : (hueco < ideal || ideal <= i);
+            if (!enRango) {
+                claves[hueco] = claves[i];
+                valores[hueco] = valores[i];
+                valores[i] = 0;
+                hueco = i;
+            }
+        }
+    }
+
+    private void crecer() {
+        int capacidad = ids.length * 2;
+        ids = Arrays.copyOf(ids, capacidad);
+        diasPrestamo = Arrays.copyOf(diasPrestamo, capacidad);
+        diasDevolucion = Arrays.copyOf(diasDevolucion, capacidad);
+        veces = Arrays.copyOf(veces, capacidad);
+    }
+
+    private void redimensionarIndice(int capacidadTabla) {
+        claves = new long[capacidadTabla];
+        valores = new int[capacidadTabla];
+        mascara = capacidadTabla - 1;
+        for (int slot = 0; slot < tamano; slot++) {
+            indexar(ids[slot], slot);
+        }
+    }
+
+    private void indexar(long id, int slot) {
+        int i = hash(id) & mascara;
+        while (valores[i] != 0) {
+            i = (i + 1) & mascara;
+        }
+        claves[i] = id;
+        valores[i] = slot + 1;
+    }
+
+    private static int hash(long id) {
+        long h = id * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+}
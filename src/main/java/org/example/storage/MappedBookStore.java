@@ -0,0 +1,299 @@
+package org.example.storage;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Catálogo de libros en un archivo binario mapeado en memoria.
+ * Cada libro es un slot de ancho fijo ordenado por ID (búsqueda binaria sobre el mapeo),
+ * y títulos/autores viven en un heap de strings al final del archivo.
+ * Un préstamo o devolución cambia un único byte en el slot; abrir el archivo no requiere
+ * parsear ni construir índices, así que el arranque es inmediato aunque haya millones de títulos.
+ *
+ * Formato:
+ *   cabecera (32 bytes): magic, versión, cantidad, tamaño de slot, offset del heap (long), tamaño del heap (long)
+ *   slot (24 bytes):     id (long), estado (byte), reservado (byte), largo título (short), largo autor (short),
+ *                        reservado (short), offset título (int), offset autor (int)
+ *
+ * Los cambios de estado no se escriben en la página mapeada al aplicarse: el kernel puede volcar una
+ * página sucia en cualquier momento, y en GRUPO/SO eso dejaría en books.bin un estado cuyo registro del
+ * WAL todavía no es durable (tras un corte, el archivo no coincidiría con ningún prefijo del WAL).
+ * Se guardan en un arreglo en memoria y {@link #volcarPendientes()} los pasa al mapeo solo cuando el
+ * WAL que los cubre ya está en disco (el checkpoint, justo después de rotar). Se eligió diferir la
+ * escritura en lugar de exigir FSYNC para que el backend mmap siga disponible con group commit.
+ */
+public final class MappedBookStore implements BookCatalog {
+
+    private static final int MAGIC = 0x424B5331; // "BKS1"
+    private static final int VERSION = 1;
+    private static final int CABECERA = 32;
+    private static final int SLOT = 24;
+
+    private static final int OFF_ID = 0;
+    private static final int OFF_ESTADO = 8;
+    private static final int OFF_LARGO_TITULO = 10;
+    private static final int OFF_LARGO_AUTOR = 12;
+    private static final int OFF_TITULO = 16;
+    private static final int OFF_AUTOR = 20;
+
+    private final Path path;
+    private final FileChannel canal;
+    private final MappedByteBuffer slots;
+    private final MappedByteBuffer heap;
+    private final int tamano;
+    // Estados aplicados y todavía no volcados al mapeo, por slot: 0 = sin cambio, si no estado + 2
+    private final byte[] pendientes;
+
+    private MappedBookStore(Path path, FileChannel canal, MappedByteBuffer slots, MappedByteBuffer heap, int tamano) {
+        this.path = path;
+        this.canal = canal;
+        this.slots = slots;
+        this.heap = heap;
+        this.tamano = tamano;
+        this.pendientes = new byte[tamano];
+    }
+
+    /**
+     * Mapea un archivo generado con {@link #importarCsv}. La región de slots se mapea
+     * en lectura/escritura y el heap de strings en solo lectura.
+     */
+    public static MappedBookStore abrir(String binPath) throws IOException {
+        Path archivo = Paths.get(binPath);
+        FileChannel canal = FileChannel.open(archivo, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            ByteBuffer cabecera = ByteBuffer.allocate(CABECERA);
+            while (cabecera.hasRemaining()) {
+                if (canal.read(cabecera, cabecera.position()) < 0) {
+                    break;
+                }
+            }
+            cabecera.flip();
+            if (cabecera.remaining() < CABECERA || cabecera.getInt() != MAGIC) {
+                throw new IOException("Archivo de libros binario inválido: " + binPath);
+            }
+            int version = cabecera.getInt();
+            if (version != VERSION) {
+                throw new IOException("Versión de archivo de libros no soportada: " + version);
+            }
+            int tamano = cabecera.getInt();
+            int tamanoSlot = cabecera.getInt();
+            long offsetHeap = cabecera.getLong();
+            long tamanoHeap = cabecera.getLong();
+            if (tamanoSlot != SLOT || offsetHeap != CABECERA + (long) tamano * SLOT
+                || offsetHeap + tamanoHeap > canal.size()) {
+                throw new IOException("Archivo de libros binario truncado o corrupto: " + binPath);
+            }
+            if (offsetHeap - CABECERA > Integer.MAX_VALUE || tamanoHeap > Integer.MAX_VALUE) {
+                throw new IOException("Archivo de libros demasiado grande para un único mapeo: " + binPath);
+            }
+            MappedByteBuffer slots = canal.map(FileChannel.MapMode.READ_WRITE, CABECERA, offsetHeap - CABECERA);
+            MappedByteBuffer heap = canal.map(FileChannel.MapMode.READ_ONLY, offsetHeap, tamanoHeap);
+            return new MappedBookStore(archivo, canal, slots, heap, tamano);
+        } catch (IOException | RuntimeException e) {
+            canal.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Convierte un books.csv al formato binario (ordenado por ID; IDs duplicados conservan la primera fila).
+     */
+    public static void importarCsv(String csvPath, String binPath) throws IOException {
+        CsvBookCatalog origen = CsvBookCatalog.cargarCsv(csvPath);
+        int n = origen.tamano();
+
+        // Orden de los slots del CSV por ID
+        long[] ids = new long[n];
+        for (int i = 0; i < n; i++) {
+            ids[i] = origen.id(i);
+        }
+        Integer[] orden = new Integer[n];
+        for (int i = 0; i < n; i++) {
+            orden[i] = i;
+        }
+        Arrays.sort(orden, (a, b) -> Long.compare(ids[a], ids[b]));
+
+        byte[][] titulos = new byte[n][];
+        byte[][] autores = new byte[n][];
+        long tamanoHeap = 0;
+        for (int i = 0; i < n; i++) {
+            titulos[i] = recortar(origen.titulo(orden[i]).getBytes(StandardCharsets.UTF_8));
+            autores[i] = recortar(origen.autor(orden[i]).getBytes(StandardCharsets.UTF_8));
+            tamanoHeap += titulos[i].length + autores[i].length;
+        }
+        if (tamanoHeap > Integer.MAX_VALUE) {
+            throw new IOException("Heap de strings demasiado grande: " + tamanoHeap + " bytes");
+        }
+        long bytesHeap = tamanoHeap;
+
+        Path destino = Paths.get(binPath);
+        if (destino.getParent() != null) {
+            Files.createDirectories(destino.getParent());
+        }
+        ArchivoDurable.reemplazarBinario(destino, archivo -> {
+            DataOutputStream out = new DataOutputStream(archivo);
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(n);
+            out.writeInt(SLOT);
+            out.writeLong(CABECERA + (long) n * SLOT);
+            out.writeLong(bytesHeap);
+            int offset = 0;
+            for (int i = 0; i < n; i++) {
+                out.writeLong(ids[orden[i]]);
+                out.writeByte(origen.estado(orden[i]));
+                out.writeByte(0);
+                out.writeShort(titulos[i].length);
+                out.writeShort(autores[i].length);
+                out.writeShort(0);
+                out.writeInt(offset);
+                offset += titulos[i].length;
+                out.writeInt(offset);
+                offset += autores[i].length;
+            }
+            for (int i = 0; i < n; i++) {
+                out.write(titulos[i]);
+                out.write(autores[i]);
+            }
+            out.flush();
+        });
+    }
+
+    /**
+     * Exporta el archivo binario al formato books.csv.
+     */
+    public static void exportarCsv(String binPath, String csvPath) throws IOException {
+        MappedBookStore store = abrir(binPath);
+        try {
+            store.guardarCsv(csvPath);
+        } finally {
+            store.cerrar();
+        }
+    }
+
+    // Los largos se guardan como short sin signo
+    private static byte[] recortar(byte[] texto) {
+        if (texto.length <= 0xFFFF) {
+            return texto;
+        }
+        String cortado = new String(texto, 0, 0xFFFF, StandardCharsets.UTF_8);
+        return recortar(cortado.substring(0, cortado.length() - 1).getBytes(StandardCharsets.UTF_8));
+    }
+
+    // Búsqueda binaria sobre los IDs ordenados del mapeo
+    @Override
+    public int buscar(long id) {
+        int bajo = 0;
+        int alto = tamano - 1;
+        while (bajo <= alto) {
+            int medio = (bajo + alto) >>> 1;
+            long actual = slots.getLong(medio * SLOT + OFF_ID);
+            if (actual < id) {
+                bajo = medio + 1;
+            } else if (actual > id) {
+                alto = medio - 1;
+            } else {
+                return medio;
+            }
+        }
+        return -1;
+    }
+
+    @Override
+    public byte estado(int slot) {
+        byte pendiente = pendientes[slot];
+        return pendiente != 0 ? (byte) (pendiente - 2) : slots.get(slot * SLOT + OFF_ESTADO);
+    }
+
+    // El byte del slot se escribe recién en volcarPendientes(), cuando el WAL ya es durable
+    @Override
+    public void cambiarEstado(int slot, byte estado) {
+        pendientes[slot] = (byte) (estado + 2);
+    }
+
+    /**
+     * Escribe en la página mapeada los estados pendientes. Solo debe llamarse cuando todos los
+     * registros del WAL que los produjeron son durables y sin mutaciones concurrentes (el checkpoint
+     * lo hace con el lock de escritura, después de que la rotación forzó el segmento anterior).
+     */
+    void volcarPendientes() {
+        for (int slot = 0; slot < tamano; slot++) {
+            byte pendiente = pendientes[slot];
+            if (pendiente != 0) {
+                slots.put(slot * SLOT + OFF_ESTADO, (byte) (pendiente - 2));
+                pendientes[slot] = 0;
+            }
+        }
+    }
+
+    @Override
+    public long id(int slot) {
+        return slots.getLong(slot * SLOT + OFF_ID);
+    }
+
+    @Override
+    public String titulo(int slot) {
+        int base = slot * SLOT;
+        return texto(slots.getInt(base + OFF_TITULO), Short.toUnsignedInt(slots.getShort(base + OFF_LARGO_TITULO)));
+    }
+
+    @Override
+    public String autor(int slot) {
+        int base = slot * SLOT;
+        return texto(slots.getInt(base + OFF_AUTOR), Short.toUnsignedInt(slots.getShort(base + OFF_LARGO_AUTOR)));
+    }
+
+    private String texto(int offset, int largo) {
+        byte[] bytes = new byte[largo];
+        heap.get(offset, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public int tamano() {
+        return tamano;
+    }
+
+    // Persistir = forzar a disco las páginas modificadas del mapeo
+    @Override
+    public void guardar() {
+        slots.force();
+    }
+
+    public Path path() {
+        return path;
+    }
+
+    // Con un WAL, llamar después de cerrarlo: el cierre lo fuerza a disco y recién entonces se vuelca
+    public void cerrar() throws IOException {
+        volcarPendientes();
+        slots.force();
+        canal.close();
+    }
+
+    /**
+     * Uso: MappedBookStore importar books.csv books.bin
+     *      MappedBookStore exportar books.bin books.csv
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length == 3 && args[0].equals("importar")) {
+            importarCsv(args[1], args[2]);
+            System.out.println("Importado " + args[1] + " -> " + args[2]);
+        } else if (args.length == 3 && args[0].equals("exportar")) {
+            exportarCsv(args[1], args[2]);
+            System.out.println("Exportado " + args[1] + " -> " + args[2]);
+        } else {
+            System.out.println("Uso: MappedBookStore importar <books.csv> <books.bin>");
+            System.out.println("     MappedBookStore exportar <books.bin> <books.csv>");
+        }
+    }
+}
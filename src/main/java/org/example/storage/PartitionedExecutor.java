@@ -0,0 +1,71 @@
+package org.example.storage;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Ejecutores de un solo hilo particionados por ID de libro.
+ * Todas las operaciones sobre un mismo libro caen en la misma partición y se ejecutan en orden,
+ * así que cada partición es el único escritor de su porción del catálogo: el
+ * leer-verificar-escribir de un préstamo no necesita locks y libros distintos avanzan en paralelo.
+ */
+public final class PartitionedExecutor {
+
+    // Máximo que cerrar() espera a las tareas ya encoladas
+    private static final long ESPERA_CIERRE_MS = 5000;
+
+    private final ExecutorService[] particiones;
+
+    public PartitionedExecutor(int cantidad, String nombre) {
+        particiones = new ExecutorService[Math.max(1, cantidad)];
+        for (int i = 0; i < particiones.length; i++) {
+            String nombreHilo = nombre + "-" + i;
+            particiones[i] = Executors.newSingleThreadExecutor(tarea -> {
+                Thread hilo = new Thread(tarea, nombreHilo);
+                hilo.setDaemon(true);
+                return hilo;
+            });
+        }
+    }
+
+    public int cantidad() {
+        return particiones.length;
+    }
+
+    public int particion(long idLibro) {
+        long h = idLibro * 0x9E3779B97F4A7C15L;
+        return (int) Math.floorMod(h ^ (h >>> 32), (long) particiones.length);
+    }
+
+    // Encola la tarea en la partición del libro; el resultado se completa en el hilo de la partición
+    public <T> CompletableFuture<T> enviar(long idLibro, Supplier<T> tarea) {
+        return CompletableFuture.supplyAsync(tarea, particiones[particion(idLibro)]);
+    }
+
+    // Espera a que terminen las tareas ya encoladas en todas las particiones
+    public void barrera() {
+        CompletableFuture<?>[] marcas = new CompletableFuture<?>[particiones.length];
+        for (int i = 0; i < particiones.length; i++) {
+            marcas[i] = CompletableFuture.runAsync(() -> { }, particiones[i]);
+        }
+        CompletableFuture.allOf(marcas).join();
+    }
+
+    // Deja de aceptar tareas y espera a que terminen las encoladas (el cierre del store va después)
+    public void cerrar() {
+        for (ExecutorService particion : particiones) {
+            particion.shutdown();
+        }
+        long limite = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(ESPERA_CIERRE_MS);
+        try {
+            for (ExecutorService particion : particiones) {
+                particion.awaitTermination(Math.max(0, limite - System.nanoTime()), TimeUnit.NANOSECONDS);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
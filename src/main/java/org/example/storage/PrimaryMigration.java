@@ -0,0 +1,277 @@
+package org.example.storage;
+
+import org.zeromq.ZMQ;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Predicate;
+
+/**
+ * Lado del primario nuevo en una migración en vivo: descarga del primario de origen el catálogo,
+ * el snapshot de estado y préstamos y luego su log de replicación, con el ancho de banda limitado
+ * para no afectar a las solicitudes que el origen sigue atendiendo. Al final pide el traspaso:
+ * el origen deja de aceptar escrituras y retorna su último LSN.
+ *
+ * Protocolo (DEALER del nuevo -> ROUTER de GA del origen):
+ *   MIGRACION_INICIO                 -> "MIGRACION <ultimoLsn> <libros>" (el origen retiene su log desde ahí)
+ *   MIGRACION_LIBROS:<desde>:<max>   -> ["LIBROS <n> <total> <desde>"][línea CSV]...
+ *   SNAPSHOT_INICIO / SNAPSHOT_CHUNK -> igual que para la réplica (ver {@link StoreSnapshot})
+ *   MIGRACION_CAMBIOS:<lsn>:<max>    -> ["CAMBIOS <n> <primerLsn> <ultimoLsn>"]["lsn, timestamp, TIPO, ID=x"]...
+ *   TRASPASO:<destino>               -> "TRASPASO_OK <ultimoLsn>"; luego responde "MOVIDO:<destino>"
+ *   MIGRACION_ABORTAR                -> "MIGRACION_ABORTADA" (el origen deja de retener su log)
+ *
+ * El DEALER no correlaciona pedidos y respuestas: la respuesta tardía a un pedido que venció llega
+ * antes que la del siguiente. Antes de cada pedido se descarta lo que haya quedado en el socket, y
+ * las páginas y chunks se aceptan solo si corresponden a la posición pedida (si no, se sigue esperando).
+ */
+public final class PrimaryMigration {
+
+    public static final int MAX_LIBROS_POR_PAGINA = 4096;
+    private static final int TIMEOUT_MS = 10000;
+
+    private final ZMQ.Socket dealer;
+    private final String origen;
+    private final long bytesPorSegundo;
+    private final long inicio = System.currentTimeMillis();
+    private long copiados;
+
+    public PrimaryMigration(ZMQ.Context context, String origen, long bytesPorSegundo) {
+        this.origen = origen;
+        this.bytesPorSegundo = bytesPorSegundo;
+        dealer = context.socket(ZMQ.DEALER);
+        dealer.setReceiveTimeOut(TIMEOUT_MS);
+        dealer.setLinger(0);
+        dealer.connect("tcp://" + origen);
+    }
+
+    public String origen() {
+        return origen;
+    }
+
+    public long copiados() {
+        return copiados;
+    }
+
+    public String iniciar() {
+        List<byte[]> frames = pedir("MIGRACION_INICIO", false, respuesta -> true);
+        return frames == null ? "Error: El origen no respondió" : texto(frames.get(0));
+    }
+
+    /**
+     * Copia el catálogo del origen por páginas a {@code destino} (temporal con fsync + move atómico).
+     * Retorna la cantidad de libros copiados.
+     */
+    public int copiarCatalogo(Path destino) throws IOException {
+        if (destino.getParent() != null) {
+            Files.createDirectories(destino.getParent());
+        }
+        int[] copiados = new int[1];
+        ArchivoDurable.reemplazar(destino, writer -> {
+            int copiadosLibros = 0;
+            while (true) {
+                long desde = copiadosLibros;
+                List<byte[]> frames = pedir("MIGRACION_LIBROS:" + desde + ":" + MAX_LIBROS_POR_PAGINA, true,
+                    respuesta -> esError(respuesta) || esPaginaLibros(respuesta, desde));
+                String cabecera = frames == null ? null : texto(frames.get(0));
+                if (cabecera == null || !cabecera.startsWith("LIBROS ")) {
+                    throw new IOException("El origen no entregó el catálogo: " + cabecera);
+                }
+                for (int i = 1; i < frames.size(); i++) {
+                    writer.write(texto(frames.get(i)));
+                    writer.newLine();
+                }
+                copiadosLibros += frames.size() - 1;
+                long total = BookCatalog.parsearId(cabecera.split(" ")[2]);
+                if (frames.size() == 1 || copiadosLibros >= total) {
+                    break;
+                }
+            }
+            copiados[0] = copiadosLibros;
+        });
+        return copiados[0];
+    }
+
+    // Descarga el snapshot del origen por chunks (verificando el CRC de cada uno)
+    public StoreSnapshot.Contenido descargarSnapshot() throws IOException {
+        List<byte[]> respuesta = pedir("SNAPSHOT_INICIO", false, frames -> true);
+        String cabecera = respuesta == null ? null : texto(respuesta.get(0));
+        if (cabecera == null || !cabecera.startsWith("SNAPSHOT ")) {
+            throw new IOException("El origen no entregó el snapshot: " + cabecera);
+        }
+        StoreSnapshot.Receptor receptor = new StoreSnapshot.Receptor(cabecera);
+        for (int i = 0; i < receptor.cantidadChunks(); i++) {
+            if (!descargarChunk(receptor, i)) {
+                throw new IOException("No se pudo descargar el chunk " + i + " del snapshot");
+            }
+        }
+        return receptor.leer();
+    }
+
+    // Pide un chunk (hasta 3 intentos si llega corrupto o no llega)
+    private boolean descargarChunk(StoreSnapshot.Receptor receptor, int indice) {
+        for (int intento = 0; intento < 3; intento++) {
+            List<byte[]> frames = pedir("SNAPSHOT_CHUNK:" + receptor.id() + ":" + indice, true,
+                respuesta -> esError(respuesta) || esChunk(respuesta, indice));
+            if (frames == null) {
+                continue;
+            }
+            String[] partes = texto(frames.get(0)).split(" ");
+            if (partes.length == 3 && partes[0].equals("CHUNK") && frames.size() > 1
+                && receptor.agregar(indice, frames.get(1), BookCatalog.parsearId(partes[2]))) {
+                return true;
+            }
+            if (partes[0].startsWith("Error")) {
+                return false;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Página de cambios con LSN mayor que {@code cursor}: cabecera "CAMBIOS n primerLsn ultimoLsn"
+     * seguida de los cambios; null si el origen no respondió. Pedir el cursor libera en el origen
+     * los cambios anteriores. {@code limitar}: respetar el ancho de banda (no durante el traspaso).
+     */
+    public List<String> cambios(long cursor, int max, boolean limitar) {
+        List<byte[]> frames = pedir("MIGRACION_CAMBIOS:" + cursor + ":" + max, limitar,
+            respuesta -> esError(respuesta) || esPaginaCambios(respuesta, cursor));
+        if (frames == null) {
+            return null;
+        }
+        List<String> resultado = new ArrayList<>(frames.size());
+        for (byte[] frame : frames) {
+            resultado.add(texto(frame));
+        }
+        return resultado;
+    }
+
+    // Pide el traspaso al origen; retorna su último LSN (-1 si lo rechazó o no respondió)
+    public long traspasar(String destino) {
+        List<byte[]> frames = pedir("TRASPASO:" + destino, false, respuesta -> true);
+        String respuesta = frames == null ? null : texto(frames.get(0));
+        if (respuesta == null || !respuesta.startsWith("TRASPASO_OK ")) {
+            return -1;
+        }
+        return BookCatalog.parsearId(respuesta.substring("TRASPASO_OK ".length()));
+    }
+
+    // Avisa al origen que la migración se abandona para que libere la retención del log (mejor esfuerzo)
+    public boolean abortar() {
+        List<byte[]> frames = pedir("MIGRACION_ABORTAR", false, respuesta -> true);
+        return frames != null && "MIGRACION_ABORTADA".equals(texto(frames.get(0)));
+    }
+
+    public void cerrar() {
+        dealer.close();
+    }
+
+    /**
+     * Envía una solicitud y recibe todos los frames de la respuesta (null si no hubo respuesta).
+     * Las respuestas que {@code esRespuesta} rechaza son tardías de un pedido anterior: se descartan
+     * y se sigue esperando la propia hasta el timeout.
+     */
+    private List<byte[]> pedir(String solicitud, boolean limitar, Predicate<List<byte[]>> esRespuesta) {
+        descartarPendientes();
+        if (!dealer.send(solicitud, 0)) {
+            return null;
+        }
+        long limite = System.currentTimeMillis() + TIMEOUT_MS;
+        while (true) {
+            List<byte[]> frames = recibir(0);
+            if (frames == null) {
+                return null;
+            }
+            if (esRespuesta.test(frames)) {
+                if (limitar) {
+                    limitar();
+                }
+                return frames;
+            }
+            if (System.currentTimeMillis() >= limite) {
+                return null;
+            }
+        }
+    }
+
+    // Respuestas que quedaron en el socket de pedidos que vencieron
+    private void descartarPendientes() {
+        while (recibir(ZMQ.DONTWAIT) != null) {
+            // descartada
+        }
+    }
+
+    // Todos los frames de una respuesta (null si no llegó ninguna); cuentan para el ancho de banda
+    private List<byte[]> recibir(int flags) {
+        byte[] primero = dealer.recv(flags);
+        if (primero == null) {
+            return null;
+        }
+        List<byte[]> frames = new ArrayList<>();
+        frames.add(primero);
+        long bytes = primero.length;
+        while (dealer.hasReceiveMore()) {
+            byte[] frame = dealer.recv();
+            frames.add(frame);
+            bytes += frame.length;
+        }
+        copiados += bytes;
+        return frames;
+    }
+
+    private static boolean esError(List<byte[]> frames) {
+        return texto(frames.get(0)).startsWith("Error");
+    }
+
+    // "LIBROS <n> <total> <desde>" con los n libros de la página pedida
+    private static boolean esPaginaLibros(List<byte[]> frames, long desde) {
+        String[] partes = texto(frames.get(0)).split(" ");
+        return partes.length == 4 && partes[0].equals("LIBROS") && BookCatalog.parsearId(partes[3]) == desde
+            && BookCatalog.parsearId(partes[1]) == frames.size() - 1;
+    }
+
+    // "CHUNK <indice> <crc>" del chunk pedido
+    private static boolean esChunk(List<byte[]> frames, int indice) {
+        String[] partes = texto(frames.get(0)).split(" ");
+        return partes.length == 3 && partes[0].equals("CHUNK") && BookCatalog.parsearId(partes[1]) == indice;
+    }
+
+    /**
+     * La página no repite el cursor, pero la de un cursor anterior se reconoce igual: sus cambios
+     * empiezan en o antes de {@code cursor}, o (vacía) su último LSN es menor que {@code cursor}.
+     * El origen retiene su log desde el cursor, así que la página propia nunca cumple ninguna.
+     */
+    private static boolean esPaginaCambios(List<byte[]> frames, long cursor) {
+        String[] partes = texto(frames.get(0)).split(" ");
+        if (partes.length != 4 || !partes[0].equals("CAMBIOS") || BookCatalog.parsearId(partes[1]) != frames.size() - 1) {
+            return false;
+        }
+        if (frames.size() == 1) {
+            return BookCatalog.parsearId(partes[3]) >= cursor;
+        }
+        return ReplicationPublisher.lsnDe(texto(frames.get(1))) > cursor;
+    }
+
+    // Duerme lo necesario para que lo copiado no supere bytesPorSegundo en promedio
+    private void limitar() {
+        if (bytesPorSegundo <= 0) {
+            return;
+        }
+        long esperado = copiados * 1000 / bytesPorSegundo;
+        long transcurrido = System.currentTimeMillis() - inicio;
+        if (esperado > transcurrido) {
+            try {
+                Thread.sleep(esperado - transcurrido);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private static String texto(byte[] frame) {
+        return new String(frame, StandardCharsets.UTF_8);
+    }
+}
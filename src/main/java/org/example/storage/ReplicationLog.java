@@ -0,0 +1,346 @@
+package org.example.storage;
+
+import org.example.util.Console;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Log de replicación del primario: cada cambio recibe un número de secuencia (LSN)
+ * monótono y contiguo. Las entradas sin confirmar viven en un buffer circular; la réplica
+ * confirma "aplicado hasta LSN k" y el log avanza su cabeza sin buscar ni copiar.
+ *
+ * Persistencia en pending.log, una entrada por línea ("lsn, timestamp, TIPO, ID=x") escrita con
+ * un append; cada confirmación agrega "CONFIRMADO, k". La compactación reescribe solo las entradas
+ * pendientes, precedidas de "LSN_BASE, n" para no reutilizar LSNs aunque el log quede vacío.
+ *
+ * Ningún LSN sale del proceso (PUB, páginas de OBTENER_CAMBIOS, snapshot, traspaso) antes de que su
+ * entrada esté forzada a disco ({@link #forzar()}, un fsync por lote, fuera del lock de los appends):
+ * si tras un corte se perdiera un LSN que la réplica ya aplicó, se reutilizaría para otro cambio y la
+ * réplica lo descartaría como "ya aplicado". Lo que se pierde en un corte es solo la cola no forzada,
+ * que nadie vio; una última línea a medio escribir se descarta al abrir.
+ */
+public final class ReplicationLog {
+
+    private static final String LSN_BASE = "LSN_BASE";
+    private static final String CONFIRMADO = "CONFIRMADO";
+
+    private final Path path;
+    private FileChannel canal;
+    private BufferedWriter writer;
+    private boolean sucio;
+    // Último LSN forzado a disco: el único visible fuera del proceso
+    private long durable;
+    // Serializa los fsync (y el cierre o reemplazo del canal); se toma antes que "this"
+    private final Object forzado = new Object();
+
+    // Buffer circular: la entrada con LSN primerLsn + i está en (cabeza + i) & mascara
+    private String[] entradas = new String[256];
+    private int mascara = entradas.length - 1;
+    private int cabeza;
+    private int tamano;
+    private long primerLsn = 1;
+
+    private ReplicationLog(Path path) {
+        this.path = path;
+    }
+
+    /**
+     * Carga pending.log. Las líneas del formato anterior (sin LSN) reciben LSNs consecutivos.
+     */
+    public static ReplicationLog abrir(String path) throws IOException {
+        ReplicationLog log = new ReplicationLog(Paths.get(path));
+        if (Files.exists(log.path)) {
+            descartarLineaIncompleta(log.path);
+            try (BufferedReader reader = Files.newBufferedReader(log.path, StandardCharsets.UTF_8)) {
+                String linea;
+                while ((linea = reader.readLine()) != null) {
+                    log.cargarLinea(linea);
+                }
+            }
+        }
+        // Reescribir si hubo confirmaciones o entradas antiguas sin LSN
+        if (log.sucio) {
+            log.compactar();
+        }
+        if (log.writer == null) {
+            log.abrirWriter();
+        }
+        // Lo cargado pudo quedar solo en el cache del sistema (cierre no limpio): forzarlo antes de exponerlo
+        log.forzar();
+        return log;
+    }
+
+    // Un corte en medio de un append deja una última línea sin '\n': se trunca antes de cargar
+    private static void descartarLineaIncompleta(Path path) throws IOException {
+        try (FileChannel archivo = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            long fin = archivo.size();
+            ByteBuffer byteLeido = ByteBuffer.allocate(1);
+            while (fin > 0) {
+                byteLeido.clear();
+                archivo.read(byteLeido, fin - 1);
+                if (byteLeido.get(0) == '\n') {
+                    break;
+                }
+                fin--;
+            }
+            if (fin < archivo.size()) {
+                Console.warn("GA2", "pending.log: se descarta una última línea incompleta de " + (archivo.size() - fin) + " bytes");
+                archivo.truncate(fin);
+                archivo.force(true);
+            }
+        }
+    }
+
+    private void cargarLinea(String linea) {
+        if (linea.isBlank()) {
+            return;
+        }
+        String[] partes = linea.split(",", 2);
+        long lsn = BookCatalog.parsearId(partes[0]);
+        if (partes[0].trim().equals(LSN_BASE) && partes.length == 2) {
+            long base = BookCatalog.parsearId(partes[1]);
+            if (base > 0 && tamano == 0) {
+                primerLsn = base;
+            }
+        } else if (partes[0].trim().equals(CONFIRMADO) && partes.length == 2) {
+            descartarHasta(BookCatalog.parsearId(partes[1]));
+        } else if (lsn > 0 && partes.length == 2) {
+            if (tamano == 0) {
+                primerLsn = lsn;
+            }
+            if (lsn == siguienteLsn()) {
+                insertar(partes[1].trim());
+            }
+        } else {
+            // Formato anterior: "timestamp, TIPO, ID=x"
+            insertar(linea.trim());
+            sucio = true;
+        }
+    }
+
+    /**
+     * Agrega un cambio ("timestamp, TIPO, ID=x") y retorna su LSN.
+     */
+    public synchronized long agregar(String cambio) throws IOException {
+        long lsn = siguienteLsn();
+        insertar(cambio);
+        writer.write(lsn + ", " + cambio);
+        writer.newLine();
+        writer.flush();
+        notifyAll();
+        return lsn;
+    }
+
+    /**
+     * Confirma todas las entradas con LSN &lt;= {@code lsn}; retorna cuántas se descartaron.
+     */
+    public synchronized int confirmarHasta(long lsn) throws IOException {
+        int descartadas = descartarHasta(lsn);
+        if (descartadas > 0) {
+            writer.write(CONFIRMADO + ", " + lsn);
+            writer.newLine();
+            writer.flush();
+        }
+        return descartadas;
+    }
+
+    private int descartarHasta(long lsn) {
+        if (lsn < primerLsn) {
+            return 0;
+        }
+        int descartadas = (int) Math.min(tamano, lsn - primerLsn + 1);
+        for (int i = 0; i < descartadas; i++) {
+            entradas[(cabeza + i) & mascara] = null;
+        }
+        cabeza = (cabeza + descartadas) & mascara;
+        tamano -= descartadas;
+        primerLsn += descartadas;
+        if (descartadas > 0) {
+            sucio = true;
+        }
+        return descartadas;
+    }
+
+    /**
+     * Descarta todas las entradas y sigue numerando desde {@code lsn} + 1. Lo usa el primario
+     * nuevo de una migración tras instalar el snapshot del anterior, para continuar su secuencia.
+     */
+    public void reiniciarEn(long lsn) throws IOException {
+        synchronized (forzado) {
+            synchronized (this) {
+                descartarHasta(ultimoLsn());
+                primerLsn = lsn + 1;
+                cabeza = 0;
+                sucio = true;
+                compactar();
+            }
+        }
+    }
+
+    /**
+     * Fuerza a disco lo agregado hasta ahora y retorna el último LSN durable. Las llamadas
+     * concurrentes se agrupan: un fsync cubre todos los appends anteriores a él.
+     */
+    public long forzar() throws IOException {
+        synchronized (forzado) {
+            long hasta;
+            FileChannel actual;
+            synchronized (this) {
+                hasta = ultimoLsn();
+                if (hasta <= durable) {
+                    return durable;
+                }
+                writer.flush();
+                actual = canal;
+            }
+            // Fuera de "this": los appends siguen mientras dura el fsync
+            actual.force(false);
+            synchronized (this) {
+                durable = Math.max(durable, hasta);
+                return durable;
+            }
+        }
+    }
+
+    // Entradas pendientes con su LSN ("lsn, timestamp, TIPO, ID=x")
+    public synchronized List<String> pendientes() {
+        List<String> resultado = new ArrayList<>(tamano);
+        for (int i = 0; i < tamano; i++) {
+            resultado.add(linea(i));
+        }
+        return resultado;
+    }
+
+    /**
+     * Hasta {@code max} entradas pendientes y durables con LSN &gt;= {@code lsn} ("lsn, timestamp, TIPO, ID=x").
+     * Las entradas ya confirmadas no se retornan.
+     */
+    public synchronized List<String> desde(long lsn, int max) {
+        long inicio = Math.max(lsn, primerLsn);
+        // Solo entradas durables (ver forzar)
+        int cantidad = (int) Math.max(0, Math.min(max, durable + 1 - inicio));
+        List<String> resultado = new ArrayList<>(cantidad);
+        for (int i = 0; i < cantidad; i++) {
+            resultado.add(linea((int) (inicio - primerLsn) + i));
+        }
+        return resultado;
+    }
+
+    /**
+     * Bloquea hasta que exista un LSN mayor que {@code lsn} o venza el timeout; retorna el último LSN.
+     */
+    public synchronized long esperarPosteriorA(long lsn, long timeoutMs) throws InterruptedException {
+        long limite = System.currentTimeMillis() + timeoutMs;
+        long restante = timeoutMs;
+        while (ultimoLsn() <= lsn && restante > 0) {
+            wait(restante);
+            restante = limite - System.currentTimeMillis();
+        }
+        return ultimoLsn();
+    }
+
+    // LSN de la entrada pendiente más antigua (o el siguiente a asignar si no hay pendientes)
+    public synchronized long primerLsn() {
+        return primerLsn;
+    }
+
+    // Último LSN asignado (0 si nunca se registró un cambio)
+    public synchronized long ultimoLsn() {
+        return siguienteLsn() - 1;
+    }
+
+    public synchronized int tamano() {
+        return tamano;
+    }
+
+    /**
+     * Reescribe pending.log con las entradas pendientes (temporal con fsync + move atómico + fsync del directorio).
+     * Retorna false si no había nada que compactar.
+     */
+    public boolean compactar() throws IOException {
+        synchronized (forzado) {
+            synchronized (this) {
+                if (!sucio) {
+                    return false;
+                }
+                if (writer != null) {
+                    writer.close();
+                }
+                ArchivoDurable.reemplazar(path, out -> {
+                    out.write(LSN_BASE + ", " + primerLsn);
+                    out.newLine();
+                    for (int i = 0; i < tamano; i++) {
+                        out.write(linea(i));
+                        out.newLine();
+                    }
+                });
+                // El archivo nuevo ya está en disco: todo lo pendiente es durable
+                durable = ultimoLsn();
+                abrirWriter();
+                sucio = false;
+                return true;
+            }
+        }
+    }
+
+    public void cerrar() throws IOException {
+        synchronized (forzado) {
+            synchronized (this) {
+                writer.flush();
+                canal.force(false);
+                writer.close();
+            }
+        }
+    }
+
+    private String linea(int i) {
+        return (primerLsn + i) + ", " + entradas[(cabeza + i) & mascara];
+    }
+
+    private long siguienteLsn() {
+        return primerLsn + tamano;
+    }
+
+    private void insertar(String cambio) {
+        if (tamano == entradas.length) {
+            crecer();
+        }
+        entradas[(cabeza + tamano) & mascara] = cambio;
+        tamano++;
+    }
+
+    private void crecer() {
+        String[] nuevas = new String[entradas.length * 2];
+        for (int i = 0; i < tamano; i++) {
+            nuevas[i] = entradas[(cabeza + i) & mascara];
+        }
+        entradas = nuevas;
+        mascara = nuevas.length - 1;
+        cabeza = 0;
+    }
+
+    private void abrirWriter() throws IOException {
+        if (path.getParent() != null) {
+            Files.createDirectories(path.getParent());
+        }
+        boolean nuevo = !Files.exists(path);
+        // Por el canal y no Files.newBufferedWriter: forzar() necesita el force(false)
+        canal = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        writer = new BufferedWriter(Channels.newWriter(canal, StandardCharsets.UTF_8));
+        if (nuevo) {
+            ArchivoDurable.sincronizarDirectorio(path.toAbsolutePath().getParent());
+        }
+    }
+}
@@ -0,0 +1,146 @@
+package org.example.storage;
+
+import org.example.util.Console;
+import org.zeromq.ZMQ;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.function.LongConsumer;
+
+/**
+ * Canal de replicación en streaming de GA2 hacia GA.
+ * Un hilo publica por PUB los cambios nuevos del {@link ReplicationLog} en lotes ordenados
+ * por LSN; cuando no hay cambios envía un latido con el último LSN para que la réplica
+ * detecte huecos. Las confirmaciones llegan de forma asíncrona por un PULL.
+ * Quien escribe en el log nunca espera a la réplica: si el PUB descarta mensajes,
+ * la réplica ve el hueco y se pone al día con OBTENER_CAMBIOS.
+ *
+ * Mensajes (multipart):
+ *   ["CAMBIOS"]["lsn, timestamp, TIPO, ID=x"]...   lote de cambios consecutivos
+ *   ["HB"]["ultimoLsn"]                           latido
+ *   ["MOVIDO"]["host:actores:ga:repl:ack"]        en lugar del latido, tras traspasar el primario
+ * Confirmación (PULL): "CAMBIOS_SINCRONIZADOS:<lsn>"
+ */
+public final class ReplicationPublisher {
+
+    private static final int MAX_LOTE = 512;
+    private static final long INTERVALO_LATIDO_MS = 1000;
+
+    private final ZMQ.Context context;
+    private final String bindHost;
+    private final String puertoPub;
+    private final String puertoAck;
+    private final ReplicationLog log;
+    private final LongConsumer alConfirmar;
+    // Destino anunciado tras una migración (null mientras este primario sea el dueño)
+    private volatile String movido;
+
+    public ReplicationPublisher(ZMQ.Context context, String bindHost, String puertoPub, String puertoAck,
+                                ReplicationLog log, LongConsumer alConfirmar) {
+        this.context = context;
+        this.bindHost = bindHost;
+        this.puertoPub = puertoPub;
+        this.puertoAck = puertoAck;
+        this.log = log;
+        this.alConfirmar = alConfirmar;
+    }
+
+    public void iniciar() {
+        Thread publicador = new Thread(this::publicar, "repl-pub");
+        publicador.setDaemon(true);
+        publicador.start();
+        Thread confirmaciones = new Thread(this::recibirConfirmaciones, "repl-ack");
+        confirmaciones.setDaemon(true);
+        confirmaciones.start();
+    }
+
+    /**
+     * Anuncia a la réplica el primario nuevo ("host:actores:ga:repl:ack"); se publica en lugar
+     * del latido una vez enviados todos los cambios del log.
+     */
+    public void anunciarMovido(String destino) {
+        movido = destino;
+    }
+
+    private void publicar() {
+        ZMQ.Socket pub = context.socket(ZMQ.PUB);
+        pub.setLinger(0);
+        pub.bind("tcp://" + bindHost + ":" + puertoPub);
+        Console.info("GA2-REPL", "PUB de replicación en tcp://" + bindHost + ":" + puertoPub);
+        // Los cambios previos al arranque los recupera GA con OBTENER_CAMBIOS
+        long publicado = log.ultimoLsn();
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                long ultimo = log.esperarPosteriorA(publicado, INTERVALO_LATIDO_MS);
+                if (ultimo <= publicado) {
+                    String destino = movido;
+                    if (destino != null) {
+                        // Ya se publicó todo hasta el traspaso: la réplica debe seguir al primario nuevo
+                        pub.sendMore("MOVIDO");
+                        pub.send(destino);
+                    } else {
+                        pub.sendMore("HB");
+                        pub.send(Long.toString(ultimo));
+                    }
+                    continue;
+                }
+                // Solo se publica lo que ya está en disco (un fsync por lote)
+                try {
+                    log.forzar();
+                } catch (IOException e) {
+                    Console.error("GA2-REPL", "Error al forzar pending.log: " + e.getMessage());
+                    Thread.sleep(INTERVALO_LATIDO_MS);
+                    continue;
+                }
+                List<String> lote = log.desde(publicado + 1, MAX_LOTE);
+                if (lote.isEmpty()) {
+                    // Ya confirmados por la sincronización: no hay nada que enviar
+                    publicado = ultimo;
+                    continue;
+                }
+                pub.sendMore("CAMBIOS");
+                for (int i = 0; i < lote.size(); i++) {
+                    if (i < lote.size() - 1) {
+                        pub.sendMore(lote.get(i));
+                    } else {
+                        pub.send(lote.get(i));
+                    }
+                }
+                publicado = lsnDe(lote.get(lote.size() - 1));
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            pub.close();
+        }
+    }
+
+    private void recibirConfirmaciones() {
+        ZMQ.Socket pull = context.socket(ZMQ.PULL);
+        pull.setLinger(0);
+        pull.bind("tcp://" + bindHost + ":" + puertoAck);
+        Console.info("GA2-REPL", "PULL de confirmaciones en tcp://" + bindHost + ":" + puertoAck);
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                String mensaje = pull.recvStr();
+                if (mensaje == null || !mensaje.startsWith("CAMBIOS_SINCRONIZADOS:")) {
+                    continue;
+                }
+                long lsn = BookCatalog.parsearId(mensaje.substring("CAMBIOS_SINCRONIZADOS:".length()));
+                if (lsn > 0) {
+                    alConfirmar.accept(lsn);
+                }
+            }
+        } catch (RuntimeException e) {
+            Console.error("GA2-REPL", "Error en confirmaciones: " + e.getMessage());
+        } finally {
+            pull.close();
+        }
+    }
+
+    // LSN de una entrada "lsn, timestamp, TIPO, ID=x"; -1 si no tiene
+    static long lsnDe(String entrada) {
+        int coma = entrada.indexOf(',');
+        return coma < 0 ? -1 : BookCatalog.parsearId(entrada.substring(0, coma));
+    }
+}
@@ -1,9 +1,16 @@
 package org.example.storage;
 
 import org.example.config.Config;
+import org.example.config.PrimaryEndpoint;
+import org.example.util.BatchRequest;
 import org.example.util.CommandRouter;
 import org.example.util.Console;
+import org.example.util.Envelope;
+import org.example.util.Metrics;
+import org.example.util.Trace;
+import org.zeromq.ZFrame;
 import org.zeromq.ZMQ;
+import org.zeromq.ZMsg;
 import java.io.*;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
@@ -11,9 +18,17 @@ import java.nio.file.Paths;
 import java.time.LocalDate;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
 import java.util.List;
-import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 public class StoragePrimary {
 
@@ -22,23 +37,63 @@ public class StoragePrimary {
     private static final String GA2_ROUTER_PORT = Config.ga2RouterPort();
     private static final String GA2_REP_HOST = Config.env("GA2_REP_HOST", "*");
     private static final String GA2_REP_PORT = Config.ga2RepPort();
-    private static final String GA_HOST = Config.gaHost(); // Puerto del GA para notificaciones
-    private static final String GA_PORT = Config.gaPort(); // Puerto del GA para notificaciones
+    private static final String GA2_REPL_HOST = Config.env("GA2_REPL_HOST", "*");
     private static final String BOOK_DB_PATH = Config.primaryBookDbPath();
     private static final String LOANS_PATH = Config.primaryLoansPath();
     private static final String PENDING_LOG_PATH = Config.primaryPendingLogPath();
+    private static final String WAL_PATH = Config.primaryWalPath();
+    private static final String OBTENER_CAMBIOS = "OBTENER_CAMBIOS:";
+    // Tope de cambios por página aunque GA pida más (memoria acotada en ambos extremos)
+    private static final int MAX_PAGINA_CAMBIOS = 4096;
+    private static final String SNAPSHOT_CHUNK = "SNAPSHOT_CHUNK:";
+    private static final String WORKERS_ENDPOINT = "inproc://ga2-workers";
+    private static final String LISTO = "LISTO";
+    // Frontend de origen de cada solicitud dentro del broker
+    private static final String ORIGEN_GA = "GA";
+    private static final String ORIGEN_ACTORES = "ACTORES";
+    // Migración en vivo hacia otro primario (ver PrimaryMigration)
+    private static final String MIGRACION = "MIGRACION_";
+    private static final String MIGRACION_LIBROS = "MIGRACION_LIBROS:";
+    private static final String MIGRACION_CAMBIOS = "MIGRACION_CAMBIOS:";
+    private static final String TRASPASO = "TRASPASO:";
+    private static final long ESPERA_TRASPASO_MS = 5000;
+    // Saltos de las métricas y trazas: la solicitud en el worker, la partición del libro (cola + ejecución)
+    // y la espera de durabilidad del WAL
+    private static final String HOP = "GA2";
+    private static final String HOP_PARTICION = "GA2->PARTICION";
+    private static final String HOP_WAL = "GA2->WAL";
     
-    // Lista en memoria para cambios pendientes (thread-safe)
-    private final CopyOnWriteArrayList<String> cambiosPendientes = new CopyOnWriteArrayList<>();
+    // Catálogo y préstamos en memoria respaldados por el WAL (los CSV solo como persistencia)
+    private LibraryStore store;
+    private BookCatalog catalogo;
+    // Cambios pendientes de confirmar por GA, numerados por LSN (persistidos en pending.log)
+    private ReplicationLog logReplicacion;
+    // Mutaciones particionadas por ID de libro: un único hilo escritor por partición
+    private PartitionedExecutor particiones;
+    // Último snapshot generado para una réplica (se sirve por chunks hasta que se pida otro)
+    private volatile StoreSnapshot snapshot;
+    private ReplicationPublisher publicador;
+    // Origen de una migración: LSN hasta el que el log puede confirmarse sin perder cambios que el
+    // primario nuevo aún no copió (sin migración no limita), y último LSN confirmado por la réplica
+    private long retencionMigracion = Long.MAX_VALUE;
+    private long confirmadoReplica;
+    // Último pedido del primario nuevo (ms): sin pedidos por MIGRATION_TIMEOUT_S la retención se libera
+    private long actividadMigracion;
+    // Origen ya traspasado: responde MOVIDO con el primario nuevo
+    private volatile PrimaryEndpoint movidoA;
+    // Primario nuevo durante la migración: las mutaciones esperan a que termine el traspaso
+    private volatile CountDownLatch traspaso;
+    // El cierre lo puede iniciar el hilo principal o el hook de apagado
+    private final AtomicBoolean almacenamientoCerrado = new AtomicBoolean();
     private final CommandRouter router = new CommandRouter(UNKNOWN_RESPONSE)
         .onExact("PING", req -> "PONG")
-        .onPrefix("Disponibilidad?", this::handleAvailability)
-        .onPrefix("DEVOLVER", this::handleReturn)
-        .onPrefix("RENOVAR", this::handleRenewal)
         .onExact("OBTENER_CAMBIOS", req -> handleRequestSync())
-        .onPrefix("CAMBIOS_SINCRONIZADOS:", this::procesarCambiosSincronizados);
-    private ZMQ.Context contextNotificacion;
-    private ZMQ.Socket socketNotificacion;
+        .onExact("SNAPSHOT_INICIO", req -> handleSnapshotInicio())
+        .onExact("MIGRACION_INICIO", req -> handleMigracionInicio())
+        .onExact("MIGRACION_ABORTAR", req -> handleMigracionAbortar())
+        .onPrefix(TRASPASO, this::handleTraspaso)
+        .onPrefix("CAMBIOS_SINCRONIZADOS:", this::procesarCambiosSincronizados)
+        .onExact(Metrics.STATS, req -> Metrics.stats());
 
     public static void main(String[] args) {
         new StoragePrimary().iniciar();
@@ -47,851 +102,1151 @@ public class StoragePrimary {
     public void iniciar() {
         ZMQ.Context context = ZMQ.context(1);
         
-        // Crear socket ROUTER para comunicación con GA (puerto 5570)
+        // Migración en vivo (MIGRAR_DESDE): copiar el catálogo del primario de origen antes de abrir el store
+        PrimaryMigration migracion;
+        try {
+            migracion = iniciarMigracion(context);
+        } catch (IOException e) {
+            Console.error("GA2", "Error al iniciar la migración: " + e.getMessage());
+            context.term();
+            return;
+        }
+        
+        // Cargar el catálogo y los cambios pendientes desde archivo si existen
+        abrirStore();
+        cargarCambiosPendientes();
+        particiones = new PartitionedExecutor(Config.ga2Partitions(), "ga2-part");
+        Console.info("GA2", particiones.cantidad() + " particiones de escritura");
+        // SIGTERM o Ctrl+C: el broker no termina por sí solo, así que el cierre limpio lo hace el hook
+        Runtime.getRuntime().addShutdownHook(new Thread(this::cerrarAlmacenamiento, "ga2-shutdown"));
+        long lsnMigracion = 0;
+        if (migracion != null) {
+            try {
+                lsnMigracion = instalarEstadoDeOrigen(migracion);
+            } catch (IOException e) {
+                Console.error("GA2", "Error al copiar el estado del origen: " + e.getMessage());
+                migracion.abortar();
+                migracion.cerrar();
+                cerrarAlmacenamiento();
+                context.term();
+                return;
+            }
+        }
+        
+        // Crear socket ROUTER para comunicación con GA (puerto 6070)
         ZMQ.Socket router = context.socket(ZMQ.ROUTER);
         router.bind("tcp://" + GA2_ROUTER_HOST + ":" + GA2_ROUTER_PORT);
         Console.info("GA2", "ROUTER en tcp://" + GA2_ROUTER_HOST + ":" + GA2_ROUTER_PORT);
+        Metrics.iniciar(HOP, Config.metricsPort(Integer.parseInt(GA2_ROUTER_PORT) + 3000));
+        Trace.iniciar(HOP);
         
-        // Crear socket REP para comunicación directa con actores (puerto 5580)
-        ZMQ.Socket rep = context.socket(ZMQ.REP);
-        rep.bind("tcp://" + GA2_REP_HOST + ":" + GA2_REP_PORT);
-        Console.info("GA2", "REP en tcp://" + GA2_REP_HOST + ":" + GA2_REP_PORT);
+        // ROUTER para comunicación directa con actores (puerto 6080): equivale al REP anterior,
+        // los REQ de los actores envían [identidad][""][solicitud]
+        ZMQ.Socket actores = context.socket(ZMQ.ROUTER);
+        actores.bind("tcp://" + GA2_REP_HOST + ":" + GA2_REP_PORT);
+        Console.info("GA2", "ROUTER (actores) en tcp://" + GA2_REP_HOST + ":" + GA2_REP_PORT);
         
-        // Inicializar socket para notificaciones a GA
-        inicializarSocketNotificacion();
+        // Canal de replicación en streaming hacia GA (PUB de cambios + PULL de confirmaciones)
+        if (logReplicacion != null) {
+            publicador = new ReplicationPublisher(context, GA2_REPL_HOST, Config.ga2ReplPort(), Config.ga2ReplAckPort(),
+                logReplicacion, this::marcarCambioSincronizado);
+            publicador.iniciar();
+        }
         
-        // Cargar cambios pendientes desde archivo si existe
-        cargarCambiosPendientes();
+        // Workers: cada uno con su DEALER inproc (el backend se enlaza antes de que se conecten)
+        ZMQ.Socket backend = context.socket(ZMQ.ROUTER);
+        backend.bind(WORKERS_ENDPOINT);
+        int workers = Math.max(1, Config.ga2Workers());
+        for (int i = 0; i < workers; i++) {
+            Thread worker = new Thread(() -> atenderWorker(context), "ga2-worker-" + i);
+            worker.setDaemon(true);
+            worker.start();
+        }
+        Console.info("GA2", workers + " workers");
         
-        // Thread para manejar solicitudes del ROUTER (desde GA)
-        Thread threadRouter = new Thread(() -> manejarSolicitudesRouter(context, router));
-        threadRouter.setDaemon(true);
-        threadRouter.start();
+        // Broker: reparte las solicitudes de ambos frontends entre los workers libres
+        Thread threadBroker = new Thread(() -> ejecutarBroker(context, router, actores, backend), "ga2-broker");
+        threadBroker.setDaemon(true);
+        threadBroker.start();
         
-        // Thread para manejar solicitudes del REP (directo de actores)
-        Thread threadRep = new Thread(() -> manejarSolicitudesRep(context, rep));
-        threadRep.setDaemon(true);
-        threadRep.start();
+        // Migración: ponerse al día con el log del origen y pedir el traspaso
+        if (migracion != null) {
+            PrimaryMigration enCurso = migracion;
+            long desde = lsnMigracion;
+            Thread threadMigracion = new Thread(() -> completarMigracion(enCurso, desde), "ga2-migracion");
+            threadMigracion.setDaemon(true);
+            threadMigracion.start();
+        }
         
         // Mantener el hilo principal vivo
         try {
-            threadRouter.join();
-            threadRep.join();
+            threadBroker.join();
         } catch (InterruptedException e) {
             Thread.currentThread().interrupt();
         }
         
         router.close();
-        rep.close();
-        if (socketNotificacion != null) {
-            socketNotificacion.close();
-        }
-        if (contextNotificacion != null) {
-            contextNotificacion.term();
-        }
-        // Guardar cambios pendientes antes de cerrar
-        guardarCambiosPendientes();
+        actores.close();
+        backend.close();
+        cerrarAlmacenamiento();
         context.term();
     }
+
+    // Espera las escrituras en curso, compacta pending.log y hace un checkpoint final (una sola vez)
+    private void cerrarAlmacenamiento() {
+        if (!almacenamientoCerrado.compareAndSet(false, true)) {
+            return;
+        }
+        particiones.cerrar();
+        compactarCambiosPendientes();
+        cerrarLogReplicacion();
+        cerrarStore();
+        Console.info("GA2", "Almacenamiento cerrado");
+    }
     
-    // Inicializa socket para enviar notificaciones a GA
-    private void inicializarSocketNotificacion() {
+    // Carga cambios pendientes desde archivo
+    private void cargarCambiosPendientes() {
         try {
-            contextNotificacion = ZMQ.context(1);
-            socketNotificacion = contextNotificacion.socket(ZMQ.REQ);
-            socketNotificacion.connect("tcp://" + GA_HOST + ":" + GA_PORT);
-            socketNotificacion.setReceiveTimeOut(1000); // Timeout corto para no bloquear
-            System.out.println(" GA2: Socket de notificación conectado a GA en " + GA_HOST + ":" + GA_PORT);
+            logReplicacion = ReplicationLog.abrir(PENDING_LOG_PATH);
+            Console.info("GA2", "Cargados " + logReplicacion.tamano() + " cambios pendientes desde archivo (último LSN "
+                + logReplicacion.ultimoLsn() + ")");
         } catch (Exception e) {
-            System.err.println(" GA2: Error al inicializar socket de notificación: " + e.getMessage());
-            socketNotificacion = null;
+            Console.error("GA2", "Error al cargar cambios pendientes: " + e.getMessage());
         }
     }
     
-    // Carga cambios pendientes desde archivo
-    private void cargarCambiosPendientes() {
+    // Compacta pending.log: reescribe solo los cambios aún pendientes (lo llama el hilo de checkpoints)
+    private void compactarCambiosPendientes() {
+        if (logReplicacion == null) {
+            return;
+        }
+        // También vence la retención de una migración abandonada aunque la réplica no confirme nada
+        marcarCambioSincronizado(0);
         try {
-            File archivo = new File(PENDING_LOG_PATH);
-            if (archivo.exists()) {
-                List<String> lineas = Files.readAllLines(Paths.get(PENDING_LOG_PATH), StandardCharsets.UTF_8);
-                cambiosPendientes.addAll(lineas);
-                System.out.println(" GA2: Cargados " + cambiosPendientes.size() + " cambios pendientes desde archivo");
+            if (logReplicacion.compactar()) {
+                Console.info("GA2", "pending.log compactado (" + logReplicacion.tamano() + " cambios pendientes)");
             }
         } catch (Exception e) {
-            System.err.println(" GA2: Error al cargar cambios pendientes: " + e.getMessage());
+            Console.error("GA2", "Error al compactar cambios pendientes: " + e.getMessage());
         }
     }
     
-    // Guarda cambios pendientes a archivo
-    private void guardarCambiosPendientes() {
+    private void cerrarLogReplicacion() {
+        if (logReplicacion == null) {
+            return;
+        }
         try {
-            Files.write(Paths.get(PENDING_LOG_PATH), cambiosPendientes, StandardCharsets.UTF_8);
-            System.out.println(" GA2: Guardados " + cambiosPendientes.size() + " cambios pendientes en archivo");
-        } catch (Exception e) {
-            System.err.println(" GA2: Error al guardar cambios pendientes: " + e.getMessage());
+            logReplicacion.cerrar();
+        } catch (IOException e) {
+            Console.error("GA2", "Error al cerrar pending.log: " + e.getMessage());
         }
     }
     
     // Registra un cambio en el log
     private void registerChange(String tipoOperacion, String datos) {
+        if (logReplicacion == null) {
+            Console.error("GA2", "Error al registrar cambio: log de replicación no disponible");
+            return;
+        }
         try {
             LocalDateTime ahora = LocalDateTime.now();
             DateTimeFormatter formatter = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
             String timestamp = ahora.format(formatter);
             String cambio = timestamp + ", " + tipoOperacion + ", " + datos;
             
-            cambiosPendientes.add(cambio);
-            System.out.println(" GA2: Cambio registrado en log: " + cambio);
-            
-            // Guardar inmediatamente en archivo para persistencia
-            guardarCambiosPendientes();
+            // Persistir con un append (la compactación la hace el hilo de checkpoints)
+            long lsn = logReplicacion.agregar(cambio);
+            Console.debug("GA2", "Cambio registrado en log (LSN " + lsn + "): " + cambio);
         } catch (Exception e) {
-            System.err.println(" GA2: Error al registrar cambio: " + e.getMessage());
+            Console.error("GA2", "Error al registrar cambio: " + e.getMessage());
         }
     }
     
-    // Intenta enviar notificación a GA (no bloqueante)
-    private void enviarNotificacionAGa(String tipoOperacion, String datos) {
-        if (socketNotificacion == null) {
-            return; // Socket no disponible, cambio quedará en log
+    // Marca como sincronizados todos los cambios hasta el LSN confirmado (los elimina del log),
+    // sin pasar del LSN que una migración en curso todavía no copió
+    private synchronized void marcarCambioSincronizado(long lsn) {
+        long inactiva = System.currentTimeMillis() - actividadMigracion;
+        if (retencionMigracion != Long.MAX_VALUE && inactiva > Config.migrationTimeoutSec() * 1000) {
+            liberarRetencion("sin pedidos del primario nuevo hace " + inactiva / 1000 + " s");
         }
-        
+        confirmadoReplica = Math.max(confirmadoReplica, lsn);
+        long hasta = Math.min(confirmadoReplica, retencionMigracion);
         try {
-            String notificacion = "NOTIFICACION_CAMBIO:" + tipoOperacion + ":" + datos;
-            socketNotificacion.send(notificacion, 0);
-            String respuesta = socketNotificacion.recvStr();
-            
-            if (respuesta != null && respuesta.equals("OK")) {
-                System.out.println(" GA2: Notificación enviada exitosamente a GA: " + tipoOperacion);
-                // No eliminamos el cambio del log aún, esperamos confirmación explícita
-            } else {
-                System.out.println(" GA2: GA no confirmó notificación, cambio quedará en log");
+            int descartados = logReplicacion.confirmarHasta(hasta);
+            if (descartados > 0) {
+                Console.debug("GA2", descartados + " cambios marcados como sincronizados (hasta LSN " + hasta + ")");
             }
-        } catch (Exception e) {
-            System.out.println(" GA2: Error al enviar notificación a GA (GA puede estar caído): " + e.getMessage());
-            // Cambio quedará en log para sincronización posterior
+        } catch (IOException e) {
+            Console.error("GA2", "Error al marcar cambios como sincronizados: " + e.getMessage());
         }
     }
     
-    // Obtiene lista de cambios pendientes
-    private List<String> obtenerCambiosPendientes() {
-        return new ArrayList<>(cambiosPendientes);
-    }
-    
-    // Marca cambios como sincronizados (los elimina del log)
-    private void marcarCambioSincronizado(List<String> cambiosSincronizados) {
+    /**
+     * Broker de balanceo de carga: los workers avisan "LISTO" por el backend y el broker solo lee
+     * de los frontends mientras haya workers libres (sin workers libres, la cola queda en los sockets).
+     * Cada solicitud viaja como [worker][origen][sobre...][solicitud]; el worker responde con el mismo
+     * sobre y el broker la devuelve por el frontend de origen usando la identidad del cliente.
+     */
+    private void ejecutarBroker(ZMQ.Context context, ZMQ.Socket router, ZMQ.Socket actores, ZMQ.Socket backend) {
+        Deque<ZFrame> libres = new ArrayDeque<>();
+        ZMQ.Poller soloBackend = context.poller(1);
+        soloBackend.register(backend, ZMQ.Poller.POLLIN);
+        ZMQ.Poller todos = context.poller(3);
+        int indiceBackend = todos.register(backend, ZMQ.Poller.POLLIN);
+        int indiceRouter = todos.register(router, ZMQ.Poller.POLLIN);
+        int indiceActores = todos.register(actores, ZMQ.Poller.POLLIN);
         try {
-            cambiosPendientes.removeAll(cambiosSincronizados);
-            guardarCambiosPendientes();
-            System.out.println(" GA2: " + cambiosSincronizados.size() + " cambios marcados como sincronizados");
-        } catch (Exception e) {
-            System.err.println(" GA2: Error al marcar cambios como sincronizados: " + e.getMessage());
+            while (!Thread.currentThread().isInterrupted()) {
+                ZMQ.Poller poller = libres.isEmpty() ? soloBackend : todos;
+                if (poller.poll(-1) < 0) {
+                    break;
+                }
+                if (poller.pollin(poller == todos ? indiceBackend : 0)) {
+                    ZMsg respuesta = ZMsg.recvMsg(backend);
+                    if (respuesta == null) {
+                        break;
+                    }
+                    libres.add(respuesta.pop());
+                    String origen = respuesta.popString();
+                    if (ORIGEN_GA.equals(origen)) {
+                        respuesta.send(router);
+                    } else if (ORIGEN_ACTORES.equals(origen)) {
+                        respuesta.send(actores);
+                    }
+                }
+                if (poller == todos) {
+                    reenviarAWorker(router, ORIGEN_GA, todos.pollin(indiceRouter), libres, backend);
+                    reenviarAWorker(actores, ORIGEN_ACTORES, todos.pollin(indiceActores), libres, backend);
+                }
+            }
+        } catch (RuntimeException e) {
+            Console.error("GA2-BROKER", "Error: " + e.getMessage());
         }
     }
-    
-    // Maneja solicitudes del ROUTER (desde GA)
-    private void manejarSolicitudesRouter(ZMQ.Context context, ZMQ.Socket router) {
-        while (!Thread.currentThread().isInterrupted()) {
-            try {
-                // Recibir formato ROUTER: [identidad] [mensaje]
-            Console.info("GA2-ROUTER", "Esperando solicitud...");
-            String identidad = router.recvStr();
-            Console.info("GA2-ROUTER", "Identidad: " + identidad);
-                
-                // Verificar si hay más frames
-                String siguiente = router.recvStr();
-                Console.info("GA2-ROUTER", "Frame 2: '" + siguiente + "'");
-                
-                String solicitud;
-                // Si el siguiente frame está vacío, el mensaje está en el tercer frame
-                // Si no está vacío, ese es el mensaje
-                if (siguiente == null || siguiente.isEmpty()) {
-                    Console.warn("GA2-ROUTER", "Frame vacío, leyendo cuerpo...");
-                    solicitud = router.recvStr();
-                } else {
-                    solicitud = siguiente;
-                }
-                Console.info("GA2-ROUTER", "Solicitud: " + solicitud);
 
-                String respuesta = handleRequest(solicitud);
-                Console.info("GA2-ROUTER", "Respuesta: " + respuesta);
-            
-                // Enviar respuesta en formato ROUTER: [identidad] [respuesta]
-                router.send(identidad, ZMQ.SNDMORE); // Identidad del DEALER
-                router.send(respuesta, 0);            // Respuesta
-                Console.info("GA2-ROUTER", "Respuesta enviada");
-                
-            } catch (Exception e) {
-                Console.error("GA2-ROUTER", "Error: " + e.getMessage());
-            }
+    private void reenviarAWorker(ZMQ.Socket frontend, String origen, boolean hayMensaje,
+                                 Deque<ZFrame> libres, ZMQ.Socket backend) {
+        if (!hayMensaje || libres.isEmpty()) {
+            return;
         }
+        ZMsg solicitud = ZMsg.recvMsg(frontend);
+        if (solicitud == null) {
+            return;
+        }
+        solicitud.push(origen);
+        solicitud.push(libres.poll());
+        solicitud.send(backend);
     }
-    
-    // Maneja solicitudes del REP (directo de actores)
-    private void manejarSolicitudesRep(ZMQ.Context context, ZMQ.Socket rep) {
-        while (!Thread.currentThread().isInterrupted()) {
-            try {
-                // Recibir solicitud del REP (formato simple: mensaje directo)
-                Console.info("GA2-REP", "Esperando solicitud directa...");
-                String solicitud = rep.recvStr();
-                
-                if (solicitud == null || solicitud.isEmpty()) {
-                    Console.warn("GA2-REP", "Solicitud vacía");
+
+    // Worker: procesa solicitudes del broker; el último frame es la solicitud (o el frame de traza,
+    // seguido por la solicitud), los anteriores el sobre de ruteo
+    private void atenderWorker(ZMQ.Context context) {
+        ZMQ.Socket worker = context.socket(ZMQ.DEALER);
+        worker.setLinger(0);
+        worker.connect(WORKERS_ENDPOINT);
+        worker.send(LISTO);
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                ZMsg mensaje = ZMsg.recvMsg(worker);
+                if (mensaje == null) {
+                    break;
+                }
+                long inicio = System.nanoTime();
+                String origen = mensaje.peekFirst().getString(ZMQ.CHARSET);
+                byte[] traza = Trace.esFrame(mensaje.peekLast().getData()) ? mensaje.removeLast().getData() : null;
+                byte[] datos = mensaje.removeLast().getData();
+                if (Envelope.esSobre(datos)) {
+                    Trace.Span span = Trace.recibir(traza, HOP, Envelope.operacion(datos[1]));
+                    mensaje.add(responderSobre(origen, datos));
+                    mensaje.send(worker);
+                    Metrics.registrar(HOP, Envelope.operacion(datos[1]), inicio);
+                    span.terminar();
                     continue;
                 }
-                Console.info("GA2-REP", "Solicitud: " + solicitud);
-
-                // Procesar solicitud (solo actualiza DB2.txt y Prestamos2.txt, sin sincronizar con GA)
-                String respuesta = handleRequest(solicitud);
-                Console.info("GA2-REP", "Respuesta: " + respuesta);
-                
-                // Si la operación fue exitosa, registrar cambio en log y notificar a GA
-                if (esOperacionExitosa(respuesta, solicitud)) {
-                    String tipoOperacion = extraerTipoOperacion(solicitud);
-                    String datos = extraerDatosOperacion(solicitud);
-                    registerChange(tipoOperacion, datos);
-                    enviarNotificacionAGa(tipoOperacion, datos);
+                String solicitud = new String(datos, ZMQ.CHARSET);
+                Trace.Span span = Trace.recibir(traza, HOP, Metrics.operacion(solicitud));
+                try {
+                    responder(origen, solicitud, mensaje);
+                } catch (RuntimeException e) {
+                    // Siempre responder: un REQ sin respuesta queda bloqueado
+                    Console.error("GA2-WORKER", "Error procesando '" + solicitud + "': " + e.getMessage());
+                    mensaje.add("Error: " + e.getMessage());
                 }
-            
-                // Enviar respuesta (formato REP: respuesta directa)
-                rep.send(respuesta);
-                Console.info("GA2-REP", "Respuesta enviada");
-                
-            } catch (Exception e) {
-                Console.error("GA2-REP", "Error: " + e.getMessage());
+                mensaje.send(worker);
+                Metrics.registrar(HOP, Metrics.operacion(solicitud), inicio);
+                span.terminar();
+            }
+        } finally {
+            worker.close();
+        }
+    }
+
+    // Operación individual en sobre binario: la respuesta es otro sobre con el mismo idSolicitud
+    private byte[] responderSobre(String origen, byte[] datos) {
+        Envelope solicitud;
+        try {
+            solicitud = Envelope.leer(datos);
+        } catch (IllegalArgumentException e) {
+            Console.warn("GA2-WORKER", e.getMessage());
+            return Envelope.solicitud((byte) 0, -1, 0).error("Error: " + e.getMessage()).aBytes();
+        }
+        try {
+            // Solicitudes directas de actores: si la operación fue exitosa se registra en el log
+            return atender(solicitud, ORIGEN_ACTORES.equals(origen)).aBytes();
+        } catch (RuntimeException e) {
+            Console.error("GA2-WORKER", "Error procesando " + solicitud + ": " + e.getMessage());
+            return solicitud.error("Error: " + e.getMessage()).aBytes();
+        }
+    }
+
+    // Agrega al mensaje los frames de respuesta según el origen
+    private void responder(String origen, String solicitud, ZMsg mensaje) {
+        PrimaryEndpoint destino = movidoA;
+        if (destino != null && !solicitud.startsWith(MIGRACION) && !solicitud.startsWith(TRASPASO) && !"PING".equals(solicitud)) {
+            // Primario traspasado: actores y réplica se reconectan al nuevo
+            Metrics.contar(HOP, "movido");
+            Trace.evento("movido");
+            mensaje.add(destino.respuestaMovido());
+            return;
+        }
+        if (ORIGEN_ACTORES.equals(origen)) {
+            // Solicitudes directas de actores: si la operación fue exitosa se registra en el log (el hilo de replicación la publica a GA)
+            mensaje.add(solicitud.isEmpty() ? "Solicitud vacía o nula" : handleRequest(solicitud, true));
+        } else if (solicitud.startsWith(OBTENER_CAMBIOS)) {
+            // Sincronización incremental: la página de cambios va en varios frames
+            for (String frame : handlePaginaCambios(solicitud)) {
+                mensaje.add(frame);
             }
+        } else if (solicitud.startsWith(SNAPSHOT_CHUNK)) {
+            for (byte[] frame : handleChunkSnapshot(solicitud)) {
+                mensaje.add(frame);
+            }
+        } else if (solicitud.startsWith(MIGRACION_LIBROS)) {
+            for (String frame : handleLibrosMigracion(solicitud)) {
+                mensaje.add(frame);
+            }
+        } else if (solicitud.startsWith(MIGRACION_CAMBIOS)) {
+            for (String frame : handleCambiosMigracion(solicitud)) {
+                mensaje.add(frame);
+            }
+        } else {
+            mensaje.add(handleRequest(solicitud));
         }
     }
 
     //  Función principal de procesamiento
     private String handleRequest(String solicitud) {
+        return handleRequest(solicitud, false);
+    }
+
+    /**
+     * Las mutaciones (préstamo, devolución, renovación) se ejecutan en la partición de su libro,
+     * que es su único escritor; el resto se atiende en el hilo que recibió la solicitud.
+     * {@code registrarCambio}: registrar la operación exitosa en el log de replicación (solicitudes
+     * directas de actores). Se hace dentro de la partición para que el orden de los LSN de un libro
+     * sea el mismo que el de sus mutaciones.
+     */
+    private String handleRequest(String solicitud, boolean registrarCambio) {
         if (solicitud == null || solicitud.isEmpty()) {
             return "Solicitud vacía o nula";
         }
+        if (BatchRequest.esLote(solicitud)) {
+            if (!esperarTraspaso()) {
+                return "Error: Primario en migración";
+            }
+            return handleLote(solicitud, registrarCambio);
+        }
+        // Mutación en texto (reenvíos de pendientes de GA): mismo camino que el sobre binario
+        Envelope mutacion = Envelope.desdeTexto(solicitud, 0);
+        if (mutacion != null) {
+            return atender(mutacion, registrarCambio).texto();
+        }
         String respuesta = router.dispatch(solicitud);
         if (UNKNOWN_RESPONSE.equals(respuesta)) {
-            System.out.println("GA2:  Solicitud desconocida -> " + solicitud);
+            Console.warn("GA2", "Solicitud desconocida -> " + solicitud);
+        }
+        return esperarDurabilidad(store == null ? 0 : store.tomarTicket()) ? respuesta : "Error: No se pudo persistir la operación";
+    }
+
+    /**
+     * Préstamo, devolución o renovación de un libro: se ejecuta en la partición del libro, que es
+     * su único escritor, y se responde cuando la mutación es durable (la partición sigue con otras).
+     */
+    private Envelope atender(Envelope solicitud, boolean registrarCambio) {
+        long idLibro = solicitud.idLibro();
+        if (idLibro >= 0 && !esperarTraspaso()) {
+            return solicitud.error("Error: Primario en migración");
+        }
+        Trace.Span span = Trace.local(HOP_PARTICION, solicitud.operacion());
+        long inicio = System.nanoTime();
+        Resultado resultado = idLibro < 0
+            ? procesar(solicitud, registrarCambio)
+            : particiones.enviar(idLibro, () -> procesar(solicitud, registrarCambio)).join();
+        Metrics.registrar(HOP_PARTICION, solicitud.operacion(), inicio);
+        span.terminar();
+        return esperarDurabilidad(resultado.ticket) ? resultado.sobre : solicitud.error("Error: No se pudo persistir la operación");
+    }
+
+    private boolean esperarDurabilidad(long ticket) {
+        if (store == null) {
+            return true;
+        }
+        Trace.Span span = Trace.local(HOP_WAL, "durabilidad");
+        long inicio = System.nanoTime();
+        try {
+            store.esperarDurabilidad(ticket);
+            Metrics.registrar(HOP_WAL, "durabilidad", inicio);
+            return true;
+        } catch (IOException e) {
+            span.error(e.getMessage());
+            Console.error("GA2", "Error de durabilidad en el WAL: " + e.getMessage());
+            return false;
+        } finally {
+            span.terminar();
+        }
+    }
+
+    // Respuesta de una mutación (o de un lote) y ticket del WAL a esperar antes de responder
+    private static final class Resultado {
+        private final Envelope sobre;
+        private final String respuesta;
+        private final long ticket;
+
+        Resultado(Envelope sobre, long ticket) {
+            this(sobre, null, ticket);
+        }
+
+        Resultado(String respuesta, long ticket) {
+            this(null, respuesta, ticket);
+        }
+
+        private Resultado(Envelope sobre, String respuesta, long ticket) {
+            this.sobre = sobre;
+            this.respuesta = respuesta;
+            this.ticket = ticket;
+        }
+    }
+
+    // Corre en la partición del libro; registra en el log de replicación las mutaciones exitosas
+    private Resultado procesar(Envelope solicitud, boolean registrarCambio) {
+        PrimaryEndpoint destino = movidoA;
+        if (destino != null && solicitud.idLibro() >= 0) {
+            // Encolada antes del traspaso pero posterior a él: ya no se aplica en este primario
+            Metrics.contar(HOP, "movido");
+            return new Resultado(solicitud.respuesta(Envelope.MOVIDO, 0, destino.toString()), 0);
+        }
+        Envelope respuesta = mutar(solicitud);
+        if (registrarCambio && respuesta.exitosa()) {
+            registerChange(solicitud.tipoCambio(), "ID=" + solicitud.idLibro());
+        }
+        return new Resultado(respuesta, store == null ? 0 : store.tomarTicket());
+    }
+
+    /**
+     * Lote (PRESTAMO_LOTE/DEVOLVER_LOTE/RENOVAR_LOTE): los IDs se reparten por partición y cada
+     * partición aplica los suyos en orden, con un solo append al WAL y un único registro en el log
+     * de replicación ("TIPO_LOTE, IDS=1,2,3" con los exitosos). La durabilidad se espera una vez.
+     * Un registro por partición (y no uno por lote) mantiene el orden de LSN de cada libro igual
+     * al de sus mutaciones, como en las operaciones individuales.
+     */
+    private String handleLote(String solicitud, boolean registrarCambio) {
+        String tipo = BatchRequest.tipo(solicitud);
+        List<String> ids = BatchRequest.ids(solicitud);
+        if (ids.isEmpty()) {
+            return "Error: Lote sin IDs";
+        }
+        if (ids.size() > BatchRequest.MAX_IDS) {
+            return "Error: El lote supera " + BatchRequest.MAX_IDS + " IDs";
+        }
+        if (catalogo == null) {
+            return "Error: No se pudo leer la base de datos";
+        }
+        long inicio = System.currentTimeMillis();
+        Resultado resultado = ejecutarLote(tipo, ids, registrarCambio);
+        if (!esperarDurabilidad(resultado.ticket)) {
+            return "Error: No se pudo persistir la operación";
+        }
+        Console.info("GA2", tipo + " de " + ids.size() + " IDs en " + (System.currentTimeMillis() - inicio) + " ms");
+        return resultado.respuesta;
+    }
+
+    // Ejecuta el lote en las particiones de sus libros; el ticket es el mayor de los appends
+    private Resultado ejecutarLote(String tipo, List<String> ids, boolean registrarCambio) {
+        String[] resultados = new String[ids.size()];
+        Map<Integer, List<Integer>> porParticion = new HashMap<>();
+        for (int i = 0; i < ids.size(); i++) {
+            long id = BookCatalog.parsearId(ids.get(i));
+            if (id < 0) {
+                resultados[i] = "Error: ID de libro no válido";
+            } else {
+                porParticion.computeIfAbsent(particiones.particion(id), p -> new ArrayList<>()).add(i);
+            }
+        }
+        List<CompletableFuture<Long>> tareas = new ArrayList<>();
+        for (List<Integer> indices : porParticion.values()) {
+            long clave = BookCatalog.parsearId(ids.get(indices.get(0)));
+            tareas.add(particiones.enviar(clave, () -> procesarLote(tipo, ids, indices, resultados, registrarCambio)));
+        }
+        long ticket = 0;
+        for (CompletableFuture<Long> tarea : tareas) {
+            ticket = Math.max(ticket, tarea.join());
+        }
+        return new Resultado(BatchRequest.respuesta(tipo, ids, Arrays.asList(resultados)), ticket);
+    }
+
+    // Parte de un lote dentro de una partición: un append al WAL y un registro de replicación; retorna el ticket
+    private long procesarLote(String tipo, List<String> ids, List<Integer> indices, String[] resultados,
+                              boolean registrarCambio) {
+        List<String> exitosos = new ArrayList<>();
+        byte opcode = BatchRequest.opcode(tipo);
+        store.iniciarLote();
+        try {
+            for (int i : indices) {
+                Envelope respuesta = procesar(Envelope.solicitud(opcode, BookCatalog.parsearId(ids.get(i)), 0), false).sobre;
+                resultados[i] = respuesta.texto();
+                if (respuesta.exitosa()) {
+                    exitosos.add(ids.get(i));
+                }
+            }
+        } finally {
+            try {
+                store.terminarLote();
+            } catch (IOException e) {
+                Console.error("GA2", "Error al registrar el lote en el WAL: " + e.getMessage());
+                for (int i : indices) {
+                    resultados[i] = "Error: No se pudo persistir la operación";
+                }
+                exitosos.clear();
+            }
+        }
+        if (registrarCambio && !exitosos.isEmpty()) {
+            registerChange(Envelope.solicitud(opcode, -1, 0).tipoCambio() + "_LOTE", "IDS=" + String.join(",", exitosos));
+        }
+        return store.tomarTicket();
+    }
+
+    // Vuelca el estado a los CSV y cierra el WAL
+    private void cerrarStore() {
+        if (store == null) {
+            return;
+        }
+        try {
+            store.checkpoint();
+            store.cerrar();
+        } catch (IOException e) {
+            Console.error("GA2", "Error al cerrar el almacenamiento: " + e.getMessage());
         }
-        return respuesta;
     }
     
-    // Procesa solicitud de sincronización (retorna cambios pendientes)
+    // Formato anterior (OBTENER_CAMBIOS sin cursor): una sola página, separada por "|"
     private String handleRequestSync() {
-        List<String> cambios = obtenerCambiosPendientes();
+        List<String> cambios = logReplicacion == null ? List.of() : logReplicacion.desde(0, Config.syncPageSize());
         if (cambios.isEmpty()) {
             return "SIN_CAMBIOS";
         }
         // Retornar cambios separados por "|" para facilitar parsing
         return String.join("|", cambios);
     }
+
+    // SNAPSHOT_INICIO: genera el snapshot del estado actual y retorna su cabecera
+    private String handleSnapshotInicio() {
+        if (store == null || logReplicacion == null) {
+            return "Error: Almacenamiento no disponible";
+        }
+        try {
+            long inicio = System.currentTimeMillis();
+            // El LSN se lee antes de copiar el estado (ver StoreSnapshot.crear)
+            StoreSnapshot nuevo = StoreSnapshot.crear(catalogo, store.prestamos(), logReplicacion.forzar());
+            snapshot = nuevo;
+            Console.info("GA2", "Snapshot generado en " + (System.currentTimeMillis() - inicio) + " ms: " + nuevo.cabecera());
+            return nuevo.cabecera();
+        } catch (IOException e) {
+            Console.error("GA2", "Error al generar snapshot: " + e.getMessage());
+            return "Error: No se pudo generar el snapshot";
+        }
+    }
+
+    // SNAPSHOT_CHUNK:<id>:<i> -> ["CHUNK <i> <crc32>"][bytes]
+    private List<byte[]> handleChunkSnapshot(String solicitud) {
+        String[] partes = solicitud.substring(SNAPSHOT_CHUNK.length()).split(":");
+        long id = BookCatalog.parsearId(partes[0]);
+        long indice = partes.length > 1 ? BookCatalog.parsearId(partes[1]) : -1;
+        StoreSnapshot actual = snapshot;
+        if (actual == null || actual.id() != id) {
+            return List.of("Error: Snapshot expirado".getBytes(StandardCharsets.UTF_8));
+        }
+        // El primario nuevo de una migración también descarga el snapshot por chunks
+        registrarActividadMigracion();
+        if (indice < 0 || indice >= actual.cantidadChunks()) {
+            return List.of("Error: Chunk fuera de rango".getBytes(StandardCharsets.UTF_8));
+        }
+        byte[] datos = actual.chunk((int) indice);
+        String cabecera = "CHUNK " + indice + " " + StoreSnapshot.crc(datos);
+        return List.of(cabecera.getBytes(StandardCharsets.UTF_8), datos);
+    }
+
+    /**
+     * OBTENER_CAMBIOS:<lsn>:<max> -> frames ["CAMBIOS <n> <primerLsn> <ultimoLsn>"]["lsn, timestamp, TIPO, ID=x"]...
+     * Retorna hasta max cambios con LSN mayor que lsn. El cursor pedido implica que GA ya aplicó
+     * (y persistió) todo hasta lsn, así que también confirma esos cambios.
+     */
+    private List<String> handlePaginaCambios(String solicitud) {
+        String[] partes = solicitud.substring(OBTENER_CAMBIOS.length()).split(":");
+        long cursor = BookCatalog.parsearId(partes[0]);
+        long max = partes.length > 1 ? BookCatalog.parsearId(partes[1]) : -1;
+        if (cursor < 0 || logReplicacion == null) {
+            return List.of("Error: Cursor no válido");
+        }
+        if (cursor > 0) {
+            marcarCambioSincronizado(cursor);
+        }
+        return paginaCambios(cursor, max);
+    }
+
+    // Frames de la página de cambios con LSN mayor que cursor (max <= 0: tamaño por defecto)
+    private List<String> paginaCambios(long cursor, long max) {
+        List<String> frames = new ArrayList<>();
+        int tamanoPagina = max > 0 ? (int) Math.min(max, MAX_PAGINA_CAMBIOS) : Config.syncPageSize();
+        long ultimo;
+        try {
+            ultimo = logReplicacion.forzar();
+        } catch (IOException e) {
+            Console.error("GA2", "Error al forzar pending.log: " + e.getMessage());
+            return List.of("Error: No se pudo leer el log de cambios");
+        }
+        List<String> cambios = logReplicacion.desde(cursor + 1, tamanoPagina);
+        frames.add("CAMBIOS " + cambios.size() + " " + logReplicacion.primerLsn() + " " + ultimo);
+        frames.addAll(cambios);
+        return frames;
+    }
     
     // Procesa notificación de cambios sincronizados
-    private String procesarCambiosSincronizados(String solicitud) {
+    private String procesarCambiosSincronizados(String solicitud, long lsn) {
         try {
-            // Formato: CAMBIOS_SINCRONIZADOS:CAMBIO1|CAMBIO2|CAMBIO3
-            // Donde cada CAMBIO es el string completo del cambio
-            String cambiosStr = solicitud.substring("CAMBIOS_SINCRONIZADOS:".length());
-            if (cambiosStr.isEmpty()) {
+            // Formato: CAMBIOS_SINCRONIZADOS:<lsn> (GA aplicó todos los cambios hasta ese LSN)
+            if (solicitud.length() == "CAMBIOS_SINCRONIZADOS:".length()) {
                 return "OK";
             }
-            
-            String[] cambiosArray = cambiosStr.split("\\|");
-            List<String> cambiosParaEliminar = new ArrayList<>();
-            
-            // Buscar cambios exactos en la lista de pendientes
-            for (String cambioRecibido : cambiosArray) {
-                cambioRecibido = cambioRecibido.trim();
-                for (String cambio : cambiosPendientes) {
-                    if (cambio.equals(cambioRecibido)) {
-                        cambiosParaEliminar.add(cambio);
-                        break;
-                    }
-                }
+            if (lsn < 0 || logReplicacion == null) {
+                return "ERROR";
             }
             
-            marcarCambioSincronizado(cambiosParaEliminar);
+            marcarCambioSincronizado(lsn);
             return "OK";
         } catch (Exception e) {
-            System.err.println("GA2: Error al procesar cambios sincronizados: " + e.getMessage());
-            e.printStackTrace();
+            Console.error("GA2", "Error al procesar cambios sincronizados: " + e.getMessage(), e);
             return "ERROR";
         }
     }
     
-    // Verifica si una operación fue exitosa
-    private boolean esOperacionExitosa(String respuesta, String solicitud) {
-        if (solicitud.startsWith("Disponibilidad?")) {
-            return respuesta.equals("SI");
-        } else if (solicitud.startsWith("DEVOLVER")) {
-            return respuesta.equals("Devolución registrada exitosamente");
-        } else if (solicitud.startsWith("RENOVAR")) {
-            return respuesta.contains("exitoso") || respuesta.contains("nuevo préstamo");
+    // MIGRACION_INICIO: retiene el log desde el LSN actual hasta que el primario nuevo lo copie
+    private String handleMigracionInicio() {
+        if (store == null || logReplicacion == null) {
+            return "Error: Almacenamiento no disponible";
         }
-        return false;
-    }
-    
-    // Extrae el tipo de operación de una solicitud
-    private String extraerTipoOperacion(String solicitud) {
-        if (solicitud.startsWith("Disponibilidad?")) {
-            return "PRESTAMO";
-        } else if (solicitud.startsWith("DEVOLVER")) {
-            return "DEVOLUCION";
-        } else if (solicitud.startsWith("RENOVAR")) {
-            return "RENOVACION";
+        long ultimo;
+        synchronized (this) {
+            try {
+                ultimo = logReplicacion.forzar();
+            } catch (IOException e) {
+                Console.error("GA2-MIGRACION", "Error al forzar pending.log: " + e.getMessage());
+                return "Error: No se pudo iniciar la migración";
+            }
+            retencionMigracion = Math.min(retencionMigracion, ultimo);
+            actividadMigracion = System.currentTimeMillis();
         }
-        return "DESCONOCIDO";
+        Console.info("GA2-MIGRACION", "Migración iniciada: log retenido desde LSN " + ultimo);
+        return "MIGRACION " + ultimo + " " + catalogo.tamano();
     }
-    
-    // Extrae los datos de una operación (ID del libro)
-    private String extraerDatosOperacion(String solicitud) {
-        String idLibro = "";
-        if (solicitud.startsWith("Disponibilidad?")) {
-            String[] partes = solicitud.split("\\?");
-            if (partes.length == 2) {
-                idLibro = partes[1].trim();
-            }
-        } else if (solicitud.startsWith("DEVOLVER")) {
-            // Formatos posibles: "DEVOLVER DEVOLVER:ID" o "DEVOLVER ID"
-            String[] partes = solicitud.split(" ");
-            for (int i = 1; i < partes.length; i++) {
-                String parte = partes[i].trim();
-                if (parte.contains(":")) {
-                    String[] subPartes = parte.split(":");
-                    if (subPartes.length >= 2) {
-                        idLibro = subPartes[subPartes.length - 1].trim();
-                        break;
-                    }
-                } else if (!parte.isEmpty() && parte.matches("\\d+")) {
-                    idLibro = parte;
-                    break;
-                }
-            }
-        } else if (solicitud.startsWith("RENOVAR")) {
-            // Formatos posibles: "RENOVAR RENOVAR:ID" o "RENOVAR ID"
-            String[] partes = solicitud.split(" ");
-            for (int i = 1; i < partes.length; i++) {
-                String parte = partes[i].trim();
-                if (parte.contains(":")) {
-                    String[] subPartes = parte.split(":");
-                    if (subPartes.length >= 2) {
-                        idLibro = subPartes[subPartes.length - 1].trim();
-                        break;
-                    }
-                } else if (!parte.isEmpty() && parte.matches("\\d+")) {
-                    idLibro = parte;
-                    break;
-                }
+
+    // MIGRACION_ABORTAR: el primario nuevo abandona la migración; el log vuelve a confirmarse solo con la réplica
+    private String handleMigracionAbortar() {
+        if (logReplicacion == null) {
+            return "Error: Almacenamiento no disponible";
+        }
+        synchronized (this) {
+            if (retencionMigracion == Long.MAX_VALUE) {
+                return "Error: Migración no iniciada";
             }
+            liberarRetencion("MIGRACION_ABORTAR");
         }
-        return "ID=" + idLibro;
+        marcarCambioSincronizado(0);
+        return "MIGRACION_ABORTADA";
     }
 
-    //  Función para manejar disponibilidad
-    private String handleAvailability(String solicitud) {
-        System.out.println("GA2:  Se consultó disponibilidad de libro -> " + solicitud);
-        
-        // Extraer ID del libro (formato: Disponibilidad?ID)
-        String idLibro = null;
-        if (solicitud.contains("?")) {
-            String[] partes = solicitud.split("\\?", 2);
-            if (partes.length == 2) {
-                idLibro = partes[1].trim();
-            }
+    // Deja de retener el log para una migración (abortada o vencida); lo retenido se descarta en la próxima confirmación
+    private synchronized void liberarRetencion(String motivo) {
+        if (retencionMigracion == Long.MAX_VALUE) {
+            return;
         }
-        
-        if (idLibro == null || idLibro.isEmpty()) {
-            return "Error: ID de libro no válido";
+        Console.warn("GA2-MIGRACION", "Retención del log desde LSN " + retencionMigracion + " liberada (" + motivo + ")");
+        retencionMigracion = Long.MAX_VALUE;
+    }
+
+    // Cualquier pedido del primario nuevo mantiene viva la retención
+    private synchronized void registrarActividadMigracion() {
+        actividadMigracion = System.currentTimeMillis();
+    }
+
+    // MIGRACION_LIBROS:<desde>:<max> -> ["LIBROS <n> <total> <desde>"][línea CSV]... (slots desde..desde+n-1)
+    private List<String> handleLibrosMigracion(String solicitud) {
+        String[] partes = solicitud.substring(MIGRACION_LIBROS.length()).split(":");
+        long desde = BookCatalog.parsearId(partes[0]);
+        long max = partes.length > 1 ? BookCatalog.parsearId(partes[1]) : -1;
+        if (desde < 0 || catalogo == null) {
+            return List.of("Error: Página no válida");
         }
-        
-        // Leer DB2.txt
-        List<String> lineas = leerDB();
-        if (lineas == null) {
-            return "Error: No se pudo leer la base de datos";
+        registrarActividadMigracion();
+        int total = catalogo.tamano();
+        long tamanoPagina = max > 0 ? Math.min(max, PrimaryMigration.MAX_LIBROS_POR_PAGINA) : PrimaryMigration.MAX_LIBROS_POR_PAGINA;
+        int cantidad = (int) Math.max(0, Math.min(tamanoPagina, total - desde));
+        List<String> frames = new ArrayList<>(cantidad + 1);
+        frames.add("LIBROS " + cantidad + " " + total + " " + desde);
+        for (int i = 0; i < cantidad; i++) {
+            frames.add(catalogo.lineaCsv((int) desde + i));
         }
-        
-        // Buscar el libro por ID
-        String[] libro = buscarLibro(idLibro, lineas);
-        if (libro == null) {
-            System.out.println("GA2:  Libro con ID " + idLibro + " no encontrado en DB2.txt");
-            return "NO (libro no existe)";
+        return frames;
+    }
+
+    /**
+     * MIGRACION_CAMBIOS:<lsn>:<max>: como OBTENER_CAMBIOS, pero el cursor solo libera la retención
+     * de la migración; los cambios se descartan cuando también los confirmó la réplica.
+     */
+    private List<String> handleCambiosMigracion(String solicitud) {
+        String[] partes = solicitud.substring(MIGRACION_CAMBIOS.length()).split(":");
+        long cursor = BookCatalog.parsearId(partes[0]);
+        long max = partes.length > 1 ? BookCatalog.parsearId(partes[1]) : -1;
+        if (cursor < 0 || logReplicacion == null) {
+            return List.of("Error: Cursor no válido");
         }
-        
-        // Verificar estado del libro
-        String estado = libro[3].trim();
-        System.out.println("GA2:  Libro ID " + idLibro + " encontrado en DB2.txt - Estado actual: '" + estado + "'");
-        if (estado.equals("DISPONIBLE")) {
-            // Actualizar estado a PRESTADO en DB2.txt
-            System.out.println("GA2:  Actualizando estado del libro ID " + idLibro + " en DB2.txt: DISPONIBLE -> PRESTADO");
-            boolean actualizado = updateBookStatus(idLibro, "PRESTADO");
-            if (actualizado) {
-                System.out.println("GA2:  Libro ID " + idLibro + " marcado como PRESTADO en DB2.txt");
-                // Registrar el préstamo en Prestamos2.txt
-                System.out.println("GA2:  Registrando préstamo del libro ID " + idLibro + " en Prestamos2.txt");
-                logLoan(idLibro);
-                return "SI";
-            } else {
-                return "Error: No se pudo actualizar el estado del libro en DB2.txt";
+        synchronized (this) {
+            if (retencionMigracion == Long.MAX_VALUE) {
+                return List.of("Error: Migración no iniciada");
             }
-        } else if (estado.equals("PRESTADO")) {
-            System.out.println("GA2:  Libro ID " + idLibro + " ya está PRESTADO en DB2.txt");
-            return "NO (ya está prestado)";
-        } else {
-            return "Error: Estado desconocido: " + estado;
+            retencionMigracion = Math.max(retencionMigracion, cursor);
+            actividadMigracion = System.currentTimeMillis();
         }
+        marcarCambioSincronizado(0);
+        return paginaCambios(cursor, max);
     }
-    
-    // Lee todo el archivo DB2.txt y retorna una lista de líneas
-    private List<String> leerDB() {
-        try {
-            File archivo = new File(BOOK_DB_PATH);
-            if (!archivo.exists()) {
-                System.err.println("GA2:  ✗ ERROR - Archivo DB2.txt no encontrado en: " + BOOK_DB_PATH);
-                return null;
+
+    /**
+     * TRASPASO:<destino>: deja de aceptar mutaciones, espera las que ya están en las particiones
+     * y retorna el último LSN. Desde aquí todo (salvo la migración) se responde con MOVIDO.
+     */
+    private String handleTraspaso(String solicitud) {
+        PrimaryEndpoint destino = PrimaryEndpoint.parsear(solicitud.substring(TRASPASO.length()));
+        if (destino == null || logReplicacion == null) {
+            return "Error: Destino no válido";
+        }
+        synchronized (this) {
+            if (movidoA != null && !movidoA.toString().equals(destino.toString())) {
+                return "Error: Ya traspasado a " + movidoA;
             }
-            
-            System.out.println("GA2:  Leyendo DB2.txt desde: " + BOOK_DB_PATH);
-            List<String> lineas = Files.readAllLines(Paths.get(BOOK_DB_PATH), StandardCharsets.UTF_8);
-            System.out.println("GA2:  ✓ Archivo DB2.txt leído correctamente (" + lineas.size() + " líneas)");
-            return lineas;
+            movidoA = destino;
+        }
+        particiones.barrera();
+        long ultimo;
+        try {
+            // El primario nuevo continúa la numeración desde aquí: tiene que sobrevivir a un corte
+            ultimo = logReplicacion.forzar();
         } catch (IOException e) {
-            System.err.println("GA2:  Error al leer DB2.txt: " + e.getMessage());
-            return null;
+            Console.error("GA2-MIGRACION", "Error al forzar pending.log: " + e.getMessage());
+            return "Error: No se pudo completar el traspaso";
         }
+        if (publicador != null) {
+            publicador.anunciarMovido(destino.toString());
+        }
+        Console.info("GA2-MIGRACION", "Traspaso a " + destino + " en LSN " + ultimo + "; las escrituras se desvían al nuevo primario");
+        return "TRASPASO_OK " + ultimo;
     }
-    
-    // Busca un libro por ID en las líneas del archivo
-    private String[] buscarLibro(String idLibro, List<String> lineas) {
-        for (String linea : lineas) {
-            if (linea == null || linea.trim().isEmpty()) {
-                continue;
+
+    // Primario nuevo: inicia la migración desde MIGRAR_DESDE y copia el catálogo (null si no hay migración)
+    private PrimaryMigration iniciarMigracion(ZMQ.Context context) throws IOException {
+        String origen = Config.migrateFrom();
+        if (origen.isEmpty()) {
+            return null;
+        }
+        PrimaryMigration migracion = new PrimaryMigration(context, origen, Config.migrationBytesPerSec());
+        try {
+            String inicio = migracion.iniciar();
+            if (PrimaryEndpoint.esMovido(inicio)) {
+                // Reinicio tras una migración ya terminada: arrancar como primario normal
+                Console.info("GA2-MIGRACION", "El origen " + origen + " ya fue traspasado (" + inicio + "), arranque normal");
+                migracion.cerrar();
+                return null;
             }
-            
-            String[] libro = parsearLineaLibro(linea);
-            if (libro != null && libro[0].trim().equals(idLibro)) {
-                return libro;
+            if (!inicio.startsWith("MIGRACION ")) {
+                throw new IOException("El origen " + origen + " no aceptó la migración: " + inicio);
             }
+            long inicioCopia = System.currentTimeMillis();
+            int libros;
+            try {
+                libros = migracion.copiarCatalogo(Paths.get(BOOK_DB_PATH));
+            } catch (IOException e) {
+                migracion.abortar();
+                throw e;
+            }
+            // Con backend mmap el binario se vuelve a importar desde el CSV copiado
+            Files.deleteIfExists(Paths.get(Config.primaryBookBinPath()));
+            Console.info("GA2-MIGRACION", libros + " libros copiados de " + origen + " en "
+                + (System.currentTimeMillis() - inicioCopia) + " ms");
+            return migracion;
+        } catch (IOException e) {
+            migracion.cerrar();
+            throw e;
         }
-        return null;
     }
-    
-    // Parsea una línea del formato "ID, NOMBRE, AUTOR, ESTADO"
-    private String[] parsearLineaLibro(String linea) {
-        if (linea == null || linea.trim().isEmpty()) {
-            return null;
-        }
-        
-        // Dividir por comas, pero preservar espacios
-        String[] partes = linea.split(",", 4);
-        if (partes.length == 4) {
-            return partes;
+
+    // Primario nuevo: instala el snapshot del origen y continúa su numeración de LSN; retorna el LSN del snapshot
+    private long instalarEstadoDeOrigen(PrimaryMigration migracion) throws IOException {
+        if (store == null || logReplicacion == null) {
+            throw new IOException("Almacenamiento no disponible");
         }
-        return null;
+        long inicio = System.currentTimeMillis();
+        StoreSnapshot.Contenido contenido = migracion.descargarSnapshot();
+        int ignorados = store.instalarSnapshot(contenido);
+        logReplicacion.reiniciarEn(contenido.lsn());
+        traspaso = new CountDownLatch(1);
+        Console.info("GA2-MIGRACION", "Snapshot del origen instalado en " + (System.currentTimeMillis() - inicio)
+            + " ms (LSN " + contenido.lsn() + ", " + contenido.prestamos().size() + " préstamos"
+            + (ignorados > 0 ? ", " + ignorados + " libros inexistentes" : "") + ")");
+        return contenido.lsn();
     }
-    
-    // Actualiza el estado del libro en DB2.txt
-    private boolean updateBookStatus(String idLibro, String nuevoEstado) {
+
+    /**
+     * Primario nuevo: aplica el log del origen con el ancho de banda limitado hasta alcanzarlo,
+     * pide el traspaso y aplica sin límite lo que falte hasta el LSN final. Recién entonces acepta
+     * mutaciones (las que llegan antes esperan en {@link #esperarTraspaso()}).
+     */
+    private void completarMigracion(PrimaryMigration migracion, long desde) {
+        boolean traspasado = false;
         try {
-            // Leer todas las líneas
-            List<String> lineas = leerDB();
-            if (lineas == null) {
-                System.err.println("GA2:  Error - No se pudieron leer las líneas de DB2.txt");
-                return false;
+            long cursor = aplicarCambiosDeOrigen(migracion, desde, -1, true);
+            long ultimo = migracion.traspasar(PrimaryEndpoint.local().toString());
+            if (ultimo < 0) {
+                throw new IOException("El origen rechazó el traspaso");
             }
-            
-            System.out.println("GA2:  Buscando libro ID: '" + idLibro + "' en DB2.txt (" + lineas.size() + " líneas)");
-            
-            // Actualizar la línea correspondiente
-            List<String> lineasActualizadas = new ArrayList<>();
-            boolean encontrado = false;
-            
-            for (int i = 0; i < lineas.size(); i++) {
-                String linea = lineas.get(i);
-                
-                if (linea == null || linea.trim().isEmpty()) {
-                    lineasActualizadas.add(linea);
-                    continue;
-                }
-                
-                String[] libro = parsearLineaLibro(linea);
-                if (libro != null) {
-                    String idLibroEnArchivo = libro[0].trim();
-                    System.out.println("GA2:  Línea " + (i+1) + " - ID en archivo: '" + idLibroEnArchivo + "', buscando: '" + idLibro + "'");
-                    
-                    if (idLibroEnArchivo.equals(idLibro)) {
-                        // Reconstruir la línea con el nuevo estado
-                        String estadoAnterior = libro[3].trim();
-                        String nuevaLinea = libro[0].trim() + ", " + libro[1].trim() + ", " + 
-                                           libro[2].trim() + ", " + nuevoEstado;
-                        lineasActualizadas.add(nuevaLinea);
-                        encontrado = true;
-                        System.out.println("GA2:  ✓ Libro encontrado en línea " + (i+1) + " - Estado: '" + estadoAnterior + "' -> '" + nuevoEstado + "'");
-                        System.out.println("GA2:  Nueva línea: " + nuevaLinea);
-                    } else {
-                        lineasActualizadas.add(linea);
-                    }
-                } else {
-                    lineasActualizadas.add(linea);
+            traspasado = true;
+            long inicioTraspaso = System.currentTimeMillis();
+            cursor = aplicarCambiosDeOrigen(migracion, cursor, ultimo, false);
+            traspaso.countDown();
+            traspaso = null;
+            Console.info("GA2-MIGRACION", "Migración completa: primario desde LSN " + cursor + " ("
+                + migracion.copiados() / 1024 + " KB copiados, escrituras detenidas " + (System.currentTimeMillis() - inicioTraspaso) + " ms)");
+        } catch (IOException e) {
+            Console.error("GA2-MIGRACION", "Migración interrumpida: " + e.getMessage()
+                + (traspasado ? "" : "; el origen sigue siendo el primario"));
+            if (!traspasado) {
+                migracion.abortar();
+            }
+        } finally {
+            migracion.cerrar();
+        }
+    }
+
+    // Aplica páginas de cambios del origen desde cursor; hasta < 0: hasta alcanzar su último LSN
+    private long aplicarCambiosDeOrigen(PrimaryMigration migracion, long cursor, long hasta, boolean limitar) throws IOException {
+        int tamanoPagina = Config.syncPageSize();
+        int fallos = 0;
+        while (hasta < 0 || cursor < hasta) {
+            List<String> frames = migracion.cambios(cursor, tamanoPagina, limitar);
+            if (frames == null || frames.isEmpty() || !frames.get(0).startsWith("CAMBIOS ")) {
+                if (++fallos > 3) {
+                    throw new IOException("El origen no entregó cambios" + (frames == null || frames.isEmpty() ? "" : ": " + frames.get(0)));
                 }
+                continue;
             }
-            
-            if (!encontrado) {
-                System.err.println("GA2:  ✗ ERROR - No se encontró el libro con ID '" + idLibro + "' en DB2.txt");
-                return false;
+            fallos = 0;
+            String[] cabecera = frames.get(0).split(" ");
+            long primero = cabecera.length > 2 ? BookCatalog.parsearId(cabecera[2]) : -1;
+            if (primero > cursor + 1) {
+                throw new IOException("El origen ya no tiene los cambios desde LSN " + (cursor + 1));
             }
-            
-            // Escribir las líneas actualizadas de vuelta al archivo DB2.txt
-            System.out.println("GA2:  Escribiendo " + lineasActualizadas.size() + " líneas actualizadas a DB2.txt...");
-            System.out.println("GA2:  Ruta del archivo: " + BOOK_DB_PATH);
-            Files.write(Paths.get(BOOK_DB_PATH), lineasActualizadas, StandardCharsets.UTF_8);
-            System.out.println("GA2:  ✓ DB2.txt actualizado exitosamente - Libro ID " + idLibro + " ahora está " + nuevoEstado);
-            
-            // Verificar que el archivo se escribió correctamente
-            File archivoVerificar = new File(BOOK_DB_PATH);
-            if (archivoVerificar.exists()) {
-                System.out.println("GA2:  ✓ Archivo DB2.txt existe y fue actualizado");
-            } else {
-                System.err.println("GA2:  ✗ ERROR - Archivo DB2.txt no existe después de escribir");
+            List<String> cambios = frames.subList(1, frames.size());
+            if (cambios.isEmpty() && hasta >= 0) {
+                throw new IOException("El origen no tiene los cambios hasta LSN " + hasta);
+            }
+            long ticket = 0;
+            for (String cambio : cambios) {
+                long lsn = ReplicationPublisher.lsnDe(cambio);
+                if (lsn <= cursor) {
+                    continue;
+                }
+                ticket = Math.max(ticket, aplicarCambioDeOrigen(cambio, lsn));
+                cursor = lsn;
+            }
+            store.esperarDurabilidad(ticket);
+            if (hasta < 0 && cambios.size() < tamanoPagina) {
+                break;
             }
-            return true;
-            
-        } catch (IOException e) {
-            System.err.println("GA2:  ✗ ERROR al actualizar DB2.txt: " + e.getMessage());
-            e.printStackTrace();
-            return false;
         }
+        return cursor;
     }
 
-    // Registra un préstamo en Prestamos2.txt
-    private void logLoan(String idLibro) {
-        try {
-            // Obtener fecha actual
-            LocalDate fechaActual = LocalDate.now();
-            // Calcular fecha de devolución (14 días después)
-            LocalDate fechaDevolucion = fechaActual.plusDays(14);
-            
-            // Formatear fechas en formato YYYY-MM-DD
-            DateTimeFormatter formatter = DateTimeFormatter.ofPattern("yyyy-MM-dd");
-            String fechaPrestamoStr = fechaActual.format(formatter);
-            String fechaDevolucionStr = fechaDevolucion.format(formatter);
-            
-            // Crear la línea del préstamo
-            String nuevaLinea = idLibro + ", " + fechaPrestamoStr + ", " + fechaDevolucionStr + ", 1";
-            
-            // Leer el archivo Prestamos2.txt (si existe)
-            List<String> lineas = new ArrayList<>();
-            File archivoPrestamos = new File(LOANS_PATH);
-            if (archivoPrestamos.exists()) {
-                lineas = Files.readAllLines(Paths.get(LOANS_PATH), StandardCharsets.UTF_8);
-            }
-            
-            // Agregar la nueva línea
-            lineas.add(nuevaLinea);
-            
-            // Escribir todas las líneas al archivo
-            Files.write(Paths.get(LOANS_PATH), lineas, StandardCharsets.UTF_8);
-            
-            System.out.println("GA2:  Préstamo registrado en Prestamos2.txt: " + nuevaLinea);
-            
-        } catch (IOException e) {
-            System.err.println("GA2:  Error al registrar préstamo en Prestamos2.txt: " + e.getMessage());
+    // Reproduce un cambio del origen en la partición de su libro y lo registra con el mismo LSN; retorna el ticket del WAL
+    private long aplicarCambioDeOrigen(String cambio, long lsn) throws IOException {
+        String sinLsn = cambio.substring(cambio.indexOf(',') + 1).trim();
+        String[] partes = sinLsn.split(",", 3);
+        String tipo = partes.length == 3 ? partes[1].trim() : "";
+        String datos = partes.length == 3 ? partes[2].trim() : "";
+        long idLibro = datos.startsWith("ID=") ? BookCatalog.parsearId(datos.substring(3)) : -1;
+        String tipoLote = tipoLoteDeCambio(tipo);
+        Envelope solicitud = solicitudDeCambio(tipo, idLibro);
+        Resultado resultado;
+        if (tipoLote != null && datos.startsWith("IDS=")) {
+            resultado = ejecutarLote(tipoLote, BatchRequest.ids(tipoLote + ":" + datos.substring(4)), false);
+        } else {
+            resultado = solicitud == null ? null : particiones.enviar(idLibro, () -> procesar(solicitud, false)).join();
         }
+        long propio = logReplicacion.agregar(sinLsn);
+        if (propio != lsn) {
+            Console.warn("GA2-MIGRACION", "LSN " + lsn + " del origen registrado como " + propio);
+        }
+        return resultado == null ? 0 : resultado.ticket;
     }
 
-    // Extrae el ID del libro de solicitudes como "DEVOLVER:ID", "DEVOLVER DEVOLVER:ID" o "RENOVAR:ID"
-    private String extraerIdLibro(String solicitud, String prefijo) {
-        if (solicitud == null || solicitud.isEmpty()) {
+    // Comando de lote de un registro "PRESTAMO_LOTE/DEVOLUCION_LOTE/RENOVACION_LOTE"; null si no es de lote
+    private static String tipoLoteDeCambio(String tipo) {
+        if (tipo.equals("PRESTAMO_LOTE")) {
+            return BatchRequest.PRESTAMO;
+        } else if (tipo.equals("DEVOLUCION_LOTE")) {
+            return BatchRequest.DEVOLVER;
+        } else if (tipo.equals("RENOVACION_LOTE")) {
+            return BatchRequest.RENOVAR;
+        }
+        return null;
+    }
+
+    private static Envelope solicitudDeCambio(String tipo, long idLibro) {
+        if (idLibro < 0) {
             return null;
+        } else if (tipo.equals("PRESTAMO")) {
+            return Envelope.solicitud(Envelope.PRESTAMO, idLibro, 0);
+        } else if (tipo.equals("DEVOLUCION")) {
+            return Envelope.solicitud(Envelope.DEVOLVER, idLibro, 0);
+        } else if (tipo.equals("RENOVACION")) {
+            return Envelope.solicitud(Envelope.RENOVAR, idLibro, 0);
         }
+        return null;
+    }
+
+    // Primario nuevo: la mutación espera el fin del traspaso (como máximo ESPERA_TRASPASO_MS)
+    private boolean esperarTraspaso() {
+        CountDownLatch pendiente = traspaso;
+        if (pendiente == null) {
+            return true;
+        }
+        try {
+            return pendiente.await(ESPERA_TRASPASO_MS, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+    
+    // Aplica la mutación del sobre; ID y resultado viajan tipados, sin parsear texto
+    private Envelope mutar(Envelope solicitud) {
+        if (solicitud.idLibro() < 0) {
+            return solicitud.error("Error: ID de libro no válido");
+        }
+        if (catalogo == null) {
+            return solicitud.error("Error: No se pudo leer la base de datos");
+        }
+        switch (solicitud.opcode()) {
+            case Envelope.PRESTAMO: return handleAvailability(solicitud);
+            case Envelope.DEVOLVER: return handleReturn(solicitud);
+            case Envelope.RENOVAR: return handleRenewal(solicitud);
+            default: return solicitud.error(UNKNOWN_RESPONSE);
+        }
+    }
+
+    //  Función para manejar disponibilidad
+    private Envelope handleAvailability(Envelope solicitud) {
+        long idLibro = solicitud.idLibro();
+        Console.debug("GA2", "Se consultó disponibilidad de libro -> " + idLibro);
         
-        // Normalizar: eliminar prefijos múltiples y espacios
-        String normalizada = solicitud.trim();
-        
-        // Si empieza con el prefijo, eliminarlo
-        while (normalizada.startsWith(prefijo)) {
-            normalizada = normalizada.substring(prefijo.length()).trim();
+        // Buscar el libro por ID en el índice en memoria
+        int slot = catalogo.buscar(idLibro);
+        if (slot < 0) {
+            Console.debug("GA2", "Libro con ID " + idLibro + " no encontrado en books.csv");
+            return solicitud.respuesta(Envelope.NO_EXISTE);
         }
         
-        // Buscar el ID después de ":" o directamente como número
-        if (normalizada.contains(":")) {
-            String[] partes = normalizada.split(":", 2);
-            if (partes.length >= 2) {
-                String id = partes[1].trim();
-                if (id.matches("\\d+")) {
-                    return id;
-                }
+        // Verificar estado del libro
+        byte estado = catalogo.estado(slot);
+        if (estado == BookCatalog.DISPONIBLE) {
+            // Actualizar estado a PRESTADO
+            boolean actualizado = updateBookStatus(slot, BookCatalog.PRESTADO);
+            if (actualizado) {
+                Console.debug("GA2", "Libro ID " + idLibro + " marcado como PRESTADO");
+                // Registrar el préstamo en Prestamos2.txt
+                logLoan(idLibro);
+                return solicitud.respuesta(Envelope.OK);
+            } else {
+                return solicitud.error("Error: No se pudo actualizar el estado del libro en DB2.txt");
             }
-        } else if (normalizada.matches("\\d+")) {
-            // Si solo hay números, es el ID directamente
-            return normalizada;
+        } else if (estado == BookCatalog.PRESTADO) {
+            Console.debug("GA2", "Libro ID " + idLibro + " ya está PRESTADO");
+            return solicitud.respuesta(Envelope.RECHAZADO);
+        } else {
+            return solicitud.error("Error: Estado desconocido: " + BookCatalog.nombreEstado(estado));
         }
-        
-        return null;
     }
     
-    // Lee todo el archivo Prestamos2.txt y retorna una lista de líneas
-    private List<String> leerPrestamos() {
+    // Abre el almacenamiento: carga el catálogo (CSV o mmap) una sola vez y reproduce el WAL
+    private void abrirStore() {
         try {
-            File archivo = new File(LOANS_PATH);
-            if (!archivo.exists()) {
-                return new ArrayList<>(); // Retornar lista vacía si no existe
-            }
-            
-            List<String> lineas = Files.readAllLines(Paths.get(LOANS_PATH), StandardCharsets.UTF_8);
-            return lineas;
+            BookCatalog libros = BookCatalog.abrir(Config.bookBackend(), BOOK_DB_PATH, Config.primaryBookBinPath());
+            store = LibraryStore.abrir(libros, LOANS_PATH, WAL_PATH,
+                WriteAheadLog.Durabilidad.parse(Config.walDurability()), Config.walGroupWindowMs());
+            catalogo = store.catalogo();
+            store.alCheckpoint(this::compactarCambiosPendientes);
+            store.iniciarCheckpoints(Config.checkpointIntervalMs(), Config.checkpointWalBytes());
+            Console.info("GA2", "Catálogo cargado desde " + BOOK_DB_PATH + " (" + catalogo.tamano() + " libros, backend " + Config.bookBackend() + ")");
         } catch (IOException e) {
-            System.err.println("GA2:  Error al leer Prestamos2.txt: " + e.getMessage());
-            return null;
+            Console.error("GA2", "Error al abrir el almacenamiento: " + e.getMessage());
         }
     }
     
-    // Parsea una línea de Prestamos2.txt: "ID, fechaPrestamo, fechaDevolucion, vecesPrestadas"
-    private String[] parsearPrestamo(String linea) {
-        if (linea == null || linea.trim().isEmpty()) {
-            return null;
-        }
-        
-        String[] partes = linea.split(",");
-        if (partes.length >= 4) {
-            // Retornar las 4 partes: ID, fechaPrestamo, fechaDevolucion, vecesPrestadas
-            return new String[] {
-                partes[0].trim(),
-                partes[1].trim(),
-                partes[2].trim(),
-                partes[3].trim()
-            };
+    // Actualiza el estado del libro (un append al WAL + cambio en memoria)
+    private boolean updateBookStatus(int slot, byte nuevoEstado) {
+        try {
+            store.cambiarEstado(slot, nuevoEstado);
+            return true;
+        } catch (IOException e) {
+            Console.error("GA2", "Error al registrar cambio de estado en el WAL: " + e.getMessage());
+            return false;
         }
-        return null;
     }
-    
-    // Busca una línea en Prestamos2.txt por ID del libro
-    private String buscarPrestamo(String idLibro, List<String> lineas) {
-        if (lineas == null) {
-            return null;
-        }
-        
-        for (String linea : lineas) {
-            if (linea == null || linea.trim().isEmpty()) {
-                continue;
-            }
-            
-            String[] prestamo = parsearPrestamo(linea);
-            if (prestamo != null && prestamo[0].equals(idLibro)) {
-                return linea;
-            }
+
+    // Registra un préstamo (+14 días, veces=1)
+    private void logLoan(long idLibro) {
+        try {
+            LocalDate fechaActual = LocalDate.now();
+            LocalDate fechaDevolucion = fechaActual.plusDays(14);
+            store.registrarPrestamo(idLibro, fechaActual, fechaDevolucion, 1);
+            Console.debug("GA2", "Préstamo registrado: " + idLibro + ", " + fechaActual + ", " + fechaDevolucion + ", 1");
+        } catch (IOException e) {
+            Console.error("GA2", "Error al registrar préstamo en el WAL: " + e.getMessage());
         }
-        return null;
     }
-    
-    // Elimina todas las líneas relacionadas con un ID de Prestamos2.txt
-    private boolean eliminarPrestamo(String idLibro) {
+
+    // Elimina el préstamo asociado a un ID
+    private boolean eliminarPrestamo(long idLibro) {
         try {
-            List<String> lineas = leerPrestamos();
-            if (lineas == null) {
-                return false;
+            boolean eliminado = store.eliminarPrestamo(idLibro);
+            if (!eliminado) {
+                Console.debug("GA2", "No se encontró préstamo con ID " + idLibro);
             }
-            
-            List<String> lineasActualizadas = new ArrayList<>();
-            boolean encontrado = false;
-            
-            for (String linea : lineas) {
-                if (linea == null || linea.trim().isEmpty()) {
-                    continue; // Omitir líneas vacías
-                }
-                
-                String[] prestamo = parsearPrestamo(linea);
-                if (prestamo != null && !prestamo[0].equals(idLibro)) {
-                    // Solo agregar líneas que NO corresponden al ID a eliminar
-                    lineasActualizadas.add(linea);
-                } else if (prestamo != null && prestamo[0].equals(idLibro)) {
-                    encontrado = true;
-                }
-            }
-            
-            if (!encontrado) {
-                System.out.println("GA2:  No se encontró préstamo con ID " + idLibro + " en Prestamos2.txt");
-                return false;
-            }
-            
-            // Escribir las líneas actualizadas de vuelta al archivo
-            Files.write(Paths.get(LOANS_PATH), lineasActualizadas, StandardCharsets.UTF_8);
-            System.out.println("GA2:  Préstamo con ID " + idLibro + " eliminado de Prestamos2.txt");
-            return true;
-            
+            return eliminado;
         } catch (IOException e) {
-            System.err.println("GA2:  Error al eliminar préstamo de Prestamos2.txt: " + e.getMessage());
+            Console.error("GA2", "Error al eliminar préstamo: " + e.getMessage());
             return false;
         }
     }
     
-    // Actualiza una línea específica en Prestamos2.txt
-    private boolean actualizarPrestamo(String idLibro, String nuevaFechaDevolucion, String nuevasVecesPrestadas) {
+    // Actualiza la fecha de devolución y las veces prestadas de un préstamo
+    private boolean actualizarPrestamo(long idLibro, LocalDate nuevaFechaDevolucion, int nuevasVecesPrestadas) {
         try {
-            List<String> lineas = leerPrestamos();
-            if (lineas == null) {
-                return false;
-            }
-            
-            List<String> lineasActualizadas = new ArrayList<>();
-            boolean encontrado = false;
-            
-            for (String linea : lineas) {
-                if (linea == null || linea.trim().isEmpty()) {
-                    continue;
-                }
-                
-                String[] prestamo = parsearPrestamo(linea);
-                if (prestamo != null && prestamo[0].equals(idLibro)) {
-                    // Actualizar la línea con la nueva fecha de devolución y veces prestadas
-                    String nuevaLinea = idLibro + ", " + prestamo[1] + ", " + nuevaFechaDevolucion + ", " + nuevasVecesPrestadas;
-                    lineasActualizadas.add(nuevaLinea);
-                    encontrado = true;
-                } else {
-                    lineasActualizadas.add(linea);
-                }
+            boolean actualizado = store.actualizarPrestamo(idLibro, nuevaFechaDevolucion, nuevasVecesPrestadas);
+            if (!actualizado) {
+                Console.error("GA2", "No se encontró préstamo con ID " + idLibro + " para actualizar");
             }
-            
-            if (!encontrado) {
-                System.err.println("GA2:  No se encontró préstamo con ID " + idLibro + " para actualizar");
-                return false;
-            }
-            
-            // Escribir las líneas actualizadas de vuelta al archivo
-            Files.write(Paths.get(LOANS_PATH), lineasActualizadas, StandardCharsets.UTF_8);
-            System.out.println("GA2:  Préstamo con ID " + idLibro + " actualizado en Prestamos2.txt");
-            return true;
-            
+            return actualizado;
         } catch (IOException e) {
-            System.err.println("GA2:  Error al actualizar préstamo en Prestamos2.txt: " + e.getMessage());
+            Console.error("GA2", "Error al actualizar préstamo: " + e.getMessage());
             return false;
         }
     }
 
     //  Función para manejar devoluciones
-    private String handleReturn(String solicitud) {
-        System.out.println("GA2:  Se registró devolución -> " + solicitud);
-        
-        // Extraer ID del libro (formato: "DEVOLVER:ID" o "DEVOLVER DEVOLVER:ID")
-        String idLibro = extraerIdLibro(solicitud, "DEVOLVER");
-        if (idLibro == null || idLibro.isEmpty()) {
-            return "Error: ID de libro no válido";
-        }
-        
-        // Leer DB2.txt
-        List<String> lineas = leerDB();
-        if (lineas == null) {
-            return "Error: No se pudo leer la base de datos";
-        }
+    private Envelope handleReturn(Envelope solicitud) {
+        long idLibro = solicitud.idLibro();
+        Console.debug("GA2", "Se registró devolución -> " + idLibro);
         
         // Buscar el libro por ID
-        String[] libro = buscarLibro(idLibro, lineas);
-        if (libro == null) {
-            System.out.println("GA2:  Libro con ID " + idLibro + " no encontrado");
-            return "Error: Libro no encontrado";
+        int slot = catalogo.buscar(idLibro);
+        if (slot < 0) {
+            Console.debug("GA2", "Libro con ID " + idLibro + " no encontrado");
+            return solicitud.respuesta(Envelope.NO_EXISTE);
         }
         
         // Verificar estado del libro
-        String estado = libro[3].trim();
-        if (estado.equals("PRESTADO")) {
-            // Cambiar estado a DISPONIBLE en DB2.txt
-            System.out.println("GA2:  Actualizando estado del libro ID " + idLibro + " en DB2.txt: PRESTADO -> DISPONIBLE");
-            boolean actualizado = updateBookStatus(idLibro, "DISPONIBLE");
+        byte estado = catalogo.estado(slot);
+        if (estado == BookCatalog.PRESTADO) {
+            // Cambiar estado a DISPONIBLE
+            boolean actualizado = updateBookStatus(slot, BookCatalog.DISPONIBLE);
             if (actualizado) {
-                System.out.println("GA2:  Libro ID " + idLibro + " marcado como DISPONIBLE en DB2.txt");
+                Console.debug("GA2", "Libro ID " + idLibro + " marcado como DISPONIBLE en DB2.txt");
                 
                 // Eliminar todas las líneas relacionadas con ese ID en Prestamos2.txt
-                System.out.println("GA2:  Eliminando préstamo del libro ID " + idLibro + " de Prestamos2.txt");
+                Console.debug("GA2", "Eliminando préstamo del libro ID " + idLibro + " de Prestamos2.txt");
                 eliminarPrestamo(idLibro);
                 
-                return "Devolución registrada exitosamente";
+                return solicitud.respuesta(Envelope.OK);
             } else {
-                return "Error: No se pudo actualizar el estado del libro en DB2.txt";
+                return solicitud.error("Error: No se pudo actualizar el estado del libro en DB2.txt");
             }
         } else {
-            System.out.println("GA2:  Libro ID " + idLibro + " no está prestado (estado: " + estado + ")");
-            return "Libro no está prestado";
+            Console.debug("GA2", "Libro ID " + idLibro + " no está prestado (estado: " + BookCatalog.nombreEstado(estado) + ")");
+            return solicitud.respuesta(Envelope.RECHAZADO);
         }
     }
 
     //  Función para manejar renovaciones
-    private String handleRenewal(String solicitud) {
-        System.out.println("GA2:  Se registró renovación -> " + solicitud);
-        
-        // Extraer ID del libro (formato: "RENOVAR:ID" o "RENOVAR RENOVAR:ID")
-        String idLibro = extraerIdLibro(solicitud, "RENOVAR");
-        if (idLibro == null || idLibro.isEmpty()) {
-            return "Error: ID de libro no válido";
-        }
-        
-        // Leer DB2.txt
-        List<String> lineas = leerDB();
-        if (lineas == null) {
-            return "Error: No se pudo leer la base de datos";
-        }
+    private Envelope handleRenewal(Envelope solicitud) {
+        long idLibro = solicitud.idLibro();
+        Console.debug("GA2", "Se registró renovación -> " + idLibro);
         
         // Buscar el libro por ID
-        String[] libro = buscarLibro(idLibro, lineas);
-        if (libro == null) {
-            System.out.println("GA2:  Libro con ID " + idLibro + " no encontrado");
-            return "Error: Libro no encontrado";
+        int slot = catalogo.buscar(idLibro);
+        if (slot < 0) {
+            Console.debug("GA2", "Libro con ID " + idLibro + " no encontrado");
+            return solicitud.respuesta(Envelope.NO_EXISTE);
         }
         
         // Verificar estado del libro
-        String estado = libro[3].trim();
+        byte estado = catalogo.estado(slot);
         
-        if (estado.equals("PRESTADO")) {
-            // Libro está prestado: buscar en Prestamos2.txt
-            List<String> lineasPrestamos = leerPrestamos();
-            if (lineasPrestamos == null) {
-                return "Error: No se pudo leer Prestamos2.txt";
+        if (estado == BookCatalog.PRESTADO) {
+            // Libro está prestado: buscar su préstamo
+            LoanTable.Prestamo prestamo = store.prestamos().buscar(catalogo.id(slot));
+            if (prestamo == null) {
+                Console.debug("GA2", "No se encontró registro de préstamo para el libro ID " + idLibro);
+                return solicitud.respuesta(Envelope.SIN_PRESTAMO);
             }
             
-            String prestamoLinea = buscarPrestamo(idLibro, lineasPrestamos);
-            if (prestamoLinea == null) {
-                System.out.println("GA2:  No se encontró registro de préstamo para el libro ID " + idLibro + " en Prestamos2.txt");
-                return "Error: No se encontró registro de préstamo";
-            }
-            
-            // Parsear el préstamo
-            String[] prestamo = parsearPrestamo(prestamoLinea);
-            if (prestamo == null || prestamo.length < 4) {
-                return "Error: Formato de préstamo inválido";
-            }
+            int vecesPrestadas = prestamo.veces();
             
-            String vecesPrestadas = prestamo[3].trim();
-            
-            if (vecesPrestadas.equals("1")) {
+            if (vecesPrestadas == 1) {
                 // Primera renovación: actualizar fecha de devolución (una semana después del día actual)
-                LocalDate fechaActual = LocalDate.now();
-                LocalDate nuevaFechaDevolucion = fechaActual.plusDays(7);
-                DateTimeFormatter formatter = DateTimeFormatter.ofPattern("yyyy-MM-dd");
-                String nuevaFechaDevolucionStr = nuevaFechaDevolucion.format(formatter);
+                LocalDate nuevaFechaDevolucion = LocalDate.now().plusDays(7);
                 
-                // Actualizar en Prestamos2.txt: cambiar fecha de devolución y veces prestadas a "2"
-                boolean actualizado = actualizarPrestamo(idLibro, nuevaFechaDevolucionStr, "2");
+                // Cambiar fecha de devolución y veces prestadas a 2
+                boolean actualizado = actualizarPrestamo(idLibro, nuevaFechaDevolucion, 2);
                 if (actualizado) {
-                    System.out.println("GA2:  Renovación exitosa para libro ID " + idLibro);
-                    return "Renovación exitosa, nueva fecha de devolución: " + nuevaFechaDevolucionStr;
+                    Console.debug("GA2", "Renovación exitosa para libro ID " + idLibro);
+                    return solicitud.respuesta(Envelope.OK, 0, nuevaFechaDevolucion.toString());
                 } else {
-                    return "Error: No se pudo actualizar el préstamo";
+                    return solicitud.error("Error: No se pudo actualizar el préstamo");
                 }
-            } else if (vecesPrestadas.equals("2")) {
+            } else if (vecesPrestadas == 2) {
                 // Segunda renovación: no se permiten más renovaciones
-                System.out.println("GA2:  Libro ID " + idLibro + " ya tiene 2 renovaciones, no se permiten más");
-                return "No se pueden hacer más renovaciones (máximo 2)";
+                Console.debug("GA2", "Libro ID " + idLibro + " ya tiene 2 renovaciones, no se permiten más");
+                return solicitud.respuesta(Envelope.RECHAZADO);
             } else {
-                return "Error: Estado de renovación desconocido: " + vecesPrestadas;
+                return solicitud.error("Error: Estado de renovación desconocido: " + vecesPrestadas);
             }
             
-        } else if (estado.equals("DISPONIBLE")) {
+        } else if (estado == BookCatalog.DISPONIBLE) {
             // Libro está disponible: tratarlo como nuevo préstamo
-            // Cambiar estado a PRESTADO en DB2.txt
-            System.out.println("GA2:  Actualizando estado del libro ID " + idLibro + " en DB2.txt: DISPONIBLE -> PRESTADO");
-            boolean actualizado = updateBookStatus(idLibro, "PRESTADO");
+            boolean actualizado = updateBookStatus(slot, BookCatalog.PRESTADO);
             if (actualizado) {
-                System.out.println("GA2:  Libro ID " + idLibro + " marcado como PRESTADO en DB2.txt");
+                Console.debug("GA2", "Libro ID " + idLibro + " marcado como PRESTADO en DB2.txt");
                 
                 // Registrar el nuevo préstamo en Prestamos2.txt
-                System.out.println("GA2:  Registrando nuevo préstamo del libro ID " + idLibro + " en Prestamos2.txt");
+                Console.debug("GA2", "Registrando nuevo préstamo del libro ID " + idLibro + " en Prestamos2.txt");
                 logLoan(idLibro);
                 
                 // Obtener la fecha de devolución del nuevo préstamo
@@ -899,12 +1254,12 @@ public class StoragePrimary {
                 DateTimeFormatter formatter = DateTimeFormatter.ofPattern("yyyy-MM-dd");
                 String fechaDevolucionStr = fechaDevolucion.format(formatter);
                 
-                return "Libro renovado como nuevo préstamo, fecha de devolución: " + fechaDevolucionStr;
+                return solicitud.respuesta(Envelope.OK, Envelope.NUEVO_PRESTAMO, fechaDevolucionStr);
             } else {
-                return "Error: No se pudo actualizar el estado del libro en DB2.txt";
+                return solicitud.error("Error: No se pudo actualizar el estado del libro en DB2.txt");
             }
         } else {
-            return "Error: Estado desconocido: " + estado;
+            return solicitud.error("Error: Estado desconocido: " + BookCatalog.nombreEstado(estado));
         }
     }
 
@@ -1,51 +1,107 @@
 package org.example.storage;
 
 import org.example.config.Config;
+import org.example.config.PrimaryEndpoint;
+import org.example.util.BatchRequest;
 import org.example.util.CommandRouter;
 import org.example.util.Console;
+import org.example.util.Envelope;
+import org.example.util.Metrics;
+import org.example.util.Trace;
 import org.zeromq.ZMQ;
 import java.io.*;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.StandardOpenOption;
 import java.time.LocalDate;
-import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class StorageReplica {
 
     private static final String UNKNOWN_RESPONSE = "Solicitud no reconocida";
     private static final String GA_BIND_HOST = Config.env("GA_BIND_HOST", "*");
     private static final String GA_PORT = Config.gaPort();
-    private static final String GA2_HOST = Config.ga2Host();
-    private static final String GA2_PORT = Config.ga2RouterPort();
     private static final String BOOK_DB_PATH = Config.replicaBookDbPath();
     private static final String LOANS_PATH = Config.replicaLoansPath();
     private static final String PENDING_LOG_PATH = Config.replicaPendingLogPath();
+    private static final String WAL_PATH = Config.replicaWalPath();
+    private static final String CURSOR_PATH = Config.replicaCursorPath();
+    private static final int LISTADO_POR_DEFECTO = 50;
+    private static final int MAX_LISTADO = 1000;
+    // Saltos de las métricas: la solicitud completa en GA y sus llamadas a GA2
+    private static final String HOP = "GA";
+    private static final String HOP_GA2 = "GA->GA2";
     
     private ZMQ.Context context;
     private ZMQ.Socket responder;
     private ZMQ.Socket dealer;  // Socket DEALER para comunicarse con GA2
+    // Primario actual (cambia si GA2 se migra a otro nodo) y endpoint al que está conectado cada socket;
+    // cada hilo reconecta sus propios sockets al usarlos
+    private volatile PrimaryEndpoint primario = PrimaryEndpoint.desdeConfig();
+    private final Map<ZMQ.Socket, String> conexiones = new ConcurrentHashMap<>();
+    private LibraryStore store;    // Catálogo y préstamos respaldados por el WAL (CSV solo como persistencia)
+    private BookCatalog catalogo;
+    // Último LSN del log de replicación de GA2 aplicado localmente (cursorAplicado, protegido por estadoLock)
+    // y último LSN durable y persistido en CURSOR_PATH (cursorReplicacion)
+    private volatile long cursorAplicado;
+    // Último LSN conocido de GA2 y momento del último contacto (para el indicador de retraso de las consultas)
+    private volatile long ultimoLsnPrimario;
+    private volatile long ultimoContactoPrimario;
+    private volatile long cursorReplicacion;
+    // Serializa los cambios al estado local entre el hilo principal, la sincronización y el streaming
+    private final Object estadoLock = new Object();
+    // idSolicitud de los sobres reenviados a GA2 (para descartar respuestas tardías)
+    private final AtomicLong secuenciaSobres = new AtomicLong();
+    // Señal para despertar al hilo de sincronización cuando el streaming detecta un hueco
+    private final Object senalSincronizacion = new Object();
+    private boolean sincronizacionSolicitada;
     private final CommandRouter localRouter = new CommandRouter(UNKNOWN_RESPONSE)
-        .onPrefix("Disponibilidad?", this::handleAvailability)
-        .onPrefix("DEVOLVER", this::handleReturn)
-        .onPrefix("RENOVAR", this::handleRenewal);
+        .onPrefix(BatchRequest.PRESTAMO, this::handleLoteLocal)
+        .onPrefix(BatchRequest.DEVOLVER, this::handleLoteLocal)
+        .onPrefix(BatchRequest.RENOVAR, this::handleLoteLocal)
+        .onPrefix("Disponibilidad?", this::mutarTexto)
+        .onPrefix("DEVOLVER", this::mutarTexto)
+        .onPrefix("RENOVAR", this::mutarTexto);
+    // Consultas de solo lectura: se responden con el estado local sin pasar por GA2
+    private final CommandRouter consultaRouter = new CommandRouter(UNKNOWN_RESPONSE)
+        .onPrefix("ESTADO", this::consultarEstado)
+        .onPrefix("PRESTAMO?", this::consultarPrestamo)
+        .onPrefix("MULTIGET", this::consultarVarios)
+        .onPrefix("LISTAR_DISPONIBLES", this::listarDisponibles)
+        .onPrefix("VENCIDOS", this::consultarVencidos);
+
+    public StorageReplica() {}
+
+    // Réplica sin sockets sobre un store ya abierto: lógica de mutación aislada (benchmarks en src/jmh)
+    StorageReplica(LibraryStore store) {
+        this.store = store;
+        this.catalogo = store.catalogo();
+    }
 
     public static void main(String[] args) {
         new StorageReplica().iniciar();
     }
 
     public void iniciar() {
+        abrirStore();
+        cargarCursor();
+
         context = ZMQ.context(1);
         responder = context.socket(ZMQ.REP);
         responder.bind("tcp://" + GA_BIND_HOST + ":" + GA_PORT);
         Console.info("GA", "REP en tcp://" + GA_BIND_HOST + ":" + GA_PORT);
+        Metrics.iniciar(HOP, Config.metricsPort(Integer.parseInt(GA_PORT) + 3000));
+        Trace.iniciar(HOP);
 
         // Inicializar socket DEALER para conectarse a GA2
         inicializarDealerSocket();
@@ -57,42 +113,104 @@ public class StorageReplica {
             Thread.currentThread().interrupt();
         }
 
-        System.out.println(" GA escuchando en tcp://" + GA_BIND_HOST + ":" + GA_PORT + "...");
-        System.out.println(" GA conectado a GA2 en " + GA2_HOST + ":" + GA2_PORT + " (DEALER)...");
+        Console.info("GA", "Escuchando en tcp://" + GA_BIND_HOST + ":" + GA_PORT + "...");
+        Console.info("GA", "Conectado a GA2 en " + primario.endpointGa() + " (DEALER)...");
         
         // Sincronizar con GA2 al iniciar (obtener cambios pendientes)
-        sincronizarConGA2();
-        enviarCambiosPendientesAGa2();
+        sincronizarConGA2(dealer);
+        enviarCambiosPendientesAGa2(dealer);
         
-        // Iniciar sincronización periódica cada 30 segundos
+        // Recibir el streaming de replicación de GA2 (SUB de cambios + PUSH de confirmaciones)
+        Thread threadReplicacion = new Thread(this::recibirReplicacion, "repl-sub");
+        threadReplicacion.setDaemon(true);
+        threadReplicacion.start();
+        
+        // Iniciar sincronización periódica cada 30 segundos (o antes si el streaming detecta un hueco)
         Thread threadSincronizacion = new Thread(() -> sincronizacionPeriodica());
         threadSincronizacion.setDaemon(true);
         threadSincronizacion.start();
 
         while (!Thread.currentThread().isInterrupted()) {
-            String solicitud = responder.recvStr();
-
-            if ("PING".equalsIgnoreCase(solicitud)) {
-                responder.send("PONG");
-                continue;
-            }
-            
-            // Manejar notificaciones de cambios de GA2
-            if (solicitud != null && solicitud.startsWith("NOTIFICACION_CAMBIO:")) {
-                manejarNotificacionCambio(solicitud);
-                responder.send("OK", 0);
-                continue;
+            byte[] datos = responder.recv();
+            long inicio = System.nanoTime();
+            boolean esSobre = Envelope.esSobre(datos);
+            String solicitud = esSobre ? null : new String(datos, ZMQ.CHARSET);
+            // El frame de traza del GC/actores va después de la solicitud
+            Trace.Span span = Trace.recibir(responder, HOP,
+                esSobre ? Envelope.operacion(datos[1]) : Metrics.operacion(solicitud));
+            if (esSobre) {
+                responderSobre(datos, inicio);
+            } else {
+                responderTexto(solicitud, inicio);
             }
-
-            String respuesta = handleRequest(solicitud);
-            responder.send(respuesta, 0);
+            span.terminar();
         }
 
         responder.close();
         dealer.close();
         context.term();
+        cerrarStore();
     }
     
+    private void responderTexto(String solicitud, long inicio) {
+        if ("PING".equalsIgnoreCase(solicitud)) {
+            responder.send("PONG");
+            return;
+        }
+        if (Metrics.STATS.equalsIgnoreCase(solicitud)) {
+            responder.send(Metrics.stats());
+            return;
+        }
+
+        String consulta = consultaRouter.dispatch(solicitud);
+        if (!UNKNOWN_RESPONSE.equals(consulta)) {
+            responder.send(consulta + indicadorRetraso(), 0);
+            Metrics.registrar(HOP, Metrics.operacion(solicitud), inicio);
+            return;
+        }
+
+        String respuesta = handleRequest(solicitud);
+        if (!esperarDurabilidad()) {
+            respuesta = "Error: No se pudo persistir la operación";
+        }
+        responder.send(respuesta, 0);
+        Metrics.registrar(HOP, Metrics.operacion(solicitud), inicio);
+    }
+
+    // Operación individual en sobre binario (actores): misma lógica que handleRequest sin texto
+    private void responderSobre(byte[] datos, long inicio) {
+        Envelope respuesta;
+        try {
+            Envelope solicitud = Envelope.leer(datos);
+            respuesta = handleSobre(solicitud);
+            respuesta.enviar(responder);
+            Metrics.registrar(HOP, solicitud.operacion(), inicio);
+        } catch (IllegalArgumentException e) {
+            Envelope.solicitud((byte) 0, -1, 0).error("Error: " + e.getMessage()).enviar(responder);
+        }
+    }
+
+    private Envelope handleSobre(Envelope solicitud) {
+        Envelope respuestaGA2 = enviarAGa2(dealer, solicitud);
+        Envelope respuesta;
+        synchronized (estadoLock) {
+            if (respuestaGA2 == null || respuestaGA2.estado() == Envelope.ERROR) {
+                Console.warn("GA", "GA2 no respondió (modo degradado). Procesando localmente y registrando pendiente.");
+                respuesta = mutar(solicitud);
+                if (respuesta.exitosa()) {
+                    appendPendingChange(solicitud.comandoTexto());
+                }
+            } else {
+                // Sincronizar la copia local solo si GA2 aplicó la operación
+                if (respuestaGA2.exitosa()) {
+                    mutar(solicitud);
+                }
+                respuesta = respuestaGA2;
+            }
+        }
+        return esperarDurabilidad() ? respuesta : solicitud.error("Error: No se pudo persistir la operación");
+    }
+
     // Inicializa el socket DEALER y lo conecta a GA2
     private void inicializarDealerSocket() {
         dealer = context.socket(ZMQ.DEALER);
@@ -100,9 +218,9 @@ public class StorageReplica {
         dealer.setIdentity("GA-DEALER".getBytes());
         // Configurar timeout de recepción (10 segundos)
         dealer.setReceiveTimeOut(10000);
-        dealer.connect("tcp://" + GA2_HOST + ":" + GA2_PORT);
-        System.out.println(" Socket DEALER conectado a GA2 en " + GA2_HOST + ":" + GA2_PORT);
-        System.out.println(" GA:  Identidad del DEALER establecida: GA-DEALER");
+        conectarAlPrimario(dealer, primario.endpointGa());
+        Console.info("GA", "Socket DEALER conectado a GA2 en " + primario.endpointGa());
+        Console.info("GA", "Identidad del DEALER establecida: GA-DEALER");
         // Pequeño delay para asegurar conexión
         try {
             Thread.sleep(200);
@@ -111,13 +229,46 @@ public class StorageReplica {
         }
     }
     
+    // Conecta el socket al endpoint indicado, desconectándolo del anterior si cambió
+    private void conectarAlPrimario(ZMQ.Socket socket, String endpoint) {
+        String anterior = conexiones.put(socket, endpoint);
+        if (endpoint.equals(anterior)) {
+            return;
+        }
+        if (anterior != null) {
+            socket.disconnect(anterior);
+        }
+        socket.connect(endpoint);
+    }
+
+    // GA2 respondió "MOVIDO:..." tras una migración: seguir al primario nuevo (false si no cambió)
+    private synchronized boolean moverPrimario(String movido) {
+        PrimaryEndpoint nuevo = PrimaryEndpoint.parsear(movido);
+        if (nuevo == null || nuevo.toString().equals(primario.toString())) {
+            return false;
+        }
+        primario = nuevo;
+        Metrics.contar(HOP_GA2, "movido");
+        Console.info("GA", "GA2 migrado, reconectando a " + nuevo.endpointGa());
+        solicitarSincronizacion();
+        return true;
+    }
+
     // Envía solicitud a GA2 y espera respuesta
     private String enviarAGa2(String solicitud) {
+        return enviarAGa2(dealer, solicitud);
+    }
+
+    // Envía solicitud a GA2 por el DEALER indicado (cada hilo usa el suyo) y espera respuesta
+    private String enviarAGa2(ZMQ.Socket dealer, String solicitud) {
         try {
+            conectarAlPrimario(dealer, primario.endpointGa());
             // Enviar solicitud a GA2 usando DEALER socket
-            System.out.println("GA:  Enviando mensaje a GA2: " + solicitud);
-            boolean enviado = dealer.send(solicitud, 0);
-            System.out.println("GA:  Mensaje enviado (" + (enviado ? "exitoso" : "fallido") + "), esperando respuesta...");
+            Console.debug("GA", "Enviando mensaje a GA2: " + solicitud);
+            Trace.Span span = Trace.cliente(HOP_GA2, Metrics.operacion(solicitud));
+            long inicio = System.nanoTime();
+            boolean enviado = dealer.send(solicitud, ZMQ.SNDMORE) && span.propagar(dealer);
+            Console.debug("GA", "Mensaje enviado (" + (enviado ? "exitoso" : "fallido") + "), esperando respuesta...");
             
             // Pequeño delay para asegurar que el mensaje se envíe correctamente
             Thread.sleep(50);
@@ -125,27 +276,77 @@ public class StorageReplica {
             // Esperar respuesta de GA2
             // En jeromq, el DEALER recibe directamente el mensaje del ROUTER
             // ROUTER envía: [identidad] [respuesta], pero el DEALER solo ve la respuesta
-            System.out.println("GA:  Esperando respuesta de GA2 (timeout: 10 segundos)...");
+            Console.debug("GA", "Esperando respuesta de GA2 (timeout: 10 segundos)...");
             
             // El DEALER recibe directamente el mensaje (jeromq filtra automáticamente la identidad)
             // recvStr() retorna null si hay timeout o error
             String respuesta = dealer.recvStr();
+            Metrics.registrar(HOP_GA2, Metrics.operacion(solicitud), inicio);
+            if (respuesta == null) {
+                span.error("timeout");
+            } else if (PrimaryEndpoint.esMovido(respuesta)) {
+                span.evento("movido");
+            }
+            span.terminar();
             
             if (respuesta == null) {
-                System.err.println("GA:  ✗ ERROR - No se recibió respuesta de GA2 (timeout o error)");
+                Metrics.contar(HOP_GA2, "timeout");
+                Console.error("GA", "No se recibió respuesta de GA2 (timeout o error)");
                 return "Error: No se recibió respuesta de GA2";
             }
             
-            System.out.println("GA:  ✓ Respuesta recibida de GA2: " + respuesta);
+            if (PrimaryEndpoint.esMovido(respuesta) && moverPrimario(respuesta)) {
+                return enviarAGa2(dealer, solicitud);
+            }
+            Console.debug("GA", "Respuesta recibida de GA2: " + respuesta);
             return respuesta;
             
         } catch (Exception e) {
-            System.err.println("GA:  ✗ ERROR al comunicarse con GA2: " + e.getMessage());
-            e.printStackTrace();
+            Console.error("GA", "Error al comunicarse con GA2: " + e.getMessage(), e);
             return "Error: No se pudo comunicar con GA2";
         }
     }
 
+    /**
+     * Envía el sobre a GA2 y espera su respuesta (null si no respondió). El DEALER puede traer
+     * respuestas tardías de solicitudes anteriores que vencieron: se descartan por idSolicitud.
+     */
+    private Envelope enviarAGa2(ZMQ.Socket dealer, Envelope solicitud) {
+        try {
+            conectarAlPrimario(dealer, primario.endpointGa());
+            Envelope enviada = solicitud.conIdSolicitud(secuenciaSobres.incrementAndGet());
+            Trace.Span span = Trace.cliente(HOP_GA2, solicitud.operacion());
+            long inicio = System.nanoTime();
+            enviada.enviar(dealer, ZMQ.SNDMORE);
+            span.propagar(dealer);
+            Envelope respuesta = enviada.recibirRespuesta(dealer);
+            while (respuesta != null && respuesta.idSolicitud() != enviada.idSolicitud()) {
+                Metrics.contar(HOP_GA2, "respuesta_tardia");
+                span.evento("respuesta_tardia");
+                respuesta = enviada.recibirRespuesta(dealer);
+            }
+            Metrics.registrar(HOP_GA2, solicitud.operacion(), inicio);
+            if (respuesta == null) {
+                span.error("timeout");
+            } else if (respuesta.estado() == Envelope.MOVIDO) {
+                span.evento("movido");
+            }
+            span.terminar();
+            if (respuesta == null) {
+                Metrics.contar(HOP_GA2, "timeout");
+                Console.error("GA", "No se recibió respuesta de GA2 para " + solicitud);
+                return null;
+            }
+            if (respuesta.estado() == Envelope.MOVIDO && moverPrimario(respuesta.payload())) {
+                return enviarAGa2(dealer, solicitud);
+            }
+            return respuesta.conIdSolicitud(solicitud.idSolicitud());
+        } catch (RuntimeException e) {
+            Console.error("GA", "Error al comunicarse con GA2: " + e.getMessage());
+            return null;
+        }
+    }
+
     //  Función principal de procesamiento
     private String handleRequest(String solicitud) {
         if (solicitud == null || solicitud.isEmpty()) {
@@ -153,21 +354,32 @@ public class StorageReplica {
         }
 
         // Primero enviar solicitud a GA2 (base principal)
-        System.out.println("GA:  Enviando solicitud a GA2: " + solicitud);
+        Console.debug("GA", "Enviando solicitud a GA2: " + solicitud);
         String respuestaGA2 = enviarAGa2(solicitud);
         boolean ga2Disponible = respuestaGA2 != null && !respuestaGA2.startsWith("Error");
 
         if (!ga2Disponible) {
-            System.out.println("GA:  GA2 no respondió (modo degradado). Procesando localmente y registrando pendiente.");
-            String respuestaLocal = handleRequestLocal(solicitud);
-            if (respuestaLocal != null && !respuestaLocal.startsWith("Error") && !respuestaLocal.startsWith("Solicitud no reconocida")) {
+            Console.warn("GA", "GA2 no respondió (modo degradado). Procesando localmente y registrando pendiente.");
+            String respuestaLocal;
+            synchronized (estadoLock) {
+                respuestaLocal = handleRequestLocal(solicitud);
+            }
+            if (BatchRequest.esLote(solicitud)) {
+                // Del lote solo quedan pendientes los IDs que se aplicaron localmente
+                String pendiente = lotePendiente(solicitud, respuestaLocal);
+                if (pendiente != null) {
+                    appendPendingChange(pendiente);
+                }
+            } else if (respuestaLocal != null && !respuestaLocal.startsWith("Error") && !respuestaLocal.startsWith("Solicitud no reconocida")) {
                 appendPendingChange(solicitud);
             }
             return respuestaLocal != null ? respuestaLocal : "Error: No se pudo procesar localmente";
         }
 
         // Si GA2 fue exitoso, sincronizar procesando localmente
-        sincronizarLocalConGA2(solicitud, respuestaGA2);
+        synchronized (estadoLock) {
+            sincronizarLocalConGA2(solicitud, respuestaGA2);
+        }
 
         // Siempre retornar la respuesta de GA2 (base principal)
         return respuestaGA2;
@@ -175,33 +387,92 @@ public class StorageReplica {
 
     // Sincroniza copia local solo cuando GA2 aprobó la operación
     private void sincronizarLocalConGA2(String solicitud, String respuestaGA2) {
-        if (solicitud.startsWith("Disponibilidad?")) {
-            if (respuestaGA2.equals("SI")) {
-                System.out.println("GA:  GA2 procesó exitosamente, sincronizando localmente (préstamo)...");
-                String resultado = handleAvailability(solicitud); // Procesar localmente (solo para sincronización)
-                System.out.println("GA:  Resultado de sincronización local: " + resultado);
-            } else {
-                System.out.println("GA:  GA2 retornó '" + respuestaGA2 + "', NO procesando localmente");
+        if (BatchRequest.esLote(solicitud)) {
+            sincronizarLoteConGA2(BatchRequest.tipo(solicitud), respuestaGA2);
+        } else {
+            Envelope mutacion = Envelope.desdeTexto(solicitud, 0);
+            if (mutacion == null) {
+                return;
             }
-        } else if (solicitud.startsWith("DEVOLVER")) {
-            if (respuestaGA2.equals("Devolución registrada exitosamente")) {
-                System.out.println("GA:  GA2 procesó exitosamente, sincronizando localmente (devolución)...");
-                handleReturn(solicitud); // Procesar localmente (solo para sincronización)
+            if (mutacion.respuestaDeTexto(respuestaGA2).exitosa()) {
+                Console.debug("GA", "GA2 procesó exitosamente, sincronizando localmente (" + mutacion.tipoCambio() + ")...");
+                mutar(mutacion);
             } else {
-                System.out.println("GA:  GA2 retornó '" + respuestaGA2 + "', NO procesando localmente");
+                Console.debug("GA", "GA2 retornó '" + respuestaGA2 + "', NO procesando localmente");
             }
-        } else if (solicitud.startsWith("RENOVAR")) {
-            if (respuestaGA2.contains("exitoso") || respuestaGA2.contains("nuevo préstamo")) {
-                if (!respuestaGA2.contains("No se pueden hacer más renovaciones") && !respuestaGA2.startsWith("Error")) {
-                    System.out.println("GA:  GA2 procesó exitosamente, sincronizando localmente (renovación)...");
-                    handleRenewal(solicitud); // Procesar localmente (solo para sincronización)
-                } else {
-                    System.out.println("GA:  GA2 retornó '" + respuestaGA2 + "', NO procesando localmente");
+        }
+    }
+
+    // Sincroniza cada ID del lote que GA2 aplicó, con un solo append al WAL local
+    private void sincronizarLoteConGA2(String tipo, String respuestaGA2) {
+        List<String[]> resultados = BatchRequest.resultados(respuestaGA2);
+        if (resultados == null || store == null) {
+            Console.debug("GA", "GA2 retornó '" + respuestaGA2 + "', NO procesando localmente");
+            return;
+        }
+        int aplicados = 0;
+        store.iniciarLote();
+        try {
+            for (String[] resultado : resultados) {
+                if (BatchRequest.exitosa(tipo, resultado[1])) {
+                    mutar(Envelope.solicitud(BatchRequest.opcode(tipo), BookCatalog.parsearId(resultado[0]), 0));
+                    aplicados++;
                 }
-            } else {
-                System.out.println("GA:  GA2 retornó '" + respuestaGA2 + "', NO procesando localmente");
             }
+        } finally {
+            terminarLoteLocal();
         }
+        Console.debug("GA", "Lote sincronizado localmente: " + aplicados + " de " + resultados.size() + " IDs");
+    }
+
+    // Lote en modo degradado: cada ID como su operación individual, con un solo append al WAL
+    private String handleLoteLocal(String solicitud) {
+        String tipo = BatchRequest.tipo(solicitud);
+        List<String> ids = BatchRequest.ids(solicitud);
+        if (ids.isEmpty()) {
+            return "Error: Lote sin IDs";
+        }
+        if (ids.size() > BatchRequest.MAX_IDS) {
+            return "Error: El lote supera " + BatchRequest.MAX_IDS + " IDs";
+        }
+        if (store == null) {
+            return "Error: No se pudo leer la base de datos";
+        }
+        List<String> resultados = new ArrayList<>(ids.size());
+        byte opcode = BatchRequest.opcode(tipo);
+        store.iniciarLote();
+        try {
+            for (String id : ids) {
+                resultados.add(mutar(Envelope.solicitud(opcode, BookCatalog.parsearId(id), 0)).texto());
+            }
+        } finally {
+            terminarLoteLocal();
+        }
+        return BatchRequest.respuesta(tipo, ids, resultados);
+    }
+
+    private void terminarLoteLocal() {
+        try {
+            store.terminarLote();
+        } catch (IOException e) {
+            Console.error("GA", "Error al registrar el lote en el WAL: " + e.getMessage());
+        }
+    }
+
+    // Lote con los IDs aplicados localmente (null si ninguno) para reenviarlo a GA2
+    private static String lotePendiente(String solicitud, String respuestaLocal) {
+        String tipo = BatchRequest.tipo(solicitud);
+        List<String[]> resultados = BatchRequest.resultados(respuestaLocal);
+        if (resultados == null) {
+            return null;
+        }
+        List<String> exitosos = new ArrayList<>();
+        for (String[] resultado : resultados) {
+            if (BatchRequest.exitosa(tipo, resultado[1])) {
+                exitosos.add(resultado[0]);
+            }
+        }
+        return exitosos.isEmpty() ? null : BatchRequest.comando(tipo, exitosos);
     }
 
     // Procesamiento directo en la réplica cuando GA2 no está disponible
@@ -211,496 +482,260 @@ public class StorageReplica {
         }
         String respuesta = localRouter.dispatch(solicitud);
         if (UNKNOWN_RESPONSE.equals(respuesta)) {
-            System.out.println("GA:  Solicitud no reconocida localmente: " + solicitud);
+            Console.warn("GA", "Solicitud no reconocida localmente: " + solicitud);
         }
         return respuesta;
     }
 
-    //  Función para manejar disponibilidad
-    private String handleAvailability(String solicitud) {
-        System.out.println("GA:  Se consultó disponibilidad de libro -> " + solicitud);
-        
-        // Extraer ID del libro (formato: Disponibilidad?ID)
-        String idLibro = null;
-        if (solicitud.contains("?")) {
-            String[] partes = solicitud.split("\\?", 2);
-            if (partes.length == 2) {
-                idLibro = partes[1].trim();
-            }
+    // Mutación de texto del router local ("Disponibilidad?5", "DEVOLVER 5", "RENOVAR 5")
+    private String mutarTexto(String solicitud) {
+        return mutar(Envelope.desdeTexto(solicitud, 0)).texto();
+    }
+
+    // Aplica la mutación del sobre contra el estado local
+    Envelope mutar(Envelope solicitud) {
+        if (solicitud.idLibro() < 0) {
+            return solicitud.error("Error: ID de libro no válido");
         }
-        
-        if (idLibro == null || idLibro.isEmpty()) {
-            return "Error: ID de libro no válido";
+        if (catalogo == null) {
+            return solicitud.error("Error: No se pudo leer la base de datos");
         }
-        
-        // Leer DB.txt
-        List<String> lineas = leerDB();
-        if (lineas == null) {
-            return "Error: No se pudo leer la base de datos";
+        switch (solicitud.opcode()) {
+            case Envelope.PRESTAMO: return handleAvailability(solicitud);
+            case Envelope.DEVOLVER: return handleReturn(solicitud);
+            case Envelope.RENOVAR: return handleRenewal(solicitud);
+            default: return solicitud.error(UNKNOWN_RESPONSE);
         }
+    }
+
+    //  Función para manejar disponibilidad
+    private Envelope handleAvailability(Envelope solicitud) {
+        long idLibro = solicitud.idLibro();
+        Console.debug("GA", "Se consultó disponibilidad de libro -> " + idLibro);
         
-        // Buscar el libro por ID
-        String[] libro = buscarLibro(idLibro, lineas);
-        if (libro == null) {
-            System.out.println("GA:  Libro con ID " + idLibro + " no encontrado");
-            return "NO (libro no existe)";
+        // Buscar el libro por ID en el índice en memoria
+        int slot = catalogo.buscar(idLibro);
+        if (slot < 0) {
+            Console.debug("GA", "Libro con ID " + idLibro + " no encontrado");
+            return solicitud.respuesta(Envelope.NO_EXISTE);
         }
         
         // Verificar estado del libro
-        String estado = libro[3].trim();
-        System.out.println("GA:  Estado del libro ID " + idLibro + " en DB.txt: '" + estado + "'");
-        if (estado.equals("DISPONIBLE")) {
+        byte estado = catalogo.estado(slot);
+        if (estado == BookCatalog.DISPONIBLE) {
             // Actualizar estado a PRESTADO
-            System.out.println("GA:  Actualizando estado del libro ID " + idLibro + " de DISPONIBLE a PRESTADO en DB.txt");
-            boolean actualizado = updateBookStatus(idLibro, "PRESTADO");
+            boolean actualizado = updateBookStatus(slot, BookCatalog.PRESTADO);
             if (actualizado) {
-                System.out.println("GA:  ✓ Libro ID " + idLibro + " marcado como PRESTADO en DB.txt");
+                Console.debug("GA", "Libro ID " + idLibro + " marcado como PRESTADO");
                 // Registrar el préstamo en Prestamos.txt
-                System.out.println("GA:  Llamando a logLoan() para libro ID: " + idLibro);
                 logLoan(idLibro);
-                return "SI";
+                return solicitud.respuesta(Envelope.OK);
             } else {
-                System.err.println("GA:  ✗ Error: No se pudo actualizar el estado del libro en DB.txt");
-                return "Error: No se pudo actualizar el estado del libro";
+                Console.error("GA", "No se pudo actualizar el estado del libro en DB.txt");
+                return solicitud.error("Error: No se pudo actualizar el estado del libro");
             }
-        } else if (estado.equals("PRESTADO")) {
-            System.out.println("GA:  Libro ID " + idLibro + " ya está PRESTADO");
-            return "NO (ya está prestado)";
+        } else if (estado == BookCatalog.PRESTADO) {
+            Console.debug("GA", "Libro ID " + idLibro + " ya está PRESTADO");
+            return solicitud.respuesta(Envelope.RECHAZADO);
         } else {
-            return "Error: Estado desconocido: " + estado;
+            return solicitud.error("Error: Estado desconocido: " + BookCatalog.nombreEstado(estado));
         }
     }
     
-    // Lee todo el archivo DB.txt y retorna una lista de líneas
-    private List<String> leerDB() {
+    // Abre el almacenamiento: carga el catálogo (CSV o mmap) una sola vez y reproduce el WAL
+    private void abrirStore() {
         try {
-            File archivo = new File(BOOK_DB_PATH);
-            if (!archivo.exists()) {
-                System.err.println("GA:  Error - Archivo DB.txt no encontrado en: " + BOOK_DB_PATH);
-                return null;
-            }
-            
-            List<String> lineas = Files.readAllLines(Paths.get(BOOK_DB_PATH), StandardCharsets.UTF_8);
-            return lineas;
+            BookCatalog libros = BookCatalog.abrir(Config.bookBackend(), BOOK_DB_PATH, Config.replicaBookBinPath());
+            store = LibraryStore.abrir(libros, LOANS_PATH, WAL_PATH,
+                WriteAheadLog.Durabilidad.parse(Config.walDurability()), Config.walGroupWindowMs());
+            catalogo = store.catalogo();
+            store.iniciarCheckpoints(Config.checkpointIntervalMs(), Config.checkpointWalBytes());
+            Console.info("GA", "Catálogo cargado desde " + BOOK_DB_PATH + " (" + catalogo.tamano() + " libros, backend " + Config.bookBackend() + ")");
         } catch (IOException e) {
-            System.err.println("GA:  Error al leer DB.txt: " + e.getMessage());
-            return null;
+            Console.error("GA", "Error al abrir el almacenamiento: " + e.getMessage());
         }
     }
     
-    // Busca un libro por ID en las líneas del archivo
-    private String[] buscarLibro(String idLibro, List<String> lineas) {
-        for (String linea : lineas) {
-            if (linea == null || linea.trim().isEmpty()) {
-                continue;
-            }
-            
-            String[] libro = parsearLineaLibro(linea);
-            if (libro != null && libro[0].trim().equals(idLibro)) {
-                return libro;
-            }
+    // Vuelca el estado a los CSV y cierra el WAL
+    private void cerrarStore() {
+        if (store == null) {
+            return;
+        }
+        try {
+            store.checkpoint();
+            store.cerrar();
+        } catch (IOException e) {
+            Console.error("GA", "Error al cerrar el almacenamiento: " + e.getMessage());
         }
-        return null;
     }
     
-    // Parsea una línea del formato "ID, NOMBRE, AUTOR, ESTADO"
-    private String[] parsearLineaLibro(String linea) {
-        if (linea == null || linea.trim().isEmpty()) {
-            return null;
+    // Espera a que las mutaciones del hilo actual sean durables antes de confirmar
+    private boolean esperarDurabilidad() {
+        if (store == null) {
+            return true;
         }
-        
-        // Dividir por comas, pero preservar espacios
-        String[] partes = linea.split(",", 4);
-        if (partes.length == 4) {
-            return partes;
+        try {
+            store.esperarDurabilidad();
+            return true;
+        } catch (IOException e) {
+            Console.error("GA", "Error de durabilidad en el WAL: " + e.getMessage());
+            return false;
         }
-        return null;
     }
     
-    // Actualiza el estado del libro en DB.txt
-    private boolean updateBookStatus(String idLibro, String nuevoEstado) {
+    // Actualiza el estado del libro por ID (usado al aplicar cambios replicados)
+    private boolean updateBookStatus(long idLibro, byte nuevoEstado) {
+        if (catalogo == null) {
+            return false;
+        }
+        int slot = catalogo.buscar(idLibro);
+        if (slot < 0) {
+            Console.error("GA", "No se encontró el libro para actualizar");
+            return false;
+        }
+        return updateBookStatus(slot, nuevoEstado);
+    }
+    
+    // Actualiza el estado del libro (un append al WAL + cambio en memoria)
+    private boolean updateBookStatus(int slot, byte nuevoEstado) {
         try {
-            // Leer todas las líneas
-            List<String> lineas = leerDB();
-            if (lineas == null) {
-                return false;
-            }
-            
-            // Actualizar la línea correspondiente
-            List<String> lineasActualizadas = new ArrayList<>();
-            boolean encontrado = false;
-            
-            for (String linea : lineas) {
-                if (linea == null || linea.trim().isEmpty()) {
-                    lineasActualizadas.add(linea);
-                    continue;
-                }
-                
-                String[] libro = parsearLineaLibro(linea);
-                if (libro != null && libro[0].trim().equals(idLibro)) {
-                    // Reconstruir la línea con el nuevo estado
-                    String nuevaLinea = libro[0].trim() + ", " + libro[1].trim() + ", " + 
-                                       libro[2].trim() + ", " + nuevoEstado;
-                    lineasActualizadas.add(nuevaLinea);
-                    encontrado = true;
-                } else {
-                    lineasActualizadas.add(linea);
-                }
-            }
-            
-            if (!encontrado) {
-                System.err.println("GA:  No se encontró el libro para actualizar");
-                return false;
-            }
-            
-            // Escribir las líneas actualizadas de vuelta al archivo
-            Files.write(Paths.get(BOOK_DB_PATH), lineasActualizadas, StandardCharsets.UTF_8);
+            store.cambiarEstado(slot, nuevoEstado);
             return true;
-            
         } catch (IOException e) {
-            System.err.println("GA:  Error al actualizar DB.txt: " + e.getMessage());
+            Console.error("GA", "Error al registrar cambio de estado en el WAL: " + e.getMessage());
             return false;
         }
     }
 
-    // Registra un préstamo en Prestamos.txt
-    private void logLoan(String idLibro) {
+    // Registra un préstamo (+14 días, veces=1)
+    private void logLoan(long idLibro) {
         try {
-            System.out.println("GA:  === INICIANDO registro de préstamo para libro ID: " + idLibro + " ===");
-            
-            // Obtener fecha actual
             LocalDate fechaActual = LocalDate.now();
-            // Calcular fecha de devolución (14 días después)
             LocalDate fechaDevolucion = fechaActual.plusDays(14);
-            
-            // Formatear fechas en formato YYYY-MM-DD
-            DateTimeFormatter formatter = DateTimeFormatter.ofPattern("yyyy-MM-dd");
-            String fechaPrestamoStr = fechaActual.format(formatter);
-            String fechaDevolucionStr = fechaDevolucion.format(formatter);
-            
-            System.out.println("GA:  Fecha préstamo: " + fechaPrestamoStr + ", Fecha devolución: " + fechaDevolucionStr);
-            
-            // Crear la línea del préstamo: ID, fecha actual, fecha devolución, 1
-            String nuevaLinea = idLibro + ", " + fechaPrestamoStr + ", " + fechaDevolucionStr + ", 1";
-            System.out.println("GA:  Nueva línea a agregar: " + nuevaLinea);
-            
-            // Leer el archivo Prestamos.txt (si existe)
-            List<String> lineas = new ArrayList<>();
-            File archivoPrestamos = new File(LOANS_PATH);
-            System.out.println("GA:  Ruta de Prestamos.txt: " + LOANS_PATH);
-            System.out.println("GA:  Archivo existe: " + archivoPrestamos.exists());
-            
-            if (archivoPrestamos.exists()) {
-                lineas = Files.readAllLines(Paths.get(LOANS_PATH), StandardCharsets.UTF_8);
-                System.out.println("GA:  Archivo Prestamos.txt leído correctamente (" + lineas.size() + " líneas existentes)");
-            } else {
-                System.out.println("GA:  Archivo Prestamos.txt no existe, se creará uno nuevo");
-            }
-            
-            // Agregar la nueva línea
-            lineas.add(nuevaLinea);
-            System.out.println("GA:  Total de líneas después de agregar: " + lineas.size());
-            
-            // Escribir todas las líneas al archivo
-            Files.write(Paths.get(LOANS_PATH), lineas, StandardCharsets.UTF_8);
-            System.out.println("GA:  ✓✓✓ Préstamo registrado exitosamente en Prestamos.txt: " + nuevaLinea);
-            System.out.println("GA:  === FIN registro de préstamo ===");
-            
+            store.registrarPrestamo(idLibro, fechaActual, fechaDevolucion, 1);
+            Console.debug("GA", "Préstamo registrado: " + idLibro + ", " + fechaActual + ", " + fechaDevolucion + ", 1");
         } catch (IOException e) {
-            System.err.println("GA:  ✗✗✗ ERROR al registrar préstamo en Prestamos.txt: " + e.getMessage());
-            e.printStackTrace();
+            Console.error("GA", "Error al registrar préstamo en el WAL: " + e.getMessage());
         }
     }
 
-    // Extrae el ID del libro de solicitudes como "DEVOLVER:ID", "DEVOLVER DEVOLVER:ID" o "RENOVAR:ID"
-    private String extraerIdLibro(String solicitud, String prefijo) {
-        if (solicitud == null || solicitud.isEmpty()) {
-            return null;
-        }
-        
-        // Normalizar: eliminar prefijos múltiples y espacios
-        String normalizada = solicitud.trim();
-        
-        // Si empieza con el prefijo, eliminarlo
-        while (normalizada.startsWith(prefijo)) {
-            normalizada = normalizada.substring(prefijo.length()).trim();
-        }
-        
-        // Buscar el ID después de ":" o directamente como número
-        if (normalizada.contains(":")) {
-            String[] partes = normalizada.split(":", 2);
-            if (partes.length >= 2) {
-                String id = partes[1].trim();
-                if (id.matches("\\d+")) {
-                    return id;
-                }
-            }
-        } else if (normalizada.matches("\\d+")) {
-            // Si solo hay números, es el ID directamente
-            return normalizada;
-        }
-        
-        return null;
-    }
-    
-    // Lee todo el archivo Prestamos.txt y retorna una lista de líneas
-    private List<String> leerPrestamos() {
-        try {
-            File archivo = new File(LOANS_PATH);
-            if (!archivo.exists()) {
-                return new ArrayList<>(); // Retornar lista vacía si no existe
-            }
-            
-            List<String> lineas = Files.readAllLines(Paths.get(LOANS_PATH), StandardCharsets.UTF_8);
-            return lineas;
-        } catch (IOException e) {
-            System.err.println("GA:  Error al leer Prestamos.txt: " + e.getMessage());
-            return null;
-        }
-    }
-    
-    // Parsea una línea de Prestamos.txt: "ID, fechaPrestamo, fechaDevolucion, vecesPrestadas"
-    private String[] parsearPrestamo(String linea) {
-        if (linea == null || linea.trim().isEmpty()) {
-            return null;
-        }
-        
-        String[] partes = linea.split(",");
-        if (partes.length >= 4) {
-            // Retornar las 4 partes: ID, fechaPrestamo, fechaDevolucion, vecesPrestadas
-            return new String[] {
-                partes[0].trim(),
-                partes[1].trim(),
-                partes[2].trim(),
-                partes[3].trim()
-            };
-        }
-        return null;
-    }
-    
-    // Busca una línea en Prestamos.txt por ID del libro
-    private String buscarPrestamo(String idLibro, List<String> lineas) {
-        if (lineas == null) {
-            return null;
-        }
-        
-        for (String linea : lineas) {
-            if (linea == null || linea.trim().isEmpty()) {
-                continue;
-            }
-            
-            String[] prestamo = parsearPrestamo(linea);
-            if (prestamo != null && prestamo[0].equals(idLibro)) {
-                return linea;
-            }
-        }
-        return null;
+    // Busca el préstamo activo de un libro
+    private LoanTable.Prestamo buscarPrestamo(long idLibro) {
+        return store.prestamos().buscar(idLibro);
     }
     
-    // Elimina todas las líneas relacionadas con un ID de Prestamos.txt
-    private boolean eliminarPrestamo(String idLibro) {
+    // Elimina el préstamo asociado a un ID
+    private boolean eliminarPrestamo(long idLibro) {
         try {
-            List<String> lineas = leerPrestamos();
-            if (lineas == null) {
-                return false;
-            }
-            
-            List<String> lineasActualizadas = new ArrayList<>();
-            boolean encontrado = false;
-            
-            for (String linea : lineas) {
-                if (linea == null || linea.trim().isEmpty()) {
-                    continue; // Omitir líneas vacías
-                }
-                
-                String[] prestamo = parsearPrestamo(linea);
-                if (prestamo != null && !prestamo[0].equals(idLibro)) {
-                    // Solo agregar líneas que NO corresponden al ID a eliminar
-                    lineasActualizadas.add(linea);
-                } else if (prestamo != null && prestamo[0].equals(idLibro)) {
-                    encontrado = true;
-                }
+            boolean eliminado = store.eliminarPrestamo(idLibro);
+            if (!eliminado) {
+                Console.debug("GA", "No se encontró préstamo con ID " + idLibro);
             }
-            
-            if (!encontrado) {
-                System.out.println("GA:  No se encontró préstamo con ID " + idLibro + " en Prestamos.txt");
-                return false;
-            }
-            
-            // Escribir las líneas actualizadas de vuelta al archivo
-            Files.write(Paths.get(LOANS_PATH), lineasActualizadas, StandardCharsets.UTF_8);
-            System.out.println("GA:  Préstamo con ID " + idLibro + " eliminado de Prestamos.txt");
-            return true;
-            
+            return eliminado;
         } catch (IOException e) {
-            System.err.println("GA:  Error al eliminar préstamo de Prestamos.txt: " + e.getMessage());
+            Console.error("GA", "Error al eliminar préstamo: " + e.getMessage());
             return false;
         }
     }
     
-    // Actualiza una línea específica en Prestamos.txt
-    private boolean actualizarPrestamo(String idLibro, String nuevaFechaDevolucion, String nuevasVecesPrestadas) {
+    // Actualiza la fecha de devolución y las veces prestadas de un préstamo
+    private boolean actualizarPrestamo(long idLibro, LocalDate nuevaFechaDevolucion, int nuevasVecesPrestadas) {
         try {
-            List<String> lineas = leerPrestamos();
-            if (lineas == null) {
-                return false;
+            boolean actualizado = store.actualizarPrestamo(idLibro, nuevaFechaDevolucion, nuevasVecesPrestadas);
+            if (!actualizado) {
+                Console.error("GA", "No se encontró préstamo con ID " + idLibro + " para actualizar");
             }
-            
-            List<String> lineasActualizadas = new ArrayList<>();
-            boolean encontrado = false;
-            
-            for (String linea : lineas) {
-                if (linea == null || linea.trim().isEmpty()) {
-                    continue;
-                }
-                
-                String[] prestamo = parsearPrestamo(linea);
-                if (prestamo != null && prestamo[0].equals(idLibro)) {
-                    // Actualizar la línea con la nueva fecha de devolución y veces prestadas
-                    String nuevaLinea = idLibro + ", " + prestamo[1] + ", " + nuevaFechaDevolucion + ", " + nuevasVecesPrestadas;
-                    lineasActualizadas.add(nuevaLinea);
-                    encontrado = true;
-                } else {
-                    lineasActualizadas.add(linea);
-                }
-            }
-            
-            if (!encontrado) {
-                System.err.println("GA:  No se encontró préstamo con ID " + idLibro + " para actualizar");
-                return false;
-            }
-            
-            // Escribir las líneas actualizadas de vuelta al archivo
-            Files.write(Paths.get(LOANS_PATH), lineasActualizadas, StandardCharsets.UTF_8);
-            System.out.println("GA:  Préstamo con ID " + idLibro + " actualizado en Prestamos.txt");
-            return true;
-            
+            return actualizado;
         } catch (IOException e) {
-            System.err.println("GA:  Error al actualizar préstamo en Prestamos.txt: " + e.getMessage());
+            Console.error("GA", "Error al actualizar préstamo: " + e.getMessage());
             return false;
         }
     }
 
     //  Función para manejar devoluciones
-    private String handleReturn(String solicitud) {
-        System.out.println("GA:  Se registró devolución -> " + solicitud);
-        
-        // Extraer ID del libro (formato: "DEVOLVER:ID" o "DEVOLVER DEVOLVER:ID")
-        String idLibro = extraerIdLibro(solicitud, "DEVOLVER");
-        if (idLibro == null || idLibro.isEmpty()) {
-            return "Error: ID de libro no válido";
-        }
-        
-        // Leer DB.txt
-        List<String> lineas = leerDB();
-        if (lineas == null) {
-            return "Error: No se pudo leer la base de datos";
-        }
+    private Envelope handleReturn(Envelope solicitud) {
+        long idLibro = solicitud.idLibro();
+        Console.debug("GA", "Se registró devolución -> " + idLibro);
         
         // Buscar el libro por ID
-        String[] libro = buscarLibro(idLibro, lineas);
-        if (libro == null) {
-            System.out.println("GA:  Libro con ID " + idLibro + " no encontrado");
-            return "Error: Libro no encontrado";
+        int slot = catalogo.buscar(idLibro);
+        if (slot < 0) {
+            Console.debug("GA", "Libro con ID " + idLibro + " no encontrado");
+            return solicitud.respuesta(Envelope.NO_EXISTE);
         }
         
         // Verificar estado del libro
-        String estado = libro[3].trim();
-        if (estado.equals("PRESTADO")) {
+        byte estado = catalogo.estado(slot);
+        if (estado == BookCatalog.PRESTADO) {
             // Cambiar estado a DISPONIBLE
-            boolean actualizado = updateBookStatus(idLibro, "DISPONIBLE");
+            boolean actualizado = updateBookStatus(slot, BookCatalog.DISPONIBLE);
             if (actualizado) {
-                System.out.println("GA:  Libro ID " + idLibro + " marcado como DISPONIBLE");
+                Console.debug("GA", "Libro ID " + idLibro + " marcado como DISPONIBLE");
                 
                 // Eliminar todas las líneas relacionadas con ese ID en Prestamos.txt
                 eliminarPrestamo(idLibro);
                 
-                return "Devolución registrada exitosamente";
+                return solicitud.respuesta(Envelope.OK);
             } else {
-                return "Error: No se pudo actualizar el estado del libro";
+                return solicitud.error("Error: No se pudo actualizar el estado del libro");
             }
         } else {
-            System.out.println("GA:  Libro ID " + idLibro + " no está prestado (estado: " + estado + ")");
-            return "Libro no está prestado";
+            Console.debug("GA", "Libro ID " + idLibro + " no está prestado (estado: " + BookCatalog.nombreEstado(estado) + ")");
+            return solicitud.respuesta(Envelope.RECHAZADO);
         }
     }
 
     //  Función para manejar renovaciones
-    private String handleRenewal(String solicitud) {
-        System.out.println("GA:  Se registró renovación -> " + solicitud);
-        
-        // Extraer ID del libro (formato: "RENOVAR:ID" o "RENOVAR RENOVAR:ID")
-        String idLibro = extraerIdLibro(solicitud, "RENOVAR");
-        if (idLibro == null || idLibro.isEmpty()) {
-            return "Error: ID de libro no válido";
-        }
-        
-        // Leer DB.txt
-        List<String> lineas = leerDB();
-        if (lineas == null) {
-            return "Error: No se pudo leer la base de datos";
-        }
+    private Envelope handleRenewal(Envelope solicitud) {
+        long idLibro = solicitud.idLibro();
+        Console.debug("GA", "Se registró renovación -> " + idLibro);
         
         // Buscar el libro por ID
-        String[] libro = buscarLibro(idLibro, lineas);
-        if (libro == null) {
-            System.out.println("GA:  Libro con ID " + idLibro + " no encontrado");
-            return "Error: Libro no encontrado";
+        int slot = catalogo.buscar(idLibro);
+        if (slot < 0) {
+            Console.debug("GA", "Libro con ID " + idLibro + " no encontrado");
+            return solicitud.respuesta(Envelope.NO_EXISTE);
         }
         
         // Verificar estado del libro
-        String estado = libro[3].trim();
+        byte estado = catalogo.estado(slot);
         
-        if (estado.equals("PRESTADO")) {
-            // Libro está prestado: buscar en Prestamos.txt
-            List<String> lineasPrestamos = leerPrestamos();
-            if (lineasPrestamos == null) {
-                return "Error: No se pudo leer Prestamos.txt";
-            }
-            
-            String prestamoLinea = buscarPrestamo(idLibro, lineasPrestamos);
-            if (prestamoLinea == null) {
-                System.out.println("GA:  No se encontró registro de préstamo para el libro ID " + idLibro);
-                return "Error: No se encontró registro de préstamo";
-            }
-            
-            // Parsear el préstamo
-            String[] prestamo = parsearPrestamo(prestamoLinea);
-            if (prestamo == null || prestamo.length < 4) {
-                return "Error: Formato de préstamo inválido";
+        if (estado == BookCatalog.PRESTADO) {
+            // Libro está prestado: buscar su préstamo
+            LoanTable.Prestamo prestamo = buscarPrestamo(idLibro);
+            if (prestamo == null) {
+                Console.debug("GA", "No se encontró registro de préstamo para el libro ID " + idLibro);
+                return solicitud.respuesta(Envelope.SIN_PRESTAMO);
             }
             
-            String vecesPrestadas = prestamo[3].trim();
+            int vecesPrestadas = prestamo.veces();
             
-            if (vecesPrestadas.equals("1")) {
+            if (vecesPrestadas == 1) {
                 // Primera renovación: actualizar fecha de devolución (una semana después del día actual)
-                LocalDate fechaActual = LocalDate.now();
-                LocalDate nuevaFechaDevolucion = fechaActual.plusDays(7);
-                DateTimeFormatter formatter = DateTimeFormatter.ofPattern("yyyy-MM-dd");
-                String nuevaFechaDevolucionStr = nuevaFechaDevolucion.format(formatter);
+                LocalDate nuevaFechaDevolucion = LocalDate.now().plusDays(7);
                 
-                // Actualizar en Prestamos.txt: cambiar fecha de devolución y veces prestadas a "2"
-                boolean actualizado = actualizarPrestamo(idLibro, nuevaFechaDevolucionStr, "2");
+                // Cambiar fecha de devolución y veces prestadas a 2
+                boolean actualizado = actualizarPrestamo(idLibro, nuevaFechaDevolucion, 2);
                 if (actualizado) {
-                    System.out.println("GA:  Renovación exitosa para libro ID " + idLibro);
-                    return "Renovación exitosa, nueva fecha de devolución: " + nuevaFechaDevolucionStr;
+                    Console.debug("GA", "Renovación exitosa para libro ID " + idLibro);
+                    return solicitud.respuesta(Envelope.OK, 0, nuevaFechaDevolucion.toString());
                 } else {
-                    return "Error: No se pudo actualizar el préstamo";
+                    return solicitud.error("Error: No se pudo actualizar el préstamo");
                 }
-            } else if (vecesPrestadas.equals("2")) {
+            } else if (vecesPrestadas == 2) {
                 // Segunda renovación: no se permiten más renovaciones
-                System.out.println("GA:  Libro ID " + idLibro + " ya tiene 2 renovaciones, no se permiten más");
-                return "No se pueden hacer más renovaciones (máximo 2)";
+                Console.debug("GA", "Libro ID " + idLibro + " ya tiene 2 renovaciones, no se permiten más");
+                return solicitud.respuesta(Envelope.RECHAZADO);
             } else {
-                return "Error: Estado de renovación desconocido: " + vecesPrestadas;
+                return solicitud.error("Error: Estado de renovación desconocido: " + vecesPrestadas);
             }
             
-        } else if (estado.equals("DISPONIBLE")) {
+        } else if (estado == BookCatalog.DISPONIBLE) {
             // Libro está disponible: tratarlo como nuevo préstamo
             // Cambiar estado a PRESTADO
-            boolean actualizado = updateBookStatus(idLibro, "PRESTADO");
+            boolean actualizado = updateBookStatus(slot, BookCatalog.PRESTADO);
             if (actualizado) {
-                System.out.println("GA:  Libro ID " + idLibro + " renovado como nuevo préstamo");
+                Console.debug("GA", "Libro ID " + idLibro + " renovado como nuevo préstamo");
                 
                 // Registrar el nuevo préstamo en Prestamos.txt
                 logLoan(idLibro);
@@ -710,68 +745,303 @@ public class StorageReplica {
                 DateTimeFormatter formatter = DateTimeFormatter.ofPattern("yyyy-MM-dd");
                 String fechaDevolucionStr = fechaDevolucion.format(formatter);
                 
-                return "Libro renovado como nuevo préstamo, fecha de devolución: " + fechaDevolucionStr;
+                return solicitud.respuesta(Envelope.OK, Envelope.NUEVO_PRESTAMO, fechaDevolucionStr);
             } else {
-                return "Error: No se pudo actualizar el estado del libro";
+                return solicitud.error("Error: No se pudo actualizar el estado del libro");
             }
         } else {
-            return "Error: Estado desconocido: " + estado;
+            return solicitud.error("Error: Estado desconocido: " + BookCatalog.nombreEstado(estado));
         }
     }
     
-    // Sincroniza con GA2 al iniciar (obtiene cambios pendientes)
-    private void sincronizarConGA2() {
-        try {
-            System.out.println("GA:  Iniciando sincronización con GA2...");
-            String respuesta = enviarAGa2("OBTENER_CAMBIOS");
-            
-            if (respuesta == null || respuesta.equals("Error:") || respuesta.startsWith("Error")) {
-                System.out.println("GA:  No se pudieron obtener cambios pendientes de GA2");
-                return;
+    // ESTADO?<id> -> "<id>=DISPONIBLE|PRESTADO|NO_EXISTE"
+    private String consultarEstado(String solicitud, long id) {
+        if (id < 0) {
+            return "Error: ID de libro no válido";
+        }
+        return id + "=" + estadoLocal(id);
+    }
+
+    // PRESTAMO?<id> -> "<id>=PRESTAMO desde=<fecha> hasta=<fecha> veces=<n>" o "<id>=SIN_PRESTAMO"
+    private String consultarPrestamo(String solicitud, long id) {
+        if (id < 0) {
+            return "Error: ID de libro no válido";
+        }
+        LoanTable.Prestamo prestamo = store == null ? null : store.prestamos().buscar(id);
+        if (prestamo == null) {
+            return id + "=SIN_PRESTAMO";
+        }
+        return id + "=PRESTAMO desde=" + prestamo.fechaPrestamo() + " hasta=" + prestamo.fechaDevolucion()
+            + " veces=" + prestamo.veces();
+    }
+
+    // MULTIGET:<id1>,<id2>,... -> "<id1>=ESTADO;<id2>=ESTADO;..."
+    private String consultarVarios(String solicitud) {
+        String[] ids = argumentoConsulta(solicitud, "MULTIGET").split("[,; ]+");
+        StringBuilder respuesta = new StringBuilder();
+        for (String texto : ids) {
+            long id = BookCatalog.parsearId(texto);
+            if (id < 0) {
+                continue;
             }
-            
-            if (respuesta.equals("SIN_CAMBIOS")) {
-                System.out.println("GA:  No hay cambios pendientes en GA2");
-                return;
+            if (respuesta.length() > 0) {
+                respuesta.append(';');
             }
-            
-            // Parsear cambios (separados por "|")
-            String[] cambios = respuesta.split("\\|");
-            System.out.println("GA:  Obtenidos " + cambios.length + " cambios pendientes de GA2");
-            
-            List<String> cambiosAplicados = new ArrayList<>();
-            for (String cambio : cambios) {
-                if (cambio != null && !cambio.trim().isEmpty()) {
-                    boolean aplicado = aplicarCambioDesdeLog(cambio);
-                    if (aplicado) {
-                        cambiosAplicados.add(cambio);
+            respuesta.append(id).append('=').append(estadoLocal(id));
+        }
+        return respuesta.length() == 0 ? "Error: Sin IDs válidos" : respuesta.toString();
+    }
+
+    // LISTAR_DISPONIBLES[:max] -> "DISPONIBLES <n>: <id>=<título>;..."
+    private String listarDisponibles(String solicitud, long max) {
+        if (catalogo == null) {
+            return "Error: No se pudo leer la base de datos";
+        }
+        int limite = max > 0 ? (int) Math.min(max, MAX_LISTADO) : LISTADO_POR_DEFECTO;
+        StringBuilder lista = new StringBuilder();
+        int encontrados = 0;
+        for (int slot = 0; slot < catalogo.tamano() && encontrados < limite; slot++) {
+            if (catalogo.estado(slot) == BookCatalog.DISPONIBLE) {
+                if (encontrados++ > 0) {
+                    lista.append(';');
+                }
+                lista.append(catalogo.id(slot)).append('=').append(catalogo.titulo(slot));
+            }
+        }
+        return "DISPONIBLES " + encontrados + ": " + lista;
+    }
+
+    // VENCIDOS[?yyyy-MM-dd] -> préstamos que vencen antes de la fecha (hoy por defecto)
+    private String consultarVencidos(String solicitud) {
+        if (store == null) {
+            return "Error: No se pudo leer la base de datos";
+        }
+        String argumento = argumentoConsulta(solicitud, "VENCIDOS");
+        LocalDate fecha;
+        try {
+            fecha = argumento.isEmpty() ? LocalDate.now() : LocalDate.parse(argumento);
+        } catch (RuntimeException e) {
+            return "Error: Fecha no válida (formato yyyy-MM-dd)";
+        }
+        List<LoanTable.Prestamo> vencidos = store.prestamos().vencenAntesDe(fecha);
+        StringBuilder lista = new StringBuilder();
+        for (int i = 0; i < vencidos.size() && i < MAX_LISTADO; i++) {
+            if (i > 0) {
+                lista.append(';');
+            }
+            lista.append(vencidos.get(i).idLibro()).append('=').append(vencidos.get(i).fechaDevolucion());
+        }
+        return "VENCIDOS " + vencidos.size() + ": " + lista;
+    }
+
+    private String estadoLocal(long id) {
+        int slot = catalogo == null ? -1 : catalogo.buscar(id);
+        return slot < 0 ? "NO_EXISTE" : BookCatalog.nombreEstado(catalogo.estado(slot));
+    }
+
+    // Texto después del comando, sin separadores iniciales ('?', ':' o espacios)
+    private static String argumentoConsulta(String solicitud, String comando) {
+        int inicio = comando.length();
+        while (inicio < solicitud.length() && "?: ".indexOf(solicitud.charAt(inicio)) >= 0) {
+            inicio++;
+        }
+        return solicitud.substring(inicio).trim();
+    }
+
+    // Retraso de la réplica respecto de GA2: LSN aplicado, cambios conocidos sin aplicar y ms desde el último contacto
+    private String indicadorRetraso() {
+        long aplicado = cursorAplicado;
+        long pendientes = Math.max(0, ultimoLsnPrimario - aplicado);
+        long contacto = ultimoContactoPrimario;
+        long ms = contacto == 0 ? -1 : System.currentTimeMillis() - contacto;
+        return " [LAG lsn=" + aplicado + " pendientes=" + pendientes + " ms=" + ms + "]";
+    }
+
+    /**
+     * Se pone al día con GA2 por páginas: pide los cambios posteriores a su cursor
+     * ("OBTENER_CAMBIOS:<lsn>:<max>"), los aplica, persiste el cursor y pide la siguiente página.
+     * Cada pedido confirma implícitamente todo hasta el cursor enviado, de modo que una
+     * interrupción retoma desde la última página aplicada y la memoria usada queda acotada.
+     * Si GA2 ya descartó cambios que esta réplica no tiene (réplica nueva o muy atrasada),
+     * o el retraso supera SYNC_SNAPSHOT_LAG, instala primero un snapshot y sigue desde su LSN.
+     */
+    private void sincronizarConGA2(ZMQ.Socket dealer) {
+        try {
+            Console.info("GA", "Iniciando sincronización con GA2 desde LSN " + cursorReplicacion + "...");
+            int tamanoPagina = Config.syncPageSize();
+            int aplicados = 0;
+            int paginas = 0;
+            boolean snapshotInstalado = false;
+            while (!Thread.currentThread().isInterrupted()) {
+                List<String> frames = enviarAGa2Paginado(dealer,
+                    "OBTENER_CAMBIOS:" + cursorReplicacion + ":" + tamanoPagina);
+                if (frames == null || frames.isEmpty() || !frames.get(0).startsWith("CAMBIOS ")) {
+                    Console.warn("GA", "No se pudieron obtener cambios pendientes de GA2"
+                        + (frames == null || frames.isEmpty() ? "" : ": " + frames.get(0)));
+                    return;
+                }
+                ultimoContactoPrimario = System.currentTimeMillis();
+
+                // Cabecera: "CAMBIOS <n> <primerLsn> <ultimoLsn>"
+                String[] cabecera = frames.get(0).split(" ");
+                long primero = cabecera.length > 2 ? BookCatalog.parsearId(cabecera[2]) : -1;
+                long ultimo = cabecera.length > 3 ? BookCatalog.parsearId(cabecera[3]) : -1;
+                ultimoLsnPrimario = Math.max(ultimoLsnPrimario, ultimo);
+                boolean faltanCambios = primero > cursorReplicacion + 1;
+                if (!snapshotInstalado && (faltanCambios || ultimo - cursorReplicacion > Config.syncSnapshotLag())) {
+                    Console.info("GA", (faltanCambios ? "GA2 ya no tiene los cambios desde LSN " + (cursorReplicacion + 1)
+                        : "Retraso de " + (ultimo - cursorReplicacion) + " cambios") + ", instalando snapshot...");
+                    if (!instalarSnapshotDeGa2(dealer)) {
+                        return;
+                    }
+                    snapshotInstalado = true;
+                    continue;
+                }
+                List<String> cambios = frames.subList(1, frames.size());
+                if (cambios.isEmpty()) {
+                    break;
+                }
+                paginas++;
+
+                long cursor;
+                synchronized (estadoLock) {
+                    for (String cambio : cambios) {
+                        long lsn = lsnDeCambio(cambio);
+                        if (lsn > 0 && lsn <= cursorAplicado) {
+                            continue; // Ya aplicado (sincronización anterior o streaming)
+                        }
+                        if (lsn > cursorAplicado + 1) {
+                            Console.error("GA", "GA2 ya no tiene los cambios " + (cursorAplicado + 1) + ".." + (lsn - 1)
+                                + " (confirmados fuera de esta réplica)");
+                        }
+                        if (aplicarCambioDesdeLog(cambio)) {
+                            aplicados++;
+                        }
+                        cursorAplicado = Math.max(cursorAplicado, lsn);
                     }
+                    cursor = cursorAplicado;
+                }
+
+                // Persistir el cursor antes de pedir la siguiente página (el pedido lo confirma a GA2)
+                if (cursor <= cursorReplicacion || !esperarDurabilidad()) {
+                    return;
+                }
+                guardarCursor(cursor);
+                if (cambios.size() < tamanoPagina || cursor >= ultimo) {
+                    enviarAGa2(dealer, "CAMBIOS_SINCRONIZADOS:" + cursor);
+                    break;
                 }
             }
-            
-            // Notificar a GA2 qué cambios fueron sincronizados
-            if (!cambiosAplicados.isEmpty()) {
-                // Enviar cambios completos separados por "|"
-                String cambiosStr = String.join("|", cambiosAplicados);
-                enviarAGa2("CAMBIOS_SINCRONIZADOS:" + cambiosStr);
-                System.out.println("GA:  " + cambiosAplicados.size() + " cambios sincronizados exitosamente");
+            if (paginas == 0) {
+                Console.debug("GA", "No hay cambios pendientes en GA2");
+            } else {
+                Console.info("GA", aplicados + " cambios sincronizados en " + paginas
+                    + " páginas (hasta LSN " + cursorReplicacion + ")");
             }
-            
         } catch (Exception e) {
-            System.err.println("GA:  Error al sincronizar con GA2: " + e.getMessage());
-            e.printStackTrace();
+            Console.error("GA", "Error al sincronizar con GA2: " + e.getMessage(), e);
         }
     }
 
+    // Descarga el snapshot de GA2 por chunks (verificando el CRC de cada uno) y lo instala en el store
+    private boolean instalarSnapshotDeGa2(ZMQ.Socket dealer) {
+        if (store == null) {
+            return false;
+        }
+        try {
+            long inicio = System.currentTimeMillis();
+            String cabecera = enviarAGa2(dealer, "SNAPSHOT_INICIO");
+            if (cabecera == null || !cabecera.startsWith("SNAPSHOT ")) {
+                Console.error("GA", "GA2 no entregó el snapshot: " + cabecera);
+                return false;
+            }
+            StoreSnapshot.Receptor receptor = new StoreSnapshot.Receptor(cabecera);
+            for (int i = 0; i < receptor.cantidadChunks(); i++) {
+                if (!descargarChunk(dealer, receptor, i)) {
+                    Console.error("GA", "No se pudo descargar el chunk " + i + " del snapshot");
+                    return false;
+                }
+            }
+            StoreSnapshot.Contenido contenido = receptor.leer();
+            int ignorados;
+            synchronized (estadoLock) {
+                if (contenido.lsn() < cursorAplicado) {
+                    Console.warn("GA", "Snapshot en LSN " + contenido.lsn() + " anterior al cursor aplicado "
+                        + cursorAplicado + " (GA2 perdió cambios): el cursor retrocede");
+                }
+                ignorados = store.instalarSnapshot(contenido);
+                cursorAplicado = contenido.lsn();
+                // El estado instalado es el del snapshot: el cursor persistido no puede quedar por delante
+                reemplazarCursor(contenido.lsn());
+            }
+            Console.info("GA", "Snapshot instalado en " + (System.currentTimeMillis() - inicio) + " ms (LSN "
+                + contenido.lsn() + ", " + contenido.ids().length + " libros, " + contenido.prestamos().size() + " préstamos"
+                + (ignorados > 0 ? ", " + ignorados + " libros inexistentes localmente" : "") + ")");
+            return true;
+        } catch (IOException e) {
+            Console.error("GA", "Error al instalar el snapshot: " + e.getMessage());
+            return false;
+        }
+    }
+
+    // Pide un chunk (hasta 3 intentos si llega corrupto o no llega)
+    private boolean descargarChunk(ZMQ.Socket dealer, StoreSnapshot.Receptor receptor, int indice) {
+        for (int intento = 0; intento < 3; intento++) {
+            if (!dealer.send("SNAPSHOT_CHUNK:" + receptor.id() + ":" + indice, 0)) {
+                continue;
+            }
+            String cabecera = dealer.recvStr();
+            if (cabecera == null) {
+                continue;
+            }
+            byte[] datos = dealer.hasReceiveMore() ? dealer.recv() : null;
+            while (dealer.hasReceiveMore()) {
+                dealer.recv();
+            }
+            String[] partes = cabecera.split(" ");
+            if (partes.length == 3 && partes[0].equals("CHUNK") && BookCatalog.parsearId(partes[1]) == indice
+                && receptor.agregar(indice, datos, BookCatalog.parsearId(partes[2]))) {
+                return true;
+            }
+            if (cabecera.startsWith("Error")) {
+                Console.error("GA", "GA2 respondió al chunk " + indice + ": " + cabecera);
+                return false;
+            }
+        }
+        return false;
+    }
+
+    // Envía una solicitud a GA2 y recibe todos los frames de la respuesta (null si no hubo respuesta)
+    private List<String> enviarAGa2Paginado(ZMQ.Socket dealer, String solicitud) {
+        conectarAlPrimario(dealer, primario.endpointGa());
+        if (!dealer.send(solicitud, 0)) {
+            return null;
+        }
+        String primero = dealer.recvStr();
+        if (primero == null) {
+            Console.error("GA", "No se recibió respuesta de GA2 (timeout o error)");
+            return null;
+        }
+        List<String> frames = new ArrayList<>();
+        frames.add(primero);
+        while (dealer.hasReceiveMore()) {
+            frames.add(dealer.recvStr());
+        }
+        if (PrimaryEndpoint.esMovido(primero) && moverPrimario(primero)) {
+            return enviarAGa2Paginado(dealer, solicitud);
+        }
+        return frames;
+    }
+
     // Envía a GA2 los cambios procesados localmente en modo degradado
-    private void enviarCambiosPendientesAGa2() {
+    private void enviarCambiosPendientesAGa2(ZMQ.Socket dealer) {
         try {
             List<String> pendientes = leerCambiosPendientesLocal();
             if (pendientes.isEmpty()) {
                 return;
             }
 
-            System.out.println("GA:  Reintentando " + pendientes.size() + " cambios pendientes hacia GA2...");
+            Console.info("GA", "Reintentando " + pendientes.size() + " cambios pendientes hacia GA2...");
             List<String> procesados = new ArrayList<>();
             Set<String> vistos = new HashSet<>();
 
@@ -785,44 +1055,142 @@ public class StorageReplica {
                     continue; // evitar duplicados
                 }
 
-                String respuesta = enviarAGa2(payload);
+                String respuesta = enviarAGa2(dealer, payload);
                 boolean ok = respuesta != null && !respuesta.startsWith("Error");
                 if (ok) {
-                    System.out.println("GA:  ✓ Cambio pendiente aplicado en GA2: " + payload);
+                    Console.info("GA", "Cambio pendiente aplicado en GA2: " + payload);
                     procesados.add(entrada);
-                    sincronizarLocalConGA2(payload, respuesta);
+                    synchronized (estadoLock) {
+                        sincronizarLocalConGA2(payload, respuesta);
+                    }
                 } else {
-                    System.out.println("GA:  GA2 aún no acepta el cambio pendiente: " + payload + " -> " + respuesta);
+                    Console.warn("GA", "GA2 aún no acepta el cambio pendiente: " + payload + " -> " + respuesta);
                 }
             }
 
             if (!procesados.isEmpty()) {
                 limpiarCambiosPendientesLocal(procesados);
-                System.out.println("GA:  Cambios pendientes depurados: " + procesados.size());
+                Console.info("GA", "Cambios pendientes depurados: " + procesados.size());
             }
         } catch (Exception e) {
-            System.err.println("GA:  Error al reenviar cambios pendientes a GA2: " + e.getMessage());
+            Console.error("GA", "Error al reenviar cambios pendientes a GA2: " + e.getMessage());
         }
     }
     
     // Sincronización periódica cada 30 segundos
     private void sincronizacionPeriodica() {
+        // DEALER propio: los sockets ZMQ no se comparten entre hilos
+        ZMQ.Socket dealerSincronizacion = context.socket(ZMQ.DEALER);
+        dealerSincronizacion.setIdentity("GA-SYNC-DEALER".getBytes());
+        dealerSincronizacion.setReceiveTimeOut(10000);
+        dealerSincronizacion.setLinger(0);
+        conectarAlPrimario(dealerSincronizacion, primario.endpointGa());
         while (!Thread.currentThread().isInterrupted()) {
             try {
-                Thread.sleep(30000); // 30 segundos
-                System.out.println("GA:  Ejecutando sincronización periódica...");
-        sincronizarConGA2();
-        enviarCambiosPendientesAGa2();
+                synchronized (senalSincronizacion) {
+                    if (!sincronizacionSolicitada) {
+                        senalSincronizacion.wait(30000); // 30 segundos
+                    }
+                    sincronizacionSolicitada = false;
+                }
+                Console.debug("GA", "Ejecutando sincronización periódica...");
+                sincronizarConGA2(dealerSincronizacion);
+                enviarCambiosPendientesAGa2(dealerSincronizacion);
             } catch (InterruptedException e) {
                 Thread.currentThread().interrupt();
                 break;
             } catch (Exception e) {
-                System.err.println("GA:  Error en sincronización periódica: " + e.getMessage());
+                Console.error("GA", "Error en sincronización periódica: " + e.getMessage());
+            }
+        }
+        dealerSincronizacion.close();
+    }
+
+    // Despierta al hilo de sincronización para ponerse al día con OBTENER_CAMBIOS
+    private void solicitarSincronizacion() {
+        synchronized (senalSincronizacion) {
+            sincronizacionSolicitada = true;
+            senalSincronizacion.notifyAll();
+        }
+    }
+
+    // Recibe el streaming de replicación de GA2: aplica lotes contiguos por LSN y confirma de forma asíncrona
+    private void recibirReplicacion() {
+        ZMQ.Socket sub = context.socket(ZMQ.SUB);
+        sub.setLinger(0);
+        // Timeout para notar un cambio de primario aunque el anterior ya no publique
+        sub.setReceiveTimeOut(2000);
+        sub.subscribe(ZMQ.SUBSCRIPTION_ALL);
+        ZMQ.Socket push = context.socket(ZMQ.PUSH);
+        push.setLinger(0);
+        Console.info("GA", "Suscrito al streaming de replicación de GA2 en " + primario.endpointRepl());
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                PrimaryEndpoint actual = primario;
+                conectarAlPrimario(sub, actual.endpointRepl());
+                conectarAlPrimario(push, actual.endpointAck());
+                String tipo = sub.recvStr();
+                if (tipo == null) {
+                    continue;
+                }
+                List<String> frames = new ArrayList<>();
+                while (sub.hasReceiveMore()) {
+                    frames.add(sub.recvStr());
+                }
+                ultimoContactoPrimario = System.currentTimeMillis();
+                if ("HB".equals(tipo) && !frames.isEmpty()) {
+                    // Latido: si GA2 tiene cambios que no llegaron por el stream, hay un hueco
+                    long ultimo = BookCatalog.parsearId(frames.get(0));
+                    ultimoLsnPrimario = Math.max(ultimoLsnPrimario, ultimo);
+                    if (ultimo > cursorReplicacion) {
+                        solicitarSincronizacion();
+                    }
+                } else if ("MOVIDO".equals(tipo) && !frames.isEmpty()) {
+                    moverPrimario(PrimaryEndpoint.MOVIDO + frames.get(0));
+                } else if ("CAMBIOS".equals(tipo) && !frames.isEmpty()) {
+                    ultimoLsnPrimario = Math.max(ultimoLsnPrimario, lsnDeCambio(frames.get(frames.size() - 1)));
+                    aplicarLoteReplicacion(frames, push);
+                }
             }
+        } catch (RuntimeException e) {
+            Console.error("GA", "Error en el streaming de replicación: " + e.getMessage());
+        } finally {
+            sub.close();
+            push.close();
+        }
+    }
+
+    private void aplicarLoteReplicacion(List<String> lote, ZMQ.Socket push) {
+        boolean hueco = false;
+        long cursor;
+        synchronized (estadoLock) {
+            for (String cambio : lote) {
+                long lsn = lsnDeCambio(cambio);
+                if (lsn <= cursorAplicado) {
+                    continue; // Ya aplicado por la sincronización
+                }
+                if (lsn != cursorAplicado + 1) {
+                    hueco = true; // Se perdieron mensajes: ponerse al día por OBTENER_CAMBIOS
+                    break;
+                }
+                aplicarCambioDesdeLog(cambio);
+                cursorAplicado = lsn;
+            }
+            cursor = cursorAplicado;
+        }
+        if (cursor > cursorReplicacion && esperarDurabilidad()) {
+            guardarCursor(cursor);
+            push.send("CAMBIOS_SINCRONIZADOS:" + cursor, ZMQ.DONTWAIT);
+        }
+        if (hueco) {
+            Console.warn("GA", "Hueco en el streaming de replicación tras LSN " + cursor + ", sincronizando...");
+            solicitarSincronizacion();
         }
     }
 
     private void appendPendingChange(String solicitud) {
+        Metrics.contar(HOP, "escritura_degradada");
+        Trace.evento("escritura_degradada");
         try {
             String entry = UUID.randomUUID() + "|" + solicitud;
             Files.write(
@@ -832,9 +1200,9 @@ public class StorageReplica {
                 StandardOpenOption.CREATE,
                 StandardOpenOption.APPEND
             );
-            System.out.println("GA:  Cambio pendiente registrado localmente para reenviar: " + entry);
+            Console.info("GA", "Cambio pendiente registrado localmente para reenviar: " + entry);
         } catch (IOException e) {
-            System.err.println("GA:  Error al registrar cambio pendiente local: " + e.getMessage());
+            Console.error("GA", "Error al registrar cambio pendiente local: " + e.getMessage());
         }
     }
 
@@ -846,7 +1214,7 @@ public class StorageReplica {
             }
             return Files.readAllLines(Paths.get(PENDING_LOG_PATH), StandardCharsets.UTF_8);
         } catch (IOException e) {
-            System.err.println("GA:  Error al leer cambios pendientes locales: " + e.getMessage());
+            Console.error("GA", "Error al leer cambios pendientes locales: " + e.getMessage());
             return new ArrayList<>();
         }
     }
@@ -865,120 +1233,125 @@ public class StorageReplica {
             }
             Files.write(Paths.get(PENDING_LOG_PATH), restantes, StandardCharsets.UTF_8, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING);
         } catch (IOException e) {
-            System.err.println("GA:  Error al limpiar cambios pendientes locales: " + e.getMessage());
+            Console.error("GA", "Error al limpiar cambios pendientes locales: " + e.getMessage());
         }
     }
     
+    // Carga el cursor de replicación persistido (0 si no existe)
+    private void cargarCursor() {
+        try {
+            Path archivo = Paths.get(CURSOR_PATH);
+            if (Files.exists(archivo)) {
+                cursorReplicacion = Math.max(0, BookCatalog.parsearId(Files.readString(archivo, StandardCharsets.UTF_8)));
+            }
+            cursorAplicado = cursorReplicacion;
+            Console.info("GA", "Cursor de replicación: LSN " + cursorReplicacion);
+        } catch (IOException e) {
+            Console.error("GA", "Error al leer el cursor de replicación: " + e.getMessage());
+        }
+    }
+
+    // Persiste el cursor de replicación (temporal con fsync + move atómico); nunca retrocede ni pasa
+    // del cursor aplicado (un hilo que calculó su cursor antes de instalar un snapshot llega tarde)
+    private synchronized void guardarCursor(long lsn) {
+        lsn = Math.min(lsn, cursorAplicado);
+        if (lsn <= cursorReplicacion) {
+            return;
+        }
+        escribirCursor(lsn);
+    }
+
+    // Al instalar un snapshot el cursor se fija en su LSN, aunque eso lo haga retroceder
+    private synchronized void reemplazarCursor(long lsn) {
+        if (lsn != cursorReplicacion) {
+            escribirCursor(lsn);
+        }
+    }
+
+    private void escribirCursor(long lsn) {
+        try {
+            ArchivoDurable.reemplazar(Paths.get(CURSOR_PATH), out -> out.write(Long.toString(lsn)));
+        } catch (IOException e) {
+            Console.error("GA", "Error al guardar el cursor de replicación: " + e.getMessage());
+        }
+        cursorReplicacion = lsn;
+    }
+
+    // LSN de un cambio "lsn, timestamp, TIPO, ID=x"; -1 si viene sin LSN
+    private static long lsnDeCambio(String cambio) {
+        int coma = cambio.indexOf(',');
+        return coma < 0 ? -1 : BookCatalog.parsearId(cambio.substring(0, coma));
+    }
+
     // Aplica un cambio del log localmente
-    private boolean aplicarCambioDesdeLog(String cambio) {
+    boolean aplicarCambioDesdeLog(String cambio) {
         try {
-            // Formato: TIMESTAMP, TIPO, DATOS
-            // Ejemplo: "2025-11-19 10:30:00, PRESTAMO, ID=20"
-            String[] partes = cambio.split(",", 3);
-            if (partes.length < 3) {
-                System.err.println("GA:  Formato de cambio inválido: " + cambio);
+            // Formato: [LSN,] TIMESTAMP, TIPO, DATOS
+            // Ejemplo: "42, 2025-11-19 10:30:00, PRESTAMO, ID=20"
+            String[] partes = cambio.split(",", 4);
+            int base = partes.length == 4 && lsnDeCambio(cambio) > 0 ? 1 : 0;
+            if (partes.length < base + 3) {
+                Console.error("GA", "Formato de cambio inválido: " + cambio);
                 return false;
             }
             
-            String tipo = partes[1].trim();
-            String datos = partes[2].trim();
+            String tipo = partes[base + 1].trim();
+            String datos = partes[base + 2].trim();
+
+            // Lote de una partición del primario: "TIPO_LOTE, IDS=1,2,3"
+            if (tipo.endsWith("_LOTE") && datos.startsWith("IDS=")) {
+                String timestamp = partes[base].trim();
+                String tipoBase = tipo.substring(0, tipo.length() - "_LOTE".length());
+                boolean aplicado = false;
+                for (String id : datos.substring(4).split(",")) {
+                    aplicado |= aplicarCambioDesdeLog(timestamp + ", " + tipoBase + ", ID=" + id.trim());
+                }
+                return aplicado;
+            }
             
             // Extraer ID del libro
-            String idLibro = null;
-            if (datos.startsWith("ID=")) {
-                idLibro = datos.substring(3).trim();
-            }
+            long idLibro = datos.startsWith("ID=") ? BookCatalog.parsearId(datos.substring(3).trim()) : -1;
             
-            if (idLibro == null || idLibro.isEmpty()) {
-                System.err.println("GA:  No se pudo extraer ID del libro del cambio: " + cambio);
+            if (idLibro < 0) {
+                Console.error("GA", "No se pudo extraer ID del libro del cambio: " + cambio);
                 return false;
             }
             
-            System.out.println("GA:  Aplicando cambio desde log: " + tipo + " - ID=" + idLibro);
+            Console.debug("GA", "Aplicando cambio desde log: " + tipo + " - ID=" + idLibro);
             
             // Aplicar cambio según el tipo
             if (tipo.equals("PRESTAMO")) {
                 // Simular préstamo: actualizar estado a PRESTADO y agregar a Prestamos.txt
-                boolean actualizado = updateBookStatus(idLibro, "PRESTADO");
+                boolean actualizado = updateBookStatus(idLibro, BookCatalog.PRESTADO);
                 if (actualizado) {
                     logLoan(idLibro);
-                    System.out.println("GA:  ✓ Cambio aplicado: PRESTAMO para libro ID " + idLibro);
+                    Console.debug("GA", "Cambio aplicado: PRESTAMO para libro ID " + idLibro);
                     return true;
                 }
             } else if (tipo.equals("DEVOLUCION")) {
                 // Simular devolución: actualizar estado a DISPONIBLE y eliminar de Prestamos.txt
-                boolean actualizado = updateBookStatus(idLibro, "DISPONIBLE");
+                boolean actualizado = updateBookStatus(idLibro, BookCatalog.DISPONIBLE);
                 if (actualizado) {
                     eliminarPrestamo(idLibro);
-                    System.out.println("GA:  ✓ Cambio aplicado: DEVOLUCION para libro ID " + idLibro);
+                    Console.debug("GA", "Cambio aplicado: DEVOLUCION para libro ID " + idLibro);
                     return true;
                 }
             } else if (tipo.equals("RENOVACION")) {
-                // Simular renovación: actualizar fecha de devolución en Prestamos.txt
-                List<String> lineasPrestamos = leerPrestamos();
-                if (lineasPrestamos != null) {
-                    String prestamoLinea = buscarPrestamo(idLibro, lineasPrestamos);
-                    if (prestamoLinea != null) {
-                        String[] prestamo = parsearPrestamo(prestamoLinea);
-                        if (prestamo != null && prestamo.length >= 4) {
-                            String vecesPrestadas = prestamo[3].trim();
-                            if (vecesPrestadas.equals("1")) {
-                                // Primera renovación: actualizar fecha de devolución
-                                LocalDate fechaActual = LocalDate.now();
-                                LocalDate nuevaFechaDevolucion = fechaActual.plusDays(7);
-                                DateTimeFormatter formatter = DateTimeFormatter.ofPattern("yyyy-MM-dd");
-                                String nuevaFechaDevolucionStr = nuevaFechaDevolucion.format(formatter);
-                                actualizarPrestamo(idLibro, nuevaFechaDevolucionStr, "2");
-                                System.out.println("GA:  ✓ Cambio aplicado: RENOVACION para libro ID " + idLibro);
-                                return true;
-                            }
-                        }
-                    }
+                // Simular renovación: actualizar fecha de devolución del préstamo
+                LoanTable.Prestamo prestamo = buscarPrestamo(idLibro);
+                if (prestamo != null && prestamo.veces() == 1) {
+                    // Primera renovación: actualizar fecha de devolución
+                    actualizarPrestamo(idLibro, LocalDate.now().plusDays(7), 2);
+                    Console.debug("GA", "Cambio aplicado: RENOVACION para libro ID " + idLibro);
+                    return true;
                 }
             }
             
             return false;
         } catch (Exception e) {
-            System.err.println("GA:  Error al aplicar cambio desde log: " + e.getMessage());
-            e.printStackTrace();
+            Console.error("GA", "Error al aplicar cambio desde log: " + e.getMessage(), e);
             return false;
         }
     }
-    
-    // Maneja notificación de cambio de GA2 (sincronización en tiempo real)
-    private void manejarNotificacionCambio(String notificacion) {
-        try {
-            // Formato: NOTIFICACION_CAMBIO:TIPO:DATOS
-            // Ejemplo: "NOTIFICACION_CAMBIO:PRESTAMO:ID=20"
-            String[] partes = notificacion.split(":", 3);
-            if (partes.length < 3) {
-                System.err.println("GA:  Formato de notificación inválido: " + notificacion);
-                return;
-            }
-            
-            String tipo = partes[1].trim();
-            String datos = partes[2].trim();
-            
-            System.out.println("GA:  Notificación de cambio recibida: " + tipo + " - " + datos);
-            
-            // Crear entrada de log para aplicar cambio
-            LocalDateTime ahora = LocalDateTime.now();
-            java.time.format.DateTimeFormatter formatter = java.time.format.DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
-            String timestamp = ahora.format(formatter);
-            String cambio = timestamp + ", " + tipo + ", " + datos;
-            
-            // Aplicar cambio
-            boolean aplicado = aplicarCambioDesdeLog(cambio);
-            if (aplicado) {
-                System.out.println("GA:  ✓ Cambio aplicado desde notificación");
-            } else {
-                System.err.println("GA:  ✗ Error al aplicar cambio desde notificación");
-            }
-            
-        } catch (Exception e) {
-            System.err.println("GA:  Error al manejar notificación de cambio: " + e.getMessage());
-            e.printStackTrace();
-        }
-    }
 
 }
@@ -0,0 +1,246 @@
+package org.example.storage;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.SequenceInputStream;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Snapshot binario del estado de GA2 (estado de cada libro + préstamos activos) en un LSN dado,
+ * comprimido y partido en chunks con CRC32 para transferirlo a la réplica.
+ * La réplica lo pide cuando el log de replicación ya no cubre su cursor (réplica nueva o muy
+ * atrasada), lo instala de una vez en su store y continúa con el log desde el LSN del snapshot.
+ *
+ * Contenido (antes de comprimir):
+ *   magic (int), lsn (long), cantidad de libros (int), [id (long), estado (byte)]...,
+ *   cantidad de préstamos (int), [id (long), díaPréstamo (int), díaDevolución (int), veces (byte)]...
+ *
+ * Protocolo (DEALER de GA -> ROUTER de GA2):
+ *   SNAPSHOT_INICIO          -> "SNAPSHOT <id> <lsn> <chunks> <bytes>"
+ *   SNAPSHOT_CHUNK:<id>:<i>  -> ["CHUNK <i> <crc32>"][bytes del chunk]
+ */
+public final class StoreSnapshot {
+
+    private static final int MAGIC = 0x534E5031; // "SNP1"
+    private static final int TAMANO_CHUNK = 256 * 1024;
+
+    private final long id;
+    private final long lsn;
+    private final List<byte[]> chunks;
+    private final long bytes;
+
+    private StoreSnapshot(long id, long lsn, List<byte[]> chunks, long bytes) {
+        this.id = id;
+        this.lsn = lsn;
+        this.chunks = chunks;
+        this.bytes = bytes;
+    }
+
+    /**
+     * Serializa y comprime el estado actual. {@code lsn} debe leerse antes de copiar el estado:
+     * los cambios con LSN mayor que se cuelen en la copia se vuelven a aplicar sin efecto.
+     */
+    public static StoreSnapshot crear(BookCatalog catalogo, LoanTable prestamos, long lsn) throws IOException {
+        List<LoanTable.Prestamo> activos = prestamos.todos();
+        ChunkOutputStream salida = new ChunkOutputStream();
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                new DeflaterOutputStream(salida, deflater, 1 << 16), 1 << 16))) {
+            out.writeInt(MAGIC);
+            out.writeLong(lsn);
+            out.writeInt(catalogo.tamano());
+            for (int slot = 0; slot < catalogo.tamano(); slot++) {
+                out.writeLong(catalogo.id(slot));
+                out.writeByte(catalogo.estado(slot));
+            }
+            out.writeInt(activos.size());
+            for (LoanTable.Prestamo prestamo : activos) {
+                out.writeLong(prestamo.idLibro());
+                out.writeInt((int) prestamo.fechaPrestamo().toEpochDay());
+                out.writeInt((int) prestamo.fechaDevolucion().toEpochDay());
+                out.writeByte(prestamo.veces());
+            }
+        } finally {
+            deflater.end();
+        }
+        return new StoreSnapshot(System.nanoTime(), lsn, salida.chunks, salida.total);
+    }
+
+    public long id() {
+        return id;
+    }
+
+    public long lsn() {
+        return lsn;
+    }
+
+    public int cantidadChunks() {
+        return chunks.size();
+    }
+
+    public String cabecera() {
+        return "SNAPSHOT " + id + " " + lsn + " " + chunks.size() + " " + bytes;
+    }
+
+    public byte[] chunk(int i) {
+        return chunks.get(i);
+    }
+
+    public static long crc(byte[] datos) {
+        CRC32 crc = new CRC32();
+        crc.update(datos);
+        return crc.getValue();
+    }
+
+    // Contenido de un snapshot ya descomprimido, listo para instalar en el store
+    public static final class Contenido {
+        private final long lsn;
+        private final long[] ids;
+        private final byte[] estados;
+        private final List<LoanTable.Prestamo> prestamos;
+
+        Contenido(long lsn, long[] ids, byte[] estados, List<LoanTable.Prestamo> prestamos) {
+            this.lsn = lsn;
+            this.ids = ids;
+            this.estados = estados;
+            this.prestamos = prestamos;
+        }
+
+        public long lsn() { return lsn; }
+        public long[] ids() { return ids; }
+        public byte[] estados() { return estados; }
+        public List<LoanTable.Prestamo> prestamos() { return prestamos; }
+    }
+
+    /**
+     * Lado de la réplica: acumula los chunks verificando su CRC y luego descomprime el contenido.
+     */
+    public static final class Receptor {
+        private final long id;
+        private final long lsn;
+        private final byte[][] chunks;
+        private int recibidos;
+
+        public Receptor(String cabecera) throws IOException {
+            String[] partes = cabecera.split(" ");
+            if (partes.length < 5 || !partes[0].equals("SNAPSHOT")) {
+                throw new IOException("Cabecera de snapshot inválida: " + cabecera);
+            }
+            long cantidad = BookCatalog.parsearId(partes[3]);
+            this.id = BookCatalog.parsearId(partes[1]);
+            this.lsn = BookCatalog.parsearId(partes[2]);
+            if (id < 0 || lsn < 0 || cantidad < 0 || cantidad > Integer.MAX_VALUE) {
+                throw new IOException("Cabecera de snapshot inválida: " + cabecera);
+            }
+            this.chunks = new byte[(int) cantidad][];
+        }
+
+        public long id() { return id; }
+        public long lsn() { return lsn; }
+        public int cantidadChunks() { return chunks.length; }
+
+        // Guarda el chunk si su CRC coincide; retorna false para pedirlo de nuevo
+        public boolean agregar(int i, byte[] datos, long crcEsperado) {
+            if (i < 0 || i >= chunks.length || datos == null || crc(datos) != crcEsperado) {
+                return false;
+            }
+            if (chunks[i] == null) {
+                recibidos++;
+            }
+            chunks[i] = datos;
+            return true;
+        }
+
+        public boolean completo() {
+            return recibidos == chunks.length;
+        }
+
+        public Contenido leer() throws IOException {
+            if (!completo()) {
+                throw new IOException("Snapshot incompleto: " + recibidos + "/" + chunks.length + " chunks");
+            }
+            List<ByteArrayInputStream> partes = new ArrayList<>(chunks.length);
+            for (byte[] chunk : chunks) {
+                partes.add(new ByteArrayInputStream(chunk));
+            }
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+                    new InflaterInputStream(new SequenceInputStream(Collections.enumeration(partes))), 1 << 16))) {
+                if (in.readInt() != MAGIC) {
+                    throw new IOException("Snapshot con formato desconocido");
+                }
+                long lsnContenido = in.readLong();
+                if (lsnContenido != lsn) {
+                    throw new IOException("LSN del snapshot no coincide con la cabecera: " + lsnContenido);
+                }
+                int libros = in.readInt();
+                long[] ids = new long[libros];
+                byte[] estados = new byte[libros];
+                for (int i = 0; i < libros; i++) {
+                    ids[i] = in.readLong();
+                    estados[i] = in.readByte();
+                }
+                int cantidadPrestamos = in.readInt();
+                List<LoanTable.Prestamo> prestamos = new ArrayList<>(cantidadPrestamos);
+                for (int i = 0; i < cantidadPrestamos; i++) {
+                    long idLibro = in.readLong();
+                    LocalDate desde = LocalDate.ofEpochDay(in.readInt());
+                    LocalDate hasta = LocalDate.ofEpochDay(in.readInt());
+                    prestamos.add(new LoanTable.Prestamo(idLibro, desde, hasta, in.readByte()));
+                }
+                return new Contenido(lsnContenido, ids, estados, prestamos);
+            }
+        }
+    }
+
+    // Parte la salida comprimida en chunks de TAMANO_CHUNK bytes
+    private static final class ChunkOutputStream extends OutputStream {
+        private final List<byte[]> chunks = new ArrayList<>();
+        private byte[] actual = new byte[TAMANO_CHUNK];
+        private int posicion;
+        private long total;
+
+        @Override
+        public void write(int b) {
+            write(new byte[] {(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] datos, int inicio, int largo) {
+            while (largo > 0) {
+                int copiar = Math.min(largo, actual.length - posicion);
+                System.arraycopy(datos, inicio, actual, posicion, copiar);
+                posicion += copiar;
+                inicio += copiar;
+                largo -= copiar;
+                total += copiar;
+                if (posicion == actual.length) {
+                    chunks.add(actual);
+                    actual = new byte[TAMANO_CHUNK];
+                    posicion = 0;
+                }
+            }
+        }
+
+        @Override
+        public void close() {
+            if (posicion > 0) {
+                byte[] ultimo = new byte[posicion];
+                System.arraycopy(actual, 0, ultimo, 0, posicion);
+                chunks.add(ultimo);
+                posicion = 0;
+            }
+        }
+    }
+}
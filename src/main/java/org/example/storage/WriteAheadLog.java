@@ -0,0 +1,428 @@
+package org.example.storage;
+
+import org.example.util.Console;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+
+/**
+ * Log de escritura anticipada (WAL) de solo-append.
+ * Cada registro es [longitud int][crc32 int][payload]; una mutación = un append.
+ * En modo GRUPO un hilo de commit agrupa las mutaciones concurrentes en un único fsync.
+ * El log se divide en segmentos ("wal.log.000001", ...); un checkpoint rota a un segmento nuevo
+ * y, una vez persistido el snapshot, descarta los segmentos anteriores.
+ */
+public final class WriteAheadLog implements Closeable {
+
+    public enum Durabilidad {
+        FSYNC,  // fsync por operación
+        GRUPO,  // group commit: un fsync por lote de operaciones concurrentes
+        SO;     // solo buffer del sistema operativo, sin fsync
+
+        public static Durabilidad parse(String valor) {
+            try {
+                return valueOf(valor.trim().toUpperCase());
+            } catch (Exception e) {
+                Console.warn("WAL", "Durabilidad desconocida '" + valor + "', usando GRUPO");
+                return GRUPO;
+            }
+        }
+    }
+
+    private static final int CABECERA = 8;
+    private static final int MAX_REGISTRO = 16 * 1024 * 1024;
+
+    private final Path base;
+    private final Durabilidad durabilidad;
+    private final long ventanaGrupoMs;
+    private final CRC32 crc = new CRC32();
+
+    // Estado protegido por "this"
+    private ByteBuffer pendiente = ByteBuffer.allocate(64 * 1024);
+    private ByteBuffer enEscritura = ByteBuffer.allocate(64 * 1024);
+    private long secuencia;      // último ticket asignado
+    private long durable;        // último ticket persistido según la durabilidad
+    private IOException fallo;
+    private boolean cerrado;
+    private boolean terminado;   // el cierre ya escribió y forzó lo pendiente (o falló al hacerlo)
+    private boolean escribiendo; // el hilo de commit está escribiendo fuera del lock
+    private FileChannel canal;
+    private long segmento;       // número del segmento activo
+    private Thread hiloCommit;
+
+    private WriteAheadLog(Path base, Durabilidad durabilidad, long ventanaGrupoMs,
+                          long segmento, long posicionValida) throws IOException {
+        this.base = base;
+        this.durabilidad = durabilidad;
+        this.ventanaGrupoMs = ventanaGrupoMs;
+        this.segmento = segmento;
+        this.canal = FileChannel.open(rutaSegmento(base, segmento), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        // Descartar una cola truncada o corrupta de una caída anterior
+        canal.truncate(posicionValida);
+        canal.position(posicionValida);
+        if (durabilidad == Durabilidad.GRUPO) {
+            hiloCommit = new Thread(this::cicloCommit, "wal-commit");
+            hiloCommit.setDaemon(true);
+            hiloCommit.start();
+        }
+    }
+
+    /**
+     * Reproduce los segmentos posteriores al último checkpoint y abre el último para append.
+     */
+    public static WriteAheadLog abrir(Path base, Durabilidad durabilidad, long ventanaGrupoMs,
+                                      Consumer<ByteBuffer> consumidor) throws IOException {
+        long primero = leerCheckpoint(base);
+        List<Long> segmentos = listarSegmentos(base);
+        long ultimo = primero;
+        long posicionValida = 0;
+        for (long numero : segmentos) {
+            if (numero < primero) {
+                // Segmento ya cubierto por el checkpoint (quedó de una compactación interrumpida)
+                Files.deleteIfExists(rutaSegmento(base, numero));
+                continue;
+            }
+            ultimo = numero;
+            posicionValida = reproducir(rutaSegmento(base, numero), consumidor);
+        }
+        return new WriteAheadLog(base, durabilidad, ventanaGrupoMs, ultimo, posicionValida);
+    }
+
+    public static Path rutaSegmento(Path base, long numero) {
+        return base.resolveSibling(base.getFileName() + "." + String.format("%06d", numero));
+    }
+
+    private static Path rutaCheckpoint(Path base) {
+        return base.resolveSibling(base.getFileName() + ".checkpoint");
+    }
+
+    // Primer segmento que debe reproducirse (el snapshot cubre todos los anteriores)
+    private static long leerCheckpoint(Path base) throws IOException {
+        Path checkpoint = rutaCheckpoint(base);
+        if (!Files.exists(checkpoint)) {
+            return 1;
+        }
+        try {
+            return Long.parseLong(Files.readString(checkpoint, StandardCharsets.UTF_8).trim());
+        } catch (NumberFormatException e) {
+            throw new IOException("Checkpoint del WAL corrupto: " + checkpoint);
+        }
+    }
+
+    private static List<Long> listarSegmentos(Path base) throws IOException {
+        List<Long> segmentos = new ArrayList<>();
+        Path directorio = base.toAbsolutePath().getParent();
+        String prefijo = base.getFileName() + ".";
+        if (directorio == null || !Files.isDirectory(directorio)) {
+            return segmentos;
+        }
+        try (DirectoryStream<Path> archivos = Files.newDirectoryStream(directorio, prefijo + "*")) {
+            for (Path archivo : archivos) {
+                String sufijo = archivo.getFileName().toString().substring(prefijo.length());
+                if (sufijo.matches("\\d+")) {
+                    segmentos.add(Long.parseLong(sufijo));
+                }
+            }
+        }
+        Collections.sort(segmentos);
+        return segmentos;
+    }
+
+    // Lee registros hasta el final o hasta el primer registro incompleto/corrupto; retorna la posición válida
+    public static long reproducir(Path path, Consumer<ByteBuffer> consumidor) throws IOException {
+        if (!Files.exists(path)) {
+            return 0;
+        }
+        long posicion = 0;
+        int registros = 0;
+        CRC32 crc = new CRC32();
+        try (FileChannel canal = FileChannel.open(path, StandardOpenOption.READ)) {
+            long tamano = canal.size();
+            ByteBuffer cabecera = ByteBuffer.allocate(CABECERA);
+            while (posicion + CABECERA <= tamano) {
+                cabecera.clear();
+                leerCompleto(canal, cabecera, posicion);
+                cabecera.flip();
+                int longitud = cabecera.getInt();
+                int checksum = cabecera.getInt();
+                if (longitud <= 0 || longitud > MAX_REGISTRO || posicion + CABECERA + longitud > tamano) {
+                    break;
+                }
+                ByteBuffer payload = ByteBuffer.allocate(longitud);
+                leerCompleto(canal, payload, posicion + CABECERA);
+                crc.reset();
+                crc.update(payload.array(), 0, longitud);
+                if ((int) crc.getValue() != checksum) {
+                    Console.warn("WAL", "Checksum inválido en posición " + posicion + ", se descarta la cola del log");
+                    break;
+                }
+                payload.flip();
+                consumidor.accept(payload);
+                posicion += CABECERA + longitud;
+                registros++;
+            }
+            if (posicion < tamano) {
+                Console.warn("WAL", "Cola incompleta en " + path + " (" + (tamano - posicion) + " bytes descartados)");
+            }
+        }
+        if (registros > 0) {
+            Console.info("WAL", "Reproducidos " + registros + " registros desde " + path);
+        }
+        return posicion;
+    }
+
+    private static void leerCompleto(FileChannel canal, ByteBuffer destino, long posicion) throws IOException {
+        while (destino.hasRemaining()) {
+            int leidos = canal.read(destino, posicion);
+            if (leidos < 0) {
+                throw new IOException("Fin de archivo inesperado en el WAL");
+            }
+            posicion += leidos;
+        }
+    }
+
+    /**
+     * Agrega un registro y retorna su ticket; usar {@link #esperar(long)} para bloquear hasta que sea durable.
+     */
+    public synchronized long append(byte[] payload) throws IOException {
+        verificarAbierto();
+        escribirRegistro(payload);
+        return confirmarAppend();
+    }
+
+    // Agrega varios registros como una sola escritura (y un solo fsync)
+    public synchronized long appendAll(List<byte[]> payloads) throws IOException {
+        verificarAbierto();
+        for (byte[] payload : payloads) {
+            escribirRegistro(payload);
+        }
+        return confirmarAppend();
+    }
+
+    private void escribirRegistro(byte[] payload) {
+        if (pendiente.remaining() < CABECERA + payload.length) {
+            pendiente = crecer(pendiente, CABECERA + payload.length);
+        }
+        crc.reset();
+        crc.update(payload, 0, payload.length);
+        pendiente.putInt(payload.length);
+        pendiente.putInt((int) crc.getValue());
+        pendiente.put(payload);
+    }
+
+    private long confirmarAppend() throws IOException {
+        long ticket = ++secuencia;
+        if (durabilidad == Durabilidad.GRUPO) {
+            notifyAll();
+            return ticket;
+        }
+        // FSYNC y SO escriben en el hilo que llama
+        pendiente.flip();
+        escribirEnCanal(pendiente);
+        pendiente.clear();
+        if (durabilidad == Durabilidad.FSYNC) {
+            canal.force(false);
+        }
+        durable = ticket;
+        return ticket;
+    }
+
+    // Bloquea hasta que el ticket esté persistido según la durabilidad configurada; si el WAL se
+    // cierra sin llegar a persistirlo lanza IOException (quien espera no debe confirmar la escritura)
+    public synchronized void esperar(long ticket) throws IOException {
+        while (durable < ticket && fallo == null && !terminado) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrumpido esperando el commit del WAL");
+            }
+        }
+        if (fallo != null) {
+            throw fallo;
+        }
+        if (durable < ticket) {
+            throw new IOException("WAL cerrado sin persistir el registro " + ticket + ": " + base);
+        }
+    }
+
+    // Hilo de group commit: toma todo lo pendiente, lo escribe y hace un único fsync
+    private void cicloCommit() {
+        while (true) {
+            long lote;
+            synchronized (this) {
+                while (pendiente.position() == 0 && !cerrado) {
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                if (cerrado && pendiente.position() == 0) {
+                    return;
+                }
+                if (ventanaGrupoMs > 0) {
+                    try {
+                        // Dar una ventana corta para que se acumulen más escrituras concurrentes
+                        wait(ventanaGrupoMs);
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                if (pendiente.position() == 0) {
+                    continue; // Una rotación ya escribió lo pendiente
+                }
+                ByteBuffer swap = enEscritura;
+                enEscritura = pendiente;
+                pendiente = swap;
+                pendiente.clear();
+                lote = secuencia;
+                escribiendo = true;
+            }
+            try {
+                enEscritura.flip();
+                escribirEnCanal(enEscritura);
+                canal.force(false);
+                synchronized (this) {
+                    escribiendo = false;
+                    durable = Math.max(durable, lote);
+                    notifyAll();
+                }
+            } catch (IOException e) {
+                Console.error("WAL", "Error en group commit: " + e.getMessage());
+                synchronized (this) {
+                    escribiendo = false;
+                    fallo = e;
+                    notifyAll();
+                }
+                return;
+            }
+        }
+    }
+
+    /**
+     * Cierra el segmento activo (persistiendo todo lo pendiente) y abre uno nuevo.
+     * Retorna el número del segmento nuevo: los registros anteriores quedan en segmentos menores.
+     */
+    public synchronized long rotar() throws IOException {
+        verificarAbierto();
+        while (escribiendo) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrumpido rotando el WAL");
+            }
+        }
+        if (pendiente.position() > 0) {
+            pendiente.flip();
+            escribirEnCanal(pendiente);
+            pendiente.clear();
+        }
+        canal.force(false);
+        canal.close();
+        durable = secuencia;
+        notifyAll();
+        segmento++;
+        canal = FileChannel.open(rutaSegmento(base, segmento), StandardOpenOption.CREATE,
+            StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        return segmento;
+    }
+
+    /**
+     * Registra que el snapshot cubre todo lo anterior a {@code primerSegmento} y borra esos segmentos.
+     * El archivo .checkpoint (y su directorio) queda en disco antes del primer borrado: si no, un corte
+     * podría dejar el checkpoint viejo apuntando a segmentos que ya no existen.
+     */
+    public void descartarAnteriores(long primerSegmento) throws IOException {
+        ArchivoDurable.reemplazar(rutaCheckpoint(base), writer -> writer.write(Long.toString(primerSegmento)));
+        for (long numero : listarSegmentos(base)) {
+            if (numero < primerSegmento) {
+                Files.deleteIfExists(rutaSegmento(base, numero));
+            }
+        }
+    }
+
+    // Bytes escritos en el segmento activo (incluye lo pendiente de commit)
+    public synchronized long tamanoSegmento() throws IOException {
+        return canal.size() + pendiente.position();
+    }
+
+    private void escribirEnCanal(ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            canal.write(buffer);
+        }
+    }
+
+    private void verificarAbierto() throws IOException {
+        if (fallo != null) {
+            throw fallo;
+        }
+        if (cerrado) {
+            throw new IOException("WAL cerrado: " + base);
+        }
+    }
+
+    private static ByteBuffer crecer(ByteBuffer actual, int minimoExtra) {
+        int capacidad = Math.max(actual.capacity() * 2, actual.position() + minimoExtra);
+        ByteBuffer nuevo = ByteBuffer.allocate(capacidad);
+        actual.flip();
+        nuevo.put(actual);
+        return nuevo;
+    }
+
+    public Durabilidad durabilidad() {
+        return durabilidad;
+    }
+
+    @Override
+    public void close() throws IOException {
+        synchronized (this) {
+            if (cerrado) {
+                return;
+            }
+            cerrado = true;
+            notifyAll();
+        }
+        if (hiloCommit != null) {
+            try {
+                hiloCommit.join(2000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        try {
+            long ultimo;
+            synchronized (this) {
+                if (pendiente.position() > 0) {
+                    pendiente.flip();
+                    escribirEnCanal(pendiente);
+                    pendiente.clear();
+                }
+                ultimo = secuencia;
+            }
+            canal.force(false);
+            synchronized (this) {
+                durable = Math.max(durable, ultimo);
+            }
+        } finally {
+            canal.close();
+            synchronized (this) {
+                terminado = true;
+                notifyAll();
+            }
+        }
+    }
+}
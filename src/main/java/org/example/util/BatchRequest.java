@@ -0,0 +1,101 @@
+package org.example.util;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Operaciones por lote: "PRESTAMO_LOTE:1,2,3", "DEVOLVER_LOTE:..." y "RENOVAR_LOTE:...".
+ * Viajan enteras de extremo a extremo (GC -> actor -> GA -> GA2) y la respuesta trae un
+ * resultado por ID, en el mismo orden: "LOTE <n> exitosos=<k>: 1=SI;2=NO (ya está prestado);...".
+ */
+public final class BatchRequest {
+
+    public static final String PRESTAMO = "PRESTAMO_LOTE";
+    public static final String DEVOLVER = "DEVOLVER_LOTE";
+    public static final String RENOVAR = "RENOVAR_LOTE";
+    public static final int MAX_IDS = 10000;
+
+    private BatchRequest() {}
+
+    public static boolean esLote(String solicitud) {
+        return tipo(solicitud) != null;
+    }
+
+    // Comando del lote (PRESTAMO_LOTE, DEVOLVER_LOTE o RENOVAR_LOTE); null si no es un lote
+    public static String tipo(String solicitud) {
+        if (solicitud == null) {
+            return null;
+        }
+        for (String tipo : new String[] {PRESTAMO, DEVOLVER, RENOVAR}) {
+            if (solicitud.startsWith(tipo)) {
+                return tipo;
+            }
+        }
+        return null;
+    }
+
+    // IDs del lote en orden (acepta separadores coma, punto y coma o espacio)
+    public static List<String> ids(String solicitud) {
+        List<String> ids = new ArrayList<>();
+        String tipo = tipo(solicitud);
+        if (tipo == null) {
+            return ids;
+        }
+        for (String id : solicitud.substring(tipo.length()).split("[:,; ]+")) {
+            if (!id.isBlank()) {
+                ids.add(id.trim());
+            }
+        }
+        return ids;
+    }
+
+    public static String comando(String tipo, List<String> ids) {
+        return tipo + ":" + String.join(",", ids);
+    }
+
+    // Opcode del sobre de cada ID del lote
+    public static byte opcode(String tipo) {
+        if (PRESTAMO.equals(tipo)) {
+            return Envelope.PRESTAMO;
+        }
+        return DEVOLVER.equals(tipo) ? Envelope.DEVOLVER : Envelope.RENOVAR;
+    }
+
+    public static boolean exitosa(String tipo, String resultado) {
+        return resultado != null && Envelope.solicitud(opcode(tipo), -1, 0).respuestaDeTexto(resultado).exitosa();
+    }
+
+    public static String respuesta(String tipo, List<String> ids, List<String> resultados) {
+        StringBuilder detalle = new StringBuilder();
+        int exitosos = 0;
+        for (int i = 0; i < ids.size(); i++) {
+            if (exitosa(tipo, resultados.get(i))) {
+                exitosos++;
+            }
+            detalle.append(i == 0 ? "" : ";").append(ids.get(i)).append('=').append(resultados.get(i));
+        }
+        return "LOTE " + ids.size() + " exitosos=" + exitosos + ": " + detalle;
+    }
+
+    /**
+     * Resultados de una respuesta "LOTE ..." como pares {id, resultado}; null si la respuesta
+     * no es de lote (por ejemplo un error de todo el lote).
+     */
+    public static List<String[]> resultados(String respuesta) {
+        if (respuesta == null || !respuesta.startsWith("LOTE ")) {
+            return null;
+        }
+        int inicio = respuesta.indexOf(": ");
+        List<String[]> resultados = new ArrayList<>();
+        if (inicio < 0) {
+            return resultados;
+        }
+        for (String par : respuesta.substring(inicio + 2).split(";")) {
+            int igual = par.indexOf('=');
+            if (igual > 0) {
+                resultados.add(new String[] {par.substring(0, igual), par.substring(igual + 1)});
+            }
+        }
+        return resultados;
+    }
+}
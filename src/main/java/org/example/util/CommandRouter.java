@@ -1,38 +1,175 @@
 package org.example.util;
 
-import java.util.LinkedHashMap;
-import java.util.Map;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.function.Function;
-import java.util.function.Predicate;
 
 /**
  * Simple chain-of-responsibility/command router for string requests.
- * Handlers are evaluated en orden de registro.
+ * Handlers are evaluated en orden de registro: si varios coinciden gana el registrado primero.
+ *
+ * Las registraciones se compilan a dos tries (prefijos, sensible a mayúsculas; exactos, sin
+ * distinguir mayúsculas), así que {@code dispatch} recorre a lo sumo la longitud de la clave más
+ * larga, sin importar cuántos handlers haya, y no crea objetos. El handler recibe además el ID
+ * numérico que sigue a la clave (separado por '?', ':' o espacios), ya parseado; -1 si no hay uno.
+ * Las claves deben ser ASCII.
  */
 public final class CommandRouter {
-    private final Map<Predicate<String>, Function<String, String>> handlers = new LinkedHashMap<>();
+
+    @FunctionalInterface
+    public interface Handler {
+        String handle(String request, long id);
+    }
+
+    private static final long SIN_ID = -1;
+    private static final int MAX_DIGITOS = 18;
+
+    private final List<Handler> handlers = new ArrayList<>();
+    private final Nodo prefijos = new Nodo();
+    private final Nodo exactos = new Nodo();
     private final String defaultResponse;
 
     public CommandRouter(String defaultResponse) {
         this.defaultResponse = defaultResponse;
     }
 
+    public CommandRouter onPrefix(String prefix, Handler handler) {
+        Nodo nodo = insertar(prefijos, prefix, false);
+        if (nodo.prefijo < 0) {
+            nodo.prefijo = registrar(handler);
+        }
+        return this;
+    }
+
     public CommandRouter onPrefix(String prefix, Function<String, String> handler) {
-        handlers.put(req -> req != null && req.startsWith(prefix), handler);
+        return onPrefix(prefix, (request, id) -> handler.apply(request));
+    }
+
+    public CommandRouter onExact(String exact, Handler handler) {
+        Nodo nodo = insertar(exactos, exact, true);
+        if (nodo.exacto < 0) {
+            nodo.exacto = registrar(handler);
+        }
         return this;
     }
 
     public CommandRouter onExact(String exact, Function<String, String> handler) {
-        handlers.put(req -> req != null && req.equalsIgnoreCase(exact), handler);
-        return this;
+        return onExact(exact, (request, id) -> handler.apply(request));
     }
 
     public String dispatch(String request) {
-        for (var entry : handlers.entrySet()) {
-            if (entry.getKey().test(request)) {
-                return entry.getValue().apply(request);
+        if (request == null) {
+            return defaultResponse;
+        }
+        int elegido = Integer.MAX_VALUE;
+        int longitudClave = 0;
+
+        // Prefijos: cada nodo del camino con handler es un prefijo registrado de la solicitud
+        Nodo nodo = prefijos;
+        for (int i = 0; nodo != null; i++) {
+            if (nodo.prefijo >= 0 && nodo.prefijo < elegido) {
+                elegido = nodo.prefijo;
+                longitudClave = i;
+            }
+            nodo = i < request.length() ? nodo.hijo(request.charAt(i)) : null;
+        }
+
+        // Exactos: la solicitud completa tiene que terminar en un nodo con handler
+        nodo = exactos;
+        for (int i = 0; i < request.length() && nodo != null; i++) {
+            nodo = nodo.hijo(mayuscula(request.charAt(i)));
+        }
+        if (nodo != null && nodo.exacto >= 0 && nodo.exacto < elegido) {
+            elegido = nodo.exacto;
+            longitudClave = request.length();
+        }
+
+        if (elegido == Integer.MAX_VALUE) {
+            return defaultResponse;
+        }
+        return handlers.get(elegido).handle(request, parsearId(request, longitudClave));
+    }
+
+    private int registrar(Handler handler) {
+        handlers.add(handler);
+        return handlers.size() - 1;
+    }
+
+    private static Nodo insertar(Nodo raiz, String clave, boolean sinMayusculas) {
+        Nodo nodo = raiz;
+        for (int i = 0; i < clave.length(); i++) {
+            char c = clave.charAt(i);
+            if (c >= 0x80) {
+                throw new IllegalArgumentException("Clave no ASCII: " + clave);
+            }
+            nodo = nodo.hijoOCrear(sinMayusculas ? mayuscula(c) : c);
+        }
+        return nodo;
+    }
+
+    private static char mayuscula(char c) {
+        return c >= 'a' && c <= 'z' ? (char) (c - ('a' - 'A')) : c;
+    }
+
+    // ID que sigue a la clave: separadores "?: ", dígitos y espacios finales; -1 si no es un número
+    static long parsearId(String request, int desde) {
+        int inicio = desde;
+        while (inicio < request.length() && "?: ".indexOf(request.charAt(inicio)) >= 0) {
+            inicio++;
+        }
+        int fin = request.length();
+        while (fin > inicio && Character.isWhitespace(request.charAt(fin - 1))) {
+            fin--;
+        }
+        if (fin == inicio || fin - inicio > MAX_DIGITOS) {
+            return SIN_ID;
+        }
+        long id = 0;
+        for (int i = inicio; i < fin; i++) {
+            char c = request.charAt(i);
+            if (c < '0' || c > '9') {
+                return SIN_ID;
+            }
+            id = id * 10 + (c - '0');
+        }
+        return id;
+    }
+
+    // Nodo del trie: los hijos cubren el rango de caracteres [base, base + hijos.length)
+    private static final class Nodo {
+        private char base;
+        private Nodo[] hijos;
+        private int prefijo = -1;
+        private int exacto = -1;
+
+        Nodo hijo(char c) {
+            if (hijos == null) {
+                return null;
+            }
+            int i = c - base;
+            return i >= 0 && i < hijos.length ? hijos[i] : null;
+        }
+
+        Nodo hijoOCrear(char c) {
+            if (hijos == null) {
+                base = c;
+                hijos = new Nodo[1];
+            } else if (c < base) {
+                Nodo[] ampliado = new Nodo[hijos.length + (base - c)];
+                System.arraycopy(hijos, 0, ampliado, base - c, hijos.length);
+                hijos = ampliado;
+                base = c;
+            } else if (c - base >= hijos.length) {
+                Nodo[] ampliado = new Nodo[c - base + 1];
+                System.arraycopy(hijos, 0, ampliado, 0, hijos.length);
+                hijos = ampliado;
+            }
+            Nodo hijo = hijos[c - base];
+            if (hijo == null) {
+                hijo = new Nodo();
+                hijos[c - base] = hijo;
             }
+            return hijo;
         }
-        return defaultResponse;
     }
 }
@@ -1,26 +1,284 @@
 package org.example.util;
 
+import org.example.config.Config;
+
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.time.Instant;
 import java.time.LocalTime;
+import java.time.ZoneId;
 import java.time.format.DateTimeFormatter;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
 
+/**
+ * Logging asíncrono con prefijo {@code [HH:mm:ss][TAG]}.
+ *
+ * Quien loguea solo filtra por nivel y por límite, y deja el mensaje en un buffer circular
+ * preasignado (cola acotada multi-productor); un único hilo escritor formatea y escribe en
+ * stdout/stderr. Si el buffer está lleno el mensaje se descarta y se cuenta: el hilo de una
+ * solicitud nunca espera a la consola.
+ *
+ * Niveles por componente (tag) vía {@link Config#logLevel}. Cada componente puede emitir hasta
+ * {@link Config#logRatePerSec} mensajes por segundo; por encima se muestrea 1 de cada
+ * {@link Config#logSample} y el resto se descarta. Los mensajes idénticos consecutivos se
+ * imprimen una vez, seguidos de la cantidad de repeticiones. Los descartes se informan
+ * periódicamente con tag {@code LOG}.
+ */
 public final class Console {
+
+    public enum Nivel { DEBUG, INFO, WARN, ERROR, OFF }
+
     private static final DateTimeFormatter FMT = DateTimeFormatter.ofPattern("HH:mm:ss");
+    private static final ZoneId ZONA = ZoneId.systemDefault();
+    private static final long ESPERA_MAX_NS = TimeUnit.MILLISECONDS.toNanos(100);
+    private static final long INFORME_DESCARTES_MS = 5000;
+
+    // Buffer circular: el slot i está libre para la posición p cuando secuencias[i] == p y
+    // publicado cuando secuencias[i] == p + 1 (cola acotada de Vyukov con un solo consumidor)
+    private static final int CAPACIDAD = Integer.highestOneBit(Math.max(64, Config.logBufferSize()));
+    private static final int MASCARA = CAPACIDAD - 1;
+    private static final AtomicLongArray secuencias = new AtomicLongArray(CAPACIDAD);
+    private static final long[] tiempos = new long[CAPACIDAD];
+    private static final Nivel[] niveles = new Nivel[CAPACIDAD];
+    private static final String[] tags = new String[CAPACIDAD];
+    private static final String[] mensajes = new String[CAPACIDAD];
+    private static final Throwable[] causas = new Throwable[CAPACIDAD];
+    private static final AtomicLong cola = new AtomicLong();
+    private static long cabeza;
+    private static volatile long cabezaVisible;
+
+    private static final int LIMITE_POR_SEGUNDO = Config.logRatePerSec();
+    private static final int MUESTREO = Math.max(1, Config.logSample());
+    private static final Map<String, Componente> componentes = new ConcurrentHashMap<>();
+    private static final AtomicLong descartadosLleno = new AtomicLong();
+    private static final AtomicLong descartadosLimite = new AtomicLong();
+
+    private static final PrintStream out = System.out;
+    private static final PrintStream err = System.err;
+    private static final Thread escritor = new Thread(Console::escribir, "console-writer");
+    private static volatile boolean durmiendo;
+
+    static {
+        for (int i = 0; i < CAPACIDAD; i++) {
+            secuencias.set(i, i);
+        }
+        escritor.setDaemon(true);
+        escritor.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> vaciar(1000), "console-flush"));
+    }
 
     private Console() {}
 
+    public static void debug(String tag, String msg) {
+        log(Nivel.DEBUG, tag, msg, null);
+    }
+
     public static void info(String tag, String msg) {
-        System.out.println(prefix(tag) + msg);
+        log(Nivel.INFO, tag, msg, null);
     }
 
     public static void warn(String tag, String msg) {
-        System.out.println(prefix(tag) + "WARN: " + msg);
+        log(Nivel.WARN, tag, msg, null);
     }
 
     public static void error(String tag, String msg) {
-        System.err.println(prefix(tag) + "ERROR: " + msg);
+        log(Nivel.ERROR, tag, msg, null);
+    }
+
+    // Error con la traza de la excepción (se formatea en el hilo escritor)
+    public static void error(String tag, String msg, Throwable causa) {
+        log(Nivel.ERROR, tag, msg, causa);
+    }
+
+    // Para evitar armar mensajes caros que el nivel del componente va a descartar
+    public static boolean habilitado(Nivel nivel, String tag) {
+        return nivel.compareTo(componente(tag).nivel) >= 0;
+    }
+
+    // Mensajes descartados desde el inicio (buffer lleno + límite por componente)
+    public static long descartados() {
+        return descartadosLleno.get() + descartadosLimite.get();
     }
 
-    private static String prefix(String tag) {
-        return "[" + LocalTime.now().format(FMT) + "][" + tag + "] ";
+    // Espera hasta timeoutMs a que el escritor vacíe el buffer
+    public static void vaciar(long timeoutMs) {
+        long limite = System.currentTimeMillis() + timeoutMs;
+        while (cabezaVisible < cola.get() && System.currentTimeMillis() < limite) {
+            LockSupport.unpark(escritor);
+            LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(1));
+        }
+        out.flush();
+        err.flush();
+    }
+
+    private static void log(Nivel nivel, String tag, String msg, Throwable causa) {
+        Componente componente = componente(tag);
+        if (nivel.compareTo(componente.nivel) < 0 || !componente.admitir()) {
+            return;
+        }
+        long posicion = cola.get();
+        while (true) {
+            int slot = (int) (posicion & MASCARA);
+            long secuencia = secuencias.get(slot);
+            if (secuencia == posicion) {
+                if (cola.compareAndSet(posicion, posicion + 1)) {
+                    tiempos[slot] = System.currentTimeMillis();
+                    niveles[slot] = nivel;
+                    tags[slot] = tag;
+                    mensajes[slot] = msg;
+                    causas[slot] = causa;
+                    secuencias.set(slot, posicion + 1);
+                    if (durmiendo) {
+                        LockSupport.unpark(escritor);
+                    }
+                    return;
+                }
+                posicion = cola.get();
+            } else if (secuencia < posicion) {
+                descartadosLleno.incrementAndGet();
+                return;
+            } else {
+                posicion = cola.get();
+            }
+        }
+    }
+
+    private static Componente componente(String tag) {
+        Componente componente = componentes.get(tag);
+        return componente != null ? componente : componentes.computeIfAbsent(tag, Componente::new);
+    }
+
+    // Hilo escritor: vacía el buffer, agrupa repeticiones e informa descartes
+    private static void escribir() {
+        Salida salida = new Salida();
+        long ultimoInforme = System.currentTimeMillis();
+        long informados = 0;
+        while (true) {
+            int slot = (int) (cabeza & MASCARA);
+            if (secuencias.get(slot) == cabeza + 1) {
+                salida.escribir(tiempos[slot], niveles[slot], tags[slot], mensajes[slot], causas[slot]);
+                tags[slot] = null;
+                mensajes[slot] = null;
+                causas[slot] = null;
+                secuencias.set(slot, cabeza + CAPACIDAD);
+                cabeza++;
+                cabezaVisible = cabeza;
+                continue;
+            }
+            salida.terminarRepeticion();
+            long ahora = System.currentTimeMillis();
+            long total = descartados();
+            if (total != informados && ahora - ultimoInforme >= INFORME_DESCARTES_MS) {
+                salida.linea(ahora, Nivel.WARN, "LOG", "Descartados " + (total - informados) + " mensajes (buffer lleno "
+                    + descartadosLleno.get() + ", límite " + descartadosLimite.get() + " en total)");
+                informados = total;
+                ultimoInforme = ahora;
+            }
+            out.flush();
+            err.flush();
+            durmiendo = true;
+            if (secuencias.get((int) (cabeza & MASCARA)) != cabeza + 1) {
+                LockSupport.parkNanos(ESPERA_MAX_NS);
+            }
+            durmiendo = false;
+        }
+    }
+
+    // Estado del hilo escritor: último mensaje (para agrupar repeticiones) y hora ya formateada
+    private static final class Salida {
+        private final StringBuilder linea = new StringBuilder(256);
+        private Nivel ultimoNivel;
+        private String ultimoTag;
+        private String ultimoMensaje;
+        private long ultimoTiempo;
+        private int repeticiones;
+        private long segundo = -1;
+        private String hora;
+
+        void escribir(long tiempo, Nivel nivel, String tag, String msg, Throwable causa) {
+            if (causa == null && nivel == ultimoNivel && tag.equals(ultimoTag) && msg.equals(ultimoMensaje)) {
+                repeticiones++;
+                ultimoTiempo = tiempo;
+                return;
+            }
+            terminarRepeticion();
+            linea(tiempo, nivel, tag, msg);
+            if (causa != null) {
+                StringWriter traza = new StringWriter();
+                causa.printStackTrace(new PrintWriter(traza));
+                err.print(traza);
+            }
+            ultimoNivel = nivel;
+            ultimoTag = tag;
+            ultimoMensaje = msg;
+            ultimoTiempo = tiempo;
+        }
+
+        void terminarRepeticion() {
+            if (repeticiones > 0) {
+                linea(ultimoTiempo, ultimoNivel, ultimoTag, "(mensaje anterior repetido " + repeticiones + " veces)");
+            }
+            repeticiones = 0;
+            ultimoMensaje = null;
+        }
+
+        void linea(long tiempo, Nivel nivel, String tag, String msg) {
+            long s = tiempo / 1000;
+            if (s != segundo) {
+                segundo = s;
+                hora = LocalTime.ofInstant(Instant.ofEpochMilli(tiempo), ZONA).format(FMT);
+            }
+            linea.setLength(0);
+            linea.append('[').append(hora).append("][").append(tag).append("] ");
+            if (nivel == Nivel.WARN) {
+                linea.append("WARN: ");
+            } else if (nivel == Nivel.ERROR) {
+                linea.append("ERROR: ");
+            }
+            linea.append(msg);
+            (nivel == Nivel.ERROR ? err : out).println(linea);
+        }
+    }
+
+    // Nivel y límite por segundo de un tag
+    private static final class Componente {
+        private final Nivel nivel;
+        private final AtomicLong ventana = new AtomicLong();
+        private final AtomicInteger enVentana = new AtomicInteger();
+
+        Componente(String tag) {
+            Nivel configurado;
+            try {
+                configurado = Nivel.valueOf(Config.logLevel(tag).trim().toUpperCase());
+            } catch (IllegalArgumentException e) {
+                configurado = Nivel.INFO;
+            }
+            nivel = configurado;
+        }
+
+        // Límite por segundo; por encima pasa 1 de cada MUESTREO
+        boolean admitir() {
+            if (LIMITE_POR_SEGUNDO <= 0) {
+                return true;
+            }
+            long segundo = System.currentTimeMillis() / 1000;
+            long actual = ventana.get();
+            if (actual != segundo && ventana.compareAndSet(actual, segundo)) {
+                enVentana.set(0);
+            }
+            int n = enVentana.incrementAndGet();
+            if (n <= LIMITE_POR_SEGUNDO || (n - LIMITE_POR_SEGUNDO) % MUESTREO == 0) {
+                return true;
+            }
+            descartadosLimite.incrementAndGet();
+            return false;
+        }
     }
 }
@@ -0,0 +1,342 @@
+package org.example.util;
+
+import org.zeromq.ZMQ;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Sobre binario versionado para las operaciones individuales (préstamo, devolución, renovación)
+ * entre GC, actores, GA y GA2. El texto queda solo en el borde con el cliente (RequestProducer) y
+ * para los comandos sin forma binaria (consultas, lotes, sincronización y migración), que viajan
+ * por los mismos sockets: un sobre empieza con un byte de control, un comando de texto nunca.
+ *
+ * Formato (big endian, 20 bytes + payload):
+ *   [versión u8][opcode u8][flags u8][estado u8][idLibro i64][idSolicitud i64][payload UTF-8...]
+ *
+ * El payload es opcional: fecha de devolución de una renovación exitosa, endpoint de MOVIDO o
+ * mensaje de ERROR. {@link #texto()} reproduce las respuestas de texto de siempre, de modo que
+ * logs, lotes y el modo degradado siguen viendo las mismas cadenas.
+ */
+public final class Envelope {
+
+    public static final byte VERSION = 1;
+    public static final int CABECERA = 20;
+
+    // Opcodes
+    public static final byte PRESTAMO = 1;
+    public static final byte DEVOLVER = 2;
+    public static final byte RENOVAR = 3;
+
+    // Estados de una respuesta
+    public static final byte OK = 0;
+    public static final byte RECHAZADO = 1;
+    public static final byte NO_EXISTE = 2;
+    public static final byte SIN_PRESTAMO = 3;
+    public static final byte ERROR = 4;
+    public static final byte MOVIDO = 5;
+
+    // Flags
+    public static final int RESPUESTA = 1;
+    public static final int NUEVO_PRESTAMO = 2;  // renovación de un libro disponible: se trató como préstamo nuevo
+
+    private static final String MOVIDO_PREFIJO = "MOVIDO:";
+    private static final String RENOVACION_OK = "Renovación exitosa, nueva fecha de devolución: ";
+    private static final String RENOVACION_NUEVO = "Libro renovado como nuevo préstamo, fecha de devolución: ";
+    private static final byte[] SIN_PAYLOAD = new byte[0];
+    // Buffer de codificación por hilo: cada envío reutiliza el mismo arreglo
+    private static final ThreadLocal<byte[]> BUFFER = ThreadLocal.withInitial(() -> new byte[256]);
+
+    private final byte opcode;
+    private final byte flags;
+    private final byte estado;
+    private final long idLibro;
+    private final long idSolicitud;
+    private final byte[] payload;
+
+    private Envelope(byte opcode, int flags, byte estado, long idLibro, long idSolicitud, byte[] payload) {
+        this.opcode = opcode;
+        this.flags = (byte) flags;
+        this.estado = estado;
+        this.idLibro = idLibro;
+        this.idSolicitud = idSolicitud;
+        this.payload = payload;
+    }
+
+    public static Envelope solicitud(byte opcode, long idLibro, long idSolicitud) {
+        return new Envelope(opcode, 0, OK, idLibro, idSolicitud, SIN_PAYLOAD);
+    }
+
+    public Envelope respuesta(byte estado) {
+        return respuesta(estado, 0, null);
+    }
+
+    public Envelope respuesta(byte estado, int flags, String payload) {
+        return new Envelope(opcode, flags | RESPUESTA, estado, idLibro, idSolicitud,
+            payload == null ? SIN_PAYLOAD : payload.getBytes(StandardCharsets.UTF_8));
+    }
+
+    // Mismo sobre con otro idSolicitud (un salto intermedio usa su propia numeración)
+    public Envelope conIdSolicitud(long idSolicitud) {
+        return new Envelope(opcode, flags, estado, idLibro, idSolicitud, payload);
+    }
+
+    public Envelope error(String mensaje) {
+        return respuesta(ERROR, 0, mensaje);
+    }
+
+    // Prefijo de suscripción (SUB) a los sobres de un opcode publicados por el GC
+    public static byte[] topico(byte opcode) {
+        return new byte[] {VERSION, opcode};
+    }
+
+    public byte opcode() { return opcode; }
+    public int flags() { return flags & 0xFF; }
+    public byte estado() { return estado; }
+    public long idLibro() { return idLibro; }
+    public long idSolicitud() { return idSolicitud; }
+    public boolean esRespuesta() { return (flags & RESPUESTA) != 0; }
+    public boolean exitosa() { return estado == OK; }
+
+    public String payload() {
+        return new String(payload, StandardCharsets.UTF_8);
+    }
+
+    // Primer byte de control (< 0x20): los comandos de texto empiezan siempre con un carácter imprimible
+    public static boolean esSobre(byte[] datos) {
+        return datos != null && datos.length >= CABECERA && datos[0] > 0 && datos[0] < 0x20;
+    }
+
+    // Decodifica un sobre; IllegalArgumentException si la versión no es soportada o está truncado
+    public static Envelope leer(byte[] datos) {
+        if (!esSobre(datos)) {
+            throw new IllegalArgumentException("No es un sobre binario");
+        }
+        if (datos[0] != VERSION) {
+            throw new IllegalArgumentException("Versión de sobre no soportada: " + datos[0]);
+        }
+        byte[] payload = SIN_PAYLOAD;
+        if (datos.length > CABECERA) {
+            payload = new byte[datos.length - CABECERA];
+            System.arraycopy(datos, CABECERA, payload, 0, payload.length);
+        }
+        return new Envelope(datos[1], datos[2], datos[3], leerLong(datos, 4), leerLong(datos, 12), payload);
+    }
+
+    // Codifica en {@code destino} (debe tener al menos longitud() bytes); retorna los bytes escritos
+    public int escribir(byte[] destino) {
+        destino[0] = VERSION;
+        destino[1] = opcode;
+        destino[2] = flags;
+        destino[3] = estado;
+        escribirLong(destino, 4, idLibro);
+        escribirLong(destino, 12, idSolicitud);
+        System.arraycopy(payload, 0, destino, CABECERA, payload.length);
+        return longitud();
+    }
+
+    public int longitud() {
+        return CABECERA + payload.length;
+    }
+
+    public byte[] aBytes() {
+        byte[] datos = new byte[longitud()];
+        escribir(datos);
+        return datos;
+    }
+
+    // Envía el sobre como un frame usando el buffer reutilizable del hilo
+    public boolean enviar(ZMQ.Socket socket) {
+        return enviar(socket, 0);
+    }
+
+    // Con ZMQ.SNDMORE el mensaje sigue (frame de traza, ver Trace.Span#propagar)
+    public boolean enviar(ZMQ.Socket socket, int flags) {
+        byte[] buffer = BUFFER.get();
+        if (buffer.length < longitud()) {
+            buffer = new byte[longitud()];
+            BUFFER.set(buffer);
+        }
+        return socket.send(buffer, 0, escribir(buffer), flags);
+    }
+
+    /**
+     * Recibe la respuesta a {@code solicitud}; null si hubo timeout. Una respuesta de texto
+     * (nodo sin sobres o error genérico) se clasifica con {@link #respuestaDeTexto(String)}.
+     */
+    public Envelope recibirRespuesta(ZMQ.Socket socket) {
+        byte[] datos = socket.recv();
+        return datos == null ? null : leerRespuesta(datos);
+    }
+
+    // Respuesta a esta solicitud ya recibida (DEALER/ROUTER, donde el frame llega dentro de un ZMsg)
+    public Envelope leerRespuesta(byte[] datos) {
+        if (esSobre(datos)) {
+            try {
+                return leer(datos);
+            } catch (IllegalArgumentException e) {
+                return error("Error: " + e.getMessage());
+            }
+        }
+        return respuestaDeTexto(new String(datos, StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Operación individual de un comando de texto: "Disponibilidad?5", "PRESTAMO:5", "DEVOLVER 5",
+     * "DEVOLVER DEVOLVER:5", "RENOVAR:5"... null si no es una de ellas (consultas, lotes, etc.).
+     * Con un ID no válido el sobre lleva idLibro = -1 y el almacenamiento responde el error.
+     */
+    public static Envelope desdeTexto(String solicitud, long idSolicitud) {
+        if (solicitud == null || BatchRequest.esLote(solicitud)) {
+            return null;
+        }
+        byte opcode;
+        String resto;
+        if (solicitud.startsWith("Disponibilidad?")) {
+            opcode = PRESTAMO;
+            resto = solicitud.substring("Disponibilidad?".length());
+        } else if (solicitud.startsWith("PRESTAMO") && !solicitud.startsWith("PRESTAMO?")) {
+            opcode = PRESTAMO;
+            resto = solicitud.substring("PRESTAMO".length());
+        } else if (solicitud.startsWith("DEVOLVER")) {
+            opcode = DEVOLVER;
+            resto = solicitud.substring("DEVOLVER".length());
+        } else if (solicitud.startsWith("RENOVAR")) {
+            opcode = RENOVAR;
+            resto = solicitud.substring("RENOVAR".length());
+        } else {
+            return null;
+        }
+        // El ID es el último token ("DEVOLVER DEVOLVER:5" -> 5)
+        String[] tokens = resto.trim().split("[ :]+");
+        return solicitud(opcode, parsearId(tokens[tokens.length - 1]), idSolicitud);
+    }
+
+    // Comando de texto equivalente (pendientes de la réplica y registros legibles)
+    public String comandoTexto() {
+        if (opcode == PRESTAMO) {
+            return "Disponibilidad?" + idLibro;
+        }
+        return (opcode == DEVOLVER ? "DEVOLVER " : "RENOVAR ") + idLibro;
+    }
+
+    // Tipo del cambio en el log de replicación
+    public String tipoCambio() {
+        if (opcode == PRESTAMO) {
+            return "PRESTAMO";
+        }
+        return opcode == DEVOLVER ? "DEVOLUCION" : "RENOVACION";
+    }
+
+    /**
+     * Respuesta de texto de GA/GA2 a esta solicitud, clasificada en estado + payload.
+     * Es el único lugar donde se interpretan las cadenas de respuesta.
+     */
+    public Envelope respuestaDeTexto(String texto) {
+        if (texto == null) {
+            return error("Error: Sin respuesta");
+        }
+        if (texto.startsWith(MOVIDO_PREFIJO)) {
+            return respuesta(MOVIDO, 0, texto.substring(MOVIDO_PREFIJO.length()));
+        }
+        if (opcode == PRESTAMO) {
+            if (texto.equals("SI")) {
+                return respuesta(OK);
+            } else if (texto.equals("NO (libro no existe)")) {
+                return respuesta(NO_EXISTE);
+            } else if (texto.equals("NO (ya está prestado)")) {
+                return respuesta(RECHAZADO);
+            }
+        } else if (opcode == DEVOLVER) {
+            if (texto.equals("Devolución registrada exitosamente")) {
+                return respuesta(OK);
+            } else if (texto.equals("Libro no está prestado")) {
+                return respuesta(RECHAZADO);
+            } else if (texto.equals("Error: Libro no encontrado")) {
+                return respuesta(NO_EXISTE);
+            }
+        } else if (opcode == RENOVAR) {
+            if (texto.startsWith(RENOVACION_OK)) {
+                return respuesta(OK, 0, texto.substring(RENOVACION_OK.length()));
+            } else if (texto.startsWith(RENOVACION_NUEVO)) {
+                return respuesta(OK, NUEVO_PRESTAMO, texto.substring(RENOVACION_NUEVO.length()));
+            } else if (texto.equals("No se pueden hacer más renovaciones (máximo 2)")) {
+                return respuesta(RECHAZADO);
+            } else if (texto.equals("Error: Libro no encontrado")) {
+                return respuesta(NO_EXISTE);
+            } else if (texto.equals("Error: No se encontró registro de préstamo")) {
+                return respuesta(SIN_PRESTAMO);
+            }
+        }
+        return error(texto);
+    }
+
+    // Respuesta en el texto que GA/GA2 devolvían antes de los sobres
+    public String texto() {
+        if (estado == ERROR) {
+            return payload();
+        } else if (estado == MOVIDO) {
+            return MOVIDO_PREFIJO + payload();
+        }
+        if (opcode == PRESTAMO) {
+            if (estado == OK) {
+                return "SI";
+            }
+            return estado == NO_EXISTE ? "NO (libro no existe)" : "NO (ya está prestado)";
+        } else if (opcode == DEVOLVER) {
+            if (estado == OK) {
+                return "Devolución registrada exitosamente";
+            }
+            return estado == NO_EXISTE ? "Error: Libro no encontrado" : "Libro no está prestado";
+        }
+        if (estado == OK) {
+            return ((flags & NUEVO_PRESTAMO) != 0 ? RENOVACION_NUEVO : RENOVACION_OK) + payload();
+        } else if (estado == NO_EXISTE) {
+            return "Error: Libro no encontrado";
+        } else if (estado == SIN_PRESTAMO) {
+            return "Error: No se encontró registro de préstamo";
+        }
+        return "No se pueden hacer más renovaciones (máximo 2)";
+    }
+
+    // Nombre del opcode (métricas y registros)
+    public String operacion() {
+        return operacion(opcode);
+    }
+
+    public static String operacion(byte opcode) {
+        return opcode == PRESTAMO ? "PRESTAMO" : opcode == DEVOLVER ? "DEVOLVER" : opcode == RENOVAR ? "RENOVAR" : "OP" + opcode;
+    }
+
+    @Override
+    public String toString() {
+        return operacion() + " id=" + idLibro + " #" + idSolicitud + (esRespuesta() ? " -> " + texto() : "");
+    }
+
+    private static long parsearId(String texto) {
+        if (texto.isEmpty() || texto.length() > 18) {
+            return -1;
+        }
+        for (int i = 0; i < texto.length(); i++) {
+            char c = texto.charAt(i);
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+        }
+        return Long.parseLong(texto);
+    }
+
+    private static void escribirLong(byte[] destino, int desde, long valor) {
+        for (int i = 7; i >= 0; i--) {
+            destino[desde + i] = (byte) valor;
+            valor >>>= 8;
+        }
+    }
+
+    private static long leerLong(byte[] datos, int desde) {
+        long valor = 0;
+        for (int i = 0; i < 8; i++) {
+            valor = (valor << 8) | (datos[desde + i] & 0xFF);
+        }
+        return valor;
+    }
+}
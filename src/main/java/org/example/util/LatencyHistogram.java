@@ -0,0 +1,94 @@
+package org.example.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Histograma de latencias en nanosegundos, estilo HDR: cubetas log-lineales (32 por potencia de
+ * dos, error relativo menor a ~3%) sobre un {@link AtomicLongArray}, así que registrar es un
+ * incremento atómico sin locks ni objetos nuevos. Los percentiles se calculan al leerlo y son
+ * acumulados desde el inicio del proceso.
+ */
+public final class LatencyHistogram {
+
+    private static final int BITS_SUB = 5;
+    private static final int SUB = 1 << BITS_SUB;
+    private static final int CUBETAS = (64 - BITS_SUB) * SUB;
+
+    private final AtomicLongArray cubetas = new AtomicLongArray(CUBETAS);
+    private final LongAdder cantidad = new LongAdder();
+    private final LongAdder suma = new LongAdder();
+    private final AtomicLong maximo = new AtomicLong();
+
+    public void registrar(long nanos) {
+        long valor = Math.max(0, nanos);
+        cubetas.incrementAndGet(indice(valor));
+        cantidad.increment();
+        suma.add(valor);
+        long actual = maximo.get();
+        while (valor > actual && !maximo.compareAndSet(actual, valor)) {
+            actual = maximo.get();
+        }
+    }
+
+    // Registra el tiempo transcurrido desde inicioNs (System.nanoTime())
+    public void registrarDesde(long inicioNs) {
+        registrar(System.nanoTime() - inicioNs);
+    }
+
+    public long cantidad() {
+        return cantidad.sum();
+    }
+
+    public long sumaNanos() {
+        return suma.sum();
+    }
+
+    public long maximoNanos() {
+        return maximo.get();
+    }
+
+    // Valor (ns) por debajo del cual queda la fracción q de las muestras; 0 si no hay muestras
+    public long percentil(double q) {
+        long total = 0;
+        long[] copia = new long[CUBETAS];
+        for (int i = 0; i < CUBETAS; i++) {
+            copia[i] = cubetas.get(i);
+            total += copia[i];
+        }
+        if (total == 0) {
+            return 0;
+        }
+        long objetivo = Math.max(1, (long) Math.ceil(q * total));
+        long acumulado = 0;
+        for (int i = 0; i < CUBETAS; i++) {
+            acumulado += copia[i];
+            if (acumulado >= objetivo) {
+                return Math.min(limiteSuperior(i), maximo.get());
+            }
+        }
+        return maximo.get();
+    }
+
+    // Cubeta de un valor: exacta por debajo de SUB, luego SUB cubetas por potencia de dos
+    static int indice(long valor) {
+        if (valor < SUB) {
+            return (int) valor;
+        }
+        int exponente = 63 - Long.numberOfLeadingZeros(valor);
+        int sub = (int) (valor >>> (exponente - BITS_SUB)) & (SUB - 1);
+        return (exponente - BITS_SUB + 1) * SUB + sub;
+    }
+
+    // Mayor valor que cae en la cubeta
+    static long limiteSuperior(int indice) {
+        if (indice < SUB) {
+            return indice;
+        }
+        int exponente = indice / SUB + BITS_SUB - 1;
+        long sub = indice % SUB;
+        long base = (SUB + sub) << (exponente - BITS_SUB);
+        return base + (1L << (exponente - BITS_SUB)) - 1;
+    }
+}
@@ -0,0 +1,197 @@
+package org.example.util;
+
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Métricas del proceso: histogramas de latencia por salto y operación ({@code GC} / {@code PRESTAMO},
+ * {@code ACTOR-LOAN->GA2} / {@code PRESTAMO}, ...) y contadores de eventos por salto (timeouts,
+ * fallbacks a GA2, escrituras en modo degradado). Se consultan con el comando {@code STATS} por
+ * los sockets de cada componente o en formato Prometheus por HTTP ({@code GET /metrics}).
+ *
+ * Cada salto admite hasta {@link #MAX_OPERACIONES} operaciones distintas; el resto se agrupa en
+ * {@code OTRO} para que una solicitud arbitraria no cree series sin límite.
+ */
+public final class Metrics {
+
+    public static final String STATS = "STATS";
+    public static final int MAX_OPERACIONES = 64;
+    private static final String OTRO = "OTRO";
+
+    private static final Map<String, Map<String, LatencyHistogram>> latencias = new ConcurrentHashMap<>();
+    private static final Map<String, Map<String, LongAdder>> contadores = new ConcurrentHashMap<>();
+    private static volatile String componente = "";
+    private static HttpServer servidor;
+
+    private Metrics() {}
+
+    public static LatencyHistogram latencia(String hop, String operacion) {
+        Map<String, LatencyHistogram> porOperacion = latencias.computeIfAbsent(hop, h -> new ConcurrentHashMap<>());
+        LatencyHistogram histograma = porOperacion.get(operacion);
+        if (histograma != null) {
+            return histograma;
+        }
+        String clave = porOperacion.size() < MAX_OPERACIONES ? operacion : OTRO;
+        return porOperacion.computeIfAbsent(clave, o -> new LatencyHistogram());
+    }
+
+    // Registra en el histograma (hop, operación) el tiempo transcurrido desde inicioNs
+    public static void registrar(String hop, String operacion, long inicioNs) {
+        latencia(hop, operacion).registrarDesde(inicioNs);
+    }
+
+    public static void contar(String hop, String evento) {
+        contadores.computeIfAbsent(hop, h -> new ConcurrentHashMap<>())
+            .computeIfAbsent(evento, e -> new LongAdder())
+            .increment();
+    }
+
+    public static long contador(String hop, String evento) {
+        Map<String, LongAdder> porEvento = contadores.get(hop);
+        LongAdder contador = porEvento == null ? null : porEvento.get(evento);
+        return contador == null ? 0 : contador.sum();
+    }
+
+    /**
+     * Nombre de la operación de una solicitud de texto: letras y '_' iniciales, más el '?' si lo
+     * sigue ("PRESTAMO 5" -> PRESTAMO, "ESTADO?5" -> ESTADO?, "DEVOLVER_LOTE:1,2" -> DEVOLVER_LOTE).
+     */
+    public static String operacion(String solicitud) {
+        if (solicitud == null) {
+            return OTRO;
+        }
+        int fin = 0;
+        while (fin < solicitud.length() && fin < 32
+            && (Character.isLetter(solicitud.charAt(fin)) || solicitud.charAt(fin) == '_')) {
+            fin++;
+        }
+        if (fin < solicitud.length() && solicitud.charAt(fin) == '?') {
+            fin++;
+        }
+        return fin == 0 ? OTRO : solicitud.substring(0, fin);
+    }
+
+    /**
+     * Respuesta del comando STATS: una línea por histograma con cantidad y p50/p99/p999/máximo en
+     * ms y una por contador.
+     */
+    public static String stats() {
+        StringBuilder texto = new StringBuilder("STATS ").append(componente);
+        for (Map.Entry<String, Map<String, LatencyHistogram>> hop : ordenado(latencias).entrySet()) {
+            for (Map.Entry<String, LatencyHistogram> op : ordenado(hop.getValue()).entrySet()) {
+                LatencyHistogram h = op.getValue();
+                texto.append('\n').append(hop.getKey()).append(' ').append(op.getKey())
+                    .append(" n=").append(h.cantidad())
+                    .append(" p50=").append(ms(h.percentil(0.5)))
+                    .append(" p99=").append(ms(h.percentil(0.99)))
+                    .append(" p999=").append(ms(h.percentil(0.999)))
+                    .append(" max=").append(ms(h.maximoNanos())).append("ms");
+            }
+        }
+        for (Map.Entry<String, Map<String, LongAdder>> hop : ordenado(contadores).entrySet()) {
+            for (Map.Entry<String, LongAdder> evento : ordenado(hop.getValue()).entrySet()) {
+                texto.append('\n').append(hop.getKey()).append(' ').append(evento.getKey())
+                    .append('=').append(evento.getValue().sum());
+            }
+        }
+        return texto.toString();
+    }
+
+    // Formato de exposición de texto de Prometheus (summary por histograma, counter por evento)
+    public static String prometheus() {
+        StringBuilder texto = new StringBuilder();
+        texto.append("# HELP biblioteca_latencia_segundos Latencia por salto y operación\n");
+        texto.append("# TYPE biblioteca_latencia_segundos summary\n");
+        for (Map.Entry<String, Map<String, LatencyHistogram>> hop : ordenado(latencias).entrySet()) {
+            for (Map.Entry<String, LatencyHistogram> op : ordenado(hop.getValue()).entrySet()) {
+                LatencyHistogram h = op.getValue();
+                String etiquetas = "componente=\"" + escapar(componente) + "\",hop=\"" + escapar(hop.getKey())
+                    + "\",op=\"" + escapar(op.getKey()) + "\"";
+                for (double q : new double[] {0.5, 0.9, 0.99, 0.999}) {
+                    texto.append("biblioteca_latencia_segundos{").append(etiquetas).append(",quantile=\"").append(q)
+                        .append("\"} ").append(segundos(h.percentil(q))).append('\n');
+                }
+                texto.append("biblioteca_latencia_segundos_sum{").append(etiquetas).append("} ")
+                    .append(segundos(h.sumaNanos())).append('\n');
+                texto.append("biblioteca_latencia_segundos_count{").append(etiquetas).append("} ")
+                    .append(h.cantidad()).append('\n');
+            }
+        }
+        texto.append("# HELP biblioteca_eventos_total Timeouts, fallbacks y escrituras degradadas por salto\n");
+        texto.append("# TYPE biblioteca_eventos_total counter\n");
+        for (Map.Entry<String, Map<String, LongAdder>> hop : ordenado(contadores).entrySet()) {
+            for (Map.Entry<String, LongAdder> evento : ordenado(hop.getValue()).entrySet()) {
+                texto.append("biblioteca_eventos_total{componente=\"").append(escapar(componente))
+                    .append("\",hop=\"").append(escapar(hop.getKey()))
+                    .append("\",evento=\"").append(escapar(evento.getKey())).append("\"} ")
+                    .append(evento.getValue().sum()).append('\n');
+            }
+        }
+        texto.append("# HELP biblioteca_log_descartados_total Mensajes de log descartados\n");
+        texto.append("# TYPE biblioteca_log_descartados_total counter\n");
+        texto.append("biblioteca_log_descartados_total{componente=\"").append(escapar(componente)).append("\"} ")
+            .append(Console.descartados()).append('\n');
+        return texto.toString();
+    }
+
+    /**
+     * Nombra el proceso en las métricas y, si {@code puerto} > 0, expone {@code GET /metrics} con
+     * el {@link HttpServer} del JDK (un hilo propio, fuera del camino de las solicitudes).
+     * Si el puerto está ocupado solo se avisa: las métricas siguen disponibles por STATS.
+     */
+    public static synchronized void iniciar(String nombre, int puerto) {
+        componente = nombre;
+        if (puerto <= 0) {
+            return;
+        }
+        try {
+            servidor = HttpServer.create(new InetSocketAddress(puerto), 0);
+            servidor.createContext("/metrics", intercambio -> {
+                byte[] cuerpo = prometheus().getBytes(StandardCharsets.UTF_8);
+                intercambio.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+                intercambio.sendResponseHeaders(200, cuerpo.length);
+                try (OutputStream salida = intercambio.getResponseBody()) {
+                    salida.write(cuerpo);
+                }
+            });
+            servidor.setExecutor(null);
+            servidor.start();
+            Console.info(nombre, "Métricas en http://*:" + puerto + "/metrics");
+        } catch (IOException e) {
+            Console.warn(nombre, "No se pudo abrir el puerto de métricas " + puerto + ": " + e.getMessage());
+        }
+    }
+
+    // Cierra el endpoint HTTP (su hilo no es daemon)
+    public static synchronized void detener() {
+        if (servidor != null) {
+            servidor.stop(0);
+            servidor = null;
+        }
+    }
+
+    private static <V> Map<String, V> ordenado(Map<String, V> mapa) {
+        return new TreeMap<>(mapa);
+    }
+
+    private static String ms(long nanos) {
+        return String.format(Locale.ROOT, "%.3f", nanos / 1e6);
+    }
+
+    private static String segundos(long nanos) {
+        return String.format(Locale.ROOT, "%.9f", nanos / 1e9);
+    }
+
+    private static String escapar(String valor) {
+        return valor.replace("\\", "\\\\").replace("\"", "\\\"");
+    }
+}
@@ -0,0 +1,76 @@
+package org.example.util;
+
+import org.example.config.ShardMap;
+import org.zeromq.ZMQ;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Sockets REQ hacia la réplica (GA) y el primario (GA2) de cada shard.
+ * Son REQ relajados: tras un timeout se puede volver a enviar sin recrear el socket,
+ * y la respuesta tardía de la solicitud anterior se descarta.
+ */
+public final class ShardSockets {
+
+    private final ShardMap mapa;
+    private final Map<String, ZMQ.Socket> ga = new HashMap<>();
+    private final Map<String, ZMQ.Socket> ga2 = new HashMap<>();
+    // Endpoint GA2 actual de cada shard si cambió por una migración
+    private final Map<String, String> ga2Conectado = new HashMap<>();
+
+    public ShardSockets(ZMQ.Context context, ShardMap mapa, int timeoutGaMs, int timeoutGa2Ms) {
+        this.mapa = mapa;
+        for (ShardMap.Shard shard : mapa.shards()) {
+            ga.put(shard.nombre(), conectar(context, shard.gaEndpoint(), timeoutGaMs));
+            ga2.put(shard.nombre(), conectar(context, shard.ga2Endpoint(), timeoutGa2Ms));
+        }
+    }
+
+    private static ZMQ.Socket conectar(ZMQ.Context context, String endpoint, int timeoutMs) {
+        ZMQ.Socket socket = context.socket(ZMQ.REQ);
+        socket.setReqRelaxed(true);
+        socket.setReqCorrelate(true);
+        socket.setReceiveTimeOut(timeoutMs);
+        socket.setLinger(0);
+        socket.connect(endpoint);
+        return socket;
+    }
+
+    public ShardMap mapa() {
+        return mapa;
+    }
+
+    public ShardMap.Shard shardDe(String idLibro) {
+        return mapa.shardDe(idLibro);
+    }
+
+    public ShardMap.Shard shardDe(long idLibro) {
+        return mapa.shardDe(idLibro);
+    }
+
+    public ZMQ.Socket ga(ShardMap.Shard shard) {
+        return ga.get(shard.nombre());
+    }
+
+    public ZMQ.Socket ga2(ShardMap.Shard shard) {
+        return ga2.get(shard.nombre());
+    }
+
+    // El primario del shard fue migrado: el socket GA2 se reconecta al nuevo endpoint
+    public void moverGa2(ShardMap.Shard shard, String endpoint) {
+        String anterior = ga2Conectado.getOrDefault(shard.nombre(), shard.ga2Endpoint());
+        if (anterior.equals(endpoint)) {
+            return;
+        }
+        ZMQ.Socket socket = ga2.get(shard.nombre());
+        socket.disconnect(anterior);
+        socket.connect(endpoint);
+        ga2Conectado.put(shard.nombre(), endpoint);
+    }
+
+    public void cerrar() {
+        ga.values().forEach(ZMQ.Socket::close);
+        ga2.values().forEach(ZMQ.Socket::close);
+    }
+}
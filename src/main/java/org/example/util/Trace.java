@@ -0,0 +1,359 @@
+package org.example.util;
+
+import org.example.config.Config;
+import org.zeromq.ZMQ;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Trazas distribuidas: cada solicitud recibe un traceId en el GC que viaja por todos los saltos
+ * (actores, GA, GA2) como último frame del mensaje, y cada componente registra sus spans con los
+ * mismos nombres de salto que {@link Metrics}.
+ *
+ * Frame de traza (26 bytes, big endian): [0x1E][flags u8][traceId 128 bits][spanId padre i64];
+ * flag 1 = muestreada. Va al final para no cambiar el tópico de los sobres publicados por el GC,
+ * y se distingue de un sobre o de un comando de texto por el primer byte.
+ *
+ * El muestreo se decide en la raíz ({@link Config#traceSample}) y se propaga; además se escribe
+ * cualquier span que dure al menos {@link Config#traceSlowMs} aunque la traza no esté muestreada.
+ * Los spans se escriben en formato Zipkin v2 (un objeto JSON por línea) en {@link Config#traceFile}
+ * desde un hilo propio; con la cola llena se descartan y se cuentan.
+ */
+public final class Trace {
+
+    public static final int LONGITUD_FRAME = 26;
+    private static final byte MARCA = 0x1E;
+    private static final int MUESTREADA = 1;
+    private static final int CAPACIDAD_COLA = 4096;
+
+    private static final double MUESTREO = Config.traceSample();
+    private static final long LENTO_NS = TimeUnit.MILLISECONDS.toNanos(Config.traceSlowMs());
+    // Reloj de pared en microsegundos derivado de nanoTime (un solo currentTimeMillis por proceso)
+    private static final long ORIGEN_MICROS = System.currentTimeMillis() * 1000 - System.nanoTime() / 1000;
+    // Span SERVER/CONSUMER en curso en el hilo: padre de los spans que se abren durante la solicitud
+    private static final ThreadLocal<Span> ACTUAL = new ThreadLocal<>();
+
+    private static volatile String servicio = "";
+    private static Escritor escritor;
+
+    private Trace() {}
+
+    // Nombre del proceso en los spans (localEndpoint.serviceName)
+    public static void iniciar(String nombre) {
+        servicio = nombre;
+    }
+
+    /**
+     * Span SERVER de una solicitud recién recibida por {@code socket}: lee el frame de traza final
+     * (y descarta cualquier otro frame sobrante). Sin frame, la solicitud empieza una traza nueva.
+     */
+    public static Span recibir(ZMQ.Socket socket, String hop, String operacion) {
+        return abrir(leerFrames(socket), Span.SERVER, hop, operacion);
+    }
+
+    // Span CONSUMER de un mensaje recibido por SUB
+    public static Span consumir(ZMQ.Socket socket, String hop, String operacion) {
+        return abrir(leerFrames(socket), Span.CONSUMER, hop, operacion);
+    }
+
+    // Span SERVER con el frame ya separado del mensaje (GA2 recibe por ROUTER/ZMsg); null = sin frame
+    public static Span recibir(byte[] frame, String hop, String operacion) {
+        return abrir(esFrame(frame) ? frame : null, Span.SERVER, hop, operacion);
+    }
+
+    // Llamada saliente (REQ/DEALER) hija del span en curso
+    public static Span cliente(String hop, String operacion) {
+        return hijo(Span.CLIENT, hop, operacion);
+    }
+
+    // Mensaje publicado (PUB) hijo del span en curso
+    public static Span publicar(String hop, String operacion) {
+        return hijo(Span.PRODUCER, hop, operacion);
+    }
+
+    // Etapa interna del proceso (partición, WAL) hija del span en curso
+    public static Span local(String hop, String operacion) {
+        return hijo(null, hop, operacion);
+    }
+
+    // Anotación en el span SERVER/CONSUMER en curso del hilo (si hay uno)
+    public static void evento(String valor) {
+        Span actual = ACTUAL.get();
+        if (actual != null) {
+            actual.evento(valor);
+        }
+    }
+
+    public static boolean esFrame(byte[] datos) {
+        return datos != null && datos.length == LONGITUD_FRAME && datos[0] == MARCA;
+    }
+
+    private static byte[] leerFrames(ZMQ.Socket socket) {
+        byte[] frame = null;
+        while (socket.hasReceiveMore()) {
+            byte[] datos = socket.recv();
+            if (frame == null && esFrame(datos)) {
+                frame = datos;
+            }
+        }
+        return frame;
+    }
+
+    private static Span abrir(byte[] frame, String tipo, String hop, String operacion) {
+        Span span;
+        if (frame == null) {
+            boolean muestreada = MUESTREO > 0 && ThreadLocalRandom.current().nextDouble() < MUESTREO;
+            span = new Span(nuevoId(), nuevoId(), 0, muestreada, tipo, hop, operacion);
+        } else {
+            span = new Span(leerLong(frame, 2), leerLong(frame, 10), leerLong(frame, 18),
+                (frame[1] & MUESTREADA) != 0, tipo, hop, operacion);
+        }
+        span.actual = true;
+        ACTUAL.set(span);
+        return span;
+    }
+
+    // Sin span en curso (hilos de sincronización) el hijo empieza una traza propia sin muestrear
+    private static Span hijo(String tipo, String hop, String operacion) {
+        Span padre = ACTUAL.get();
+        if (padre == null) {
+            return new Span(nuevoId(), nuevoId(), 0, false, tipo, hop, operacion);
+        }
+        return new Span(padre.traceAlto, padre.traceBajo, padre.id, padre.muestreada, tipo, hop, operacion);
+    }
+
+    private static long nuevoId() {
+        long id;
+        do {
+            id = ThreadLocalRandom.current().nextLong();
+        } while (id == 0);
+        return id;
+    }
+
+    /**
+     * Un salto medido. {@link #propagar} envía el frame de traza como último frame de un mensaje
+     * cuyo cuerpo se envió con {@code SNDMORE}; {@link #terminar} lo cierra y lo encola para el
+     * archivo si corresponde.
+     */
+    public static final class Span {
+        static final String SERVER = "SERVER";
+        static final String CLIENT = "CLIENT";
+        static final String PRODUCER = "PRODUCER";
+        static final String CONSUMER = "CONSUMER";
+
+        private final long traceAlto;
+        private final long traceBajo;
+        private final long id;
+        private final long padre;
+        private final boolean muestreada;
+        private final String tipo;
+        private final String hop;
+        private final String operacion;
+        private final long inicioNs = System.nanoTime();
+        private long duracionNs = -1;
+        private boolean actual;
+        private List<Object[]> eventos;
+        private String error;
+
+        private Span(long traceAlto, long traceBajo, long padre, boolean muestreada,
+                     String tipo, String hop, String operacion) {
+            this.traceAlto = traceAlto;
+            this.traceBajo = traceBajo;
+            this.id = nuevoId();
+            this.padre = padre;
+            this.muestreada = muestreada;
+            this.tipo = tipo;
+            this.hop = hop;
+            this.operacion = operacion;
+        }
+
+        // Envía el frame de traza (este span es el padre del salto siguiente)
+        public boolean propagar(ZMQ.Socket socket) {
+            byte[] frame = new byte[LONGITUD_FRAME];
+            frame[0] = MARCA;
+            frame[1] = (byte) (muestreada ? MUESTREADA : 0);
+            escribirLong(frame, 2, traceAlto);
+            escribirLong(frame, 10, traceBajo);
+            escribirLong(frame, 18, id);
+            return socket.send(frame, 0);
+        }
+
+        // Anotación con marca de tiempo (timeout, fallback_ga2, movido...)
+        public void evento(String valor) {
+            if (eventos == null) {
+                eventos = new ArrayList<>(2);
+            }
+            eventos.add(new Object[] {micros(System.nanoTime()), valor});
+        }
+
+        public void error(String mensaje) {
+            error = mensaje;
+        }
+
+        public void terminar() {
+            if (duracionNs >= 0) {
+                return;
+            }
+            duracionNs = System.nanoTime() - inicioNs;
+            if (actual && ACTUAL.get() == this) {
+                ACTUAL.remove();
+            }
+            if (muestreada || (LENTO_NS > 0 && duracionNs >= LENTO_NS)) {
+                escribir(this);
+            }
+        }
+
+        public String traceId() {
+            return hex(traceAlto) + hex(traceBajo);
+        }
+
+        // Span en formato Zipkin v2 (JSON de una línea)
+        String json() {
+            StringBuilder json = new StringBuilder(256);
+            json.append("{\"traceId\":\"").append(traceId())
+                .append("\",\"id\":\"").append(hex(id)).append('"');
+            if (padre != 0) {
+                json.append(",\"parentId\":\"").append(hex(padre)).append('"');
+            }
+            if (tipo != null) {
+                json.append(",\"kind\":\"").append(tipo).append('"');
+            }
+            json.append(",\"name\":\"").append(escapar((hop + " " + operacion).toLowerCase())).append('"')
+                .append(",\"timestamp\":").append(micros(inicioNs))
+                .append(",\"duration\":").append(Math.max(1, duracionNs / 1000))
+                .append(",\"localEndpoint\":{\"serviceName\":\"").append(escapar(servicio.toLowerCase())).append("\"}");
+            if (eventos != null) {
+                json.append(",\"annotations\":[");
+                for (int i = 0; i < eventos.size(); i++) {
+                    json.append(i == 0 ? "" : ",").append("{\"timestamp\":").append(eventos.get(i)[0])
+                        .append(",\"value\":\"").append(escapar((String) eventos.get(i)[1])).append("\"}");
+                }
+                json.append(']');
+            }
+            json.append(",\"tags\":{\"hop\":\"").append(escapar(hop))
+                .append("\",\"op\":\"").append(escapar(operacion)).append('"');
+            if (error != null) {
+                json.append(",\"error\":\"").append(escapar(error)).append('"');
+            }
+            return json.append("}}").toString();
+        }
+    }
+
+    private static synchronized void escribir(Span span) {
+        if (escritor == null) {
+            escritor = new Escritor(Paths.get(Config.traceFile(servicio.isEmpty() ? "proceso" : servicio)));
+        }
+        if (!escritor.cola.offer(span)) {
+            Metrics.contar(servicio, "trazas_descartadas");
+        }
+    }
+
+    // Hilo que escribe los spans al archivo; vacía el buffer cuando la cola queda vacía
+    private static final class Escritor {
+        private final BlockingQueue<Span> cola = new ArrayBlockingQueue<>(CAPACIDAD_COLA);
+        private final Path archivo;
+
+        Escritor(Path archivo) {
+            this.archivo = archivo;
+            Thread hilo = new Thread(this::ejecutar, "trace-writer");
+            hilo.setDaemon(true);
+            hilo.start();
+            Runtime.getRuntime().addShutdownHook(new Thread(this::vaciar, "trace-flush"));
+        }
+
+        private void ejecutar() {
+            try {
+                if (archivo.getParent() != null) {
+                    Files.createDirectories(archivo.getParent());
+                }
+                Console.info("TRACE", "Spans en " + archivo);
+                while (true) {
+                    Span span = cola.take();
+                    synchronized (this) {
+                        try (BufferedWriter salida = abrir()) {
+                            for (; span != null; span = cola.poll()) {
+                                salida.write(span.json());
+                                salida.newLine();
+                            }
+                        }
+                    }
+                }
+            } catch (IOException e) {
+                Console.error("TRACE", "No se pudo escribir " + archivo + ": " + e.getMessage());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        // Al salir: lo que quede en la cola
+        private synchronized void vaciar() {
+            if (cola.isEmpty()) {
+                return;
+            }
+            try (BufferedWriter salida = abrir()) {
+                for (Span span = cola.poll(); span != null; span = cola.poll()) {
+                    salida.write(span.json());
+                    salida.newLine();
+                }
+            } catch (IOException e) {
+                Console.error("TRACE", "No se pudo escribir " + archivo + ": " + e.getMessage());
+            }
+        }
+
+        private BufferedWriter abrir() throws IOException {
+            return Files.newBufferedWriter(archivo, StandardCharsets.UTF_8,
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        }
+    }
+
+    private static long micros(long nanos) {
+        return ORIGEN_MICROS + nanos / 1000;
+    }
+
+    private static String hex(long valor) {
+        String texto = Long.toHexString(valor);
+        return "0000000000000000".substring(texto.length()) + texto;
+    }
+
+    private static String escapar(String valor) {
+        StringBuilder texto = new StringBuilder(valor.length());
+        for (int i = 0; i < valor.length(); i++) {
+            char c = valor.charAt(i);
+            if (c == '"' || c == '\\') {
+                texto.append('\\').append(c);
+            } else if (c < 0x20) {
+                texto.append(String.format("\\u%04x", (int) c));
+            } else {
+                texto.append(c);
+            }
+        }
+        return texto.toString();
+    }
+
+    private static void escribirLong(byte[] destino, int desde, long valor) {
+        for (int i = 7; i >= 0; i--) {
+            destino[desde + i] = (byte) valor;
+            valor >>>= 8;
+        }
+    }
+
+    private static long leerLong(byte[] datos, int desde) {
+        long valor = 0;
+        for (int i = 0; i < 8; i++) {
+            valor = (valor << 8) | (datos[desde + i] & 0xFF);
+        }
+        return valor;
+    }
+}
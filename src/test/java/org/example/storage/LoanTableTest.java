@@ -0,0 +1,121 @@
+package org.example.storage;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class LoanTableTest {
+
+    private static final LocalDate HOY = LocalDate.of(2024, 3, 1);
+
+    @Test
+    void eliminarDentroDeCadenasDeColision() {
+        // 60 ids en la tabla inicial de 128 posiciones: el índice queda casi a la mitad y con cadenas largas
+        LoanTable tabla = new LoanTable();
+        Map<Long, Integer> esperado = new HashMap<>();
+        for (long id = 1; id <= 60; id++) {
+            tabla.registrar(id, HOY, HOY.plusDays(id), (int) (id % 3));
+            esperado.put(id, (int) (id % 3));
+        }
+
+        List<Long> orden = new ArrayList<>(esperado.keySet());
+        Collections.shuffle(orden, new Random(42));
+        for (long id : orden) {
+            assertTrue(tabla.eliminar(id));
+            esperado.remove(id);
+            assertNull(tabla.buscar(id));
+            assertFalse(tabla.eliminar(id));
+            // El desplazamiento hacia atrás no puede dejar inalcanzable a ningún otro id de la cadena
+            verificar(tabla, esperado);
+        }
+        assertEquals(0, tabla.tamano());
+    }
+
+    @Test
+    void eliminarYReinsertarTrasCrecerElIndice() {
+        LoanTable tabla = new LoanTable();
+        Map<Long, Integer> esperado = new HashMap<>();
+        Random random = new Random(7);
+        for (int i = 0; i < 5000; i++) {
+            long id = random.nextInt(800);
+            if (random.nextInt(3) == 0) {
+                assertEquals(esperado.remove(id) != null, tabla.eliminar(id));
+            } else {
+                int veces = random.nextInt(5);
+                tabla.registrar(id, HOY, HOY.plusDays(random.nextInt(60)), veces);
+                esperado.put(id, veces);
+            }
+        }
+        verificar(tabla, esperado);
+    }
+
+    @Test
+    void indicePorVencimientoTrasEliminar() {
+        LoanTable tabla = new LoanTable();
+        tabla.registrar(1, HOY, HOY.plusDays(10), 0);
+        tabla.registrar(2, HOY, HOY.plusDays(3), 0);
+        tabla.registrar(3, HOY, HOY.plusDays(7), 0);
+        tabla.registrar(4, HOY, HOY.plusDays(1), 0);
+
+        // Baja de un slot intermedio: el último registro (4) se mueve al hueco y se reindexa
+        assertTrue(tabla.eliminar(2));
+
+        assertEquals(List.of(4L, 3L, 1L), ids(tabla.vencenAntesDe(HOY.plusDays(30))));
+        assertEquals(List.of(4L), ids(tabla.vencenAntesDe(HOY.plusDays(7))));
+        assertEquals(HOY.plusDays(1), tabla.buscar(4).fechaDevolucion());
+
+        assertTrue(tabla.eliminar(4));
+        assertTrue(tabla.eliminar(1));
+        assertEquals(List.of(3L), ids(tabla.vencenAntesDe(HOY.plusDays(30))));
+    }
+
+    @Test
+    void indicePorVencimientoTrasRenovar() {
+        LoanTable tabla = new LoanTable();
+        tabla.registrar(1, HOY, HOY.plusDays(2), 0);
+        tabla.registrar(2, HOY, HOY.plusDays(5), 0);
+
+        assertTrue(tabla.actualizar(1, HOY.plusDays(9), 1));
+
+        assertEquals(List.of(2L), ids(tabla.vencenAntesDe(HOY.plusDays(6))));
+        assertEquals(List.of(2L, 1L), ids(tabla.vencenAntesDe(HOY.plusDays(10))));
+        assertEquals(1, tabla.buscar(1).veces());
+
+        // Renovar y luego eliminar el otro: el índice sigue apuntando al slot correcto tras el movimiento
+        assertTrue(tabla.eliminar(2));
+        assertEquals(List.of(1L), ids(tabla.vencenAntesDe(HOY.plusDays(10))));
+        assertEquals(HOY.plusDays(9), tabla.vencenAntesDe(HOY.plusDays(10)).get(0).fechaDevolucion());
+        assertFalse(tabla.actualizar(2, HOY.plusDays(20), 1));
+    }
+
+    private static void verificar(LoanTable tabla, Map<Long, Integer> esperado) {
+        assertEquals(esperado.size(), tabla.tamano());
+        for (Map.Entry<Long, Integer> entrada : esperado.entrySet()) {
+            LoanTable.Prestamo prestamo = tabla.buscar(entrada.getKey());
+            assertNotNull(prestamo, "id " + entrada.getKey() + " inalcanzable");
+            assertEquals(entrada.getValue().intValue(), prestamo.veces());
+        }
+        // El índice por vencimiento tiene exactamente un registro por préstamo activo
+        assertEquals(esperado.size(), tabla.vencenAntesDe(HOY.plusYears(10)).size());
+    }
+
+    private static List<Long> ids(List<LoanTable.Prestamo> prestamos) {
+        List<Long> ids = new ArrayList<>();
+        for (LoanTable.Prestamo prestamo : prestamos) {
+            ids.add(prestamo.idLibro());
+        }
+        return ids;
+    }
+}
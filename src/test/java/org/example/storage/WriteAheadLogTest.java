@@ -0,0 +1,120 @@
+package org.example.storage;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class WriteAheadLogTest {
+
+    @TempDir
+    Path directorio;
+
+    @Test
+    void reproduceTodosLosRegistros() throws IOException {
+        Path base = directorio.resolve("wal.log");
+        escribir(base, "uno", "dos", "tres");
+
+        assertEquals(List.of("uno", "dos", "tres"), reabrir(base));
+    }
+
+    @Test
+    void descartaUltimoRegistroTruncado() throws IOException {
+        Path base = directorio.resolve("wal.log");
+        escribir(base, "uno", "dos", "tres");
+        Path segmento = WriteAheadLog.rutaSegmento(base, 1);
+        long tamano = Files.size(segmento);
+        try (FileChannel canal = FileChannel.open(segmento, StandardOpenOption.WRITE)) {
+            canal.truncate(tamano - 2);
+        }
+
+        assertEquals(List.of("uno", "dos"), reabrir(base));
+        // La cola descartada se trunca: lo que se agrega después queda a continuación del último válido
+        escribir(base, "cuatro");
+        assertEquals(List.of("uno", "dos", "cuatro"), reabrir(base));
+    }
+
+    @Test
+    void descartaCabeceraIncompleta() throws IOException {
+        Path base = directorio.resolve("wal.log");
+        escribir(base, "uno");
+        Files.write(WriteAheadLog.rutaSegmento(base, 1), new byte[] {0, 0, 0}, StandardOpenOption.APPEND);
+
+        assertEquals(List.of("uno"), reabrir(base));
+    }
+
+    @Test
+    void descartaDesdeElRegistroConCrcInvalido() throws IOException {
+        Path base = directorio.resolve("wal.log");
+        escribir(base, "uno", "dos", "tres");
+        Path segmento = WriteAheadLog.rutaSegmento(base, 1);
+        // Segundo registro: cabecera de 8 bytes + "uno" (3) -> payload en 8 + 3 + 8
+        long posicion = 8 + 3 + 8;
+        try (FileChannel canal = FileChannel.open(segmento, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            canal.write(ByteBuffer.wrap(new byte[] {'X'}), posicion);
+        }
+
+        assertEquals(List.of("uno"), reabrir(base));
+        escribir(base, "cinco");
+        assertEquals(List.of("uno", "cinco"), reabrir(base));
+    }
+
+    @Test
+    void checkpointDescartaSegmentosAnteriores() throws IOException {
+        Path base = directorio.resolve("wal.log");
+        try (WriteAheadLog wal = WriteAheadLog.abrir(base, WriteAheadLog.Durabilidad.SO, 0, registro -> { })) {
+            wal.append(bytes("viejo"));
+            long nuevo = wal.rotar();
+            wal.append(bytes("nuevo"));
+            wal.descartarAnteriores(nuevo);
+        }
+
+        assertEquals(List.of("nuevo"), reabrir(base));
+        assertEquals(false, Files.exists(WriteAheadLog.rutaSegmento(base, 1)));
+    }
+
+    @Test
+    void esperarTrasCerrarSoloConfirmaLoPersistido() throws IOException {
+        Path base = directorio.resolve("wal.log");
+        WriteAheadLog wal = WriteAheadLog.abrir(base, WriteAheadLog.Durabilidad.GRUPO, 0, registro -> { });
+        long ticket = wal.append(bytes("uno"));
+        wal.close();
+
+        // El cierre escribe y fuerza lo pendiente: ese ticket es durable
+        wal.esperar(ticket);
+        // Un ticket que el WAL nunca persistió no puede confirmarse
+        assertThrows(IOException.class, () -> wal.esperar(ticket + 1));
+        assertEquals(List.of("uno"), reabrir(base));
+    }
+
+    private static void escribir(Path base, String... registros) throws IOException {
+        try (WriteAheadLog wal = WriteAheadLog.abrir(base, WriteAheadLog.Durabilidad.FSYNC, 0, registro -> { })) {
+            for (String registro : registros) {
+                wal.esperar(wal.append(bytes(registro)));
+            }
+        }
+    }
+
+    private static List<String> reabrir(Path base) throws IOException {
+        List<String> leidos = new ArrayList<>();
+        try (WriteAheadLog wal = WriteAheadLog.abrir(base, WriteAheadLog.Durabilidad.SO, 0,
+                registro -> leidos.add(StandardCharsets.UTF_8.decode(registro).toString()))) {
+            return leidos;
+        }
+    }
+
+    private static byte[] bytes(String texto) {
+        return texto.getBytes(StandardCharsets.UTF_8);
+    }
+}